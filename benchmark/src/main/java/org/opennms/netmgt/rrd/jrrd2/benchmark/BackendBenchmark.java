@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.impl.FfmBackend;
+import org.opennms.netmgt.rrd.jrrd2.impl.JRrd2Jni;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the cost of crossing into librrd through {@link JRrd2Jni} and the FFM implementation of {@link FfmBackend}.
+ *
+ * The ffm backend requires Java 22 or later, run with -p backend=jni on older runtimes.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+@State(Scope.Thread)
+public class BackendBenchmark {
+
+    @Param({"jni", "ffm"})
+    public String backend;
+
+    @Param({"1", "10"})
+    public int dsCount;
+
+    @Param({"100", "1000"})
+    public int rowCount;
+
+    private JRrd2 jrrd2;
+
+    private Path directory;
+
+    private String fetchFilename;
+
+    private String updateFilename;
+
+    private long end;
+
+    private long timestamp;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException, JRrd2Exception {
+        if ("ffm".equals(backend)) {
+            if (!FfmBackend.isAvailable()) {
+                throw new IllegalStateException("The ffm backend requires Java 22 or later and librrd.");
+            }
+            jrrd2 = FfmBackend.create();
+        } else {
+            jrrd2 = new JRrd2Jni();
+        }
+        directory = RrdFiles.createTempDirectory();
+        fetchFilename = directory.resolve("fetch.rrd").toString();
+        RrdFiles.populate(jrrd2, fetchFilename, dsCount, rowCount);
+        end = RrdFiles.START + rowCount * RrdFiles.STEP;
+
+        updateFilename = directory.resolve("update.rrd").toString();
+        jrrd2.create(updateFilename, RrdFiles.STEP, RrdFiles.START, RrdFiles.definitions(dsCount, 8640));
+        timestamp = RrdFiles.START;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        RrdFiles.delete(directory);
+    }
+
+    @Benchmark
+    public FetchResults fetch() throws JRrd2Exception {
+        return jrrd2.fetch(fetchFilename, "AVERAGE", RrdFiles.START, end, RrdFiles.STEP);
+    }
+
+    @Benchmark
+    public void fetchDirect(Blackhole bh) throws JRrd2Exception {
+        try (DirectFetchResults results = jrrd2.fetchDirect(fetchFilename, "AVERAGE", RrdFiles.START, end, RrdFiles.STEP)) {
+            bh.consume(results.getValue(0, results.getRowCount() - 1));
+        }
+    }
+
+    @Benchmark
+    public void update() throws JRrd2Exception {
+        timestamp += RrdFiles.STEP;
+        jrrd2.update(updateFilename, null, new String[] { RrdFiles.sample(timestamp, dsCount, 1) });
+    }
+
+    @Benchmark
+    public RrdInfo info() throws JRrd2Exception {
+        return jrrd2.info(fetchFilename);
+    }
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.impl.ColumnOperators;
+import org.opennms.netmgt.rrd.jrrd2.impl.ColumnStats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the {@link ColumnOperators} with the loops they replace, on fetched results.
+ *
+ * The naive implementation walks the columns one after the other with plain loops,
+ * the scalar and vector ones are the {@link ColumnOperators} with and without the
+ * Vector API. Neither needs librrd.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class ColumnOperatorsBenchmark {
+
+    @Param({"naive", "scalar", "vector"})
+    public String implementation;
+
+    @Param({"1", "16"})
+    public int columnCount;
+
+    @Param({"1000", "100000"})
+    public int rowCount;
+
+    private ColumnOperators ops;
+
+    private FetchResults results;
+
+    @Setup
+    public void setUp() {
+        if ("vector".equals(implementation)) {
+            ops = ColumnOperators.vectorized();
+        } else if ("scalar".equals(implementation)) {
+            ops = ColumnOperators.scalar();
+        }
+        final Random random = new Random(42);
+        final double[][] values = new double[columnCount][rowCount];
+        for (final double[] column : values) {
+            for (int j = 0; j < rowCount; j++) {
+                // Counters with the occasional gap
+                column[j] = random.nextInt(100) == 0 ? Double.NaN : random.nextDouble() * 1000;
+            }
+        }
+        results = new FetchResults(RrdFiles.START, RrdFiles.START + (rowCount - 1) * RrdFiles.STEP, RrdFiles.STEP,
+                new String[columnCount], values);
+    }
+
+    @Benchmark
+    public void summarize(Blackhole bh) {
+        if (ops != null) {
+            bh.consume(ops.summarize(results));
+            return;
+        }
+        for (final double[] column : results.getValues()) {
+            long count = 0;
+            double min = Double.NaN;
+            double max = Double.NaN;
+            double sum = 0;
+            for (final double value : column) {
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                min = count == 0 || value < min ? value : min;
+                max = count == 0 || value > max ? value : max;
+                sum += value;
+                count++;
+            }
+            bh.consume(new ColumnStats(count, min, max, sum));
+        }
+    }
+
+    @Benchmark
+    public void percentile(Blackhole bh) {
+        if (ops != null) {
+            bh.consume(ops.percentile(results, 95));
+            return;
+        }
+        for (final double[] column : results.getValues()) {
+            final double[] known = Arrays.stream(column).filter(v -> !Double.isNaN(v)).sorted().toArray();
+            bh.consume(known.length > 0 ? known[(int) Math.round(0.95 * (known.length - 1))] : Double.NaN);
+        }
+    }
+
+    @Benchmark
+    public void maxPerBucket(Blackhole bh) {
+        final int rowsPerBucket = Math.max(1, rowCount / 400);
+        if (ops != null) {
+            bh.consume(ops.downsample(results, "MAX", rowsPerBucket));
+            return;
+        }
+        for (final double[] column : results.getValues()) {
+            final double[] downsampled = new double[(rowCount + rowsPerBucket - 1) / rowsPerBucket];
+            Arrays.fill(downsampled, Double.NaN);
+            for (int j = 0; j < rowCount; j++) {
+                final int bucket = j / rowsPerBucket;
+                if (!Double.isNaN(column[j]) && !(column[j] <= downsampled[bucket])) {
+                    downsampled[bucket] = column[j];
+                }
+            }
+            bh.consume(downsampled);
+        }
+    }
+
+    @Benchmark
+    public void lttb(Blackhole bh) {
+        final int threshold = Math.min(400, rowCount);
+        if (ops != null) {
+            bh.consume(ops.lttb(results, threshold));
+            return;
+        }
+        for (final double[] column : results.getValues()) {
+            bh.consume(naiveLttb(column, threshold));
+        }
+    }
+
+    /**
+     * The textbook algorithm, which doesn't skip unknown values.
+     */
+    private static int[] naiveLttb(double[] column, int threshold) {
+        final int n = column.length;
+        final int[] selected = new int[threshold];
+        final double every = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        for (int i = 0; i < threshold - 2; i++) {
+            final int nextFrom = (int) ((i + 1) * every) + 1;
+            final int nextTo = Math.min((int) ((i + 2) * every) + 1, n);
+            double cx = 0;
+            double cy = 0;
+            for (int j = nextFrom; j < nextTo; j++) {
+                cx += j;
+                cy += column[j];
+            }
+            cx /= nextTo - nextFrom;
+            cy /= nextTo - nextFrom;
+
+            double maxArea = -1;
+            for (int j = (int) (i * every) + 1; j < (int) ((i + 1) * every) + 1; j++) {
+                final double area = Math.abs((a - cx) * (column[j] - column[a]) - (a - j) * (cy - column[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    selected[i + 1] = j;
+                }
+            }
+            a = selected[i + 1];
+        }
+        selected[threshold - 1] = n - 1;
+        return selected;
+    }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.impl.JRrd2Jni;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link JRrd2Jni#create(String, long, long, String[])}.
+ *
+ * Every invocation creates a new file, which is removed once the iteration completes.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class CreateBenchmark {
+
+    @Param({"1", "10", "50"})
+    public int dsCount;
+
+    @Param({"1000", "100000"})
+    public int rowCount;
+
+    private JRrd2Jni jrrd2;
+
+    private Path directory;
+
+    private String[] argv;
+
+    private long fileId = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jrrd2 = new JRrd2Jni();
+        argv = RrdFiles.definitions(dsCount, rowCount);
+    }
+
+    @Setup(Level.Iteration)
+    public void createDirectory() throws IOException {
+        directory = RrdFiles.createTempDirectory();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteDirectory() throws IOException {
+        RrdFiles.delete(directory);
+    }
+
+    @Benchmark
+    public void create() throws JRrd2Exception {
+        jrrd2.create(directory.resolve((fileId++) + ".rrd").toString(), RrdFiles.STEP, RrdFiles.START, argv);
+    }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+
+/**
+ * Helpers used to manage the RRD files the benchmarks work on.
+ *
+ * The files are created in a temporary directory under the path given by the
+ * {@value #DIRECTORY_PROPERTY} system property, or java.io.tmpdir by default.
+ * Point it to a tmpfs mount to leave the disk out of the measurements.
+ */
+public final class RrdFiles {
+
+    public static final String DIRECTORY_PROPERTY = "jrrd2.benchmark.dir";
+
+    public static final long STEP = 300;
+
+    public static final long START = 1424700000;
+
+    private RrdFiles() {
+    }
+
+    public static Path createTempDirectory() throws IOException {
+        final Path parent = Paths.get(System.getProperty(DIRECTORY_PROPERTY, System.getProperty("java.io.tmpdir")));
+        return Files.createTempDirectory(parent, "jrrd2-benchmark");
+    }
+
+    public static void delete(Path directory) throws IOException {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Arguments used to create a file with the given number of GAUGE data sources,
+     * and a single AVERAGE archive holding the given number of rows.
+     */
+    public static String[] definitions(int dsCount, int rowCount) {
+        final String[] argv = new String[dsCount + 1];
+        for (int i = 0; i < dsCount; i++) {
+            argv[i] = String.format("DS:ds%d:GAUGE:%d:U:U", i, 2 * STEP);
+        }
+        argv[dsCount] = String.format("RRA:AVERAGE:0.5:1:%d", rowCount);
+        return argv;
+    }
+
+    /**
+     * Formats a sample for all of the data sources of the file.
+     */
+    public static String sample(long timestamp, int dsCount, double value) {
+        final StringBuilder sb = new StringBuilder(16 + 8 * dsCount);
+        sb.append(timestamp);
+        for (int i = 0; i < dsCount; i++) {
+            sb.append(':').append(value + i);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates a file and fills every row of its archive.
+     */
+    public static void populate(JRrd2 jrrd2, String filename, int dsCount, int rowCount) throws JRrd2Exception {
+        jrrd2.create(filename, STEP, START, definitions(dsCount, rowCount));
+        final int samplesPerCall = 100;
+        for (int i = 1; i <= rowCount; i += samplesPerCall) {
+            final String[] argv = new String[Math.min(samplesPerCall, rowCount - i + 1)];
+            for (int j = 0; j < argv.length; j++) {
+                argv[j] = sample(START + (i + j) * STEP, dsCount, i + j);
+            }
+            jrrd2.update(filename, null, argv);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+import org.opennms.netmgt.rrd.jrrd2.impl.JRrd2Jni;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link JRrd2Jni#update(String, String, String[])}, with one or
+ * many samples per call, against files with a varying number of data sources,
+ * and compares it with {@link JRrd2Jni#update(String, String, long[], double[])}.
+ *
+ * Each thread updates its own file, the samples are prepared ahead of time.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class UpdateBenchmark {
+
+    private static final int NUM_PREPARED_CALLS = 1024;
+
+    @Param({"1", "10", "50"})
+    public int dsCount;
+
+    @Param({"1", "10"})
+    public int samplesPerCall;
+
+    private JRrd2Jni jrrd2;
+
+    private Path directory;
+
+    private String filename;
+
+    private String[][] argvs;
+
+    private long[][] timestamps;
+
+    private double[][] values;
+
+    private int call = 0;
+
+    private long timestamp = RrdFiles.START;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException, JRrd2Exception {
+        jrrd2 = new JRrd2Jni();
+        directory = RrdFiles.createTempDirectory();
+        filename = directory.resolve("update.rrd").toString();
+        jrrd2.create(filename, RrdFiles.STEP, RrdFiles.START, RrdFiles.definitions(dsCount, 8640));
+        timestamp = RrdFiles.START;
+        call = 0;
+        argvs = new String[NUM_PREPARED_CALLS][];
+        timestamps = new long[NUM_PREPARED_CALLS][];
+        values = new double[NUM_PREPARED_CALLS][];
+        prepare();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        RrdFiles.delete(directory);
+    }
+
+    @Benchmark
+    public void update() throws JRrd2Exception {
+        jrrd2.update(filename, null, nextArgv());
+    }
+
+    @Benchmark
+    public BatchResults updateBatch() throws JRrd2Exception {
+        return jrrd2.update(Collections.singletonList(new UpdateRequest(filename, null, nextArgv())));
+    }
+
+    @Benchmark
+    public void updateValues() throws JRrd2Exception {
+        final int i = nextCall();
+        jrrd2.update(filename, null, timestamps[i], values[i]);
+    }
+
+    private String[] nextArgv() {
+        return argvs[nextCall()];
+    }
+
+    private int nextCall() {
+        if (call == NUM_PREPARED_CALLS) {
+            prepare();
+            call = 0;
+        }
+        return call++;
+    }
+
+    // Timestamps must keep increasing, so the samples are regenerated once they were all used
+    private void prepare() {
+        for (int i = 0; i < NUM_PREPARED_CALLS; i++) {
+            final String[] argv = new String[samplesPerCall];
+            final long[] sampleTimestamps = new long[samplesPerCall];
+            final double[] sampleValues = new double[samplesPerCall * dsCount];
+            for (int j = 0; j < samplesPerCall; j++) {
+                timestamp += RrdFiles.STEP;
+                argv[j] = RrdFiles.sample(timestamp, dsCount, j);
+                sampleTimestamps[j] = timestamp;
+                for (int k = 0; k < dsCount; k++) {
+                    sampleValues[j * dsCount + k] = j + k;
+                }
+            }
+            argvs[i] = argv;
+            timestamps[i] = sampleTimestamps;
+            values[i] = sampleValues;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.impl.JRrd2Jni;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link JRrd2Jni#xport(long, long, long, long, String[])} from one
+ * and from many threads, which quantifies the cost of serializing the calls
+ * to rrd_xport(), and compares it with the Java engine.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XportBenchmark {
+
+    private static final int NUM_FILES = 4;
+
+    private static final int DS_COUNT = 2;
+
+    private static final int ROW_COUNT = 8640;
+
+    @Param({"native", "java"})
+    public String engine;
+
+    private JRrd2Jni jrrd2;
+
+    private Path directory;
+
+    private String[] argv;
+
+    private long end;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JRrd2Exception {
+        System.setProperty(JRrd2Jni.XPORT_ENGINE_PROPERTY, engine);
+        jrrd2 = new JRrd2Jni();
+        directory = RrdFiles.createTempDirectory();
+
+        argv = new String[NUM_FILES * 2 + 2];
+        final StringBuilder sum = new StringBuilder("CDEF:sum=");
+        for (int i = 0; i < NUM_FILES; i++) {
+            final String filename = directory.resolve(i + ".rrd").toString();
+            RrdFiles.populate(jrrd2, filename, DS_COUNT, ROW_COUNT);
+            argv[i] = String.format("DEF:x%d=%s:ds0:AVERAGE", i, filename);
+            argv[NUM_FILES + i] = String.format("XPORT:x%d:x%d", i, i);
+            sum.append(i == 0 ? String.format("x%d", i) : String.format(",x%d,+", i));
+        }
+        argv[2 * NUM_FILES] = sum.toString();
+        argv[2 * NUM_FILES + 1] = "XPORT:sum:sum";
+        end = RrdFiles.START + ROW_COUNT * RrdFiles.STEP;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.clearProperty(JRrd2Jni.XPORT_ENGINE_PROPERTY);
+        RrdFiles.delete(directory);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public FetchResults xportSingleThreaded() throws JRrd2Exception {
+        return jrrd2.xport(RrdFiles.START, end, RrdFiles.STEP, 0, argv);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public FetchResults xportMultiThreaded() throws JRrd2Exception {
+        return jrrd2.xport(RrdFiles.START, end, RrdFiles.STEP, 0, argv);
+    }
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels using the incubating Vector API.
+ *
+ * This class only links when the jdk.incubator.vector module is resolved, i.e. when the JVM
+ * is started with --add-modules jdk.incubator.vector, so it must only be loaded reflectively.
+ * The remaining elements that don't fill a whole vector are handled by the scalar kernels.
+ */
+final class VectorColumnKernels implements ColumnKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final DoubleVector IOTA = DoubleVector.zero(SPECIES).addIndex(1);
+
+    VectorColumnKernels() {
+    }
+
+    @Override
+    public void summarize(double[] values, int from, int to, double[] stats) {
+        final int bound = from + SPECIES.loopBound(to - from);
+        DoubleVector min = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        DoubleVector max = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        long count = 0;
+        for (int i = from; i < bound; i += SPECIES.length()) {
+            final DoubleVector v = DoubleVector.fromArray(SPECIES, values, i);
+            final VectorMask<Double> known = v.compare(VectorOperators.EQ, v);
+            min = min.lanewise(VectorOperators.MIN, v, known);
+            max = max.lanewise(VectorOperators.MAX, v, known);
+            sum = sum.add(v, known);
+            count += known.trueCount();
+        }
+
+        ScalarColumnKernels.INSTANCE.summarize(values, bound, to, stats);
+        stats[0] += count;
+        stats[1] = Math.min(stats[1], min.reduceLanes(VectorOperators.MIN));
+        stats[2] = Math.max(stats[2], max.reduceLanes(VectorOperators.MAX));
+        stats[3] += sum.reduceLanes(VectorOperators.ADD);
+    }
+
+    @Override
+    public int largestTriangle(double[] values, int from, int to, double ax, double ay, double cx, double cy) {
+        final int bound = from + SPECIES.loopBound(to - from);
+        final double dx = ax - cx;
+        final double dy = cy - ay;
+        DoubleVector bestArea = DoubleVector.broadcast(SPECIES, -1);
+        DoubleVector best = DoubleVector.broadcast(SPECIES, -1);
+        for (int i = from; i < bound; i += SPECIES.length()) {
+            final DoubleVector y = DoubleVector.fromArray(SPECIES, values, i);
+            final DoubleVector x = IOTA.add(i);
+            // Same operations as the scalar kernel, so that both pick the same points
+            final DoubleVector area = y.sub(ay).mul(dx).sub(DoubleVector.broadcast(SPECIES, ax).sub(x).mul(dy)).abs();
+            final VectorMask<Double> greater = area.compare(VectorOperators.GT, bestArea);
+            bestArea = bestArea.blend(area, greater);
+            best = best.blend(x, greater);
+        }
+
+        // Every lane kept its first maximum, keep the lowest index amongst the lanes with the largest area
+        final double[] areas = bestArea.toArray();
+        final double[] indexes = best.toArray();
+        int winner = -1;
+        double winnerArea = -1;
+        for (int lane = 0; lane < areas.length; lane++) {
+            if (areas[lane] > winnerArea || (areas[lane] == winnerArea && indexes[lane] < winner)) {
+                winnerArea = areas[lane];
+                winner = (int) indexes[lane];
+            }
+        }
+
+        final int tail = ScalarColumnKernels.INSTANCE.largestTriangle(values, bound, to, ax, ay, cx, cy);
+        if (tail >= 0 && Math.abs((values[tail] - ay) * dx - (ax - tail) * dy) > winnerArea) {
+            return tail;
+        }
+        return winner;
+    }
+}
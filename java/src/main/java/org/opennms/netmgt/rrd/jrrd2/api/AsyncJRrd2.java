@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.api;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of {@link JRrd2}.
+ *
+ * The calls are dispatched to other threads and the returned futures are
+ * completed with their results, or exceptionally with the {@link JRrd2Exception}
+ * thrown by the call.
+ */
+public interface AsyncJRrd2 {
+
+	public CompletableFuture<Void> create(final String filename, final long step, final long start, String[] argv);
+
+	public CompletableFuture<Void> update(final String filename, final String template, final String[] argv);
+
+	public CompletableFuture<Void> update(final String filename, final String template, final long[] timestamps, final double[] values);
+
+	public CompletableFuture<BatchResults> update(final List<UpdateRequest> updates);
+
+	public CompletableFuture<FetchResults> fetch(String filename, String cf, long start, long end, long step);
+
+	/**
+	 * Fetches from many files concurrently.
+	 *
+	 * The returned future always completes normally, with the outcome of each entry
+	 * reported in the same order as the requests.
+	 */
+	public CompletableFuture<BatchFetchResults> fetch(List<FetchRequest> requests);
+
+	public CompletableFuture<FetchResults> fetchWithMaxRows(String filename, String cf, long start, long end, long maxRows);
+
+	public CompletableFuture<FetchResults> xport(long start, long end, long step, long maxrows, String[] argv);
+
+	public CompletableFuture<RrdInfo> info(String filename);
+
+	public CompletableFuture<LastUpdate> lastUpdate(String filename);
+
+	public CompletableFuture<Long> first(String filename, int archive);
+
+}
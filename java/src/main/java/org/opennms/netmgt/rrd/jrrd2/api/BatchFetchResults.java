@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.api;
+
+/**
+ * {@link BatchResults} of a batched fetch, holding the results of the entries that succeeded.
+ */
+public class BatchFetchResults extends BatchResults {
+
+    private final FetchResults[] m_results;
+
+    /**
+     * @param results the results of every entry, or null for entries that failed
+     * @param errors the error message of every entry, or null for entries that succeeded
+     */
+    public BatchFetchResults(FetchResults[] results, String[] errors) {
+        super(errors);
+        if (results.length != errors.length) {
+            throw new IllegalArgumentException("results and errors must have the same length.");
+        }
+        m_results = results;
+    }
+
+    public FetchResults getResults(int index) {
+        return m_results[index];
+    }
+
+    public FetchResults[] getResults() {
+        return m_results;
+    }
+}
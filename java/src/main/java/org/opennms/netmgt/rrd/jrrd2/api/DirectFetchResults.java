@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.api;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * Results of a {@link org.opennms.netmgt.rrd.jrrd2.api.JRrd2#fetchDirect} that are
+ * kept in native memory, in the row-major layout returned by librrd, instead of
+ * being copied to the heap.
+ *
+ * The native memory is only released by {@link #close()}, so instances must
+ * always be closed, preferably with a try-with-resources statement.
+ * Neither the results nor any buffer obtained from {@link #asDoubleBuffer()}
+ * may be used once they are closed.
+ */
+public abstract class DirectFetchResults implements AutoCloseable {
+
+    private final long m_start;
+
+    private final long m_end;
+
+    private final long m_step;
+
+    private final String[] m_columns;
+
+    private final int m_rowCount;
+
+    private DoubleBuffer m_values;
+
+    protected DirectFetchResults(long start, long end, long step, String[] columns, int rowCount, ByteBuffer values) {
+        m_start = start;
+        m_end = end;
+        m_step = step;
+        m_columns = columns;
+        m_rowCount = rowCount;
+        m_values = values.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    public long getStart() {
+        return m_start;
+    }
+
+    public long getEnd() {
+        return m_end;
+    }
+
+    public long getStep() {
+        return m_step;
+    }
+
+    public String[] getColumns() {
+        return m_columns;
+    }
+
+    public int getColumnCount() {
+        return m_columns.length;
+    }
+
+    public int getRowCount() {
+        return m_rowCount;
+    }
+
+    public long getTimestamp(int row) {
+        return m_start + m_step * row;
+    }
+
+    /**
+     * Same as {@link FetchResults#getTimestamps()}.
+     */
+    public long[] getTimestamps() {
+        final long[] timestamps = new long[m_rowCount];
+        for (int i = 0; i < m_rowCount; i++) {
+            timestamps[i] = getTimestamp(i);
+        }
+        return timestamps;
+    }
+
+    public double getValue(int column, int row) {
+        return values().get(row * m_columns.length + column);
+    }
+
+    /**
+     * Copies the values of the given row into the given array, which must hold at least getColumnCount() elements.
+     */
+    public void getRowValues(int row, double[] values) {
+        final DoubleBuffer view = values().duplicate();
+        view.position(row * m_columns.length);
+        view.get(values, 0, m_columns.length);
+    }
+
+    /**
+     * Copies the values of the given column into the given array, which must hold at least getRowCount() elements.
+     */
+    public void getColumnValues(int column, double[] values) {
+        final DoubleBuffer buffer = values();
+        for (int i = 0; i < m_rowCount; i++) {
+            values[i] = buffer.get(i * m_columns.length + column);
+        }
+    }
+
+    public double[] getColumnValues(int column) {
+        final double[] values = new double[m_rowCount];
+        getColumnValues(column, values);
+        return values;
+    }
+
+    /**
+     * Returns a read-only view of the values in row-major order: the value for the
+     * given column and row is at index row * getColumnCount() + column.
+     *
+     * The view is backed by native memory and must not be used after the results are closed.
+     */
+    public DoubleBuffer asDoubleBuffer() {
+        return values().asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the values to the heap.
+     */
+    public FetchResults toFetchResults() {
+        final double[][] values = new double[m_columns.length][];
+        for (int i = 0; i < m_columns.length; i++) {
+            values[i] = getColumnValues(i);
+        }
+        return new FetchResults(m_start, m_end, m_step, m_columns, values);
+    }
+
+    public synchronized boolean isClosed() {
+        return m_values == null;
+    }
+
+    /**
+     * Frees the native memory backing the results.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (m_values == null) {
+                return;
+            }
+            m_values = null;
+        }
+        release();
+    }
+
+    /**
+     * Invoked once, when the results are closed, to free the native memory.
+     */
+    protected abstract void release();
+
+    /**
+     * Copies the given results to a direct buffer, which is reclaimed by the garbage collector.
+     */
+    public static DirectFetchResults copyOf(FetchResults results) {
+        final String[] columns = results.getColumns();
+        final double[][] values = results.getValues();
+        final int rowCount = columns.length > 0 ? values[0].length : 0;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(columns.length * rowCount * Double.BYTES).order(ByteOrder.nativeOrder());
+        final DoubleBuffer view = buffer.asDoubleBuffer();
+        for (int j = 0; j < rowCount; j++) {
+            for (int i = 0; i < columns.length; i++) {
+                view.put(values[i][j]);
+            }
+        }
+        return new DirectFetchResults(results.getStart(), results.getEnd(), results.getStep(), columns, rowCount, buffer) {
+            @Override
+            protected void release() {
+                // pass
+            }
+        };
+    }
+
+    private DoubleBuffer values() {
+        final DoubleBuffer values = m_values;
+        if (values == null) {
+            throw new IllegalStateException("The results are closed.");
+        }
+        return values;
+    }
+}
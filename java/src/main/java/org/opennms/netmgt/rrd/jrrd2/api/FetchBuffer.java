@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.api;
+
+import java.util.Arrays;
+
+/**
+ * A reusable, caller-owned holder for the results of a
+ * {@link org.opennms.netmgt.rrd.jrrd2.api.JRrd2#fetch(String, String, long, long, long, FetchBuffer)}.
+ *
+ * The values are stored column by column in a single array which
+ * is only reallocated when a fetch returns more values than it can hold,
+ * so that repeated fetches of similar sizes don't allocate.
+ *
+ * Instances are not thread-safe.
+ */
+public class FetchBuffer {
+
+    private long m_start;
+
+    private long m_end;
+
+    private long m_step;
+
+    private int m_columnCount;
+
+    private int m_rowCount;
+
+    private String[] m_columns;
+
+    private double[] m_values;
+
+    public FetchBuffer() {
+        this(0, 0);
+    }
+
+    /**
+     * Creates a buffer that can hold the given number of columns and rows without growing.
+     */
+    public FetchBuffer(int columns, int rows) {
+        m_columns = new String[columns];
+        m_values = new double[columns * rows];
+    }
+
+    /**
+     * Resets the buffer for a new result set, growing the backing arrays if required.
+     *
+     * This is invoked by the implementations before they fill in the values.
+     *
+     * @return the array in which the values must be stored, see {@link #getValues()}
+     */
+    public double[] prepare(long start, long end, long step, int columnCount, int rowCount) {
+        if (columnCount < 0 || rowCount < 0) {
+            throw new IllegalArgumentException("columnCount and rowCount cannot be negative.");
+        }
+        m_start = start;
+        m_end = end;
+        m_step = step;
+        m_columnCount = columnCount;
+        m_rowCount = rowCount;
+        if (m_columns.length < columnCount) {
+            // Keep the existing names, so that they may be reused
+            m_columns = Arrays.copyOf(m_columns, columnCount);
+        }
+        final long numValues = (long)columnCount * rowCount;
+        if (numValues > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many values for a single buffer: " + numValues);
+        }
+        if (m_values.length < numValues) {
+            m_values = new double[(int)numValues];
+        }
+        return m_values;
+    }
+
+    public void setColumn(int index, String name) {
+        m_columns[index] = name;
+    }
+
+    public long getStart() {
+        return m_start;
+    }
+
+    public long getEnd() {
+        return m_end;
+    }
+
+    public long getStep() {
+        return m_step;
+    }
+
+    public int getColumnCount() {
+        return m_columnCount;
+    }
+
+    public int getRowCount() {
+        return m_rowCount;
+    }
+
+    public String getColumn(int index) {
+        return m_columns[index];
+    }
+
+    /**
+     * Returns a copy of the column names.
+     */
+    public String[] getColumns() {
+        return Arrays.copyOf(m_columns, m_columnCount);
+    }
+
+    /**
+     * Returns the backing array, which may be larger than required.
+     *
+     * The value for the given column and row is stored at index column * getRowCount() + row.
+     */
+    public double[] getValues() {
+        return m_values;
+    }
+
+    public double getValue(int column, int row) {
+        return m_values[column * m_rowCount + row];
+    }
+
+    public long getTimestamp(int row) {
+        return m_start + m_step * row;
+    }
+
+    /**
+     * Copies the values of the given column into the given array, which must hold at least getRowCount() elements.
+     */
+    public void getColumnValues(int column, double[] values) {
+        System.arraycopy(m_values, column * m_rowCount, values, 0, m_rowCount);
+    }
+
+    /**
+     * Replaces the contents of the buffer with a copy of the given results.
+     */
+    public void copyFrom(FetchResults results) {
+        final String[] columns = results.getColumns();
+        final double[][] values = results.getValues();
+        final int rowCount = columns.length > 0 ? values[0].length : 0;
+        final double[] target = prepare(results.getStart(), results.getEnd(), results.getStep(), columns.length, rowCount);
+        for (int i = 0; i < columns.length; i++) {
+            m_columns[i] = columns[i];
+            System.arraycopy(values[i], 0, target, i * rowCount, rowCount);
+        }
+    }
+
+    /**
+     * Copies the contents of the buffer into a new {@link FetchResults}.
+     */
+    public FetchResults toFetchResults() {
+        final double[][] values = new double[m_columnCount][];
+        for (int i = 0; i < m_columnCount; i++) {
+            values[i] = Arrays.copyOfRange(m_values, i * m_rowCount, (i + 1) * m_rowCount);
+        }
+        return new FetchResults(m_start, m_end, m_step, getColumns(), values);
+    }
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.api;
+
+/**
+ * A single entry of a batched {@link org.opennms.netmgt.rrd.jrrd2.api.AsyncJRrd2#fetch(java.util.List)}.
+ *
+ * The fields have the same meaning as the arguments of
+ * {@link org.opennms.netmgt.rrd.jrrd2.api.JRrd2#fetch(String, String, long, long, long)}.
+ */
+public class FetchRequest {
+
+    private final String m_filename;
+
+    private final String m_cf;
+
+    private final long m_start;
+
+    private final long m_end;
+
+    private final long m_step;
+
+    public FetchRequest(String filename, String cf, long start, long end, long step) {
+        m_filename = filename;
+        m_cf = cf;
+        m_start = start;
+        m_end = end;
+        m_step = step;
+    }
+
+    public String getFilename() {
+        return m_filename;
+    }
+
+    public String getCf() {
+        return m_cf;
+    }
+
+    public long getStart() {
+        return m_start;
+    }
+
+    public long getEnd() {
+        return m_end;
+    }
+
+    public long getStep() {
+        return m_step;
+    }
+}
@@ -32,9 +32,15 @@
  *******************************************************************************/
 package org.opennms.netmgt.rrd.jrrd2.api;
 
+import java.util.List;
+
 /**
  * Interface to librrd.
  *
+ * Only {@link #create}, {@link #update(String, String, String[])}, {@link #fetch(String, String, long, long, long)}
+ * and {@link #xport} need to be implemented. The other operations have default implementations
+ * built on top of these, which implementations should override when they can do better.
+ *
  * @author jwhite
  * @version 2.0.0
  */
@@ -44,8 +50,123 @@ public interface JRrd2 {
 
 	public void update(final String filename, final String template, final String[] argv) throws JRrd2Exception;
 
+	/**
+	 * Updates the file with samples given as numbers, which saves building strings in Java.
+	 *
+	 * The values are laid out by sample: with n data sources in the template (or in the file
+	 * when there is no template), values[i * n + j] holds the value of the j-th one at timestamps[i].
+	 * NaNs are stored as unknown values.
+	 *
+	 * librrd only parses samples from strings, so the native implementation still formats
+	 * them as text, in C, using %.17g for the values. This saves the allocation and the
+	 * copying of the strings across JNI, not the formatting and parsing themselves.
+	 *
+	 * By default, the samples are formatted as strings and passed to {@link #update(String, String, String[])}.
+	 */
+	public default void update(final String filename, final String template, final long[] timestamps, final double[] values) throws JRrd2Exception {
+		update(filename, template, UpdateRequest.formatSamples(timestamps, values));
+	}
+
+	/**
+	 * Applies many updates, possibly to different files, in a single call.
+	 *
+	 * Failures are reported per entry instead of aborting the whole batch.
+	 *
+	 * By default, the entries are passed to {@link #update(String, String, String[])} one by one.
+	 */
+	public default BatchResults update(final List<UpdateRequest> updates) throws JRrd2Exception {
+		if (updates == null) {
+			throw new JRrd2Exception("updates cannot be null.");
+		}
+		final String[] errors = new String[updates.size()];
+		int i = 0;
+		for (final UpdateRequest update : updates) {
+			try {
+				if (update == null) {
+					throw new JRrd2Exception("update cannot be null.");
+				}
+				update(update.getFilename(), update.getTemplate(), update.getArgv());
+			} catch (JRrd2Exception e) {
+				errors[i] = e.getMessage();
+			}
+			i++;
+		}
+		return new BatchResults(errors);
+	}
+
 	public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception;
 
+	/**
+	 * Fetches the values into a caller-owned buffer, which is only grown when needed.
+	 *
+	 * By default, the results of {@link #fetch(String, String, long, long, long)} are copied to the buffer.
+	 */
+	public default void fetch(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+		if (buffer == null) {
+			throw new JRrd2Exception("buffer cannot be null.");
+		}
+		buffer.copyFrom(fetch(filename, cf, start, end, step));
+	}
+
+	/**
+	 * Fetches the values without copying them to the heap.
+	 *
+	 * The results hold native memory and must be closed by the caller.
+	 *
+	 * By default, the results of {@link #fetch(String, String, long, long, long)} are copied to a direct buffer.
+	 */
+	public default DirectFetchResults fetchDirect(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+		return DirectFetchResults.copyOf(fetch(filename, cf, start, end, step));
+	}
+
+	/**
+	 * Fetches the values at the finest resolution that returns at most maxRows rows,
+	 * like the --maxrows option of xport.
+	 *
+	 * The step is chosen from the archive definitions of the file: amongst the archives
+	 * covering the start time, the finest one that fits is used, or the coarsest one
+	 * when none of them do. The results may therefore hold more than maxRows rows
+	 * when the file has no archive that is coarse enough.
+	 *
+	 * By default, the archive definitions are obtained from {@link #info(String)}.
+	 */
+	public default FetchResults fetchWithMaxRows(String filename, String cf, long start, long end, long maxRows) throws JRrd2Exception {
+		if (cf == null) {
+			throw new JRrd2Exception("cf cannot be null.");
+		}
+		// librrd exposes no way of picking the archive, but it always prefers
+		// the archive covering the start whose step is the closest to the requested one
+		final long step = info(filename).getStepForMaxRows(cf, start, end, maxRows);
+		return fetch(filename, cf, start, end, step);
+	}
+
 	public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) throws JRrd2Exception;
 
+	/**
+	 * Returns the definitions of the data sources and archives of the file, like rrd_info().
+	 *
+	 * Not supported by default.
+	 */
+	public default RrdInfo info(String filename) throws JRrd2Exception {
+		throw new JRrd2Exception("info is not supported by " + getClass().getName() + ".");
+	}
+
+	/**
+	 * Returns the time of the last update and the values it was given, like rrd_lastupdate().
+	 *
+	 * Not supported by default.
+	 */
+	public default LastUpdate lastUpdate(String filename) throws JRrd2Exception {
+		throw new JRrd2Exception("lastUpdate is not supported by " + getClass().getName() + ".");
+	}
+
+	/**
+	 * Returns the timestamp of the oldest row of the given archive, like rrd_first().
+	 *
+	 * Not supported by default.
+	 */
+	public default long first(String filename, int archive) throws JRrd2Exception {
+		throw new JRrd2Exception("first is not supported by " + getClass().getName() + ".");
+	}
+
 }
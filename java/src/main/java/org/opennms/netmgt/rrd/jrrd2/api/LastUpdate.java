@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.api;
+
+/**
+ * The time of the last update of an RRD file, and the values it was given, as returned by
+ * {@link org.opennms.netmgt.rrd.jrrd2.api.JRrd2#lastUpdate(String)}.
+ *
+ * The values are kept as they were stored by librrd, where unknown values are "U".
+ */
+public class LastUpdate {
+
+    private final long m_timestamp;
+
+    private final String[] m_columns;
+
+    private final String[] m_values;
+
+    public LastUpdate(long timestamp, String[] columns, String[] values) {
+        m_timestamp = timestamp;
+        m_columns = columns;
+        m_values = values;
+    }
+
+    public long getTimestamp() {
+        return m_timestamp;
+    }
+
+    public String[] getColumns() {
+        return m_columns;
+    }
+
+    public String[] getValues() {
+        return m_values;
+    }
+
+    /**
+     * Returns the value of the given column as a number, or NaN if it is unknown.
+     */
+    public double getValue(int column) {
+        try {
+            return Double.parseDouble(m_values[column]);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.api;
+
+import java.util.Arrays;
+
+/**
+ * The definitions of an RRD file, as returned by
+ * {@link org.opennms.netmgt.rrd.jrrd2.api.JRrd2#info(String)}.
+ */
+public class RrdInfo {
+
+    /**
+     * Definition of a data source.
+     */
+    public static class DataSource {
+
+        private final String m_name;
+
+        private final String m_type;
+
+        private final long m_heartbeat;
+
+        private final double m_min;
+
+        private final double m_max;
+
+        public DataSource(String name, String type, long heartbeat, double min, double max) {
+            m_name = name;
+            m_type = type;
+            m_heartbeat = heartbeat;
+            m_min = min;
+            m_max = max;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        public String getType() {
+            return m_type;
+        }
+
+        public long getHeartbeat() {
+            return m_heartbeat;
+        }
+
+        public double getMin() {
+            return m_min;
+        }
+
+        public double getMax() {
+            return m_max;
+        }
+    }
+
+    /**
+     * Definition of a round robin archive.
+     */
+    public static class Archive {
+
+        private final String m_cf;
+
+        private final long m_rowCount;
+
+        private final long m_pdpCount;
+
+        private final double m_xff;
+
+        private final long m_step;
+
+        public Archive(String cf, long rowCount, long pdpCount, double xff, long step) {
+            m_cf = cf;
+            m_rowCount = rowCount;
+            m_pdpCount = pdpCount;
+            m_xff = xff;
+            m_step = step;
+        }
+
+        public String getCf() {
+            return m_cf;
+        }
+
+        public long getRowCount() {
+            return m_rowCount;
+        }
+
+        /**
+         * Number of primary data points consolidated into every row.
+         */
+        public long getPdpCount() {
+            return m_pdpCount;
+        }
+
+        public double getXff() {
+            return m_xff;
+        }
+
+        /**
+         * Interval between two rows, in seconds.
+         */
+        public long getStep() {
+            return m_step;
+        }
+    }
+
+    private final String m_filename;
+
+    private final String m_version;
+
+    private final long m_step;
+
+    private final long m_lastUpdate;
+
+    private final DataSource[] m_dataSources;
+
+    private final Archive[] m_archives;
+
+    public RrdInfo(String filename, String version, long step, long lastUpdate, DataSource[] dataSources, Archive[] archives) {
+        m_filename = filename;
+        m_version = version;
+        m_step = step;
+        m_lastUpdate = lastUpdate;
+        m_dataSources = dataSources;
+        m_archives = archives;
+    }
+
+    public String getFilename() {
+        return m_filename;
+    }
+
+    public String getVersion() {
+        return m_version;
+    }
+
+    public long getStep() {
+        return m_step;
+    }
+
+    public long getLastUpdate() {
+        return m_lastUpdate;
+    }
+
+    public DataSource[] getDataSources() {
+        return m_dataSources;
+    }
+
+    public String[] getDataSourceNames() {
+        return Arrays.stream(m_dataSources).map(DataSource::getName).toArray(String[]::new);
+    }
+
+    public Archive[] getArchives() {
+        return m_archives;
+    }
+
+    /**
+     * Returns the step to fetch with so that at most maxRows rows are returned.
+     *
+     * This is the step of the finest archive with the given consolidation function
+     * that covers the start time and returns at most maxRows rows, or of the coarsest
+     * one covering the start when none of them do. Archives that don't cover the start
+     * are only considered when no archive does, in which case librrd selects them by
+     * coverage rather than by step anyways.
+     */
+    public long getStepForMaxRows(String cf, long start, long end, long maxRows) throws JRrd2Exception {
+        if (maxRows < 1) {
+            throw new JRrd2Exception("maxRows must be strictly positive.");
+        }
+        boolean bestCovers = false;
+        boolean bestFits = false;
+        long bestStep = -1;
+        for (final Archive archive : m_archives) {
+            if (!archive.getCf().equals(cf)) {
+                continue;
+            }
+            final long archiveStep = archive.getStep();
+            final long calEnd = m_lastUpdate - m_lastUpdate % archiveStep;
+            final boolean covers = calEnd - archiveStep * archive.getRowCount() <= start;
+            final long alignedStart = start - start % archiveStep;
+            final long alignedEnd = end + (archiveStep - end % archiveStep);
+            final boolean fits = (alignedEnd - alignedStart) / archiveStep <= maxRows;
+
+            final boolean better;
+            if (bestStep < 0 || covers != bestCovers) {
+                better = bestStep < 0 || covers;
+            } else if (fits != bestFits) {
+                better = fits;
+            } else {
+                // Finest of the ones that fit, or coarsest of the ones that don't
+                better = fits ? archiveStep < bestStep : archiveStep > bestStep;
+            }
+            if (better) {
+                bestCovers = covers;
+                bestFits = fits;
+                bestStep = archiveStep;
+            }
+        }
+        if (bestStep < 0) {
+            throw new JRrd2Exception("the RRD does not contain an RRA matching the chosen CF");
+        }
+        return bestStep;
+    }
+}
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The step and the DS/RRA definitions of RRD files, validated once so that they
+ * can be reused to create many files.
+ *
+ * The definitions use the syntax of rrdcreate(1). Instances are immutable.
+ */
+public final class RrdSchema {
+
+    private static final Pattern DS_NAME = Pattern.compile("[a-zA-Z0-9_]{1,19}");
+
+    // A number of steps or seconds, optionally followed by a time unit
+    private static final Pattern DURATION = Pattern.compile("[0-9]+[smhdwMy]?");
+
+    private static final Pattern NUMBER = Pattern.compile("U|-?[0-9]+(\\.[0-9]*)?([eE][-+]?[0-9]+)?");
+
+    private static final Set<String> DS_TYPES = new HashSet<>(Arrays.asList(
+            "GAUGE", "COUNTER", "DERIVE", "DCOUNTER", "DDERIVE", "ABSOLUTE"));
+
+    private static final Set<String> CONSOLIDATION_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "AVERAGE", "MIN", "MAX", "LAST"));
+
+    private static final Set<String> OTHER_RRA_TYPES = new HashSet<>(Arrays.asList(
+            "HWPREDICT", "MHWPREDICT", "SEASONAL", "DEVSEASONAL", "DEVPREDICT", "FAILURES"));
+
+    private final long m_step;
+
+    private final String[] m_definitions;
+
+    private final List<String> m_dataSourceNames;
+
+    private final int m_archiveCount;
+
+    private RrdSchema(long step, String[] definitions, List<String> dataSourceNames, int archiveCount) {
+        m_step = step;
+        m_definitions = definitions;
+        m_dataSourceNames = Collections.unmodifiableList(dataSourceNames);
+        m_archiveCount = archiveCount;
+    }
+
+    /**
+     * Validates the given definitions.
+     *
+     * @param step the base interval in seconds
+     * @param definitions the DS and RRA definitions, as passed to {@link JRrd2#create(String, long, long, String[])}
+     * @throws JRrd2Exception if a definition is invalid, or if there isn't at least one DS and one RRA
+     */
+    public static RrdSchema parse(long step, String... definitions) throws JRrd2Exception {
+        if (step < 1) {
+            throw new JRrd2Exception("step must be strictly positive.");
+        }
+        if (definitions == null) {
+            throw new JRrd2Exception("definitions cannot be null.");
+        }
+
+        final List<String> dataSourceNames = new ArrayList<>();
+        int archiveCount = 0;
+        for (final String definition : definitions) {
+            if (definition == null) {
+                throw new JRrd2Exception("definitions cannot contain null elements.");
+            }
+            final String[] fields = definition.split(":", -1);
+            if ("DS".equals(fields[0])) {
+                final String name = parseDataSource(definition, fields);
+                if (dataSourceNames.contains(name)) {
+                    throw invalid(definition, "duplicate DS name");
+                }
+                dataSourceNames.add(name);
+            } else if ("RRA".equals(fields[0])) {
+                parseArchive(definition, fields);
+                archiveCount++;
+            } else {
+                throw invalid(definition, "expected a DS or an RRA");
+            }
+        }
+        if (dataSourceNames.isEmpty()) {
+            throw new JRrd2Exception("at least one DS is required.");
+        }
+        if (archiveCount == 0) {
+            throw new JRrd2Exception("at least one RRA is required.");
+        }
+        return new RrdSchema(step, definitions.clone(), dataSourceNames, archiveCount);
+    }
+
+    private static String parseDataSource(String definition, String[] fields) throws JRrd2Exception {
+        if (fields.length < 3) {
+            throw invalid(definition, "expected DS:name:type:arguments");
+        }
+        final String name = fields[1];
+        if (!DS_NAME.matcher(name).matches()) {
+            throw invalid(definition, "DS names must be 1 to 19 characters long, out of [a-zA-Z0-9_]");
+        }
+        final String type = fields[2];
+        if ("COMPUTE".equals(type)) {
+            if (fields.length != 4 || fields[3].isEmpty()) {
+                throw invalid(definition, "expected DS:name:COMPUTE:rpn-expression");
+            }
+        } else if (DS_TYPES.contains(type)) {
+            if (fields.length != 6) {
+                throw invalid(definition, "expected DS:name:" + type + ":heartbeat:min:max");
+            }
+            if (!DURATION.matcher(fields[3]).matches() || "0".equals(fields[3])) {
+                throw invalid(definition, "invalid heartbeat");
+            }
+            if (!NUMBER.matcher(fields[4]).matches() || !NUMBER.matcher(fields[5]).matches()) {
+                throw invalid(definition, "min and max must be numbers or U");
+            }
+            if (!"U".equals(fields[4]) && !"U".equals(fields[5])
+                    && Double.parseDouble(fields[4]) >= Double.parseDouble(fields[5])) {
+                throw invalid(definition, "min must be less than max");
+            }
+        } else {
+            throw invalid(definition, "unknown DS type");
+        }
+        return name;
+    }
+
+    private static void parseArchive(String definition, String[] fields) throws JRrd2Exception {
+        if (fields.length < 2) {
+            throw invalid(definition, "expected RRA:cf:arguments");
+        }
+        final String cf = fields[1];
+        if (CONSOLIDATION_FUNCTIONS.contains(cf)) {
+            if (fields.length != 5) {
+                throw invalid(definition, "expected RRA:" + cf + ":xff:steps:rows");
+            }
+            final double xff;
+            try {
+                xff = Double.parseDouble(fields[2]);
+            } catch (NumberFormatException e) {
+                throw invalid(definition, "invalid xff");
+            }
+            if (!(xff >= 0 && xff < 1)) {
+                throw invalid(definition, "xff must be between 0 and 1");
+            }
+            if (!DURATION.matcher(fields[3]).matches() || !DURATION.matcher(fields[4]).matches()
+                    || "0".equals(fields[3]) || "0".equals(fields[4])) {
+                throw invalid(definition, "steps and rows must be strictly positive");
+            }
+        } else if (OTHER_RRA_TYPES.contains(cf)) {
+            // The arguments of the Holt-Winters archives are left to librrd
+            if (fields.length < 3) {
+                throw invalid(definition, "expected RRA:" + cf + ":arguments");
+            }
+        } else {
+            throw invalid(definition, "unknown consolidation function");
+        }
+    }
+
+    private static JRrd2Exception invalid(String definition, String reason) {
+        return new JRrd2Exception(String.format("Invalid definition '%s': %s.", definition, reason));
+    }
+
+    public long getStep() {
+        return m_step;
+    }
+
+    /**
+     * Returns a copy of the definitions.
+     */
+    public String[] getDefinitions() {
+        return m_definitions.clone();
+    }
+
+    public List<String> getDataSourceNames() {
+        return m_dataSourceNames;
+    }
+
+    public int getArchiveCount() {
+        return m_archiveCount;
+    }
+
+    @Override
+    public String toString() {
+        return "RrdSchema[step=" + m_step + ", definitions=" + Arrays.toString(m_definitions) + "]";
+    }
+}
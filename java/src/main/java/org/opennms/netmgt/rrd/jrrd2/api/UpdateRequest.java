@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.api;
+
+/**
+ * A single entry of a batched {@link org.opennms.netmgt.rrd.jrrd2.api.JRrd2#update(java.util.List)}.
+ *
+ * The fields have the same meaning as the arguments of
+ * {@link org.opennms.netmgt.rrd.jrrd2.api.JRrd2#update(String, String, String[])}.
+ */
+public class UpdateRequest {
+
+    private final String m_filename;
+
+    private final String m_template;
+
+    private final String[] m_argv;
+
+    public UpdateRequest(String filename, String template, String[] argv) {
+        m_filename = filename;
+        m_template = template;
+        m_argv = argv;
+    }
+
+    public String getFilename() {
+        return m_filename;
+    }
+
+    public String getTemplate() {
+        return m_template;
+    }
+
+    public String[] getArgv() {
+        return m_argv;
+    }
+
+    /**
+     * Formats samples given as numbers, laid out as described by
+     * {@link org.opennms.netmgt.rrd.jrrd2.api.JRrd2#update(String, String, long[], double[])},
+     * to the strings accepted by {@link org.opennms.netmgt.rrd.jrrd2.api.JRrd2#update(String, String, String[])}.
+     */
+    public static String[] formatSamples(long[] timestamps, double[] values) throws JRrd2Exception {
+        if (timestamps == null) {
+            throw new JRrd2Exception("timestamps cannot be null.");
+        }
+        if (values == null) {
+            throw new JRrd2Exception("values cannot be null.");
+        }
+        if (timestamps.length < 1 || values.length < timestamps.length || values.length % timestamps.length != 0) {
+            throw new JRrd2Exception("values must hold the same, non-zero, number of values for every timestamp.");
+        }
+
+        final int numValues = values.length / timestamps.length;
+        final String[] samples = new String[timestamps.length];
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < timestamps.length; i++) {
+            sb.setLength(0);
+            sb.append(timestamps[i]);
+            for (int j = 0; j < numValues; j++) {
+                final double value = values[i * numValues + j];
+                sb.append(':');
+                if (Double.isNaN(value)) {
+                    sb.append('U');
+                } else {
+                    sb.append(value);
+                }
+            }
+            samples[i] = sb.toString();
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates many RRD files that share the same {@link RrdSchema} and start time.
+ *
+ * Such files only differ by the row each archive starts at: librrd picks it at
+ * random, so that the files don't all write to the same page and wrap around at
+ * the same time. librrd is only used to create a single prototype in a temporary
+ * directory, which is then written to all of the targets in parallel, with new
+ * random starting rows. The targets are first written next to their final
+ * location and then renamed, so that readers never see a partial file.
+ *
+ * Existing files are replaced. Since they are replaced behind the back of the
+ * given {@link JRrd2}, they must not be mapped by an {@link MmapJRrd2} or an
+ * {@link MappedRrdCache} at the time.
+ */
+public class BulkCreator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkCreator.class);
+
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private final JRrd2 m_jrrd2;
+
+    private final int m_parallelism;
+
+    public BulkCreator(JRrd2 jrrd2) {
+        this(jrrd2, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param jrrd2 the implementation used to create the prototype
+     * @param parallelism maximum number of files written at the same time
+     */
+    public BulkCreator(JRrd2 jrrd2, int parallelism) {
+        m_jrrd2 = Objects.requireNonNull(jrrd2, "jrrd2 cannot be null.");
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be strictly positive.");
+        }
+        m_parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return m_parallelism;
+    }
+
+    /**
+     * Creates the given files.
+     *
+     * @return the outcome of every file, in the same order as the filenames
+     * @throws JRrd2Exception if the arguments are invalid, or if librrd failed to create the prototype
+     */
+    public BatchResults create(RrdSchema schema, long start, List<String> filenames) throws JRrd2Exception {
+        if (schema == null) {
+            throw new JRrd2Exception("schema cannot be null.");
+        }
+        if (filenames == null) {
+            throw new JRrd2Exception("filenames cannot be null.");
+        }
+        final String[] errors = new String[filenames.size()];
+        if (filenames.isEmpty()) {
+            return new BatchResults(errors);
+        }
+
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("jrrd2-bulk");
+            final Path prototype = directory.resolve("prototype.rrd");
+            m_jrrd2.create(prototype.toString(), schema.getStep(), start, schema.getDefinitions());
+
+            // Every task writes its own view of the same read-only contents
+            final ByteBuffer contents;
+            try (FileChannel channel = FileChannel.open(prototype, StandardOpenOption.READ)) {
+                contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            writeAll(contents, new MappedRrd(prototype.toString(), contents), filenames, errors);
+        } catch (IOException e) {
+            throw new JRrd2Exception("Failed to create the prototype: " + e.getMessage());
+        } finally {
+            delete(directory);
+        }
+        return new BatchResults(errors);
+    }
+
+    private void writeAll(ByteBuffer contents, MappedRrd header, List<String> filenames, String[] errors) {
+        final int numThreads = Math.min(m_parallelism, filenames.size());
+        final AtomicInteger threadId = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+            final Thread t = new Thread(r, "jrrd2-bulk-create-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            final List<Future<String>> futures = new ArrayList<>(filenames.size());
+            for (final String filename : filenames) {
+                futures.add(executor.submit(() -> write(contents.duplicate(), header, filename)));
+            }
+            for (int i = 0; i < errors.length; i++) {
+                try {
+                    errors[i] = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    errors[i] = e.getCause().toString();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < errors.length; i++) {
+                if (errors[i] == null) {
+                    errors[i] = "interrupted";
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes a single file, returning the error message on failure.
+     */
+    private static String write(ByteBuffer contents, MappedRrd header, String filename) {
+        if (filename == null) {
+            return "filename cannot be null.";
+        }
+        final Path target = Paths.get(filename);
+        final Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        try {
+            try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (contents.hasRemaining()) {
+                    channel.write(contents);
+                }
+                // Start every archive at a random row, like librrd does: they only hold unknown values
+                final MappedRrd.Archive[] archives = header.getArchives();
+                final ByteBuffer row = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.nativeOrder());
+                for (int i = 0; i < archives.length; i++) {
+                    row.clear();
+                    row.putLong(0, ThreadLocalRandom.current().nextLong(archives[i].getRowCount()));
+                    final long position = header.getCurrentRowOffset(i);
+                    while (row.hasRemaining()) {
+                        channel.write(row, position + row.position());
+                    }
+                }
+            }
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return null;
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ex) {
+                LOG.warn("Failed to delete {}.", partial, ex);
+            }
+            return String.format("Failed to create %s: %s", filename, e);
+        }
+    }
+
+    private static void delete(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(directory.resolve("prototype.rrd"));
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete {}.", directory, e);
+        }
+    }
+}
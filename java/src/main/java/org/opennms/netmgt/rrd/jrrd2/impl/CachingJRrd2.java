@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+
+/**
+ * A {@link JRrd2} that caches the results of {@link JRrd2#fetch(String, String, long, long, long)}.
+ *
+ * The start and end of the requests are aligned to the requested step, so
+ * that all of the requests falling within the same step intervals share the
+ * same entry. librrd aligns them to the step of the archive it picks instead,
+ * which can be finer, so an entry is only used when the request would have
+ * been aligned to the same rows with the step of the cached results. Entries
+ * are dropped when the file is created or updated through this instance, and
+ * expire after a fixed age to pick up the changes made by other writers.
+ *
+ * The cache is bounded by the size of the values it holds, and evicts the least
+ * recently used entries first. Callers receive their own copy of the values.
+ *
+ * {@link JRrd2#fetchDirect(String, String, long, long, long)},
+ * {@link JRrd2#fetchWithMaxRows(String, String, long, long, long)} and
+ * {@link JRrd2#xport(long, long, long, long, String[])} are not cached.
+ */
+public class CachingJRrd2 extends DelegatingJRrd2 {
+
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    public static final long DEFAULT_MAX_AGE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Approximate number of bytes used by an entry, on top of its values.
+     */
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private static final int NUM_GENERATIONS = 1024;
+
+    private static final class Key {
+        private final String m_filename;
+        private final String m_cf;
+        private final long m_start;
+        private final long m_end;
+        private final long m_step;
+
+        private Key(String filename, String cf, long start, long end, long step) {
+            m_filename = filename;
+            m_cf = cf;
+            m_start = start;
+            m_end = end;
+            m_step = step;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return m_start == other.m_start
+                    && m_end == other.m_end
+                    && m_step == other.m_step
+                    && m_filename.equals(other.m_filename)
+                    && m_cf.equals(other.m_cf);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_filename, m_cf, m_start, m_end, m_step);
+        }
+    }
+
+    private static final class Entry {
+        private final FetchResults m_results;
+        private final long m_weight;
+        private final long m_expiresAt;
+
+        private Entry(FetchResults results, long weight, long expiresAt) {
+            m_results = results;
+            m_weight = weight;
+            m_expiresAt = expiresAt;
+        }
+    }
+
+    private final long m_maxWeight;
+
+    private final long m_maxAgeNanos;
+
+    // Guarded by itself, along with the index and the weight
+    private final LinkedHashMap<Key, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<String, Set<Key>> m_keysByFilename = new HashMap<>();
+
+    private long m_weight = 0;
+
+    /* Incremented whenever the files hashing to the slot are invalidated, so that
+     * the results of fetches racing with an update are not cached.
+     */
+    private final AtomicLongArray m_generations = new AtomicLongArray(NUM_GENERATIONS);
+
+    private final AtomicLong m_hits = new AtomicLong();
+
+    private final AtomicLong m_misses = new AtomicLong();
+
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    private final AtomicLong m_invalidations = new AtomicLong();
+
+    public CachingJRrd2(JRrd2 delegate) {
+        this(delegate, DEFAULT_MAX_WEIGHT, DEFAULT_MAX_AGE_MS);
+    }
+
+    /**
+     * @param delegate the implementation the missed fetches are forwarded to
+     * @param maxWeight maximum number of bytes used by the cached values
+     * @param maxAgeMs discard entries that were cached for this long
+     */
+    public CachingJRrd2(JRrd2 delegate, long maxWeight, long maxAgeMs) {
+        super(delegate);
+        if (maxWeight < 1 || maxAgeMs < 1) {
+            throw new IllegalArgumentException("maxWeight and maxAgeMs must be positive.");
+        }
+        m_maxWeight = maxWeight;
+        m_maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+    }
+
+    @Override
+    public void create(final String filename, final long step, final long start, String[] argv) throws JRrd2Exception {
+        try {
+            super.create(filename, step, start, argv);
+        } finally {
+            invalidate(filename);
+        }
+    }
+
+    @Override
+    public void update(final String filename, final String template, final String[] argv) throws JRrd2Exception {
+        try {
+            super.update(filename, template, argv);
+        } finally {
+            invalidate(filename);
+        }
+    }
+
+    @Override
+    public void update(final String filename, final String template, final long[] timestamps, final double[] values) throws JRrd2Exception {
+        try {
+            super.update(filename, template, timestamps, values);
+        } finally {
+            invalidate(filename);
+        }
+    }
+
+    @Override
+    public BatchResults update(final List<UpdateRequest> updates) throws JRrd2Exception {
+        try {
+            return super.update(updates);
+        } finally {
+            if (updates != null) {
+                for (UpdateRequest update : updates) {
+                    if (update != null) {
+                        invalidate(update.getFilename());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        return copy(getOrFetch(filename, cf, start, end, step));
+    }
+
+    @Override
+    public void fetch(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+        if (buffer == null) {
+            throw new JRrd2Exception("buffer cannot be null.");
+        }
+        buffer.copyFrom(getOrFetch(filename, cf, start, end, step));
+    }
+
+    /**
+     * Drops all of the cached results for the given file.
+     */
+    public void invalidate(String filename) {
+        if (filename == null) {
+            return;
+        }
+        m_generations.incrementAndGet(generationSlot(filename));
+        synchronized (m_entries) {
+            final Set<Key> keys = m_keysByFilename.remove(filename);
+            if (keys != null) {
+                for (Key key : keys) {
+                    final Entry entry = m_entries.remove(key);
+                    m_weight -= entry.m_weight;
+                }
+                m_invalidations.addAndGet(keys.size());
+            }
+        }
+    }
+
+    /**
+     * Drops all of the cached results.
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < NUM_GENERATIONS; i++) {
+            m_generations.incrementAndGet(i);
+        }
+        synchronized (m_entries) {
+            m_invalidations.addAndGet(m_entries.size());
+            m_entries.clear();
+            m_keysByFilename.clear();
+            m_weight = 0;
+        }
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+
+    public long getInvalidations() {
+        return m_invalidations.get();
+    }
+
+    public int getSize() {
+        synchronized (m_entries) {
+            return m_entries.size();
+        }
+    }
+
+    public long getWeight() {
+        synchronized (m_entries) {
+            return m_weight;
+        }
+    }
+
+    private FetchResults getOrFetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        if (filename == null || cf == null) {
+            // Let the delegate report the error
+            return super.fetch(filename, cf, start, end, step);
+        }
+
+        final long bucket = Math.max(step, 1);
+        final Key key = new Key(filename, cf, start - Math.floorMod(start, bucket), end - Math.floorMod(end, bucket), step);
+        synchronized (m_entries) {
+            final Entry entry = m_entries.get(key);
+            if (entry != null) {
+                if (entry.m_expiresAt - System.nanoTime() <= 0) {
+                    remove(key);
+                } else if (isAlignedTo(entry.m_results, start, end)) {
+                    m_hits.incrementAndGet();
+                    return entry.m_results;
+                }
+                // Otherwise, the entry is replaced by the results of this request
+            }
+        }
+        m_misses.incrementAndGet();
+
+        final int slot = generationSlot(filename);
+        final long generation = m_generations.get(slot);
+        final FetchResults results = super.fetch(filename, cf, start, end, step);
+        final long weight = weigh(results);
+        if (weight > m_maxWeight) {
+            return results;
+        }
+
+        synchronized (m_entries) {
+            // Don't cache results that may predate an update
+            if (m_generations.get(slot) != generation) {
+                return results;
+            }
+            if (m_entries.containsKey(key)) {
+                remove(key);
+            }
+            m_entries.put(key, new Entry(results, weight, System.nanoTime() + m_maxAgeNanos));
+            m_keysByFilename.computeIfAbsent(filename, f -> new HashSet<>()).add(key);
+            m_weight += weight;
+
+            final Iterator<Map.Entry<Key, Entry>> it = m_entries.entrySet().iterator();
+            while (m_weight > m_maxWeight && it.hasNext()) {
+                final Map.Entry<Key, Entry> eldest = it.next();
+                it.remove();
+                unindex(eldest.getKey());
+                m_weight -= eldest.getValue().m_weight;
+                m_evictions.incrementAndGet();
+            }
+        }
+        return results;
+    }
+
+    // Must be called while holding the lock on m_entries
+    private void remove(Key key) {
+        final Entry entry = m_entries.remove(key);
+        if (entry != null) {
+            unindex(key);
+            m_weight -= entry.m_weight;
+        }
+    }
+
+    // Must be called while holding the lock on m_entries
+    private void unindex(Key key) {
+        final Set<Key> keys = m_keysByFilename.get(key.m_filename);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                m_keysByFilename.remove(key.m_filename);
+            }
+        }
+    }
+
+    /**
+     * librrd rounds the start down and the end up to the step of the archive it picks,
+     * and returns the rows that follow the start. Returns true if the given range is
+     * aligned to the same rows as the cached results, with their step.
+     */
+    private static boolean isAlignedTo(FetchResults results, long start, long end) {
+        final long step = results.getStep();
+        if (step < 1) {
+            return false;
+        }
+        return results.getStart() == start - Math.floorMod(start, step) + step
+                && results.getEnd() == end - Math.floorMod(end, step) + step;
+    }
+
+    private static int generationSlot(String filename) {
+        return Math.floorMod(filename.hashCode(), NUM_GENERATIONS);
+    }
+
+    private static long weigh(FetchResults results) {
+        long weight = ENTRY_OVERHEAD;
+        for (double[] column : results.getValues()) {
+            weight += (long) column.length * Double.BYTES;
+        }
+        return weight;
+    }
+
+    private static FetchResults copy(FetchResults results) {
+        final double[][] values = new double[results.getValues().length][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = results.getValues()[i].clone();
+        }
+        return new FetchResults(results.getStart(), results.getEnd(), results.getStep(), results.getColumns().clone(), values);
+    }
+}
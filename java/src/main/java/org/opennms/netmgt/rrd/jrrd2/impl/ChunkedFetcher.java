@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchRow;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.UncheckedJRrd2Exception;
+
+/**
+ * Fetches long ranges in step-aligned windows of a bounded number of rows,
+ * so that the rows can be processed without holding the whole range in memory.
+ *
+ * The first window is fetched with the requested step, and the following ones
+ * with the step of the archive that was selected for it. Since that archive
+ * covers the start of the range, it also covers the start of every later window,
+ * so the rows are the same as the ones returned by a single
+ * {@link JRrd2#fetch(String, String, long, long, long)} for the whole range.
+ *
+ * Instances are thread-safe, but the streams and spliterators they return are not.
+ */
+public class ChunkedFetcher {
+
+    public static final int DEFAULT_ROWS_PER_CHUNK = 4096;
+
+    /**
+     * Receives the rows of {@link ChunkedFetcher#forEachRow(String, String, long, long, long, RowCallback)}.
+     */
+    @FunctionalInterface
+    public interface RowCallback {
+
+        /**
+         * Invoked once, before the first row.
+         */
+        default void columns(String[] columns) throws JRrd2Exception {
+            // Nothing to do by default
+        }
+
+        /**
+         * Invoked for every row, in order.
+         *
+         * The values array is reused for the following rows, and must be copied if it is retained.
+         */
+        void row(long timestamp, double[] values) throws JRrd2Exception;
+    }
+
+    private final JRrd2 m_jrrd2;
+
+    private final int m_rowsPerChunk;
+
+    public ChunkedFetcher(JRrd2 jrrd2) {
+        this(jrrd2, DEFAULT_ROWS_PER_CHUNK);
+    }
+
+    public ChunkedFetcher(JRrd2 jrrd2, int rowsPerChunk) {
+        m_jrrd2 = Objects.requireNonNull(jrrd2, "jrrd2 cannot be null.");
+        if (rowsPerChunk < 1) {
+            throw new IllegalArgumentException("rowsPerChunk must be strictly positive.");
+        }
+        m_rowsPerChunk = rowsPerChunk;
+    }
+
+    public int getRowsPerChunk() {
+        return m_rowsPerChunk;
+    }
+
+    /**
+     * Fetches the given range window by window, passing every row to the callback.
+     *
+     * Rows are not allocated, a single buffer is reused for all of the windows.
+     */
+    public void forEachRow(String filename, String cf, long start, long end, long step, RowCallback callback) throws JRrd2Exception {
+        Objects.requireNonNull(callback, "callback cannot be null.");
+        final Cursor cursor = new Cursor(filename, cf, start, end, step);
+        double[] values = null;
+        while (cursor.next()) {
+            if (values == null) {
+                values = new double[cursor.getColumnCount()];
+                callback.columns(cursor.getColumns());
+            } else if (values.length != cursor.getColumnCount()) {
+                values = new double[cursor.getColumnCount()];
+            }
+            cursor.getValues(values);
+            callback.row(cursor.getTimestamp(), values);
+        }
+    }
+
+    /**
+     * Returns a lazy spliterator over the rows of the given range.
+     *
+     * Windows are only fetched as the rows are consumed. Errors are thrown as {@link UncheckedJRrd2Exception}s.
+     */
+    public Spliterator<FetchRow> spliterator(String filename, String cf, long start, long end, long step) {
+        final Cursor cursor = new Cursor(filename, cf, start, end, step);
+        return new Spliterators.AbstractSpliterator<FetchRow>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE) {
+            private String[] m_columns;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super FetchRow> action) {
+                try {
+                    if (!cursor.next()) {
+                        return false;
+                    }
+                } catch (JRrd2Exception e) {
+                    throw new UncheckedJRrd2Exception(e);
+                }
+                if (m_columns == null || m_columns.length != cursor.getColumnCount()) {
+                    m_columns = cursor.getColumns();
+                }
+                final double[] values = new double[cursor.getColumnCount()];
+                cursor.getValues(values);
+                action.accept(new FetchRow(cursor.getTimestamp(), m_columns, values));
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a lazy, sequential stream over the rows of the given range.
+     *
+     * @see #spliterator(String, String, long, long, long)
+     */
+    public Stream<FetchRow> stream(String filename, String cf, long start, long end, long step) {
+        return StreamSupport.stream(spliterator(filename, cf, start, end, step), false);
+    }
+
+    /**
+     * Walks through the rows of the windows, fetching the next window when the current one is exhausted.
+     */
+    private class Cursor {
+        private final String m_filename;
+
+        private final String m_cf;
+
+        private final long m_end;
+
+        private final long m_requestedStep;
+
+        private final FetchBuffer m_buffer = new FetchBuffer();
+
+        private long m_windowStart;
+
+        private long m_windowEnd;
+
+        private boolean m_fetched = false;
+
+        private boolean m_last = false;
+
+        private long m_timestamp = Long.MIN_VALUE;
+
+        private int m_row = -1;
+
+        private Cursor(String filename, String cf, long start, long end, long step) {
+            m_filename = filename;
+            m_cf = cf;
+            m_end = end;
+            m_requestedStep = step;
+            m_windowStart = start;
+        }
+
+        private boolean next() throws JRrd2Exception {
+            while (true) {
+                if (m_fetched) {
+                    // Skip the rows that were already returned by the previous window
+                    while (++m_row < m_buffer.getRowCount()) {
+                        final long timestamp = m_buffer.getTimestamp(m_row);
+                        if (timestamp > m_timestamp) {
+                            m_timestamp = timestamp;
+                            return true;
+                        }
+                    }
+                    if (m_last || m_timestamp >= getAlignedEnd()) {
+                        return false;
+                    }
+                    // The results of a fetch start one step after the aligned start,
+                    // so the next window starts at the last row we've returned
+                    m_windowStart = Math.max(m_timestamp, m_windowEnd + 1);
+                }
+                fetchWindow();
+            }
+        }
+
+        private void fetchWindow() throws JRrd2Exception {
+            // Use the step of the selected archive once we know it
+            final long step = m_fetched ? m_buffer.getStep() : m_requestedStep;
+            // A fetch from s to s + n * step - 1 returns n rows when s is aligned
+            final long span = (long)m_rowsPerChunk * Math.max(step, 1);
+            if (m_end - m_windowStart < span) {
+                m_windowEnd = m_end;
+            } else {
+                m_windowEnd = m_windowStart + span - 1;
+            }
+            m_last = m_windowEnd >= m_end;
+            m_jrrd2.fetch(m_filename, m_cf, m_windowStart, m_windowEnd, step, m_buffer);
+            m_fetched = true;
+            m_row = -1;
+        }
+
+        /**
+         * Returns the timestamp of the last row of a fetch of the whole range.
+         */
+        private long getAlignedEnd() {
+            final long step = m_buffer.getStep();
+            return step > 0 ? m_end - Math.floorMod(m_end, step) + step : m_end;
+        }
+
+        private long getTimestamp() {
+            return m_timestamp;
+        }
+
+        private int getColumnCount() {
+            return m_buffer.getColumnCount();
+        }
+
+        private String[] getColumns() {
+            return m_buffer.getColumns();
+        }
+
+        private void getValues(double[] values) {
+            final int rowCount = m_buffer.getRowCount();
+            final double[] buffer = m_buffer.getValues();
+            for (int i = 0; i < values.length; i++) {
+                values[i] = buffer[i * rowCount + m_row];
+            }
+        }
+    }
+}
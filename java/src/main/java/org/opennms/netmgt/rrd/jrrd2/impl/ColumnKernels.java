@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+/**
+ * The inner loops of the {@link ColumnOperators}, which have a scalar and a vectorized implementation.
+ *
+ * NaNs are unknown values, and are skipped.
+ */
+interface ColumnKernels {
+
+    /**
+     * Writes the number of known values in [from, to), followed by their minimum,
+     * maximum and sum into the first four elements of the given array.
+     */
+    void summarize(double[] values, int from, int to, double[] stats);
+
+    /**
+     * Returns the index of the known value in [from, to) that forms the largest triangle
+     * with the points (ax, ay) and (cx, cy), the indexes being used as the x coordinates,
+     * or -1 if none of the values are known. Ties are won by the lowest index.
+     */
+    int largestTriangle(double[] values, int from, int to, double ax, double ay, double cx, double cy);
+}
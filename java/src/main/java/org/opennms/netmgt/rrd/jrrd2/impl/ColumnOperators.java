@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aggregation and downsampling operators that work in place on the columns of
+ * {@link FetchResults}, treating NaNs as unknown values.
+ *
+ * The inner loops use the incubating Vector API when the jar is built with the
+ * vector profile and the jdk.incubator.vector module is resolved, i.e. when the
+ * JVM is started with --add-modules jdk.incubator.vector, and plain loops
+ * otherwise. Both give the same results, but for the rounding of the sums
+ * which are accumulated in a different order.
+ *
+ * Results with enough values are processed in parallel, one column per task,
+ * on the common fork-join pool.
+ */
+public class ColumnOperators {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnOperators.class);
+
+    /**
+     * Minimum number of values for the columns of a result to be processed in parallel.
+     */
+    public static final long PARALLEL_THRESHOLD = 1 << 17;
+
+    private static final ColumnKernels VECTOR_KERNELS = loadVectorKernels();
+
+    private static final ColumnOperators SCALAR = new ColumnOperators(ScalarColumnKernels.INSTANCE);
+
+    private static final ColumnOperators DEFAULT = VECTOR_KERNELS != null ? new ColumnOperators(VECTOR_KERNELS) : SCALAR;
+
+    private final ColumnKernels m_kernels;
+
+    private ColumnOperators(ColumnKernels kernels) {
+        m_kernels = kernels;
+    }
+
+    /**
+     * Returns the vectorized operators when they are available, and the scalar ones otherwise.
+     */
+    public static ColumnOperators getDefault() {
+        return DEFAULT;
+    }
+
+    public static ColumnOperators scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the jdk.incubator.vector module is not available
+     */
+    public static ColumnOperators vectorized() {
+        if (VECTOR_KERNELS == null) {
+            throw new UnsupportedOperationException("The jdk.incubator.vector module is not available.");
+        }
+        return DEFAULT;
+    }
+
+    public static boolean isVectorAvailable() {
+        return VECTOR_KERNELS != null;
+    }
+
+    public boolean isVectorized() {
+        return m_kernels != ScalarColumnKernels.INSTANCE;
+    }
+
+    /**
+     * Returns the number, minimum, maximum, sum and average of the known values of the given column.
+     */
+    public ColumnStats summarize(double[] column) {
+        Objects.requireNonNull(column, "column cannot be null");
+        final double[] stats = new double[4];
+        m_kernels.summarize(column, 0, column.length, stats);
+        return new ColumnStats((long) stats[0], stats[1], stats[2], stats[3]);
+    }
+
+    /**
+     * Summarizes every column of the given results.
+     */
+    public ColumnStats[] summarize(FetchResults results) {
+        final double[][] values = results.getValues();
+        final ColumnStats[] stats = new ColumnStats[values.length];
+        forEachColumn(values, i -> stats[i] = summarize(values[i]));
+        return stats;
+    }
+
+    /**
+     * Returns the given percentile of the known values of the given column, or NaN if none are known.
+     *
+     * Like the PERCENTNAN function of rrdtool's VDEF, the values are sorted and the one
+     * at the rank round(percent * (count - 1) / 100) is returned.
+     */
+    public double percentile(double[] column, double percent) {
+        Objects.requireNonNull(column, "column cannot be null");
+        if (!(percent >= 0 && percent <= 100)) {
+            throw new IllegalArgumentException("percent must be between 0 and 100.");
+        }
+        final double[] known = new double[column.length];
+        int count = 0;
+        for (final double value : column) {
+            if (value == value) {
+                known[count++] = value;
+            }
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        Arrays.sort(known, 0, count);
+        return known[(int) Math.round(percent * (count - 1) / 100)];
+    }
+
+    /**
+     * Returns the given percentile of every column of the given results.
+     */
+    public double[] percentile(FetchResults results, double percent) {
+        final double[][] values = results.getValues();
+        final double[] percentiles = new double[values.length];
+        forEachColumn(values, i -> percentiles[i] = percentile(values[i], percent));
+        return percentiles;
+    }
+
+    /**
+     * Consolidates every run of the given number of rows into a single row, using the
+     * given consolidation function: AVERAGE, MIN, MAX or LAST. Unknown values are ignored,
+     * and a row is unknown when all of the rows it consolidates are unknown.
+     *
+     * Like in an RRA, the consolidated rows are reported with the timestamp of the last
+     * row they consolidate. The last row may consolidate fewer rows than the others.
+     */
+    public FetchResults downsample(FetchResults results, String cf, int rowsPerBucket) {
+        Objects.requireNonNull(results, "results cannot be null");
+        if (rowsPerBucket < 1) {
+            throw new IllegalArgumentException("rowsPerBucket must be strictly positive.");
+        }
+        final int function = Arrays.asList("AVERAGE", "MIN", "MAX", "LAST").indexOf(cf);
+        if (function < 0) {
+            throw new IllegalArgumentException(String.format("unknown consolidation function '%s'.", cf));
+        }
+
+        final double[][] values = results.getValues();
+        final int rowCount = values.length > 0 ? values[0].length : 0;
+        final int bucketCount = (rowCount + rowsPerBucket - 1) / rowsPerBucket;
+        final double[][] downsampled = new double[values.length][bucketCount];
+        forEachColumn(values, i -> {
+            final double[] column = values[i];
+            final double[] stats = new double[4];
+            for (int j = 0; j < bucketCount; j++) {
+                final int from = j * rowsPerBucket;
+                final int to = Math.min(from + rowsPerBucket, rowCount);
+                if (function == 3) {
+                    downsampled[i][j] = last(column, from, to);
+                    continue;
+                }
+                m_kernels.summarize(column, from, to, stats);
+                if (stats[0] == 0) {
+                    downsampled[i][j] = Double.NaN;
+                } else if (function == 0) {
+                    downsampled[i][j] = stats[3] / stats[0];
+                } else {
+                    downsampled[i][j] = stats[function];
+                }
+            }
+        });
+
+        final long step = results.getStep() * rowsPerBucket;
+        final long start = results.getStart() + results.getStep() * (rowsPerBucket - 1);
+        final long end = bucketCount > 0 ? start + step * (bucketCount - 1) : start;
+        return new FetchResults(start, end, step, results.getColumns(), downsampled);
+    }
+
+    /**
+     * Selects the given number of rows of the given column with the Largest-Triangle-Three-Buckets
+     * algorithm, which preserves the visual shape of a series when it is plotted with fewer points.
+     *
+     * The first and the last rows are always selected. Unknown values are never selected,
+     * unless all of the values of a bucket are unknown, in which case the first row of the
+     * bucket is, so that the gaps remain visible.
+     *
+     * @return the indexes of the selected rows, in increasing order
+     */
+    public int[] lttb(double[] column, int threshold) {
+        Objects.requireNonNull(column, "column cannot be null");
+        if (threshold < 3) {
+            throw new IllegalArgumentException("threshold must be at least 3.");
+        }
+        final int n = column.length;
+        if (threshold >= n) {
+            return IntStream.range(0, n).toArray();
+        }
+
+        final int[] selected = new int[threshold];
+        final double[] stats = new double[4];
+        // Every bucket but the first and the last hold this many rows
+        final double every = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        for (int i = 0; i < threshold - 2; i++) {
+            // The third point is the average of the next bucket
+            final int nextFrom = (int) ((i + 1) * every) + 1;
+            final int nextTo = Math.min((int) ((i + 2) * every) + 1, n);
+            m_kernels.summarize(column, nextFrom, nextTo, stats);
+            final double cx = (nextFrom + nextTo - 1) / 2.0;
+            double cy = stats[0] > 0 ? stats[3] / stats[0] : Double.NaN;
+            double ay = column[a];
+            if (ay != ay) {
+                ay = cy == cy ? cy : 0;
+            }
+            if (cy != cy) {
+                cy = ay;
+            }
+
+            final int from = (int) (i * every) + 1;
+            final int to = (int) ((i + 1) * every) + 1;
+            final int b = m_kernels.largestTriangle(column, from, to, a, ay, cx, cy);
+            a = b >= 0 ? b : from;
+            selected[i + 1] = a;
+        }
+        selected[threshold - 1] = n - 1;
+        return selected;
+    }
+
+    /**
+     * Selects the given number of rows of every column of the given results, see {@link #lttb(double[], int)}.
+     */
+    public int[][] lttb(FetchResults results, int threshold) {
+        final double[][] values = results.getValues();
+        final int[][] selected = new int[values.length][];
+        forEachColumn(values, i -> selected[i] = lttb(values[i], threshold));
+        return selected;
+    }
+
+    private static double last(double[] column, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (column[i] == column[i]) {
+                return column[i];
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static void forEachColumn(double[][] values, IntConsumer op) {
+        final long size = values.length > 0 ? (long) values.length * values[0].length : 0;
+        if (values.length > 1 && size >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, values.length).parallel().forEach(op);
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                op.accept(i);
+            }
+        }
+    }
+
+    private static ColumnKernels loadVectorKernels() {
+        try {
+            // Loaded reflectively, since it fails to link without the incubator module
+            return (ColumnKernels) Class.forName("org.opennms.netmgt.rrd.jrrd2.impl.VectorColumnKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOG.debug("The Vector API is not available, using scalar loops: {}", e.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+/**
+ * Summary of the known values of a column, as computed by {@link ColumnOperators#summarize}.
+ *
+ * The minimum, maximum, sum and average are NaN when none of the values are known.
+ */
+public class ColumnStats {
+
+    private final long m_count;
+
+    private final double m_min;
+
+    private final double m_max;
+
+    private final double m_sum;
+
+    public ColumnStats(long count, double min, double max, double sum) {
+        m_count = count;
+        m_min = count > 0 ? min : Double.NaN;
+        m_max = count > 0 ? max : Double.NaN;
+        m_sum = count > 0 ? sum : Double.NaN;
+    }
+
+    /**
+     * Number of known values.
+     */
+    public long getCount() {
+        return m_count;
+    }
+
+    public double getMin() {
+        return m_min;
+    }
+
+    public double getMax() {
+        return m_max;
+    }
+
+    public double getSum() {
+        return m_sum;
+    }
+
+    public double getAverage() {
+        return m_count > 0 ? m_sum / m_count : Double.NaN;
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnStats[count=" + m_count + ", min=" + m_min + ", max=" + m_max + ", sum=" + m_sum + "]";
+    }
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+
+/**
+ * Base class for {@link JRrd2} decorators.
+ *
+ * All of the calls are forwarded to the delegate, subclasses
+ * only need to override the operations they are interested in.
+ */
+public abstract class DelegatingJRrd2 implements JRrd2 {
+
+    private final JRrd2 m_delegate;
+
+    protected DelegatingJRrd2(JRrd2 delegate) {
+        m_delegate = Objects.requireNonNull(delegate, "delegate cannot be null");
+    }
+
+    public JRrd2 getDelegate() {
+        return m_delegate;
+    }
+
+    @Override
+    public void create(final String filename, final long step, final long start, String[] argv) throws JRrd2Exception {
+        m_delegate.create(filename, step, start, argv);
+    }
+
+    @Override
+    public void update(final String filename, final String template, final String[] argv) throws JRrd2Exception {
+        m_delegate.update(filename, template, argv);
+    }
+
+    @Override
+    public void update(final String filename, final String template, final long[] timestamps, final double[] values) throws JRrd2Exception {
+        m_delegate.update(filename, template, timestamps, values);
+    }
+
+    @Override
+    public BatchResults update(final List<UpdateRequest> updates) throws JRrd2Exception {
+        return m_delegate.update(updates);
+    }
+
+    @Override
+    public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        return m_delegate.fetch(filename, cf, start, end, step);
+    }
+
+    @Override
+    public void fetch(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+        m_delegate.fetch(filename, cf, start, end, step, buffer);
+    }
+
+    @Override
+    public DirectFetchResults fetchDirect(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        return m_delegate.fetchDirect(filename, cf, start, end, step);
+    }
+
+    @Override
+    public FetchResults fetchWithMaxRows(String filename, String cf, long start, long end, long maxRows) throws JRrd2Exception {
+        return m_delegate.fetchWithMaxRows(filename, cf, start, end, maxRows);
+    }
+
+    @Override
+    public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) throws JRrd2Exception {
+        return m_delegate.xport(start, end, step, maxrows, argv);
+    }
+
+    @Override
+    public RrdInfo info(String filename) throws JRrd2Exception {
+        return m_delegate.info(filename);
+    }
+
+    @Override
+    public LastUpdate lastUpdate(String filename) throws JRrd2Exception {
+        return m_delegate.lastUpdate(filename);
+    }
+
+    @Override
+    public long first(String filename, int archive) throws JRrd2Exception {
+        return m_delegate.first(filename, archive);
+    }
+}
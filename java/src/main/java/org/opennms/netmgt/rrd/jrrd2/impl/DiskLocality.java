@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Orders files so that they are visited in roughly the order in which they are laid out on disk.
+ *
+ * Files are grouped by directory, and sorted by inode number within a directory:
+ * file systems like ext4 and XFS allocate the inodes and the blocks of the files
+ * of a directory close to each other, so walking them in that order keeps the
+ * seeks short and lets the read-ahead of the device do its job.
+ *
+ * The inode numbers are cached, since they don't change for the lifetime of a file.
+ * They are only available on POSIX file systems, elsewhere files are sorted by name.
+ */
+final class DiskLocality {
+
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    private static volatile boolean s_inodesSupported = true;
+
+    private final Map<String, Long> m_inodes;
+
+    DiskLocality() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    DiskLocality(final int maxEntries) {
+        m_inodes = Collections.synchronizedMap(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Sorts the given items in place, using the filenames returned by the given function.
+     */
+    <T> void sort(List<T> items, Function<T, String> filename) {
+        if (items.size() < 2) {
+            return;
+        }
+        final List<Key<T>> keys = new ArrayList<>(items.size());
+        for (final T item : items) {
+            final String name = filename.apply(item);
+            final String parent = getParent(name);
+            keys.add(new Key<>(item, parent, name, getInode(name)));
+        }
+        keys.sort(Comparator.<Key<T>, String>comparing(k -> k.parent)
+                .thenComparingLong(k -> k.inode)
+                .thenComparing(k -> k.filename));
+        for (int i = 0; i < keys.size(); i++) {
+            items.set(i, keys.get(i).item);
+        }
+    }
+
+    /**
+     * Returns the inode number of the given file, or 0 if it cannot be determined.
+     */
+    long getInode(String filename) {
+        if (!s_inodesSupported) {
+            return 0;
+        }
+        final Long cached = m_inodes.get(filename);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            final long inode = ((Number) Files.getAttribute(Paths.get(filename), "unix:ino")).longValue();
+            m_inodes.put(filename, inode);
+            return inode;
+        } catch (InvalidPathException e) {
+            return 0;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // Not a POSIX file system, don't bother trying again
+            s_inodesSupported = false;
+            return 0;
+        } catch (IOException e) {
+            // Not created yet: sort it by name
+            return 0;
+        }
+    }
+
+    /**
+     * Forgets the inode of the given file, which must be called when it is replaced.
+     */
+    void invalidate(String filename) {
+        m_inodes.remove(filename);
+    }
+
+    private static String getParent(String filename) {
+        final int slash = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf(File.separatorChar));
+        return slash > 0 ? filename.substring(0, slash) : "";
+    }
+
+    private static final class Key<T> {
+        private final T item;
+        private final String parent;
+        private final String filename;
+        private final long inode;
+
+        private Key(T item, String parent, String filename, long inode) {
+            this.item = item;
+            this.parent = parent;
+            this.filename = filename;
+            this.inode = inode;
+        }
+    }
+}
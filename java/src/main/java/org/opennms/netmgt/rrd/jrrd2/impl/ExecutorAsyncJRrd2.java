@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.rrd.jrrd2.api.AsyncJRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.BatchFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchRequest;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link AsyncJRrd2} that runs the calls on a fixed pool of platform threads.
+ *
+ * Native calls pin the carrier of a virtual thread for their whole duration,
+ * so dispatching them to a dedicated pool lets virtual threads wait on the
+ * results instead. The threads of the pool initialize their librrd context
+ * when they start.
+ *
+ * The number of calls that are queued or running is bounded: once the limit
+ * is reached, callers either block until a call completes, or receive a future
+ * failed with a {@link RejectedExecutionException}.
+ *
+ * The futures are completed by the threads of the pool, dependent stages should
+ * use the async variants of the {@link CompletableFuture} methods to avoid
+ * holding them up.
+ */
+public class ExecutorAsyncJRrd2 implements AsyncJRrd2, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutorAsyncJRrd2.class);
+
+    public static final int DEFAULT_NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+    public static final int DEFAULT_MAX_PENDING = 10000;
+
+    private final JRrd2 m_delegate;
+
+    private final ThreadPoolExecutor m_executor;
+
+    private final Semaphore m_permits;
+
+    private final int m_maxPending;
+
+    private final boolean m_blockWhenFull;
+
+    private final AtomicLong m_rejected = new AtomicLong();
+
+    public ExecutorAsyncJRrd2(JRrd2 delegate) {
+        this(delegate, DEFAULT_NUM_THREADS, DEFAULT_MAX_PENDING, true);
+    }
+
+    /**
+     * @param delegate the implementation the calls are forwarded to
+     * @param numThreads number of platform threads making the calls
+     * @param maxPending maximum number of calls that are queued or running
+     * @param blockWhenFull whether callers block when the limit is reached, instead of being rejected
+     */
+    public ExecutorAsyncJRrd2(JRrd2 delegate, int numThreads, int maxPending, boolean blockWhenFull) {
+        if (numThreads < 1 || maxPending < 1) {
+            throw new IllegalArgumentException("numThreads and maxPending must be positive.");
+        }
+        m_delegate = Objects.requireNonNull(delegate, "delegate cannot be null");
+        m_maxPending = maxPending;
+        m_blockWhenFull = blockWhenFull;
+        m_permits = new Semaphore(maxPending);
+
+        // The queue is bounded by the permits
+        final AtomicInteger threadId = new AtomicInteger();
+        m_executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    final Thread t = new Thread(() -> {
+                        if (Interface.isLoaded()) {
+                            JRrd2Jni.initContext();
+                        }
+                        r.run();
+                    }, "jrrd2-async-" + threadId.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        m_executor.prestartAllCoreThreads();
+    }
+
+    @Override
+    public CompletableFuture<Void> create(final String filename, final long step, final long start, String[] argv) {
+        return submit(() -> {
+            m_delegate.create(filename, step, start, argv);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> update(final String filename, final String template, final String[] argv) {
+        return submit(() -> {
+            m_delegate.update(filename, template, argv);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> update(final String filename, final String template, final long[] timestamps, final double[] values) {
+        return submit(() -> {
+            m_delegate.update(filename, template, timestamps, values);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<BatchResults> update(final List<UpdateRequest> updates) {
+        return submit(() -> m_delegate.update(updates));
+    }
+
+    @Override
+    public CompletableFuture<FetchResults> fetch(String filename, String cf, long start, long end, long step) {
+        return submit(() -> m_delegate.fetch(filename, cf, start, end, step));
+    }
+
+    /**
+     * Every request is dispatched to the pool on its own, and counts towards the limit of pending calls.
+     */
+    @Override
+    public CompletableFuture<BatchFetchResults> fetch(List<FetchRequest> requests) {
+        if (requests == null) {
+            final CompletableFuture<BatchFetchResults> future = new CompletableFuture<>();
+            future.completeExceptionally(new JRrd2Exception("requests cannot be null."));
+            return future;
+        }
+
+        final int numRequests = requests.size();
+        final FetchResults[] results = new FetchResults[numRequests];
+        final String[] errors = new String[numRequests];
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[numRequests];
+        int i = 0;
+        for (final FetchRequest request : requests) {
+            final int index = i++;
+            final CompletableFuture<FetchResults> future = request != null
+                    ? fetch(request.getFilename(), request.getCf(), request.getStart(), request.getEnd(), request.getStep())
+                    : CompletableFuture.failedFuture(new JRrd2Exception("request cannot be null."));
+            futures[index] = future.handle((result, t) -> {
+                if (t != null) {
+                    final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    errors[index] = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+                } else {
+                    results[index] = result;
+                }
+                return null;
+            });
+        }
+        return CompletableFuture.allOf(futures).thenApply(v -> new BatchFetchResults(results, errors));
+    }
+
+    @Override
+    public CompletableFuture<FetchResults> fetchWithMaxRows(String filename, String cf, long start, long end, long maxRows) {
+        return submit(() -> m_delegate.fetchWithMaxRows(filename, cf, start, end, maxRows));
+    }
+
+    @Override
+    public CompletableFuture<FetchResults> xport(long start, long end, long step, long maxrows, String[] argv) {
+        return submit(() -> m_delegate.xport(start, end, step, maxrows, argv));
+    }
+
+    @Override
+    public CompletableFuture<RrdInfo> info(String filename) {
+        return submit(() -> m_delegate.info(filename));
+    }
+
+    @Override
+    public CompletableFuture<LastUpdate> lastUpdate(String filename) {
+        return submit(() -> m_delegate.lastUpdate(filename));
+    }
+
+    @Override
+    public CompletableFuture<Long> first(String filename, int archive) {
+        return submit(() -> m_delegate.first(filename, archive));
+    }
+
+    /**
+     * Number of calls that are queued or running.
+     */
+    public int getPending() {
+        return m_maxPending - m_permits.availablePermits();
+    }
+
+    /**
+     * Number of calls that were rejected because the limit was reached.
+     */
+    public long getRejected() {
+        return m_rejected.get();
+    }
+
+    /**
+     * Stops accepting new calls and waits for the pending ones to complete.
+     */
+    @Override
+    public void close() {
+        m_executor.shutdown();
+        try {
+            while (!m_executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.warn("Still waiting for {} calls to complete.", getPending());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        if (m_blockWhenFull) {
+            try {
+                m_permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return future;
+            }
+        } else if (!m_permits.tryAcquire()) {
+            m_rejected.incrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException(
+                    String.format("The limit of %d pending calls was reached.", m_maxPending)));
+            return future;
+        }
+
+        try {
+            m_executor.execute(() -> {
+                // Skip the calls that were cancelled while queued
+                if (future.isDone()) {
+                    m_permits.release();
+                    return;
+                }
+                T result = null;
+                Throwable error = null;
+                try {
+                    result = call.call();
+                } catch (Throwable t) {
+                    error = t;
+                } finally {
+                    // Release the permit first, so that the call is no longer pending once the future completes
+                    m_permits.release();
+                }
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            m_permits.release();
+            m_rejected.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+
+/**
+ * Compact binary encoding of {@link FetchResults}, for shipping them between processes.
+ *
+ * The timestamps are not stored, since they are derived from the start and the step.
+ * Every column is compressed on its own, the way Gorilla compresses time series: each
+ * value is XORed with the previous known value, and only the bits that differ are
+ * written, within a window of leading and trailing zeros that is reused for as long
+ * as it fits. Runs of unknown values are written as a single run length, and do not
+ * reset the previous value, so gaps are almost free. Series that are constant or that
+ * change slowly, as most RRD data does, typically take a couple of bits per value.
+ *
+ * The layout, in big-endian order, is:
+ * <pre>
+ *   magic                             'F' 'R' 'C' 1
+ *   start, end, step                  8 bytes each
+ *   column count, row count           4 bytes each
+ *   for every column:
+ *     name length, or -1 for null     4 bytes
+ *     name                            UTF-8
+ *     encoded length                  4 bytes
+ *     encoded values                  padded to a whole byte
+ * </pre>
+ * and every value is encoded as:
+ * <pre>
+ *   0                                 same as the previous value
+ *   10 bits                           XOR fits the previous window
+ *   110 leading:5 length:6 bits       XOR with a new window, a length of 0 stands for 64
+ *   111 run                           run of unknown values, 7 bits per byte with a continuation bit
+ * </pre>
+ * All NaNs are decoded as {@link Double#NaN}, whatever their payload was.
+ *
+ * Decoding reads exactly the bytes of one message, so several messages can follow
+ * each other on the same channel. Instances keep their scratch buffers between
+ * calls and are not thread-safe.
+ */
+public class FetchResultsCodec {
+
+    private static final byte[] MAGIC = { 'F', 'R', 'C', 1 };
+
+    private static final int HEADER_SIZE = MAGIC.length + 3 * Long.BYTES + 2 * Integer.BYTES;
+
+    private final BitOutput m_output = new BitOutput();
+
+    private final ByteBuffer m_header = ByteBuffer.allocate(HEADER_SIZE);
+
+    private ByteBuffer m_scratch = ByteBuffer.allocate(4096);
+
+    /**
+     * Writes the given results to the given channel.
+     */
+    public void encode(FetchResults results, WritableByteChannel channel) throws IOException {
+        Objects.requireNonNull(results, "results cannot be null");
+        final String[] columns = results.getColumns();
+        final double[][] values = results.getValues();
+        final int rowCount = columns.length > 0 ? values[0].length : 0;
+        writeHeader(channel, results.getStart(), results.getEnd(), results.getStep(), columns.length, rowCount);
+        for (int i = 0; i < columns.length; i++) {
+            if (values[i].length != rowCount) {
+                throw new IllegalArgumentException("all of the columns must have the same number of rows.");
+            }
+            writeColumn(channel, columns[i], values[i], 0, rowCount);
+        }
+    }
+
+    /**
+     * Writes the contents of the given buffer to the given channel.
+     */
+    public void encode(FetchBuffer buffer, WritableByteChannel channel) throws IOException {
+        Objects.requireNonNull(buffer, "buffer cannot be null");
+        final int columnCount = buffer.getColumnCount();
+        final int rowCount = buffer.getRowCount();
+        writeHeader(channel, buffer.getStart(), buffer.getEnd(), buffer.getStep(), columnCount, rowCount);
+        final double[] values = buffer.getValues();
+        for (int i = 0; i < columnCount; i++) {
+            writeColumn(channel, buffer.getColumn(i), values, i * rowCount, rowCount);
+        }
+    }
+
+    public byte[] encode(FetchResults results) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            encode(results, Channels.newChannel(out));
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads one message from the given channel.
+     *
+     * @throws EOFException if the channel ends before the message does
+     * @throws StreamCorruptedException if the message is not valid
+     */
+    public FetchResults decode(ReadableByteChannel channel) throws IOException {
+        final FetchBuffer buffer = new FetchBuffer();
+        decode(channel, buffer);
+        return buffer.toFetchResults();
+    }
+
+    /**
+     * Reads one message from the given channel directly into the given buffer,
+     * which only allocates when it is too small to hold the values.
+     *
+     * @throws EOFException if the channel ends before the message does
+     * @throws StreamCorruptedException if the message is not valid
+     */
+    public void decode(ReadableByteChannel channel, FetchBuffer buffer) throws IOException {
+        Objects.requireNonNull(buffer, "buffer cannot be null");
+        m_header.clear();
+        readFully(channel, m_header);
+        final byte[] magic = new byte[MAGIC.length];
+        m_header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new StreamCorruptedException("not an encoded FetchResults.");
+        }
+        final long start = m_header.getLong();
+        final long end = m_header.getLong();
+        final long step = m_header.getLong();
+        final int columnCount = m_header.getInt();
+        final int rowCount = m_header.getInt();
+        if (columnCount < 0 || rowCount < 0 || (long) columnCount * rowCount > Integer.MAX_VALUE) {
+            throw new StreamCorruptedException(String.format("invalid size: %d columns and %d rows.", columnCount, rowCount));
+        }
+
+        final double[] values = buffer.prepare(start, end, step, columnCount, rowCount);
+        for (int i = 0; i < columnCount; i++) {
+            final int nameLength = readInt(channel);
+            if (nameLength >= 0) {
+                buffer.setColumn(i, new String(readBytes(channel, nameLength).array(), 0, nameLength, StandardCharsets.UTF_8));
+            } else {
+                buffer.setColumn(i, null);
+            }
+            final ByteBuffer encoded = readBytes(channel, readInt(channel));
+            decodeColumn(new BitInput(encoded), values, i * rowCount, rowCount);
+        }
+    }
+
+    public FetchResults decode(byte[] bytes) throws IOException {
+        return decode(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+
+    private void writeHeader(WritableByteChannel channel, long start, long end, long step, int columnCount, int rowCount) throws IOException {
+        m_header.clear();
+        m_header.put(MAGIC).putLong(start).putLong(end).putLong(step).putInt(columnCount).putInt(rowCount);
+        m_header.flip();
+        writeFully(channel, m_header);
+    }
+
+    private void writeColumn(WritableByteChannel channel, String name, double[] values, int offset, int rowCount) throws IOException {
+        m_output.reset();
+        encodeColumn(m_output, values, offset, rowCount);
+        final byte[] nameBytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        final ByteBuffer encoded = m_output.finish();
+
+        final ByteBuffer frame = scratch(2 * Integer.BYTES + nameBytes.length);
+        frame.putInt(name != null ? nameBytes.length : -1).put(nameBytes).putInt(encoded.remaining());
+        frame.flip();
+        writeFully(channel, frame);
+        writeFully(channel, encoded);
+    }
+
+    static void encodeColumn(BitOutput out, double[] values, int offset, int rowCount) {
+        long previous = 0;
+        int leading = -1;
+        int trailing = 0;
+        final int end = offset + rowCount;
+        int i = offset;
+        while (i < end) {
+            final double value = values[i];
+            if (value != value) {
+                int run = 1;
+                while (i + run < end && values[i + run] != values[i + run]) {
+                    run++;
+                }
+                out.write(0b111, 3);
+                out.writeVarint(run);
+                i += run;
+                continue;
+            }
+            final long bits = Double.doubleToRawLongBits(value);
+            final long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+            } else {
+                final int lz = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                final int tz = Long.numberOfTrailingZeros(xor);
+                if (leading >= 0 && lz >= leading && tz >= trailing) {
+                    out.write(0b10, 2);
+                    out.write(xor >>> trailing, 64 - leading - trailing);
+                } else {
+                    leading = lz;
+                    trailing = tz;
+                    final int length = 64 - lz - tz;
+                    out.write(0b110, 3);
+                    out.write(lz, 5);
+                    out.write(length & 63, 6);
+                    out.write(xor >>> tz, length);
+                }
+            }
+            i++;
+        }
+    }
+
+    static void decodeColumn(BitInput in, double[] values, int offset, int rowCount) throws IOException {
+        long previous = 0;
+        int leading = -1;
+        int trailing = 0;
+        final int end = offset + rowCount;
+        int i = offset;
+        while (i < end) {
+            if (in.read(1) == 0) {
+                // Same as the previous value
+            } else if (in.read(1) == 0) {
+                if (leading < 0) {
+                    throw new StreamCorruptedException("window reused before being defined.");
+                }
+                previous ^= in.read(64 - leading - trailing) << trailing;
+            } else if (in.read(1) == 0) {
+                leading = (int) in.read(5);
+                int length = (int) in.read(6);
+                if (length == 0) {
+                    length = 64;
+                }
+                trailing = 64 - leading - length;
+                if (trailing < 0) {
+                    throw new StreamCorruptedException("invalid window.");
+                }
+                previous ^= in.read(length) << trailing;
+            } else {
+                final long run = in.readVarint();
+                if (run < 1 || run > end - i) {
+                    throw new StreamCorruptedException(String.format("invalid run of %d unknown values.", run));
+                }
+                Arrays.fill(values, i, i + (int) run, Double.NaN);
+                i += (int) run;
+                continue;
+            }
+            values[i++] = Double.longBitsToDouble(previous);
+        }
+    }
+
+    private ByteBuffer scratch(int size) {
+        if (m_scratch.capacity() < size) {
+            m_scratch = ByteBuffer.allocate(Math.max(size, 2 * m_scratch.capacity()));
+        }
+        m_scratch.clear();
+        return m_scratch;
+    }
+
+    private int readInt(ReadableByteChannel channel) throws IOException {
+        return readBytes(channel, Integer.BYTES).getInt();
+    }
+
+    private ByteBuffer readBytes(ReadableByteChannel channel, int size) throws IOException {
+        if (size < 0) {
+            throw new StreamCorruptedException(String.format("invalid length: %d.", size));
+        }
+        final ByteBuffer buffer = scratch(size);
+        buffer.limit(size);
+        readFully(channel, buffer);
+        return buffer;
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("unexpected end of stream.");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Packs bits, most significant first, into a buffer that grows as needed.
+     */
+    static final class BitOutput {
+        private ByteBuffer m_buffer = ByteBuffer.allocate(4096);
+        private long m_bits;
+        private int m_count;
+
+        void reset() {
+            m_buffer.clear();
+            m_bits = 0;
+            m_count = 0;
+        }
+
+        /**
+         * Writes the given number of low bits of the given value, up to 64.
+         */
+        void write(long value, int n) {
+            if (n > 32) {
+                write(value >>> 32, n - 32);
+                write(value, 32);
+                return;
+            }
+            m_bits = (m_bits << n) | (value & ((1L << n) - 1));
+            m_count += n;
+            while (m_count >= 8) {
+                m_count -= 8;
+                put((byte) (m_bits >>> m_count));
+            }
+        }
+
+        void writeVarint(long value) {
+            long remaining = value;
+            while (remaining >= 0x80) {
+                write(0x80 | (remaining & 0x7f), 8);
+                remaining >>>= 7;
+            }
+            write(remaining, 8);
+        }
+
+        /**
+         * Pads the last byte with zeros and returns the bytes written so far.
+         */
+        ByteBuffer finish() {
+            if (m_count > 0) {
+                put((byte) (m_bits << (8 - m_count)));
+                m_count = 0;
+            }
+            m_buffer.flip();
+            return m_buffer;
+        }
+
+        private void put(byte b) {
+            if (!m_buffer.hasRemaining()) {
+                final ByteBuffer grown = ByteBuffer.allocate(2 * m_buffer.capacity());
+                m_buffer.flip();
+                grown.put(m_buffer);
+                m_buffer = grown;
+            }
+            m_buffer.put(b);
+        }
+    }
+
+    /**
+     * Reads the bits written by a {@link BitOutput}.
+     */
+    static final class BitInput {
+        private final ByteBuffer m_buffer;
+        private long m_bits;
+        private int m_count;
+
+        BitInput(ByteBuffer buffer) {
+            m_buffer = buffer;
+        }
+
+        long read(int n) throws IOException {
+            if (n > 32) {
+                final long high = read(n - 32);
+                return (high << 32) | read(32);
+            }
+            while (m_count < n) {
+                if (!m_buffer.hasRemaining()) {
+                    throw new StreamCorruptedException("truncated column.");
+                }
+                m_bits = (m_bits << 8) | (m_buffer.get() & 0xff);
+                m_count += 8;
+            }
+            m_count -= n;
+            return (m_bits >>> m_count) & ((1L << n) - 1);
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final long b = read(8);
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("invalid run length.");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+
+/**
+ * Entry point of the {@link JRrd2} that binds librrd directly with the Foreign Function
+ * &amp; Memory API, without the jrrd2 JNI library.
+ *
+ * The API is only final as of Java 22, so the implementation is only packaged in the
+ * META-INF/versions/22 directory of the multi-release jar, and is loaded reflectively:
+ * use {@link #isAvailable()} to choose between {@link #create()} and {@link JRrd2Jni}.
+ */
+public final class FfmBackend {
+
+    /**
+     * System property holding the path or the name of librrd.
+     */
+    public static final String LIBRARY_PROPERTY = "opennms.library.rrd";
+
+    private static final String IMPLEMENTATION = "org.opennms.netmgt.rrd.jrrd2.impl.FfmJRrd2";
+
+    private FfmBackend() {
+    }
+
+    /**
+     * Returns true if the runtime supports the FFM implementation and librrd can be bound.
+     */
+    public static boolean isAvailable() {
+        try {
+            return (Boolean) implementation().getDeclaredMethod("isAvailable").invoke(null);
+        } catch (UnsupportedOperationException | ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a {@link JRrd2} bound to librrd with the FFM API.
+     *
+     * @throws UnsupportedOperationException if the runtime is older than Java 22
+     * @throws UnsatisfiedLinkError if librrd cannot be bound
+     */
+    public static JRrd2 create() {
+        try {
+            return (JRrd2) implementation().getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Failed to create the FFM implementation.", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create the FFM implementation.", e);
+        }
+    }
+
+    private static Class<?> implementation() {
+        if (Runtime.version().feature() < 22) {
+            throw new UnsupportedOperationException("The FFM implementation requires Java 22 or later, use JRrd2Jni instead.");
+        }
+        try {
+            return Class.forName(IMPLEMENTATION);
+        } catch (ClassNotFoundException e) {
+            throw new UnsupportedOperationException("The FFM implementation was not built into this jar, use JRrd2Jni instead.", e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hashing of keys over a set of nodes.
+ *
+ * Every node is placed at many points of a 64-bit ring, and a key belongs to
+ * the node of the first point that follows its hash. Adding a node only takes
+ * over the keys that now fall right before its points, i.e. about 1/n of them.
+ *
+ * The positions only depend on the names of the nodes, not on their order, and
+ * the hash function is fixed so that the mapping is stable across restarts.
+ */
+final class HashRing {
+
+    static final int DEFAULT_POINTS_PER_NODE = 256;
+
+    private final long[] m_points;
+
+    private final int[] m_nodes;
+
+    HashRing(List<String> nodes, int pointsPerNode) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("at least one node is required.");
+        }
+        final int numPoints = nodes.size() * pointsPerNode;
+        final long[][] entries = new long[numPoints][];
+        int i = 0;
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int point = 0; point < pointsPerNode; point++) {
+                entries[i++] = new long[] { hash(nodes.get(node) + "#" + point), node };
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+        m_points = new long[numPoints];
+        m_nodes = new int[numPoints];
+        for (i = 0; i < numPoints; i++) {
+            m_points[i] = entries[i][0];
+            m_nodes[i] = (int) entries[i][1];
+        }
+    }
+
+    /**
+     * Returns the index of the node that owns the given key.
+     */
+    int getNode(String key) {
+        final int index = Arrays.binarySearch(m_points, hash(key));
+        final int point = index >= 0 ? index : -index - 1;
+        return m_nodes[point < m_points.length ? point : 0];
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes, followed by the finalizer of MurmurHash3 to spread the bits.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (final byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
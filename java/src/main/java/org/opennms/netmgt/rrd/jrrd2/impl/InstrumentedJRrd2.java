@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link JRrd2} that records the count, errors and latency of every operation,
+ * along with the amount of data returned by the reads.
+ *
+ * The statistics are exposed as {@link OperationStatsMXBean}s named
+ * {@value #DOMAIN}:type=Operations,name=&lt;operation&gt; once {@link #register()}
+ * was called. The time spent waiting on the lock serializing the calls to
+ * rrd_xport() is exposed as the "xportLockWait" operation.
+ *
+ * Recording only takes two calls to {@link System#nanoTime()} and a few
+ * uncontended atomic increments per call.
+ */
+public class InstrumentedJRrd2 extends DelegatingJRrd2 {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InstrumentedJRrd2.class);
+
+    public static final String DOMAIN = "org.opennms.netmgt.rrd.jrrd2";
+
+    private final OperationStats m_create = new OperationStats("create");
+
+    private final OperationStats m_update = new OperationStats("update");
+
+    private final OperationStats m_updateBatch = new OperationStats("updateBatch");
+
+    private final OperationStats m_fetch = new OperationStats("fetch");
+
+    private final OperationStats m_fetchDirect = new OperationStats("fetchDirect");
+
+    private final OperationStats m_fetchWithMaxRows = new OperationStats("fetchWithMaxRows");
+
+    private final OperationStats m_xport = new OperationStats("xport");
+
+    private final OperationStats m_info = new OperationStats("info");
+
+    private final OperationStats m_lastUpdate = new OperationStats("lastUpdate");
+
+    private final OperationStats m_first = new OperationStats("first");
+
+    private final OperationStats m_xportLockWait = new OperationStats("xportLockWait", JRrd2Jni.xportLockWait);
+
+    private final List<ObjectName> m_registered = new ArrayList<>();
+
+    public InstrumentedJRrd2(JRrd2 delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public void create(final String filename, final long step, final long start, String[] argv) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            super.create(filename, step, start, argv);
+        } catch (JRrd2Exception e) {
+            m_create.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_create.record(startNanos);
+        }
+    }
+
+    @Override
+    public void update(final String filename, final String template, final String[] argv) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            super.update(filename, template, argv);
+        } catch (JRrd2Exception e) {
+            m_update.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_update.record(startNanos);
+        }
+    }
+
+    @Override
+    public void update(final String filename, final String template, final long[] timestamps, final double[] values) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            super.update(filename, template, timestamps, values);
+        } catch (JRrd2Exception e) {
+            m_update.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_update.record(startNanos);
+        }
+    }
+
+    @Override
+    public BatchResults update(final List<UpdateRequest> updates) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            final BatchResults results = super.update(updates);
+            if (!results.isSuccessful()) {
+                for (int i = 0; i < results.size(); i++) {
+                    if (!results.isSuccessful(i)) {
+                        m_updateBatch.recordError(results.getError(i));
+                    }
+                }
+            }
+            m_updateBatch.recordValues(results.size(), 0);
+            return results;
+        } catch (JRrd2Exception e) {
+            m_updateBatch.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_updateBatch.record(startNanos);
+        }
+    }
+
+    @Override
+    public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            final FetchResults results = super.fetch(filename, cf, start, end, step);
+            final int columns = results.getColumns().length;
+            final int rows = columns > 0 ? results.getValues()[0].length : 0;
+            m_fetch.recordValues(rows, (long) rows * columns);
+            return results;
+        } catch (JRrd2Exception e) {
+            m_fetch.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_fetch.record(startNanos);
+        }
+    }
+
+    @Override
+    public void fetch(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            super.fetch(filename, cf, start, end, step, buffer);
+            m_fetch.recordValues(buffer.getRowCount(), (long) buffer.getRowCount() * buffer.getColumnCount());
+        } catch (JRrd2Exception e) {
+            m_fetch.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_fetch.record(startNanos);
+        }
+    }
+
+    @Override
+    public DirectFetchResults fetchDirect(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            final DirectFetchResults results = super.fetchDirect(filename, cf, start, end, step);
+            m_fetchDirect.recordValues(results.getRowCount(), (long) results.getRowCount() * results.getColumnCount());
+            return results;
+        } catch (JRrd2Exception e) {
+            m_fetchDirect.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_fetchDirect.record(startNanos);
+        }
+    }
+
+    @Override
+    public FetchResults fetchWithMaxRows(String filename, String cf, long start, long end, long maxRows) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            final FetchResults results = super.fetchWithMaxRows(filename, cf, start, end, maxRows);
+            final int columns = results.getColumns().length;
+            final int rows = columns > 0 ? results.getValues()[0].length : 0;
+            m_fetchWithMaxRows.recordValues(rows, (long) rows * columns);
+            return results;
+        } catch (JRrd2Exception e) {
+            m_fetchWithMaxRows.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_fetchWithMaxRows.record(startNanos);
+        }
+    }
+
+    @Override
+    public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            final FetchResults results = super.xport(start, end, step, maxrows, argv);
+            final int columns = results.getColumns().length;
+            final int rows = columns > 0 ? results.getValues()[0].length : 0;
+            m_xport.recordValues(rows, (long) rows * columns);
+            return results;
+        } catch (JRrd2Exception e) {
+            m_xport.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_xport.record(startNanos);
+        }
+    }
+
+    @Override
+    public RrdInfo info(String filename) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            return super.info(filename);
+        } catch (JRrd2Exception e) {
+            m_info.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_info.record(startNanos);
+        }
+    }
+
+    @Override
+    public LastUpdate lastUpdate(String filename) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            return super.lastUpdate(filename);
+        } catch (JRrd2Exception e) {
+            m_lastUpdate.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_lastUpdate.record(startNanos);
+        }
+    }
+
+    @Override
+    public long first(String filename, int archive) throws JRrd2Exception {
+        final long startNanos = System.nanoTime();
+        try {
+            return super.first(filename, archive);
+        } catch (JRrd2Exception e) {
+            m_first.recordError(e.getMessage());
+            throw e;
+        } finally {
+            m_first.record(startNanos);
+        }
+    }
+
+    public List<OperationStatsMXBean> getOperationStats() {
+        return Collections.unmodifiableList(Arrays.asList(m_create, m_update, m_updateBatch,
+                m_fetch, m_fetchDirect, m_fetchWithMaxRows, m_xport, m_xportLockWait, m_info, m_lastUpdate, m_first));
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server.
+     */
+    public synchronized void register() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (OperationStatsMXBean stats : getOperationStats()) {
+            try {
+                final ObjectName name = new ObjectName(DOMAIN + ":type=Operations,name=" + stats.getName());
+                server.registerMBean(stats, name);
+                m_registered.add(name);
+            } catch (JMException e) {
+                LOG.warn("Failed to register the statistics for {}.", stats.getName(), e);
+            }
+        }
+    }
+
+    public synchronized void unregister() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : m_registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOG.warn("Failed to unregister {}.", name, e);
+            }
+        }
+        m_registered.clear();
+    }
+}
@@ -36,6 +36,7 @@ import java.io.File;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
 import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
 import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
 import org.slf4j.Logger;
@@ -66,10 +67,39 @@ public final class Interface {
 
     protected static native void rrd_update_r(String filename, String template, String[] argv) throws JRrd2Exception;
 
+    protected static native void rrd_update_values_r(String filename, String template, long[] timestamps, double[] values) throws JRrd2Exception;
+
+    protected static native String[] rrd_update_batch_r(String[] filenames, String[] templates, String[][] argvs) throws JRrd2Exception;
+
     protected static native FetchResults rrd_fetch_r(String filename, String cf, long start, long end, long step) throws JRrd2Exception;
 
+    protected static native void rrd_fetch_into_r(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception;
+
+    protected static native JniDirectFetchResults rrd_fetch_direct_r(String filename, String cf, long start, long end, long step) throws JRrd2Exception;
+
+    protected static native void rrd_free_values(long address);
+
     protected static synchronized native FetchResults rrd_xport(String[] argv) throws JRrd2Exception;
 
+    /**
+     * Returns the keys and values of the rrd_info() entries in a single array: key0, value0, key1, value1, ...
+     */
+    protected static native String[] rrd_info_r(String filename) throws JRrd2Exception;
+
+    /**
+     * Returns the time of the last update, followed by the names and the last values
+     * of the data sources in a single array: last_update, name0, value0, name1, value1, ...
+     */
+    protected static native String[] rrd_lastupdate_r(String filename) throws JRrd2Exception;
+
+    protected static native long rrd_first_r(String filename, int archive) throws JRrd2Exception;
+
+    /**
+     * Calls posix_fadvise() on the given ranges of the file, given as pairs: offset0, length0, offset1, length1, ...
+     * The advice is one of the constants of {@link PageCacheAdvisor}.
+     */
+    protected static native void rrd_fadvise(String filename, long[] ranges, int advice) throws JRrd2Exception;
+
     /**
      * Load the jrrd library and create the singleton instance of the interface.
      * 
@@ -92,6 +122,11 @@ public final class Interface {
             loadLibrary();
         }
         LOG.info("Successfully loaded {} library.", LIBRARY_NAME);
+        m_loaded = true;
+    }
+
+    public static synchronized boolean isLoaded() {
+        return m_loaded;
     }
 
     private static void loadLibrary() {
@@ -32,9 +32,23 @@
  *******************************************************************************/
 package org.opennms.netmgt.rrd.jrrd2.impl;
 
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
 import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
 import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
 import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A wrapper class for the native interface to librrd.
@@ -42,11 +56,24 @@ import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
  * This class automatically loads and initializes
  * the required system libraries.
  *
+ * Every call into librrd is recorded as a Java Flight Recorder event, named
+ * org.opennms.jrrd2.NativeCall, when a recording is running and the call takes
+ * longer than the threshold of the event, see {@link NativeCallTrace}.
+ *
+ * librrd's rrd_xport() is not thread-safe, so native exports are serialized.
+ * Setting the {@value #XPORT_ENGINE_PROPERTY} system property to "java" evaluates
+ * exports with the {@link XportEngine} instead, which can run concurrently, and
+ * falls back to rrd_xport() for the statements it doesn't support.
+ *
  * @author jwhite
  * @version 2.0.0
  */
 public class JRrd2Jni implements JRrd2 {
 
+    private static final Logger LOG = LoggerFactory.getLogger(JRrd2Jni.class);
+
+    public static final String XPORT_ENGINE_PROPERTY = "opennms.jrrd2.xport.engine";
+
     /* A suggested by http://linux.die.net/man/1/rrdthreads:
      *   Every thread SHOULD call "rrd_get_context()" before its first call to any "librrd" function
      */
@@ -58,52 +85,190 @@ public class JRrd2Jni implements JRrd2 {
             }
         };
 
+    /**
+     * Time spent waiting on the other threads calling rrd_xport().
+     */
+    static final LatencyHistogram xportLockWait = new LatencyHistogram();
+
+    private final XportEngine m_xportEngine;
+
+    /**
+     * Initializes the librrd context of the calling thread, if it wasn't already.
+     */
+    static void initContext() {
+        rrdContext.get();
+    }
+
     public JRrd2Jni() {
         Interface.init();
+
+        if ("java".equalsIgnoreCase(System.getProperty(XPORT_ENGINE_PROPERTY))) {
+            final int numThreads = Runtime.getRuntime().availableProcessors();
+            final AtomicInteger threadId = new AtomicInteger();
+            final ThreadPoolExecutor fetchers = new ThreadPoolExecutor(numThreads, numThreads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        final Thread t = new Thread(r, "jrrd2-xport-fetcher-" + threadId.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            fetchers.allowCoreThreadTimeOut(true);
+            m_xportEngine = new XportEngine(this, fetchers);
+        } else {
+            m_xportEngine = null;
+        }
     }
 
     @Override
     public void create(final String filename, final long step, final long start, String[] argv) throws JRrd2Exception {
-        rrdContext.get();
-        Interface.rrd_create_r(filename, step, start, argv);
+        call("create", filename, argv != null ? argv.length : 0, trace -> {
+            Interface.rrd_create_r(filename, step, start, argv);
+            return null;
+        });
     }
 
     @Override
     public void update(final String filename, final String template, final String[] argv) throws JRrd2Exception {
-        rrdContext.get();
-        Interface.rrd_update_r(filename, template, argv);
+        call("update", filename, argv != null ? argv.length : 0, trace -> {
+            Interface.rrd_update_r(filename, template, argv);
+            return null;
+        });
+    }
+
+    @Override
+    public void update(final String filename, final String template, final long[] timestamps, final double[] values) throws JRrd2Exception {
+        call("update", filename, timestamps != null ? timestamps.length : 0, trace -> {
+            Interface.rrd_update_values_r(filename, template, timestamps, values);
+            return null;
+        });
+    }
+
+    @Override
+    public BatchResults update(final List<UpdateRequest> updates) throws JRrd2Exception {
+        if (updates == null) {
+            throw new JRrd2Exception("updates cannot be null.");
+        }
+
+        // Flatten the requests so that the whole batch crosses JNI at once
+        final int numUpdates = updates.size();
+        final String[] filenames = new String[numUpdates];
+        final String[] templates = new String[numUpdates];
+        final String[][] argvs = new String[numUpdates][];
+        int i = 0;
+        for (final UpdateRequest update : updates) {
+            if (update != null) {
+                filenames[i] = update.getFilename();
+                templates[i] = update.getTemplate();
+                argvs[i] = update.getArgv();
+            }
+            i++;
+        }
+
+        return call("updateBatch", null, numUpdates,
+                trace -> new BatchResults(Interface.rrd_update_batch_r(filenames, templates, argvs)));
     }
 
     @Override
     public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
-        rrdContext.get();
-        return Interface.rrd_fetch_r(filename, cf, start, end, step);
+        return call("fetch", filename, 0, trace -> setResult(trace, Interface.rrd_fetch_r(filename, cf, start, end, step)));
+    }
+
+    @Override
+    public void fetch(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+        if (buffer == null) {
+            throw new JRrd2Exception("buffer cannot be null.");
+        }
+        call("fetch", filename, 0, trace -> {
+            Interface.rrd_fetch_into_r(filename, cf, start, end, step, buffer);
+            trace.setResult(buffer.getRowCount(), buffer.getColumnCount());
+            return null;
+        });
+    }
+
+    @Override
+    public DirectFetchResults fetchDirect(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        return call("fetchDirect", filename, 0, trace -> {
+            final DirectFetchResults results = Interface.rrd_fetch_direct_r(filename, cf, start, end, step);
+            trace.setResult(results.getRowCount(), results.getColumns().length);
+            return results;
+        });
     }
 
     @Override
     public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) throws JRrd2Exception {
-        final int numFixedArguments = maxrows > 0 ? 9 : 7;
-
-        // Convert the parameters to command line arguments
-        String[] allArgv = new String[numFixedArguments + argv.length];
-        allArgv[0] = "xport";
-        allArgv[1] = "--start";
-        allArgv[2] = Long.toString(start);
-        allArgv[3] = "--end";
-        allArgv[4] = Long.toString(end);
-        allArgv[5] = "--step";
-        allArgv[6] = Long.toString(step);
-        if (maxrows > 0) {
-            allArgv[7] = "--maxrows";
-            allArgv[8] = Long.toString(maxrows);
+        if (m_xportEngine != null) {
+            try {
+                return m_xportEngine.xport(start, end, step, maxrows, argv);
+            } catch (UnsupportedXportException e) {
+                LOG.debug("Falling back to rrd_xport(): {}", e.getMessage());
+            }
         }
 
-        // Copy the elements from argvs
-        for (int i = 0; i < argv.length; i++) {
-            allArgv[i + numFixedArguments] = argv[i];
+        final String[] allArgv = XportArguments.toCommandLine(start, end, step, maxrows, argv);
+
+        return call("xport", null, argv != null ? argv.length : 0, trace -> {
+            // Launch, rrd_xport() is synchronized on the Interface class
+            final long waitStart = System.nanoTime();
+            synchronized (Interface.class) {
+                final long waited = System.nanoTime() - waitStart;
+                xportLockWait.record(waited);
+                trace.setXportLockWait(waited);
+                return setResult(trace, Interface.rrd_xport(allArgv));
+            }
+        });
+    }
+
+    @Override
+    public RrdInfo info(String filename) throws JRrd2Exception {
+        return call("info", filename, 0, trace -> {
+            final RrdInfo info = RrdInfoParser.parseInfo(filename, Interface.rrd_info_r(filename));
+            trace.setResult(info.getArchives().length, info.getDataSources().length);
+            return info;
+        });
+    }
+
+    @Override
+    public LastUpdate lastUpdate(String filename) throws JRrd2Exception {
+        return call("lastUpdate", filename, 0, trace -> {
+            final LastUpdate lastUpdate = RrdInfoParser.parseLastUpdate(Interface.rrd_lastupdate_r(filename));
+            trace.setResult(1, lastUpdate.getValues().length);
+            return lastUpdate;
+        });
+    }
+
+    @Override
+    public long first(String filename, int archive) throws JRrd2Exception {
+        return call("first", filename, 0, trace -> Interface.rrd_first_r(filename, archive));
+    }
+
+    /**
+     * A call into librrd, given the trace that it is recorded with.
+     */
+    @FunctionalInterface
+    private interface NativeCall<T> {
+        T call(NativeCallTrace trace) throws JRrd2Exception;
+    }
+
+    /**
+     * Makes the given call from a thread with a librrd context, and records it.
+     */
+    private static <T> T call(String operation, String filename, int arguments, NativeCall<T> call) throws JRrd2Exception {
+        rrdContext.get();
+        final NativeCallTrace trace = NativeCallTrace.begin(operation, filename, arguments);
+        try {
+            return call.call(trace);
+        } catch (JRrd2Exception e) {
+            trace.setError(e.getMessage());
+            throw e;
+        } finally {
+            trace.commit();
         }
+    }
 
-        // Launch
-        return Interface.rrd_xport(allArgv);
+    private static FetchResults setResult(NativeCallTrace trace, FetchResults results) {
+        if (trace.isEnabled() && results != null) {
+            final String[] columns = results.getColumns();
+            trace.setResult(columns.length > 0 ? results.getValues()[0].length : 0, columns.length);
+        }
+        return results;
     }
 }
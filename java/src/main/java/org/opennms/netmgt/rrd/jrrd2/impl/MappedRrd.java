@@ -0,0 +1,624 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+
+/**
+ * Read-only view of an RRD file, parsed directly from its binary layout.
+ *
+ * The layout is the one written by librrd on 64-bit (LP64) platforms:
+ * <pre>
+ *   stat_head                         128 bytes
+ *   ds_def[ds_cnt]                    120 bytes each
+ *   rra_def[rra_cnt]                  120 bytes each
+ *   live_head                          16 bytes (8 bytes before version 0003)
+ *   pdp_prep[ds_cnt]                  112 bytes each
+ *   cdp_prep[rra_cnt * ds_cnt]         80 bytes each
+ *   rra_ptr[rra_cnt]                    8 bytes each
+ *   rra data                          row_cnt * ds_cnt doubles per RRA
+ * </pre>
+ * Numbers are stored in the byte order of the machine that created the file,
+ * which is verified using the float cookie.
+ *
+ * The header is parsed once, but the live head, the RRA pointers and the data
+ * are read from the buffer on every fetch, so a mapped file keeps reflecting
+ * the updates made by librrd. Like rrd_fetch_r(), reads do not lock the file.
+ */
+final class MappedRrd {
+
+    private static final byte[] COOKIE = { 'R', 'R', 'D', 0 };
+    private static final double FLOAT_COOKIE = 8.642135E130;
+
+    private static final List<String> CONSOLIDATION_FUNCTIONS = Arrays.asList(
+            "AVERAGE", "MIN", "MAX", "LAST", "HWPREDICT", "SEASONAL",
+            "DEVPREDICT", "DEVSEASONAL", "FAILURES", "MHWPREDICT");
+
+    private static final int STAT_HEAD_SIZE = 128;
+    private static final int DS_DEF_SIZE = 120;
+    private static final int RRA_DEF_SIZE = 120;
+    private static final int PDP_PREP_SIZE = 112;
+    private static final int CDP_PREP_SIZE = 80;
+    private static final int RRA_PTR_SIZE = 8;
+    private static final int VALUE_SIZE = 8;
+
+    private static final int NAME_SIZE = 20;
+    private static final int LAST_DS_SIZE = 30;
+
+    public static final class DataSource {
+        private final String m_name;
+        private final String m_type;
+        private final long m_heartbeat;
+        private final double m_min;
+        private final double m_max;
+
+        private DataSource(String name, String type, long heartbeat, double min, double max) {
+            m_name = name;
+            m_type = type;
+            m_heartbeat = heartbeat;
+            m_min = min;
+            m_max = max;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        public String getType() {
+            return m_type;
+        }
+
+        public long getHeartbeat() {
+            return m_heartbeat;
+        }
+
+        public double getMin() {
+            return m_min;
+        }
+
+        public double getMax() {
+            return m_max;
+        }
+    }
+
+    public static final class Archive {
+        private final String m_cf;
+        private final long m_rowCount;
+        private final long m_pdpCount;
+        private final double m_xff;
+        private final long m_offset;
+
+        private Archive(String cf, long rowCount, long pdpCount, double xff, long offset) {
+            m_cf = cf;
+            m_rowCount = rowCount;
+            m_pdpCount = pdpCount;
+            m_xff = xff;
+            m_offset = offset;
+        }
+
+        public String getCf() {
+            return m_cf;
+        }
+
+        public long getRowCount() {
+            return m_rowCount;
+        }
+
+        public long getPdpCount() {
+            return m_pdpCount;
+        }
+
+        public double getXff() {
+            return m_xff;
+        }
+    }
+
+    /**
+     * The rows selected by {@link MappedRrd#fetch}.
+     *
+     * Row k holds the values consolidated over (start + k * step, start + (k + 1) * step],
+     * which are reported with the timestamp start + (k + 1) * step, like rrd_fetch_r() does.
+     */
+    public final class Selection {
+        private final ByteBuffer m_buffer;
+        private final Archive m_archive;
+        private final long m_start;
+        private final long m_end;
+        private final long m_step;
+        private final int m_rowCount;
+        private final long m_calEnd;
+        private final long m_calStart;
+        private final long m_curRow;
+
+        private Selection(ByteBuffer buffer, Archive archive, long start, long end, long step, long calEnd, long curRow) {
+            m_buffer = buffer;
+            m_archive = archive;
+            m_start = start;
+            m_end = end;
+            m_step = step;
+            m_rowCount = (int) ((end - start) / step);
+            m_calEnd = calEnd;
+            m_calStart = calEnd - archive.getRowCount() * step;
+            m_curRow = curRow;
+        }
+
+        public Archive getArchive() {
+            return m_archive;
+        }
+
+        /**
+         * Timestamp of the first row, as reported in the {@link FetchResults}.
+         */
+        public long getStart() {
+            return m_start + m_step;
+        }
+
+        public long getEnd() {
+            return m_end;
+        }
+
+        public long getStep() {
+            return m_step;
+        }
+
+        public int getRowCount() {
+            return m_rowCount;
+        }
+
+        public String[] getColumns() {
+            return getDataSourceNames();
+        }
+
+        public int getColumnCount() {
+            return m_dataSources.length;
+        }
+
+        /**
+         * Copies the values of the given row into the given array.
+         * Rows that fall outside of the archive are filled with NaNs.
+         */
+        public void getRowValues(int row, double[] values) {
+            final long time = m_start + (row + 1) * m_step;
+            if (time <= m_calStart || time > m_calEnd) {
+                Arrays.fill(values, 0, m_dataSources.length, Double.NaN);
+                return;
+            }
+            final long rowCount = m_archive.getRowCount();
+            final long position = Math.floorMod(m_curRow - (m_calEnd - time) / m_step, rowCount);
+            final long offset = m_archive.m_offset + position * m_dataSources.length * VALUE_SIZE;
+            for (int i = 0; i < m_dataSources.length; i++) {
+                values[i] = m_buffer.getDouble((int) (offset + i * VALUE_SIZE));
+            }
+        }
+
+        public FetchResults toFetchResults() {
+            final int columnCount = getColumnCount();
+            final double[][] values = new double[columnCount][m_rowCount];
+            final double[] row = new double[columnCount];
+            for (int j = 0; j < m_rowCount; j++) {
+                getRowValues(j, row);
+                for (int i = 0; i < columnCount; i++) {
+                    values[i][j] = row[i];
+                }
+            }
+            return new FetchResults(getStart(), getEnd(), getStep(), getColumns(), values);
+        }
+
+        public void copyTo(FetchBuffer buffer) {
+            final int columnCount = getColumnCount();
+            final double[] values = buffer.prepare(getStart(), getEnd(), getStep(), columnCount, m_rowCount);
+            for (int i = 0; i < columnCount; i++) {
+                buffer.setColumn(i, m_dataSourceNames[i]);
+            }
+            final double[] row = new double[columnCount];
+            for (int j = 0; j < m_rowCount; j++) {
+                getRowValues(j, row);
+                for (int i = 0; i < columnCount; i++) {
+                    values[i * m_rowCount + j] = row[i];
+                }
+            }
+        }
+
+        public DirectFetchResults toDirectFetchResults() {
+            final int columnCount = getColumnCount();
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(columnCount * m_rowCount * Double.BYTES).order(ByteOrder.nativeOrder());
+            final DoubleBuffer view = buffer.asDoubleBuffer();
+            final double[] row = new double[columnCount];
+            for (int j = 0; j < m_rowCount; j++) {
+                getRowValues(j, row);
+                view.put(row);
+            }
+            return new HeapDirectFetchResults(getStart(), getEnd(), getStep(), getColumns(), m_rowCount, buffer);
+        }
+    }
+
+    /**
+     * Results copied to a direct buffer that is reclaimed by the garbage collector.
+     */
+    private static final class HeapDirectFetchResults extends DirectFetchResults {
+        private HeapDirectFetchResults(long start, long end, long step, String[] columns, int rowCount, ByteBuffer values) {
+            super(start, end, step, columns, rowCount, values);
+        }
+
+        @Override
+        protected void release() {
+            // pass
+        }
+    }
+
+    private final String m_filename;
+    private final ByteBuffer m_buffer;
+    private final int m_version;
+    private final long m_pdpStep;
+    private final DataSource[] m_dataSources;
+    private final Archive[] m_archives;
+    private final String[] m_dataSourceNames;
+    private final int m_liveHeadOffset;
+    private final int m_pdpPrepOffset;
+    private final int m_rraPtrOffset;
+
+    MappedRrd(String filename, ByteBuffer buffer) throws JRrd2Exception {
+        this(filename, buffer, buffer.capacity());
+    }
+
+    /**
+     * Parses a buffer that may only hold the first bytes of a file of the given size,
+     * as given by {@link #getHeaderSize}. In that case only the definitions, the live
+     * head and the RRA pointers can be read, which is enough to tell where the next
+     * update will write.
+     */
+    MappedRrd(String filename, ByteBuffer buffer, long fileSize) throws JRrd2Exception {
+        m_filename = filename;
+        m_buffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+
+        if (m_buffer.capacity() < STAT_HEAD_SIZE) {
+            throw new JRrd2Exception(String.format("'%s' is not an RRD file", filename));
+        }
+        final byte[] cookie = new byte[COOKIE.length];
+        m_buffer.get(0, cookie);
+        if (!Arrays.equals(cookie, COOKIE)) {
+            throw new JRrd2Exception(String.format("'%s' is not an RRD file", filename));
+        }
+        final String version = readString(4, 5);
+        try {
+            m_version = Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            throw new JRrd2Exception(String.format("can't handle RRD file version %s", version));
+        }
+        if (m_version < 1 || m_version > 5) {
+            throw new JRrd2Exception(String.format("can't handle RRD file version %s", version));
+        }
+        if (m_buffer.getDouble(16) != FLOAT_COOKIE) {
+            throw new JRrd2Exception("This RRD was created on another architecture");
+        }
+
+        final long dsCount = m_buffer.getLong(24);
+        final long rraCount = m_buffer.getLong(32);
+        m_pdpStep = m_buffer.getLong(40);
+        if (dsCount <= 0 || rraCount <= 0 || m_pdpStep <= 0
+                || dsCount > m_buffer.capacity() / DS_DEF_SIZE || rraCount > m_buffer.capacity() / RRA_DEF_SIZE) {
+            throw new JRrd2Exception(String.format("'%s' has an invalid header", filename));
+        }
+        final int ds = (int) dsCount;
+        final int rra = (int) rraCount;
+
+        long offset = STAT_HEAD_SIZE;
+        m_dataSources = new DataSource[ds];
+        m_dataSourceNames = new String[ds];
+        for (int i = 0; i < ds; i++, offset += DS_DEF_SIZE) {
+            final int base = (int) offset;
+            m_dataSources[i] = new DataSource(readString(base, NAME_SIZE),
+                    readString(base + NAME_SIZE, NAME_SIZE),
+                    m_buffer.getLong(base + 40),
+                    m_buffer.getDouble(base + 48),
+                    m_buffer.getDouble(base + 56));
+            m_dataSourceNames[i] = m_dataSources[i].getName();
+        }
+
+        final long[] rowCounts = new long[rra];
+        final long[] pdpCounts = new long[rra];
+        final String[] cfs = new String[rra];
+        final double[] xffs = new double[rra];
+        for (int i = 0; i < rra; i++, offset += RRA_DEF_SIZE) {
+            final int base = (int) offset;
+            cfs[i] = readString(base, NAME_SIZE);
+            rowCounts[i] = m_buffer.getLong(base + 24);
+            pdpCounts[i] = m_buffer.getLong(base + 32);
+            xffs[i] = m_buffer.getDouble(base + 40);
+        }
+
+        m_liveHeadOffset = (int) offset;
+        offset += m_version >= 3 ? 16 : 8;
+        m_pdpPrepOffset = (int) offset;
+        offset += (long) ds * PDP_PREP_SIZE;
+        offset += (long) rra * ds * CDP_PREP_SIZE;
+        m_rraPtrOffset = (int) offset;
+        offset += (long) rra * RRA_PTR_SIZE;
+
+        m_archives = new Archive[rra];
+        for (int i = 0; i < rra; i++) {
+            if (rowCounts[i] <= 0 || pdpCounts[i] <= 0) {
+                throw new JRrd2Exception(String.format("'%s' has an invalid header", filename));
+            }
+            m_archives[i] = new Archive(cfs[i], rowCounts[i], pdpCounts[i], xffs[i], offset);
+            offset += rowCounts[i] * ds * VALUE_SIZE;
+        }
+
+        if (offset > fileSize) {
+            throw new JRrd2Exception(String.format("'%s' is too small (should be %d bytes)", filename, offset));
+        }
+    }
+
+    /**
+     * Returns the size of the header, up to the data of the first RRA,
+     * using the counts found in the given stat_head.
+     */
+    static long getHeaderSize(String filename, ByteBuffer statHead) throws JRrd2Exception {
+        final ByteBuffer buffer = statHead.duplicate().order(ByteOrder.nativeOrder());
+        if (buffer.limit() < STAT_HEAD_SIZE) {
+            throw new JRrd2Exception(String.format("'%s' is not an RRD file", filename));
+        }
+        final long dsCount = buffer.getLong(24);
+        final long rraCount = buffer.getLong(32);
+        if (dsCount <= 0 || rraCount <= 0 || dsCount > Integer.MAX_VALUE / DS_DEF_SIZE || rraCount > Integer.MAX_VALUE / RRA_DEF_SIZE) {
+            throw new JRrd2Exception(String.format("'%s' has an invalid header", filename));
+        }
+        // The version is stored as "0001" to "0005"
+        final int liveHeadSize = buffer.get(7) >= '3' ? 16 : 8;
+        return STAT_HEAD_SIZE + dsCount * DS_DEF_SIZE + rraCount * RRA_DEF_SIZE + liveHeadSize
+                + dsCount * PDP_PREP_SIZE + rraCount * dsCount * CDP_PREP_SIZE + rraCount * RRA_PTR_SIZE;
+    }
+
+    /**
+     * Maps the given file into memory.
+     */
+    static MappedRrd open(Path path) throws JRrd2Exception {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new JRrd2Exception(String.format("'%s' is too large to be mapped", path));
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            throw new JRrd2Exception(String.format("opening '%s': No such file or directory", path));
+        } catch (AccessDeniedException e) {
+            throw new JRrd2Exception(String.format("opening '%s': Permission denied", path));
+        } catch (IOException e) {
+            throw new JRrd2Exception(String.format("opening '%s': %s", path, e.getMessage()));
+        }
+        return new MappedRrd(path.toString(), buffer);
+    }
+
+    public String getFilename() {
+        return m_filename;
+    }
+
+    public int getVersion() {
+        return m_version;
+    }
+
+    public long getPdpStep() {
+        return m_pdpStep;
+    }
+
+    public DataSource[] getDataSources() {
+        return m_dataSources.clone();
+    }
+
+    public String[] getDataSourceNames() {
+        return m_dataSourceNames.clone();
+    }
+
+    public Archive[] getArchives() {
+        return m_archives.clone();
+    }
+
+    public long getLastUpdate() {
+        return m_buffer.getLong(m_liveHeadOffset);
+    }
+
+    /**
+     * Returns the definitions of the file, like rrd_info().
+     */
+    public RrdInfo toRrdInfo() {
+        final RrdInfo.DataSource[] dataSources = new RrdInfo.DataSource[m_dataSources.length];
+        for (int i = 0; i < dataSources.length; i++) {
+            final DataSource ds = m_dataSources[i];
+            dataSources[i] = new RrdInfo.DataSource(ds.getName(), ds.getType(), ds.getHeartbeat(), ds.getMin(), ds.getMax());
+        }
+        final RrdInfo.Archive[] archives = new RrdInfo.Archive[m_archives.length];
+        for (int i = 0; i < archives.length; i++) {
+            final Archive archive = m_archives[i];
+            archives[i] = new RrdInfo.Archive(archive.getCf(), archive.getRowCount(), archive.getPdpCount(),
+                    archive.getXff(), m_pdpStep * archive.getPdpCount());
+        }
+        return new RrdInfo(m_filename, String.format("%04d", m_version), m_pdpStep, getLastUpdate(), dataSources, archives);
+    }
+
+    /**
+     * Returns the time of the last update and the values it was given, like rrd_lastupdate_r().
+     */
+    public LastUpdate toLastUpdate() {
+        final String[] values = new String[m_dataSources.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readString(m_pdpPrepOffset + i * PDP_PREP_SIZE, LAST_DS_SIZE);
+        }
+        return new LastUpdate(getLastUpdate(), getDataSourceNames(), values);
+    }
+
+    /**
+     * Returns the timestamp of the first row of the given archive, like rrd_first_r().
+     */
+    public long getFirst(int archive) throws JRrd2Exception {
+        if (archive < 0 || archive >= m_archives.length) {
+            throw new JRrd2Exception("invalid rraindex number");
+        }
+        final long archiveStep = m_pdpStep * m_archives[archive].getPdpCount();
+        final long lastUpdate = getLastUpdate();
+        return lastUpdate - lastUpdate % archiveStep - (m_archives[archive].getRowCount() - 1) * archiveStep;
+    }
+
+    long getCurrentRow(int archive) {
+        return m_buffer.getLong(getCurrentRowOffset(archive));
+    }
+
+    /**
+     * Returns the offset of the rra_ptr that holds the current row of the given archive.
+     */
+    int getCurrentRowOffset(int archive) {
+        return m_rraPtrOffset + archive * RRA_PTR_SIZE;
+    }
+
+    /**
+     * Returns the parts of the file touched by an update, as pairs of offset and length:
+     * the header, followed by the current and the next row of every archive.
+     */
+    long[] getHotRanges() {
+        final int rowSize = m_dataSources.length * VALUE_SIZE;
+        final long[] ranges = new long[2 + 4 * m_archives.length];
+        ranges[0] = 0;
+        ranges[1] = m_rraPtrOffset + m_archives.length * RRA_PTR_SIZE;
+        int k = 2;
+        for (int i = 0; i < m_archives.length; i++) {
+            final Archive archive = m_archives[i];
+            final long curRow = Math.floorMod(getCurrentRow(i), archive.getRowCount());
+            final long nextRow = (curRow + 1) % archive.getRowCount();
+            ranges[k++] = archive.m_offset + curRow * rowSize;
+            ranges[k++] = rowSize;
+            ranges[k++] = archive.m_offset + nextRow * rowSize;
+            ranges[k++] = rowSize;
+        }
+        return ranges;
+    }
+
+    /**
+     * Selects the rows that rrd_fetch_r() would return for the given arguments.
+     *
+     * The archive is chosen the same way librrd does: amongst the archives
+     * with the requested consolidation function, the ones covering the start
+     * time are preferred, and the one whose resolution is closest to the
+     * requested step wins. If none of them covers the start time, the one
+     * covering the largest part of the interval is used.
+     */
+    public Selection fetch(String cf, long start, long end, long step) throws JRrd2Exception {
+        if (!CONSOLIDATION_FUNCTIONS.contains(cf)) {
+            throw new JRrd2Exception(String.format("unknown consolidation function '%s'", cf));
+        }
+        if (start > end) {
+            throw new JRrd2Exception(String.format("start (%d) should be less than end (%d)", start, end));
+        }
+
+        final long lastUpdate = getLastUpdate();
+        int bestFull = -1;
+        long bestFullStepDiff = 0;
+        int bestPart = -1;
+        long bestMatch = 0;
+        long bestPartStepDiff = 0;
+        for (int i = 0; i < m_archives.length; i++) {
+            final Archive archive = m_archives[i];
+            if (!cf.equals(archive.getCf())) {
+                continue;
+            }
+            final long archiveStep = m_pdpStep * archive.getPdpCount();
+            final long calEnd = lastUpdate - lastUpdate % archiveStep;
+            final long calStart = calEnd - archiveStep * archive.getRowCount();
+            final long stepDiff = Math.abs(step - archiveStep);
+            if (calStart <= start) {
+                if (bestFull < 0 || stepDiff < bestFullStepDiff) {
+                    bestFull = i;
+                    bestFullStepDiff = stepDiff;
+                }
+            } else {
+                final long match = (end - start) - (calStart - start);
+                if (bestPart < 0 || bestMatch < match || (bestMatch == match && stepDiff < bestPartStepDiff)) {
+                    bestPart = i;
+                    bestMatch = match;
+                    bestPartStepDiff = stepDiff;
+                }
+            }
+        }
+
+        final int chosen = bestFull >= 0 ? bestFull : bestPart;
+        if (chosen < 0) {
+            throw new JRrd2Exception("the RRD does not contain an RRA matching the chosen CF");
+        }
+
+        final Archive archive = m_archives[chosen];
+        final long archiveStep = m_pdpStep * archive.getPdpCount();
+        final long alignedStart = start - start % archiveStep;
+        final long alignedEnd = end + (archiveStep - end % archiveStep);
+        if ((alignedEnd - alignedStart) / archiveStep > Integer.MAX_VALUE) {
+            throw new JRrd2Exception(String.format("fetching %d rows is not supported", (alignedEnd - alignedStart) / archiveStep));
+        }
+        return new Selection(m_buffer, archive, alignedStart, alignedEnd, archiveStep,
+                lastUpdate - lastUpdate % archiveStep, getCurrentRow(chosen));
+    }
+
+    /**
+     * Returns the step to fetch with so that at most maxRows rows are returned.
+     *
+     * @see RrdInfo#getStepForMaxRows(String, long, long, long)
+     */
+    public long getStepForMaxRows(String cf, long start, long end, long maxRows) throws JRrd2Exception {
+        return toRrdInfo().getStepForMaxRows(cf, start, end, maxRows);
+    }
+
+    private String readString(int offset, int size) {
+        int length = 0;
+        while (length < size && m_buffer.get(offset + length) != 0) {
+            length++;
+        }
+        final byte[] bytes = new byte[length];
+        m_buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
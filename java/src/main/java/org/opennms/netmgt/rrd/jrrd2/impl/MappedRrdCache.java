@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdHandle;
+
+/**
+ * Read-side cache of memory-mapped RRD files, keyed by file name.
+ *
+ * Opening a file that is already cached reuses its mapping, so the header
+ * is neither read nor parsed again, and fetches are served straight from the
+ * page cache. Once the cache is full, the least recently used mapping is
+ * evicted.
+ *
+ * Only the number of mappings referenced by the cache is bounded. Mappings
+ * don't hold on to a file descriptor, but an evicted mapping, or one that is
+ * still used by an open handle, stays mapped until the garbage collector
+ * releases it, so the number of mappings held by the process can temporarily
+ * exceed the size of the cache.
+ *
+ * The handles are read-only, since librrd only updates files by name. The
+ * updates made with {@link JRrd2#update(String, String, String[])} become
+ * visible through the mappings as soon as they are written.
+ */
+public class MappedRrdCache {
+
+    public static final int DEFAULT_MAX_MAPPINGS = 1024;
+
+    private static final class Entry {
+        private final MappedRrd m_rrd;
+        private final Object m_fileKey;
+        private final long m_size;
+
+        private Entry(MappedRrd rrd, Object fileKey, long size) {
+            m_rrd = rrd;
+            m_fileKey = fileKey;
+            m_size = size;
+        }
+    }
+
+    private final class Handle implements RrdHandle {
+        private final String m_filename;
+        private final MappedRrd m_rrd;
+        private volatile boolean m_closed = false;
+
+        private Handle(String filename, MappedRrd rrd) {
+            m_filename = filename;
+            m_rrd = rrd;
+        }
+
+        @Override
+        public String getFilename() {
+            return m_filename;
+        }
+
+        @Override
+        public FetchResults fetch(String cf, long start, long end, long step) throws JRrd2Exception {
+            return select(cf, start, end, step).toFetchResults();
+        }
+
+        @Override
+        public void fetch(String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+            if (buffer == null) {
+                throw new JRrd2Exception("buffer cannot be null.");
+            }
+            select(cf, start, end, step).copyTo(buffer);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return m_closed;
+        }
+
+        @Override
+        public void close() {
+            m_closed = true;
+        }
+
+        private MappedRrd.Selection select(String cf, long start, long end, long step) throws JRrd2Exception {
+            checkOpen();
+            if (cf == null) {
+                throw new JRrd2Exception("cf cannot be null.");
+            }
+            return m_rrd.fetch(cf, start, end, step);
+        }
+
+        private void checkOpen() throws JRrd2Exception {
+            if (m_closed) {
+                throw new JRrd2Exception(String.format("the handle for '%s' is closed.", m_filename));
+            }
+        }
+    }
+
+    private final Map<String, Entry> m_entries;
+
+    private final AtomicLong m_hits = new AtomicLong();
+
+    private final AtomicLong m_misses = new AtomicLong();
+
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    /**
+     * @param maxMappings maximum number of mappings referenced by the cache
+     */
+    public MappedRrdCache(int maxMappings) {
+        if (maxMappings < 1) {
+            throw new IllegalArgumentException("maxMappings must be strictly positive.");
+        }
+        m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MappedRrdCache.Entry> eldest) {
+                if (size() > maxMappings) {
+                    m_evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Opens a handle for the given file, reusing the cached mapping if there is one.
+     *
+     * Files replaced on disk since they were mapped are mapped again.
+     */
+    public RrdHandle open(String filename) throws JRrd2Exception {
+        return new Handle(filename, getRrd(filename));
+    }
+
+    /**
+     * Drops the cached mapping of the given file, i.e. after it was recreated.
+     *
+     * Handles that are already open keep using the previous mapping.
+     */
+    public void invalidate(String filename) {
+        synchronized (m_entries) {
+            m_entries.remove(filename);
+        }
+    }
+
+    public int getSize() {
+        synchronized (m_entries) {
+            return m_entries.size();
+        }
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+
+    MappedRrd getRrd(String filename) throws JRrd2Exception {
+        if (filename == null) {
+            throw new JRrd2Exception("filename cannot be null.");
+        }
+        final Path path = Paths.get(filename);
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new JRrd2Exception(String.format("opening '%s': No such file or directory", filename));
+        } catch (IOException e) {
+            throw new JRrd2Exception(String.format("opening '%s': %s", filename, e.getMessage()));
+        }
+
+        synchronized (m_entries) {
+            final Entry entry = m_entries.get(filename);
+            if (entry != null && entry.m_size == attributes.size()
+                    && Objects.equals(entry.m_fileKey, attributes.fileKey())) {
+                m_hits.incrementAndGet();
+                return entry.m_rrd;
+            }
+        }
+        m_misses.incrementAndGet();
+
+        // Map the file outside of the lock, concurrent callers may end up mapping it twice
+        final MappedRrd rrd = MappedRrd.open(path);
+        synchronized (m_entries) {
+            m_entries.put(filename, new Entry(rrd, attributes.fileKey(), attributes.size()));
+        }
+        return rrd;
+    }
+}
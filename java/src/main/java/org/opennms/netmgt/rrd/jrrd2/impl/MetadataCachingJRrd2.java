@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+
+/**
+ * A {@link JRrd2} that caches the results of {@link JRrd2#info(String)},
+ * {@link JRrd2#lastUpdate(String)} and {@link JRrd2#first(String, int)}.
+ *
+ * Entries remember the modification time and the size of the file they were
+ * read from, which are checked on every hit, so that changes made by other
+ * writers are picked up without having to open the file. Entries are also
+ * dropped when the file is created or updated through this instance, and
+ * expire after a fixed age in case the file system does not update the
+ * modification time of files written through a mapping right away.
+ *
+ * The cache holds a bounded number of files, and evicts the least recently
+ * used ones first.
+ */
+public class MetadataCachingJRrd2 extends DelegatingJRrd2 {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    public static final long DEFAULT_MAX_AGE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final class Entry {
+        private final long m_lastModified;
+        private final long m_size;
+        private final long m_expiresAt;
+        private RrdInfo m_info;
+        private LastUpdate m_lastUpdate;
+        private final Map<Integer, Long> m_firsts = new HashMap<>();
+
+        private Entry(long lastModified, long size, long expiresAt) {
+            m_lastModified = lastModified;
+            m_size = size;
+            m_expiresAt = expiresAt;
+        }
+    }
+
+    private final int m_maxEntries;
+
+    private final long m_maxAgeNanos;
+
+    // Guarded by itself, along with the contents of the entries
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong m_hits = new AtomicLong();
+
+    private final AtomicLong m_misses = new AtomicLong();
+
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    private final AtomicLong m_invalidations = new AtomicLong();
+
+    public MetadataCachingJRrd2(JRrd2 delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE_MS);
+    }
+
+    /**
+     * @param delegate the implementation the missed calls are forwarded to
+     * @param maxEntries maximum number of files held in the cache
+     * @param maxAgeMs discard entries that were cached for this long
+     */
+    public MetadataCachingJRrd2(JRrd2 delegate, int maxEntries, long maxAgeMs) {
+        super(delegate);
+        if (maxEntries < 1 || maxAgeMs < 1) {
+            throw new IllegalArgumentException("maxEntries and maxAgeMs must be positive.");
+        }
+        m_maxEntries = maxEntries;
+        m_maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+    }
+
+    @Override
+    public void create(final String filename, final long step, final long start, String[] argv) throws JRrd2Exception {
+        try {
+            super.create(filename, step, start, argv);
+        } finally {
+            invalidate(filename);
+        }
+    }
+
+    @Override
+    public void update(final String filename, final String template, final String[] argv) throws JRrd2Exception {
+        try {
+            super.update(filename, template, argv);
+        } finally {
+            invalidate(filename);
+        }
+    }
+
+    @Override
+    public void update(final String filename, final String template, final long[] timestamps, final double[] values) throws JRrd2Exception {
+        try {
+            super.update(filename, template, timestamps, values);
+        } finally {
+            invalidate(filename);
+        }
+    }
+
+    @Override
+    public BatchResults update(final List<UpdateRequest> updates) throws JRrd2Exception {
+        try {
+            return super.update(updates);
+        } finally {
+            if (updates != null) {
+                for (UpdateRequest update : updates) {
+                    if (update != null) {
+                        invalidate(update.getFilename());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public RrdInfo info(String filename) throws JRrd2Exception {
+        final Entry entry = getEntry(filename);
+        if (entry != null) {
+            synchronized (m_entries) {
+                if (entry.m_info != null) {
+                    m_hits.incrementAndGet();
+                    return entry.m_info;
+                }
+            }
+        }
+        m_misses.incrementAndGet();
+        final RrdInfo info = super.info(filename);
+        if (entry != null) {
+            synchronized (m_entries) {
+                entry.m_info = info;
+            }
+        }
+        return info;
+    }
+
+    @Override
+    public LastUpdate lastUpdate(String filename) throws JRrd2Exception {
+        final Entry entry = getEntry(filename);
+        if (entry != null) {
+            synchronized (m_entries) {
+                if (entry.m_lastUpdate != null) {
+                    m_hits.incrementAndGet();
+                    return entry.m_lastUpdate;
+                }
+            }
+        }
+        m_misses.incrementAndGet();
+        final LastUpdate lastUpdate = super.lastUpdate(filename);
+        if (entry != null) {
+            synchronized (m_entries) {
+                entry.m_lastUpdate = lastUpdate;
+            }
+        }
+        return lastUpdate;
+    }
+
+    @Override
+    public long first(String filename, int archive) throws JRrd2Exception {
+        final Entry entry = getEntry(filename);
+        if (entry != null) {
+            synchronized (m_entries) {
+                final Long first = entry.m_firsts.get(archive);
+                if (first != null) {
+                    m_hits.incrementAndGet();
+                    return first;
+                }
+            }
+        }
+        m_misses.incrementAndGet();
+        final long first = super.first(filename, archive);
+        if (entry != null) {
+            synchronized (m_entries) {
+                entry.m_firsts.put(archive, first);
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Drops the cached metadata of the given file.
+     */
+    public void invalidate(String filename) {
+        if (filename == null) {
+            return;
+        }
+        synchronized (m_entries) {
+            if (m_entries.remove(filename) != null) {
+                m_invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops all of the cached metadata.
+     */
+    public void invalidateAll() {
+        synchronized (m_entries) {
+            m_invalidations.addAndGet(m_entries.size());
+            m_entries.clear();
+        }
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+
+    public long getInvalidations() {
+        return m_invalidations.get();
+    }
+
+    public int getSize() {
+        synchronized (m_entries) {
+            return m_entries.size();
+        }
+    }
+
+    /**
+     * Returns the entry of the given file, replacing it if the file changed since it was cached,
+     * or null if the file can't be read, in which case the call is left to the delegate.
+     *
+     * The attributes are read before calling the delegate, so that a change racing with
+     * the call leaves an entry that is replaced on the next lookup.
+     */
+    private Entry getEntry(String filename) {
+        if (filename == null) {
+            return null;
+        }
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(Paths.get(filename), BasicFileAttributes.class);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        final long lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        final long size = attributes.size();
+        final long now = System.nanoTime();
+
+        synchronized (m_entries) {
+            final Entry entry = m_entries.get(filename);
+            if (entry != null && entry.m_lastModified == lastModified && entry.m_size == size && now - entry.m_expiresAt < 0) {
+                return entry;
+            }
+            final Entry newEntry = new Entry(lastModified, size, now + m_maxAgeNanos);
+            m_entries.put(filename, newEntry);
+            if (entry == null && m_entries.size() > m_maxEntries) {
+                final Iterator<Map.Entry<String, Entry>> it = m_entries.entrySet().iterator();
+                it.next();
+                it.remove();
+                m_evictions.incrementAndGet();
+            }
+            return newEntry;
+        }
+    }
+}
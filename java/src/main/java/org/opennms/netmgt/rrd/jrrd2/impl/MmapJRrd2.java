@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.List;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdHandle;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+
+/**
+ * {@link JRrd2} that reads the RRD files directly from memory-mapped buffers
+ * instead of calling rrd_fetch_r(), returning the same results.
+ *
+ * Hot files are served from the page cache without crossing JNI or opening
+ * the file again. The most recently used mappings are kept in a {@link MappedRrdCache},
+ * and are replaced when the file they were created for is replaced on disk.
+ * Callers working on the same files repeatedly can {@link #open(String)} them
+ * to skip that check.
+ *
+ * Creates and updates are forwarded to the given delegate. Without a delegate,
+ * the instance is read-only and doesn't require the native library; exports
+ * are then evaluated by the {@link XportEngine}.
+ */
+public class MmapJRrd2 implements JRrd2 {
+
+    public static final int DEFAULT_MAX_MAPPED_FILES = MappedRrdCache.DEFAULT_MAX_MAPPINGS;
+
+    private final JRrd2 m_delegate;
+
+    private final XportEngine m_xportEngine;
+
+    private final MappedRrdCache m_mappings;
+
+    public MmapJRrd2() {
+        this(null, DEFAULT_MAX_MAPPED_FILES);
+    }
+
+    public MmapJRrd2(JRrd2 delegate) {
+        this(delegate, DEFAULT_MAX_MAPPED_FILES);
+    }
+
+    public MmapJRrd2(JRrd2 delegate, int maxMappedFiles) {
+        if (maxMappedFiles < 1) {
+            throw new IllegalArgumentException("maxMappedFiles must be strictly positive.");
+        }
+        m_delegate = delegate;
+        m_xportEngine = delegate == null ? new XportEngine(this, Runnable::run) : null;
+        m_mappings = new MappedRrdCache(maxMappedFiles);
+    }
+
+    /**
+     * Opens a handle on the given file, which can be fetched from without looking it up again.
+     */
+    public RrdHandle open(String filename) throws JRrd2Exception {
+        return m_mappings.open(filename);
+    }
+
+    @Override
+    public void create(final String filename, final long step, final long start, String[] argv) throws JRrd2Exception {
+        getDelegate("create").create(filename, step, start, argv);
+        // The file may have been replaced
+        unmap(filename);
+    }
+
+    @Override
+    public void update(final String filename, final String template, final String[] argv) throws JRrd2Exception {
+        getDelegate("update").update(filename, template, argv);
+    }
+
+    @Override
+    public void update(final String filename, final String template, final long[] timestamps, final double[] values) throws JRrd2Exception {
+        getDelegate("update").update(filename, template, timestamps, values);
+    }
+
+    @Override
+    public BatchResults update(final List<UpdateRequest> updates) throws JRrd2Exception {
+        return getDelegate("update").update(updates);
+    }
+
+    @Override
+    public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        return select(filename, cf, start, end, step).toFetchResults();
+    }
+
+    @Override
+    public void fetch(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+        if (buffer == null) {
+            throw new JRrd2Exception("buffer cannot be null.");
+        }
+        select(filename, cf, start, end, step).copyTo(buffer);
+    }
+
+    @Override
+    public DirectFetchResults fetchDirect(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        return select(filename, cf, start, end, step).toDirectFetchResults();
+    }
+
+    @Override
+    public FetchResults fetchWithMaxRows(String filename, String cf, long start, long end, long maxRows) throws JRrd2Exception {
+        if (cf == null) {
+            throw new JRrd2Exception("cf cannot be null.");
+        }
+        final MappedRrd rrd = getRrd(filename);
+        return rrd.fetch(cf, start, end, rrd.getStepForMaxRows(cf, start, end, maxRows)).toFetchResults();
+    }
+
+    @Override
+    public RrdInfo info(String filename) throws JRrd2Exception {
+        return getRrd(filename).toRrdInfo();
+    }
+
+    @Override
+    public LastUpdate lastUpdate(String filename) throws JRrd2Exception {
+        return getRrd(filename).toLastUpdate();
+    }
+
+    @Override
+    public long first(String filename, int archive) throws JRrd2Exception {
+        return getRrd(filename).getFirst(archive);
+    }
+
+    @Override
+    public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) throws JRrd2Exception {
+        if (m_xportEngine != null) {
+            return m_xportEngine.xport(start, end, step, maxrows, argv);
+        }
+        return m_delegate.xport(start, end, step, maxrows, argv);
+    }
+
+    /**
+     * Drops the cached mapping of the given file, if there is one.
+     *
+     * The file is unmapped once the garbage collector releases the mapping.
+     */
+    public void unmap(String filename) {
+        m_mappings.invalidate(filename);
+    }
+
+    /**
+     * Number of mappings referenced by the cache.
+     */
+    public int getMappedFileCount() {
+        return m_mappings.getSize();
+    }
+
+    public MappedRrdCache getMappingCache() {
+        return m_mappings;
+    }
+
+    MappedRrd getRrd(String filename) throws JRrd2Exception {
+        return m_mappings.getRrd(filename);
+    }
+
+    private MappedRrd.Selection select(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        if (cf == null) {
+            throw new JRrd2Exception("cf cannot be null.");
+        }
+        return getRrd(filename).fetch(cf, start, end, step);
+    }
+
+    private JRrd2 getDelegate(String operation) throws JRrd2Exception {
+        if (m_delegate == null) {
+            throw new JRrd2Exception(operation + " is not supported by a read-only " + getClass().getSimpleName() + ".");
+        }
+        return m_delegate;
+    }
+}
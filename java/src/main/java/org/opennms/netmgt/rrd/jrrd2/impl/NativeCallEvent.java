@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event recording a call into librrd.
+ *
+ * Only the calls that take longer than {@value #DEFAULT_THRESHOLD} are recorded
+ * by default, the threshold can be changed in the settings of the recording.
+ *
+ * This class must only be loaded once {@link NativeCallTrace#JFR_AVAILABLE} was checked.
+ */
+@Name(NativeCallEvent.NAME)
+@Label("JRrd2 Native Call")
+@Category({ "OpenNMS", "JRrd2" })
+@Description("A call into librrd made by JRrd2Jni.")
+@Threshold(NativeCallEvent.DEFAULT_THRESHOLD)
+final class NativeCallEvent extends Event implements NativeCallTrace {
+
+    static final String NAME = "org.opennms.jrrd2.NativeCall";
+
+    static final String DEFAULT_THRESHOLD = "20 ms";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Filename")
+    String filename;
+
+    @Label("Arguments")
+    @Description("Number of arguments, samples or updates passed to librrd")
+    int arguments;
+
+    @Label("Rows")
+    @Description("Number of rows returned, or of archives for info")
+    int rows;
+
+    @Label("Columns")
+    @Description("Number of columns returned, or of data sources for info and lastUpdate")
+    int columns;
+
+    @Label("Error")
+    String error;
+
+    @Label("Xport Lock Wait")
+    @Description("Time spent waiting on the other threads calling rrd_xport()")
+    @Timespan(Timespan.NANOSECONDS)
+    long xportLockWait;
+
+    static NativeCallTrace begin(String operation, String filename, int arguments) {
+        final NativeCallEvent event = new NativeCallEvent();
+        if (!event.isEnabled()) {
+            return NOOP;
+        }
+        event.operation = operation;
+        event.filename = filename;
+        event.arguments = arguments;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void setResult(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    @Override
+    public void setXportLockWait(long nanos) {
+        this.xportLockWait = nanos;
+    }
+
+    @Override
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+/**
+ * Context of a call into librrd made by {@link JRrd2Jni}, recorded as a
+ * Java Flight Recorder event when a recording is running and the call is slow enough.
+ *
+ * The methods of the interface do not reference any JFR type, so that {@link JRrd2Jni}
+ * keeps working on runtimes without the jdk.jfr module, see {@link #begin}.
+ */
+interface NativeCallTrace {
+
+    /**
+     * Set to "false" to never record the calls.
+     */
+    String JFR_PROPERTY = "opennms.jrrd2.jfr";
+
+    /**
+     * Whether the jdk.jfr module is present, and the recording of the calls was not disabled.
+     */
+    boolean JFR_AVAILABLE = !"false".equalsIgnoreCase(System.getProperty(JFR_PROPERTY))
+            && ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    NativeCallTrace NOOP = new NativeCallTrace() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void setResult(int rows, int columns) {
+            // pass
+        }
+
+        @Override
+        public void setXportLockWait(long nanos) {
+            // pass
+        }
+
+        @Override
+        public void setError(String error) {
+            // pass
+        }
+
+        @Override
+        public void commit() {
+            // pass
+        }
+    };
+
+    /**
+     * Starts timing a call, returns {@link #NOOP} when it cannot be recorded.
+     *
+     * @param arguments number of arguments, samples or updates passed to librrd
+     */
+    static NativeCallTrace begin(String operation, String filename, int arguments) {
+        if (!JFR_AVAILABLE) {
+            return NOOP;
+        }
+        return NativeCallEvent.begin(operation, filename, arguments);
+    }
+
+    boolean isEnabled();
+
+    void setResult(int rows, int columns);
+
+    void setXportLockWait(long nanos);
+
+    void setError(String error);
+
+    /**
+     * Ends the call, and records it if it took longer than the threshold of the recording.
+     */
+    void commit();
+}
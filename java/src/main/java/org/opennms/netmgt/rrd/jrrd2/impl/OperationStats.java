@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+final class OperationStats implements OperationStatsMXBean {
+
+    /**
+     * Distinct error messages that are tracked, past which they are counted as {@value #OTHER_ERRORS}.
+     */
+    private static final int MAX_ERROR_MESSAGES = 64;
+
+    private static final String OTHER_ERRORS = "(other)";
+
+    private static final Pattern QUOTED = Pattern.compile("'[^']*'");
+
+    private static final Pattern NUMBER = Pattern.compile("[0-9]+");
+
+    private final String m_name;
+
+    private final LatencyHistogram m_latency;
+
+    private final LongAdder m_errors = new LongAdder();
+
+    private final Map<String, LongAdder> m_errorsByMessage = new ConcurrentHashMap<>();
+
+    private final LongAdder m_rows = new LongAdder();
+
+    private final LongAdder m_bytes = new LongAdder();
+
+    OperationStats(String name) {
+        this(name, new LatencyHistogram());
+    }
+
+    OperationStats(String name, LatencyHistogram latency) {
+        m_name = name;
+        m_latency = latency;
+    }
+
+    void record(long startNanos) {
+        m_latency.record(System.nanoTime() - startNanos);
+    }
+
+    void recordValues(long rows, long values) {
+        m_rows.add(rows);
+        m_bytes.add(values * Double.BYTES);
+    }
+
+    void recordError(String message) {
+        m_errors.increment();
+        String key = classify(message);
+        if (!m_errorsByMessage.containsKey(key) && m_errorsByMessage.size() >= MAX_ERROR_MESSAGES) {
+            key = OTHER_ERRORS;
+        }
+        m_errorsByMessage.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Masks the parts of librrd's error messages that vary between calls,
+     * i.e. "opening '/a.rrd': No such file or directory" becomes "opening '*': No such file or directory".
+     */
+    static String classify(String message) {
+        if (message == null) {
+            return "(none)";
+        }
+        return NUMBER.matcher(QUOTED.matcher(message).replaceAll("'*'")).replaceAll("N");
+    }
+
+    @Override
+    public String getName() {
+        return m_name;
+    }
+
+    @Override
+    public long getCount() {
+        return m_latency.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return m_errors.sum();
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByMessage() {
+        final Map<String, Long> errors = new TreeMap<>();
+        m_errorsByMessage.forEach((message, count) -> errors.put(message, count.sum()));
+        return errors;
+    }
+
+    @Override
+    public long getRows() {
+        return m_rows.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return m_bytes.sum();
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        return m_latency.getMean() / 1000.0;
+    }
+
+    @Override
+    public double getLatency50thPercentileMicros() {
+        return m_latency.getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getLatency95thPercentileMicros() {
+        return m_latency.getValueAtPercentile(95) / 1000.0;
+    }
+
+    @Override
+    public double getLatency99thPercentileMicros() {
+        return m_latency.getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getLatency999thPercentileMicros() {
+        return m_latency.getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMaxLatencyMicros() {
+        return m_latency.getMax() / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        m_latency.reset();
+        m_errors.reset();
+        m_errorsByMessage.clear();
+        m_rows.reset();
+        m_bytes.reset();
+    }
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.Map;
+
+/**
+ * Statistics collected by the {@link InstrumentedJRrd2} for an operation.
+ */
+public interface OperationStatsMXBean {
+
+    String getName();
+
+    long getCount();
+
+    long getErrorCount();
+
+    /**
+     * Number of errors by message, with the file names and numbers masked.
+     */
+    Map<String, Long> getErrorsByMessage();
+
+    /**
+     * Number of rows returned, or of entries for batches.
+     */
+    long getRows();
+
+    /**
+     * Number of bytes of values returned.
+     */
+    long getBytes();
+
+    double getMeanLatencyMicros();
+
+    double getLatency50thPercentileMicros();
+
+    double getLatency95thPercentileMicros();
+
+    double getLatency99thPercentileMicros();
+
+    double getLatency999thPercentileMicros();
+
+    double getMaxLatencyMicros();
+
+    void reset();
+}
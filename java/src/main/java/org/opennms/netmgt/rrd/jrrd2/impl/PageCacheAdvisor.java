@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tells the kernel which parts of the RRD files are about to be updated, so that
+ * they are read ahead of time instead of page faulting in the middle of an update.
+ *
+ * An update only touches the header of a file and the current row of each archive.
+ * Those ranges are learned when a file is {@link #prewarm prewarmed}, and are hinted
+ * with posix_fadvise(POSIX_FADV_WILLNEED) by {@link #willNeed} before the update is
+ * made. Files that were never prewarmed get their first {@value #DEFAULT_HEADER_LENGTH}
+ * bytes hinted instead. The ranges drift as the archives wrap around, but they are
+ * only hints: a stale range costs a useless read ahead, not a wrong result.
+ *
+ * Hints require the native library. Without it, {@link #willNeed} does nothing and
+ * {@link #prewarm} reads the ranges instead, which loads them all the same.
+ */
+public class PageCacheAdvisor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PageCacheAdvisor.class);
+
+    public static final int NORMAL = 0;
+    public static final int RANDOM = 1;
+    public static final int SEQUENTIAL = 2;
+    public static final int WILL_NEED = 3;
+    public static final int DONT_NEED = 4;
+
+    public static final int DEFAULT_MAX_FILES = 100000;
+
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Enough to cover the header of a file with a few dozen data sources and archives.
+     */
+    public static final long DEFAULT_HEADER_LENGTH = 64 * 1024;
+
+    private static final int STAT_HEAD_SIZE = 128;
+
+    private final Map<String, long[]> m_ranges;
+
+    private final DiskLocality m_locality;
+
+    private final int m_parallelism;
+
+    public PageCacheAdvisor() {
+        this(DEFAULT_MAX_FILES, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param maxFiles maximum number of files whose ranges are remembered
+     * @param parallelism maximum number of files prewarmed at the same time
+     */
+    public PageCacheAdvisor(final int maxFiles, int parallelism) {
+        if (maxFiles < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("maxFiles and parallelism must be strictly positive.");
+        }
+        m_ranges = Collections.synchronizedMap(new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                return size() > maxFiles;
+            }
+        });
+        m_locality = new DiskLocality(maxFiles);
+        m_parallelism = parallelism;
+    }
+
+    /**
+     * Whether hints are actually given to the kernel.
+     */
+    public boolean isEnabled() {
+        return Interface.isLoaded();
+    }
+
+    /**
+     * Hints that the given file is about to be updated. Errors are ignored.
+     */
+    public void willNeed(String filename) {
+        if (filename == null || !isEnabled()) {
+            return;
+        }
+        long[] ranges = m_ranges.get(filename);
+        if (ranges == null) {
+            ranges = new long[] { 0, DEFAULT_HEADER_LENGTH };
+        }
+        try {
+            Interface.rrd_fadvise(filename, ranges, WILL_NEED);
+        } catch (JRrd2Exception e) {
+            LOG.debug("Failed to advise {}: {}", filename, e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets what was learned about the given file, which must be called when it is replaced.
+     */
+    public void forget(String filename) {
+        if (filename != null) {
+            m_ranges.remove(filename);
+            m_locality.invalidate(filename);
+        }
+    }
+
+    /**
+     * Prewarms the .rrd files found under the given directory that were modified
+     * within the given period, in the order in which they are laid out on disk.
+     *
+     * @return the number of files that were prewarmed
+     * @throws IOException if the directory cannot be listed
+     */
+    public int prewarm(Path root, long activeWithinMs) throws IOException, InterruptedException {
+        final long since = System.currentTimeMillis() - activeWithinMs;
+        final List<String> filenames;
+        try (Stream<Path> paths = Files.walk(root)) {
+            filenames = paths.filter(p -> p.getFileName().toString().endsWith(".rrd") && isModifiedSince(p, since))
+                    .map(Path::toString)
+                    .collect(Collectors.toList());
+        }
+        return prewarm(filenames);
+    }
+
+    /**
+     * Loads the header of the given files, remembers the ranges touched by
+     * their next update, and reads them ahead.
+     *
+     * @return the number of files that were prewarmed
+     */
+    public int prewarm(Collection<String> filenames) throws InterruptedException {
+        final List<String> sorted = new ArrayList<>(filenames);
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        m_locality.sort(sorted, f -> f);
+
+        final long started = System.nanoTime();
+        final AtomicInteger threadId = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(m_parallelism, sorted.size()), r -> {
+            final Thread t = new Thread(r, "jrrd2-prewarm-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        int warmed = 0;
+        try {
+            final List<Future<?>> futures = new ArrayList<>(sorted.size());
+            for (final String filename : sorted) {
+                futures.add(executor.submit(() -> {
+                    prewarm(filename);
+                    return null;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                    warmed++;
+                } catch (ExecutionException e) {
+                    LOG.debug("Failed to prewarm {}: {}", sorted.get(i), e.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        LOG.info("Prewarmed {} of {} files in {} ms.", warmed, sorted.size(), (System.nanoTime() - started) / 1000000);
+        return warmed;
+    }
+
+    /**
+     * Returns the ranges remembered for the given file, as pairs of offset and length.
+     */
+    long[] getRanges(String filename) {
+        final long[] ranges = m_ranges.get(filename);
+        return ranges != null ? ranges.clone() : null;
+    }
+
+    DiskLocality getLocality() {
+        return m_locality;
+    }
+
+    private void prewarm(String filename) throws JRrd2Exception {
+        final Path path = Paths.get(filename);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer statHead = ByteBuffer.allocate(STAT_HEAD_SIZE);
+            readFully(channel, statHead, 0);
+            final long headerSize = MappedRrd.getHeaderSize(filename, statHead);
+            if (headerSize > Integer.MAX_VALUE) {
+                throw new JRrd2Exception(String.format("'%s' has an invalid header", filename));
+            }
+            final ByteBuffer header = ByteBuffer.allocate((int) headerSize);
+            readFully(channel, header, 0);
+            final long[] ranges = new MappedRrd(filename, header, channel.size()).getHotRanges();
+            m_ranges.put(filename, ranges);
+
+            if (isEnabled()) {
+                Interface.rrd_fadvise(filename, ranges, WILL_NEED);
+            } else {
+                // The header was just read, read the rows as well
+                for (int i = 2; i < ranges.length; i += 2) {
+                    readFully(channel, ByteBuffer.allocate((int) ranges[i + 1]), ranges[i]);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            throw new JRrd2Exception(String.format("opening '%s': No such file or directory", filename));
+        } catch (IOException e) {
+            throw new JRrd2Exception(String.format("reading '%s': %s", filename, e.getMessage()));
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+        buffer.flip();
+    }
+
+    private static boolean isModifiedSince(Path path, long since) {
+        try {
+            return Files.isRegularFile(path) && Files.getLastModifiedTime(path).toMillis() >= since;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,699 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A write-behind {@link JRrd2} that queues updates in memory and
+ * applies them to the delegate in the background.
+ *
+ * All of the pending samples for a file are coalesced into a single call to
+ * {@link JRrd2#update(String, String, String[])}, which is flushed once the
+ * file has accumulated enough samples, or once the oldest sample is too old.
+ * Updates for a given file are always written by the same writer thread,
+ * so they reach the file in the order in which they were queued. They are
+ * handed over to the writer without blocking while the journal is locked, and
+ * the callers wait for the writer to catch up once the lock is released.
+ *
+ * Like rrdcached, samples that are timed with "N" are given the current time
+ * when they are queued instead of when they are written, and the samples timed
+ * in the same second for a given file are moved one second apart, so that they
+ * can be coalesced. Other times must be numeric: AT-style times are rejected.
+ *
+ * Reads flush the pending samples of the files they touch before they are
+ * forwarded, so that fetch and xport always see the queued values.
+ *
+ * Since updates are applied asynchronously, errors reported by the delegate
+ * are logged instead of being thrown back to the caller. librrd stops at the
+ * first sample of a coalesced update that it rejects, so when an update fails,
+ * the samples that are newer than the last update of the file are retried one
+ * at a time, and only the ones that are rejected again are dropped.
+ *
+ * The files that are flushed together are written in the order in which they
+ * are laid out on disk, and when a {@link PageCacheAdvisor} is given, the parts
+ * of the files touched by the updates are read ahead before the writers get to
+ * them, so that the writers spend less time waiting on page faults.
+ */
+public class QueuingJRrd2 extends DelegatingJRrd2 implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueuingJRrd2.class);
+
+    public static final int DEFAULT_NUM_SHARDS = 32;
+
+    public static final int DEFAULT_MAX_SAMPLES_PER_FILE = 64;
+
+    public static final long DEFAULT_MAX_AGE_MS = TimeUnit.MINUTES.toMillis(5);
+
+    public static final int DEFAULT_NUM_WRITERS = 4;
+
+    public static final int DEFAULT_WRITER_QUEUE_SIZE = 10000;
+
+    private final Shard[] m_shards;
+
+    private final int m_maxSamplesPerFile;
+
+    private final long m_maxAgeNanos;
+
+    private final Writer[] m_writers;
+
+    private final ScheduledExecutorService m_ager;
+
+    private final PageCacheAdvisor m_advisor;
+
+    private final DiskLocality m_locality;
+
+    private final AtomicLong m_pendingSamples = new AtomicLong();
+
+    private final AtomicLong m_writesCompleted = new AtomicLong();
+
+    private final AtomicLong m_writesFailed = new AtomicLong();
+
+    private final AtomicLong m_samplesDropped = new AtomicLong();
+
+    private volatile boolean m_closed = false;
+
+    public QueuingJRrd2(JRrd2 delegate) {
+        this(delegate, DEFAULT_NUM_SHARDS, DEFAULT_MAX_SAMPLES_PER_FILE, DEFAULT_MAX_AGE_MS, DEFAULT_NUM_WRITERS, DEFAULT_WRITER_QUEUE_SIZE);
+    }
+
+    /**
+     * @param delegate the implementation the coalesced updates are written to
+     * @param numShards number of independently locked partitions of the journal
+     * @param maxSamplesPerFile flush a file once this many samples are pending
+     * @param maxAgeMs flush a file once its oldest pending sample has been queued for this long
+     * @param numWriters number of threads used to write to the delegate
+     * @param writerQueueSize number of flushes that can be queued per writer before callers block
+     */
+    public QueuingJRrd2(JRrd2 delegate, int numShards, int maxSamplesPerFile, long maxAgeMs, int numWriters, int writerQueueSize) {
+        this(delegate, numShards, maxSamplesPerFile, maxAgeMs, numWriters, writerQueueSize, null);
+    }
+
+    /**
+     * @param delegate the implementation the coalesced updates are written to
+     * @param numShards number of independently locked partitions of the journal
+     * @param maxSamplesPerFile flush a file once this many samples are pending
+     * @param maxAgeMs flush a file once its oldest pending sample has been queued for this long
+     * @param numWriters number of threads used to write to the delegate
+     * @param writerQueueSize number of flushes that can be queued per writer before callers block
+     * @param advisor used to read ahead the files that are about to be written, or null
+     */
+    public QueuingJRrd2(JRrd2 delegate, int numShards, int maxSamplesPerFile, long maxAgeMs, int numWriters, int writerQueueSize,
+            PageCacheAdvisor advisor) {
+        super(delegate);
+        if (numShards < 1 || maxSamplesPerFile < 1 || maxAgeMs < 1 || numWriters < 1 || writerQueueSize < 1) {
+            throw new IllegalArgumentException("numShards, maxSamplesPerFile, maxAgeMs, numWriters and writerQueueSize must be positive.");
+        }
+        m_maxSamplesPerFile = maxSamplesPerFile;
+        m_maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+        m_advisor = advisor;
+        m_locality = advisor != null ? advisor.getLocality() : new DiskLocality();
+
+        m_shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            m_shards[i] = new Shard();
+        }
+
+        // Use a single thread per writer so that the flushes for any given file are serialized
+        m_writers = new Writer[numWriters];
+        final AtomicInteger writerId = new AtomicInteger();
+        for (int i = 0; i < numWriters; i++) {
+            m_writers[i] = new Writer(new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(),
+                    r -> daemon(r, "jrrd2-writer-" + writerId.incrementAndGet())),
+                    writerQueueSize);
+        }
+
+        m_ager = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "jrrd2-writer-ager"));
+        final long scanIntervalMs = Math.max(1, Math.min(maxAgeMs / 2, 1000));
+        m_ager.scheduleWithFixedDelay(this::flushExpired, scanIntervalMs, scanIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void create(final String filename, final long step, final long start, String[] argv) throws JRrd2Exception {
+        // Don't let samples destined to a previous incarnation of the file hit the new one
+        flush(filename);
+        super.create(filename, step, start, argv);
+        // The file was replaced
+        m_locality.invalidate(filename);
+        if (m_advisor != null) {
+            m_advisor.forget(filename);
+        }
+    }
+
+    @Override
+    public void update(final String filename, final String template, final String[] argv) throws JRrd2Exception {
+        if (filename == null) {
+            throw new JRrd2Exception("filename cannot be null.");
+        }
+        if (argv == null) {
+            throw new JRrd2Exception("argv cannot be null.");
+        }
+        if (m_closed) {
+            throw new JRrd2Exception("the update queue is closed.");
+        }
+        enqueue(filename, template, argv);
+    }
+
+    /**
+     * The samples are formatted as strings so that they can be coalesced with the other pending samples.
+     */
+    @Override
+    public void update(final String filename, final String template, final long[] timestamps, final double[] values) throws JRrd2Exception {
+        update(filename, template, UpdateRequest.formatSamples(timestamps, values));
+    }
+
+    @Override
+    public BatchResults update(final List<UpdateRequest> updates) throws JRrd2Exception {
+        if (updates == null) {
+            throw new JRrd2Exception("updates cannot be null.");
+        }
+        final String[] errors = new String[updates.size()];
+        int i = 0;
+        for (final UpdateRequest update : updates) {
+            try {
+                if (update == null) {
+                    throw new JRrd2Exception("update cannot be null.");
+                }
+                update(update.getFilename(), update.getTemplate(), update.getArgv());
+            } catch (JRrd2Exception e) {
+                errors[i] = e.getMessage();
+            }
+            i++;
+        }
+        return new BatchResults(errors);
+    }
+
+    @Override
+    public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        flush(filename);
+        return super.fetch(filename, cf, start, end, step);
+    }
+
+    @Override
+    public void fetch(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+        flush(filename);
+        super.fetch(filename, cf, start, end, step, buffer);
+    }
+
+    @Override
+    public DirectFetchResults fetchDirect(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        flush(filename);
+        return super.fetchDirect(filename, cf, start, end, step);
+    }
+
+    @Override
+    public FetchResults fetchWithMaxRows(String filename, String cf, long start, long end, long maxRows) throws JRrd2Exception {
+        flush(filename);
+        return super.fetchWithMaxRows(filename, cf, start, end, maxRows);
+    }
+
+    @Override
+    public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) throws JRrd2Exception {
+        for (final String filename : XportArguments.getFilenames(argv)) {
+            flush(filename);
+        }
+        return super.xport(start, end, step, maxrows, argv);
+    }
+
+    @Override
+    public RrdInfo info(String filename) throws JRrd2Exception {
+        flush(filename);
+        return super.info(filename);
+    }
+
+    @Override
+    public LastUpdate lastUpdate(String filename) throws JRrd2Exception {
+        flush(filename);
+        return super.lastUpdate(filename);
+    }
+
+    @Override
+    public long first(String filename, int archive) throws JRrd2Exception {
+        flush(filename);
+        return super.first(filename, archive);
+    }
+
+    /**
+     * Writes the pending samples for the given file, and waits
+     * until all of the previously queued writes for it have completed.
+     */
+    public void flush(String filename) {
+        if (filename == null) {
+            return;
+        }
+        final Shard shard = getShard(filename);
+        final PendingFile pending;
+        final Future<?> barrier;
+        synchronized (shard) {
+            // Submit a write, or an empty barrier, and wait for it: the writer is FIFO
+            pending = shard.files.remove(filename);
+            barrier = submit(filename, pending);
+        }
+        handedOver(filename, pending);
+        try {
+            barrier.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.warn("Failed to flush pending updates for {}.", filename, e);
+        }
+    }
+
+    /**
+     * Writes all of the pending samples, and waits until all of the queued writes have completed.
+     */
+    public void flush() {
+        submitAll(pending -> true);
+        final List<Future<?>> barriers = new ArrayList<>(m_writers.length);
+        for (final Writer writer : m_writers) {
+            try {
+                barriers.add(writer.executor.submit(() -> {}));
+            } catch (RejectedExecutionException e) {
+                // Already shut down, nothing left to wait for
+            }
+        }
+        for (final Future<?> barrier : barriers) {
+            try {
+                barrier.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOG.warn("Failed to flush pending updates.", e);
+            }
+        }
+    }
+
+    /**
+     * Flushes all of the pending samples and stops the writers.
+     */
+    @Override
+    public void close() {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        m_ager.shutdownNow();
+        flush();
+        for (final Writer writer : m_writers) {
+            writer.executor.shutdown();
+        }
+        for (final Writer writer : m_writers) {
+            try {
+                writer.executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public long getPendingSamples() {
+        return m_pendingSamples.get();
+    }
+
+    public long getWritesCompleted() {
+        return m_writesCompleted.get();
+    }
+
+    public long getWritesFailed() {
+        return m_writesFailed.get();
+    }
+
+    public long getSamplesDropped() {
+        return m_samplesDropped.get();
+    }
+
+    private void enqueue(String filename, String template, String[] argv) throws JRrd2Exception {
+        final Shard shard = getShard(filename);
+        PendingFile replaced = null;
+        PendingFile full = null;
+        synchronized (shard) {
+            // Resolved while holding the lock, so that the times follow the order of the queue
+            final String[] samples = resolveTimes(shard, filename, argv);
+            m_pendingSamples.addAndGet(samples.length);
+            PendingFile pending = shard.files.get(filename);
+            if (pending != null && !Objects.equals(pending.template, template)) {
+                // Samples can only be coalesced when they share the same template
+                replaced = shard.files.remove(filename);
+                submit(filename, replaced);
+                pending = null;
+            }
+            if (pending == null) {
+                pending = new PendingFile(filename, template, System.nanoTime());
+                shard.files.put(filename, pending);
+            }
+            pending.samples.addAll(Arrays.asList(samples));
+            if (pending.samples.size() >= m_maxSamplesPerFile) {
+                full = shard.files.remove(filename);
+                submit(filename, full);
+            }
+        }
+        handedOver(filename, replaced);
+        handedOver(filename, full);
+    }
+
+    private void flushExpired() {
+        final long now = System.nanoTime();
+        submitAll(pending -> now - pending.queuedAt >= m_maxAgeNanos);
+        // The times that are in the past can't be given again
+        final long second = currentSecond();
+        for (final Shard shard : m_shards) {
+            synchronized (shard) {
+                shard.lastTimes.values().removeIf(time -> time < second);
+            }
+        }
+    }
+
+    /**
+     * Replaces "N" with the current time, or with the second following the last
+     * one given to the file when it was already used, and validates the other times.
+     *
+     * This must be called while holding the lock of the file's shard.
+     */
+    private static String[] resolveTimes(Shard shard, String filename, String[] argv) throws JRrd2Exception {
+        final String[] samples = argv.clone();
+        for (int i = 0; i < samples.length; i++) {
+            final String sample = samples[i];
+            if (sample == null) {
+                throw new JRrd2Exception("argv cannot contain null samples.");
+            }
+            if (sample.startsWith("N:")) {
+                final Long last = shard.lastTimes.get(filename);
+                final long second = currentSecond();
+                final long time = last != null && last >= second ? last + 1 : second;
+                shard.lastTimes.put(filename, time);
+                samples[i] = time + sample.substring(1);
+            } else if (!(getTimestamp(sample) < Double.POSITIVE_INFINITY)) {
+                throw new JRrd2Exception("Unsupported time in sample '" + sample + "': queued samples must be timed with a number or N.");
+            }
+        }
+        return samples;
+    }
+
+    private static long currentSecond() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    /**
+     * Submits the files that match the given filter in the order in which they
+     * are laid out on disk, after hinting that they are about to be written.
+     *
+     * The files are only picked on the first pass, and are detached on the second
+     * one, so that they can be sorted and read ahead without holding the locks.
+     */
+    private void submitAll(Predicate<PendingFile> filter) {
+        final List<String> filenames = new ArrayList<>();
+        for (final Shard shard : m_shards) {
+            synchronized (shard) {
+                for (final PendingFile pending : shard.files.values()) {
+                    if (filter.test(pending)) {
+                        filenames.add(pending.filename);
+                    }
+                }
+            }
+        }
+        if (filenames.isEmpty()) {
+            return;
+        }
+        m_locality.sort(filenames, Function.identity());
+        if (m_advisor != null) {
+            for (final String filename : filenames) {
+                m_advisor.willNeed(filename);
+            }
+        }
+        for (final String filename : filenames) {
+            final Shard shard = getShard(filename);
+            PendingFile pending;
+            synchronized (shard) {
+                pending = shard.files.get(filename);
+                // The file may have been flushed, and queued again, in the meantime
+                if (pending != null && filter.test(pending)) {
+                    submit(filename, shard.files.remove(filename));
+                } else {
+                    pending = null;
+                }
+            }
+            handedOver(filename, pending);
+        }
+    }
+
+    /**
+     * Hands the pending samples of a file over to its writer, or queues an empty
+     * barrier when there are none. Once the writers are shut down, the samples
+     * are set aside to be written by the calling thread instead.
+     *
+     * This must be called while holding the lock of the file's shard, so that
+     * the writes for any given file are queued in the same order in which they
+     * were detached from the journal, and must be followed by a call to
+     * {@link #handedOver(String, PendingFile)} once the lock is released.
+     * It never blocks.
+     */
+    private Future<?> submit(String filename, PendingFile pending) {
+        final Writer writer = getWriter(filename);
+        try {
+            return writer.executor.submit(() -> {
+                if (pending != null) {
+                    try {
+                        write(pending);
+                    } finally {
+                        writer.permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (pending != null) {
+                writer.rejected.add(pending);
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Waits until the writer of the file has room for the samples that were just
+     * submitted, or writes the samples that it rejected from the calling thread.
+     *
+     * This must be called without holding any lock.
+     */
+    private void handedOver(String filename, PendingFile pending) {
+        if (pending == null) {
+            return;
+        }
+        final Writer writer = getWriter(filename);
+        if (writer.executor.isShutdown()) {
+            writeRejected(writer);
+            return;
+        }
+        // Apply back-pressure to the callers instead of dropping or re-ordering writes. The
+        // write is already queued, so the permit is taken even if the caller is interrupted
+        writer.permits.acquireUninterruptibly();
+    }
+
+    /**
+     * Writes the samples rejected by a writer that was shut down, in the order in which they
+     * were rejected, once it has drained the writes that were already queued.
+     */
+    private void writeRejected(Writer writer) {
+        synchronized (writer.rejected) {
+            final boolean drained = awaitTermination(writer.executor);
+            PendingFile pending;
+            while ((pending = writer.rejected.poll()) != null) {
+                if (drained) {
+                    write(pending);
+                } else {
+                    drop(pending, "the writer could not be drained");
+                }
+            }
+        }
+    }
+
+    private void write(PendingFile pending) {
+        final String[] argv = pending.samples.toArray(new String[0]);
+        try {
+            getDelegate().update(pending.filename, pending.template, argv);
+            m_writesCompleted.incrementAndGet();
+        } catch (JRrd2Exception|RuntimeException e) {
+            m_writesFailed.incrementAndGet();
+            final int dropped = argv.length > 1 ? retryOneByOne(pending, argv) : 1;
+            m_samplesDropped.addAndGet(dropped);
+            LOG.warn("Failed to write {} of {} queued samples to {}: {}", dropped, argv.length, pending.filename, e.getMessage());
+        } finally {
+            m_pendingSamples.addAndGet(-argv.length);
+        }
+    }
+
+    /**
+     * librrd stops at the first sample that it rejects, but keeps the ones that
+     * were applied before it. Retries the samples that are newer than the last
+     * update of the file one at a time, so that a single bad sample doesn't cost
+     * all of the ones that were queued after it.
+     *
+     * @return the number of samples that were rejected again
+     */
+    private int retryOneByOne(PendingFile pending, String[] argv) {
+        final long lastUpdate;
+        try {
+            lastUpdate = getDelegate().lastUpdate(pending.filename).getTimestamp();
+        } catch (JRrd2Exception|RuntimeException e) {
+            // Without the last update, there is no telling which samples were applied
+            return argv.length;
+        }
+        int dropped = 0;
+        for (final String sample : argv) {
+            if (getTimestamp(sample) <= lastUpdate) {
+                // Applied by the coalesced update
+                continue;
+            }
+            try {
+                getDelegate().update(pending.filename, pending.template, new String[] { sample });
+            } catch (JRrd2Exception|RuntimeException e) {
+                dropped++;
+                LOG.debug("Failed to write sample {} to {}: {}", sample, pending.filename, e.getMessage());
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Returns the timestamp of the given sample, or +Infinity when it isn't a number.
+     */
+    private static double getTimestamp(String sample) {
+        final int colon = sample.indexOf(':');
+        try {
+            return Double.parseDouble(colon < 0 ? sample : sample.substring(0, colon));
+        } catch (NumberFormatException e) {
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+
+    private void drop(PendingFile pending, String reason) {
+        final int count = pending.samples.size();
+        m_writesFailed.incrementAndGet();
+        m_samplesDropped.addAndGet(count);
+        m_pendingSamples.addAndGet(-count);
+        LOG.warn("Dropped {} queued samples for {}: {}.", count, pending.filename, reason);
+    }
+
+    private static boolean awaitTermination(ThreadPoolExecutor writer) {
+        try {
+            return writer.isShutdown() && writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Shard getShard(String filename) {
+        return m_shards[index(filename, m_shards.length)];
+    }
+
+    private Writer getWriter(String filename) {
+        return m_writers[index(filename, m_writers.length)];
+    }
+
+    static int index(String filename, int n) {
+        final int h = filename.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % n;
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        final Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    private static class Shard {
+        private final Map<String, PendingFile> files = new HashMap<>();
+        // Last time given to "N" for each file, until it is in the past
+        private final Map<String, Long> lastTimes = new HashMap<>();
+    }
+
+    private static class Writer {
+        private final ThreadPoolExecutor executor;
+        // Held by the writes that are queued or running
+        private final Semaphore permits;
+        private final Queue<PendingFile> rejected = new ConcurrentLinkedQueue<>();
+
+        private Writer(ThreadPoolExecutor executor, int queueSize) {
+            this.executor = executor;
+            this.permits = new Semaphore(queueSize);
+        }
+    }
+
+    private static class PendingFile {
+        private final String filename;
+        private final String template;
+        private final long queuedAt;
+        private final List<String> samples = new ArrayList<>();
+
+        private PendingFile(String filename, String template, long queuedAt) {
+            this.filename = filename;
+            this.template = template;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+
+/**
+ * A compiled CDEF expression, evaluated one row at a time
+ * with the same semantics as librrd's rpn_calc().
+ */
+class Rpn {
+
+    private static final Pattern NUMBER = Pattern.compile("[-+]?([0-9]+\\.?[0-9]*|\\.[0-9]+)([eE][-+]?[0-9]+)?");
+
+    private enum Op {
+        NUMBER(0, 1), VARIABLE(0, 1), PREV_VARIABLE(0, 1),
+        ADD(2, 1), SUB(2, 1), MUL(2, 1), DIV(2, 1), MOD(2, 1), ADDNAN(2, 1), POW(2, 1), ATAN2(2, 1),
+        LT(2, 1), LE(2, 1), GT(2, 1), GE(2, 1), EQ(2, 1), NE(2, 1),
+        MIN(2, 1), MAX(2, 1), MINNAN(2, 1), MAXNAN(2, 1),
+        SIN(1, 1), COS(1, 1), LOG(1, 1), EXP(1, 1), SQRT(1, 1), ATAN(1, 1), FLOOR(1, 1), CEIL(1, 1),
+        ABS(1, 1), DEG2RAD(1, 1), RAD2DEG(1, 1), UN(1, 1), ISINF(1, 1),
+        IF(3, 1), LIMIT(3, 1),
+        DUP(1, 2), POP(1, 0), EXC(2, 2),
+        UNKN(0, 1), INF(0, 1), NEGINF(0, 1), PREV(0, 1), COUNT(0, 1), TIME(0, 1), NOW(0, 1), STEPWIDTH(0, 1),
+        AVG(-1, 1);
+
+        private final int pops;
+        private final int pushes;
+
+        Op(int pops, int pushes) {
+            this.pops = pops;
+            this.pushes = pushes;
+        }
+    }
+
+    private final String m_expression;
+
+    private final Op[] m_ops;
+
+    private final double[] m_numbers;
+
+    private final int[] m_variables;
+
+    private final double[] m_stack;
+
+    private double m_prev = Double.NaN;
+
+    private Rpn(String expression, Op[] ops, double[] numbers, int[] variables, int maxDepth) {
+        m_expression = expression;
+        m_ops = ops;
+        m_numbers = numbers;
+        m_variables = variables;
+        m_stack = new double[Math.max(1, maxDepth)];
+    }
+
+    /**
+     * Parses the given expression.
+     *
+     * @param variables maps the names of the variables that may be referenced to their index
+     * @param referenced is populated with the indices of the variables that are referenced
+     */
+    public static Rpn compile(String expression, Map<String, Integer> variables, Set<Integer> referenced) throws JRrd2Exception {
+        final String[] tokens = expression.split(",", -1);
+        final List<Op> ops = new ArrayList<>(tokens.length);
+        final double[] numbers = new double[tokens.length];
+        final int[] vars = new int[tokens.length];
+        int depth = 0;
+        int maxDepth = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            final String token = tokens[i].trim();
+            Op op;
+            if (NUMBER.matcher(token).matches()) {
+                op = Op.NUMBER;
+                numbers[i] = Double.parseDouble(token);
+            } else if (variables.containsKey(token)) {
+                op = Op.VARIABLE;
+                vars[i] = variables.get(token);
+                referenced.add(vars[i]);
+            } else if (token.startsWith("PREV(") && token.endsWith(")")
+                    && variables.containsKey(token.substring(5, token.length() - 1))) {
+                op = Op.PREV_VARIABLE;
+                vars[i] = variables.get(token.substring(5, token.length() - 1));
+                referenced.add(vars[i]);
+            } else {
+                op = toOp(token);
+            }
+
+            if (op == Op.AVG) {
+                // The number of arguments is on the stack, we only support literal counts
+                final int count = i > 0 && ops.get(i - 1) == Op.NUMBER ? (int)numbers[i - 1] : -1;
+                if (count < 0 || count != numbers[i - 1]) {
+                    throw new UnsupportedXportException("Unsupported argument count for AVG in '" + expression + "'");
+                }
+                if (depth < count + 1) {
+                    throw new JRrd2Exception("RPN stack underflow in '" + expression + "'");
+                }
+                depth -= count;
+            } else {
+                if (depth < op.pops) {
+                    throw new JRrd2Exception("RPN stack underflow in '" + expression + "'");
+                }
+                depth += op.pushes - op.pops;
+            }
+            maxDepth = Math.max(maxDepth, depth);
+            ops.add(op);
+        }
+        return new Rpn(expression, ops.toArray(new Op[0]), numbers, vars, maxDepth);
+    }
+
+    private static Op toOp(String token) throws JRrd2Exception {
+        switch (token) {
+            case "+": return Op.ADD;
+            case "-": return Op.SUB;
+            case "*": return Op.MUL;
+            case "/": return Op.DIV;
+            case "%": return Op.MOD;
+            case "NUMBER":
+            case "VARIABLE":
+            case "PREV_VARIABLE":
+                break;
+            default:
+                try {
+                    return Op.valueOf(token);
+                } catch (IllegalArgumentException e) {
+                    // fall through
+                }
+        }
+        throw new UnsupportedXportException("Unsupported RPN token '" + token + "'");
+    }
+
+    /**
+     * Evaluates the expression for a single row.
+     *
+     * @param values the current value of every variable
+     * @param prevValues the value of every variable at the previous row
+     * @param row index of the row, starting at 0
+     * @param time the time of the row
+     * @param step the width of the row
+     */
+    public double evaluate(double[] values, double[] prevValues, int row, long time, long step) throws JRrd2Exception {
+        final double[] s = m_stack;
+        int sp = -1;
+        for (int i = 0; i < m_ops.length; i++) {
+            switch (m_ops[i]) {
+                case NUMBER: s[++sp] = m_numbers[i]; break;
+                case VARIABLE: s[++sp] = values[m_variables[i]]; break;
+                case PREV_VARIABLE: s[++sp] = prevValues[m_variables[i]]; break;
+                case ADD: sp--; s[sp] = s[sp] + s[sp + 1]; break;
+                case SUB: sp--; s[sp] = s[sp] - s[sp + 1]; break;
+                case MUL: sp--; s[sp] = s[sp] * s[sp + 1]; break;
+                case DIV: sp--; s[sp] = s[sp] / s[sp + 1]; break;
+                case MOD: sp--; s[sp] = s[sp] % s[sp + 1]; break;
+                case ADDNAN: sp--;
+                    if (Double.isNaN(s[sp])) {
+                        s[sp] = s[sp + 1];
+                    } else if (!Double.isNaN(s[sp + 1])) {
+                        s[sp] = s[sp] + s[sp + 1];
+                    }
+                    break;
+                case POW: sp--; s[sp] = Math.pow(s[sp], s[sp + 1]); break;
+                case ATAN2: sp--; s[sp] = Math.atan2(s[sp], s[sp + 1]); break;
+                case LT: sp--; s[sp] = compare(s[sp], s[sp + 1], s[sp] < s[sp + 1]); break;
+                case LE: sp--; s[sp] = compare(s[sp], s[sp + 1], s[sp] <= s[sp + 1]); break;
+                case GT: sp--; s[sp] = compare(s[sp], s[sp + 1], s[sp] > s[sp + 1]); break;
+                case GE: sp--; s[sp] = compare(s[sp], s[sp + 1], s[sp] >= s[sp + 1]); break;
+                case EQ: sp--; s[sp] = compare(s[sp], s[sp + 1], s[sp] == s[sp + 1]); break;
+                case NE: sp--; s[sp] = compare(s[sp], s[sp + 1], s[sp] != s[sp + 1]); break;
+                case MIN: sp--;
+                    if (Double.isNaN(s[sp + 1]) || (!Double.isNaN(s[sp]) && s[sp + 1] < s[sp])) {
+                        s[sp] = s[sp + 1];
+                    }
+                    break;
+                case MAX: sp--;
+                    if (Double.isNaN(s[sp + 1]) || (!Double.isNaN(s[sp]) && s[sp + 1] > s[sp])) {
+                        s[sp] = s[sp + 1];
+                    }
+                    break;
+                case MINNAN: sp--;
+                    if (Double.isNaN(s[sp]) || (!Double.isNaN(s[sp + 1]) && s[sp + 1] < s[sp])) {
+                        s[sp] = s[sp + 1];
+                    }
+                    break;
+                case MAXNAN: sp--;
+                    if (Double.isNaN(s[sp]) || (!Double.isNaN(s[sp + 1]) && s[sp + 1] > s[sp])) {
+                        s[sp] = s[sp + 1];
+                    }
+                    break;
+                case SIN: s[sp] = Math.sin(s[sp]); break;
+                case COS: s[sp] = Math.cos(s[sp]); break;
+                case LOG: s[sp] = Math.log(s[sp]); break;
+                case EXP: s[sp] = Math.exp(s[sp]); break;
+                case SQRT: s[sp] = Math.sqrt(s[sp]); break;
+                case ATAN: s[sp] = Math.atan(s[sp]); break;
+                case FLOOR: s[sp] = Math.floor(s[sp]); break;
+                case CEIL: s[sp] = Math.ceil(s[sp]); break;
+                case ABS: s[sp] = Math.abs(s[sp]); break;
+                case DEG2RAD: s[sp] = Math.toRadians(s[sp]); break;
+                case RAD2DEG: s[sp] = Math.toDegrees(s[sp]); break;
+                case UN: s[sp] = Double.isNaN(s[sp]) ? 1.0 : 0.0; break;
+                case ISINF: s[sp] = Double.isInfinite(s[sp]) ? 1.0 : 0.0; break;
+                case IF: sp -= 2; s[sp] = s[sp] != 0.0 ? s[sp + 1] : s[sp + 2]; break;
+                case LIMIT: sp -= 2;
+                    if (Double.isNaN(s[sp + 1]) || Double.isNaN(s[sp + 2]) || s[sp] < s[sp + 1] || s[sp] > s[sp + 2]) {
+                        s[sp] = Double.NaN;
+                    }
+                    break;
+                case DUP: s[sp + 1] = s[sp]; sp++; break;
+                case POP: sp--; break;
+                case EXC: { final double tmp = s[sp]; s[sp] = s[sp - 1]; s[sp - 1] = tmp; } break;
+                case UNKN: s[++sp] = Double.NaN; break;
+                case INF: s[++sp] = Double.POSITIVE_INFINITY; break;
+                case NEGINF: s[++sp] = Double.NEGATIVE_INFINITY; break;
+                case PREV: s[++sp] = row == 0 ? Double.NaN : m_prev; break;
+                case COUNT: s[++sp] = row + 1; break;
+                case TIME: s[++sp] = time; break;
+                case NOW: s[++sp] = System.currentTimeMillis() / 1000L; break;
+                case STEPWIDTH: s[++sp] = step; break;
+                case AVG: {
+                    final double count = s[sp--];
+                    if (Double.isNaN(count) || count < 0 || count > sp + 1 || count != Math.floor(count)) {
+                        throw new JRrd2Exception("Invalid number of arguments to AVG in '" + m_expression + "'");
+                    }
+                    double sum = 0;
+                    int valid = 0;
+                    for (int k = 0; k < (int)count; k++) {
+                        final double v = s[sp--];
+                        if (!Double.isNaN(v)) {
+                            sum += v;
+                            valid++;
+                        }
+                    }
+                    s[++sp] = valid > 0 ? sum / valid : Double.NaN;
+                    break;
+                }
+                default:
+                    throw new UnsupportedXportException("Unsupported RPN operator " + m_ops[i]);
+            }
+        }
+        if (sp != 0) {
+            throw new JRrd2Exception("RPN final stack size != 1 in '" + m_expression + "'");
+        }
+        m_prev = s[0];
+        return s[0];
+    }
+
+    private static double compare(double a, double b, boolean result) {
+        if (Double.isNaN(a) || Double.isNaN(b)) {
+            return Double.NaN;
+        }
+        return result ? 1.0 : 0.0;
+    }
+}
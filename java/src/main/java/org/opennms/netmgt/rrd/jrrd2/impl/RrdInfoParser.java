@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+
+/**
+ * Converts the flattened results of the rrd_info_r() and rrd_lastupdate_r() natives.
+ */
+final class RrdInfoParser {
+
+    private static final Pattern DS_KEY = Pattern.compile("ds\\[(.+)\\]\\.([a-z_]+)");
+
+    private static final Pattern RRA_KEY = Pattern.compile("rra\\[(\\d+)\\]\\.([a-z_]+)");
+
+    private RrdInfoParser() {
+    }
+
+    /**
+     * Builds the {@link RrdInfo} from the keys and values returned by {@link Interface#rrd_info_r(String)}.
+     */
+    static RrdInfo parseInfo(String filename, String[] entries) throws JRrd2Exception {
+        final Map<String, String> header = new HashMap<>();
+        // Data sources are listed in order, but the older versions of librrd don't report their index
+        final Map<String, Map<String, String>> dataSources = new LinkedHashMap<>();
+        final Map<Integer, Map<String, String>> archives = new TreeMap<>();
+        for (int i = 0; i + 1 < entries.length; i += 2) {
+            final String key = entries[i];
+            final String value = entries[i + 1];
+            Matcher m = DS_KEY.matcher(key);
+            if (m.matches()) {
+                dataSources.computeIfAbsent(m.group(1), k -> new HashMap<>()).put(m.group(2), value);
+                continue;
+            }
+            m = RRA_KEY.matcher(key);
+            if (m.matches()) {
+                archives.computeIfAbsent(Integer.valueOf(m.group(1)), k -> new HashMap<>()).put(m.group(2), value);
+                continue;
+            }
+            header.put(key, value);
+        }
+
+        final long step = parseLong(header, "step");
+        final RrdInfo.DataSource[] ds = new RrdInfo.DataSource[dataSources.size()];
+        int position = 0;
+        for (Map.Entry<String, Map<String, String>> entry : dataSources.entrySet()) {
+            final Map<String, String> def = entry.getValue();
+            final long index = def.containsKey("index") ? parseLong(def, "index") : position;
+            position++;
+            if (index < 0 || index >= ds.length || ds[(int)index] != null) {
+                throw new JRrd2Exception(String.format("invalid index for data source '%s': %d", entry.getKey(), index));
+            }
+            ds[(int)index] = new RrdInfo.DataSource(entry.getKey(), def.get("type"),
+                    def.containsKey("minimal_heartbeat") ? parseLong(def, "minimal_heartbeat") : 0,
+                    def.containsKey("min") ? parseDouble(def, "min") : Double.NaN,
+                    def.containsKey("max") ? parseDouble(def, "max") : Double.NaN);
+        }
+
+        final RrdInfo.Archive[] rra = new RrdInfo.Archive[archives.size()];
+        int i = 0;
+        for (Map<String, String> def : archives.values()) {
+            final long pdpCount = parseLong(def, "pdp_per_row");
+            rra[i++] = new RrdInfo.Archive(def.get("cf"), parseLong(def, "rows"), pdpCount,
+                    def.containsKey("xff") ? parseDouble(def, "xff") : Double.NaN, step * pdpCount);
+        }
+
+        return new RrdInfo(filename, header.get("rrd_version"), step, parseLong(header, "last_update"), ds, rra);
+    }
+
+    /**
+     * Builds the {@link LastUpdate} from the values returned by {@link Interface#rrd_lastupdate_r(String)}.
+     */
+    static LastUpdate parseLastUpdate(String[] entries) throws JRrd2Exception {
+        if (entries.length < 1 || entries.length % 2 != 1) {
+            throw new JRrd2Exception("invalid results for rrd_lastupdate_r(): " + entries.length + " entries.");
+        }
+        final int numColumns = entries.length / 2;
+        final String[] columns = new String[numColumns];
+        final String[] values = new String[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            columns[i] = entries[1 + 2 * i];
+            values[i] = entries[2 + 2 * i];
+        }
+        try {
+            return new LastUpdate(Long.parseLong(entries[0]), columns, values);
+        } catch (NumberFormatException e) {
+            throw new JRrd2Exception("invalid last update: " + entries[0]);
+        }
+    }
+
+    private static long parseLong(Map<String, String> entries, String key) throws JRrd2Exception {
+        final String value = entries.get(key);
+        if (value == null) {
+            throw new JRrd2Exception(String.format("missing '%s' in the results of rrd_info_r().", key));
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new JRrd2Exception(String.format("invalid value for '%s': %s", key, value));
+        }
+    }
+
+    private static double parseDouble(Map<String, String> entries, String key) throws JRrd2Exception {
+        final String value = entries.get(key);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new JRrd2Exception(String.format("invalid value for '%s': %s", key, value));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+/**
+ * Plain loops, used when the Vector API is not available.
+ */
+final class ScalarColumnKernels implements ColumnKernels {
+
+    static final ScalarColumnKernels INSTANCE = new ScalarColumnKernels();
+
+    private ScalarColumnKernels() {
+    }
+
+    @Override
+    public void summarize(double[] values, int from, int to, double[] stats) {
+        long count = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            final double value = values[i];
+            if (value == value) {
+                count++;
+                // Cheaper than Math.min() and Math.max(), which also order the zeros
+                min = value < min ? value : min;
+                max = value > max ? value : max;
+                sum += value;
+            }
+        }
+        stats[0] = count;
+        stats[1] = min;
+        stats[2] = max;
+        stats[3] = sum;
+    }
+
+    @Override
+    public int largestTriangle(double[] values, int from, int to, double ax, double ay, double cx, double cy) {
+        final double dx = ax - cx;
+        final double dy = cy - ay;
+        int best = -1;
+        double bestArea = -1;
+        for (int i = from; i < to; i++) {
+            // Twice the area, NaNs never compare greater
+            final double area = Math.abs((values[i] - ay) * dx - (ax - i) * dy);
+            if (area > bestArea) {
+                bestArea = area;
+                best = i;
+            }
+        }
+        return best;
+    }
+}
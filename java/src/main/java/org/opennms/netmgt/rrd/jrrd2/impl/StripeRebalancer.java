@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the files of the data roots of a {@link StripedJRrd2} to the root they
+ * are assigned to, e.g. after roots were added.
+ *
+ * With consistent hashing, adding a root to n existing ones only moves about
+ * 1/(n+1) of the files. The files are moved in parallel: a file is first copied
+ * next to its destination, then linked into place, which fails instead of
+ * replacing a file that already exists there, and only then removed from its
+ * source. A file is therefore never seen partially written, and is left at its
+ * source when it cannot be moved.
+ *
+ * The files that are moved must not be written in the meantime, so this should
+ * run before a {@link StripedJRrd2} is started with the new roots.
+ */
+public class StripeRebalancer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StripeRebalancer.class);
+
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    /**
+     * Outcome of {@link StripeRebalancer#rebalance()}.
+     */
+    public static class Result {
+        private final int m_scanned;
+        private final int m_moved;
+        private final Map<Path, String> m_failures;
+
+        public Result(int scanned, int moved, Map<Path, String> failures) {
+            m_scanned = scanned;
+            m_moved = moved;
+            m_failures = Collections.unmodifiableMap(failures);
+        }
+
+        public int getScanned() {
+            return m_scanned;
+        }
+
+        public int getMoved() {
+            return m_moved;
+        }
+
+        /**
+         * Returns the files that could not be moved, with the reason.
+         */
+        public Map<Path, String> getFailures() {
+            return m_failures;
+        }
+
+        public boolean isSuccessful() {
+            return m_failures.isEmpty();
+        }
+    }
+
+    private final List<Path> m_roots;
+
+    private final HashRing m_ring;
+
+    private final int m_parallelism;
+
+    public StripeRebalancer(List<Path> roots) {
+        this(roots, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param roots all of the data roots, as given to the {@link StripedJRrd2}
+     * @param parallelism maximum number of files moved at the same time
+     */
+    public StripeRebalancer(List<Path> roots, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be strictly positive.");
+        }
+        m_roots = StripedJRrd2.normalize(roots);
+        m_ring = StripedJRrd2.newRing(m_roots);
+        m_parallelism = parallelism;
+    }
+
+    /**
+     * Moves the .rrd files that are not on the root they are assigned to.
+     *
+     * @throws IOException if a root cannot be listed
+     */
+    public Result rebalance() throws IOException, InterruptedException {
+        final List<Path[]> moves = new ArrayList<>();
+        int scanned = 0;
+        for (int i = 0; i < m_roots.size(); i++) {
+            final Path root = m_roots.get(i);
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            final List<Path> files;
+            try (Stream<Path> paths = Files.walk(root)) {
+                files = paths.filter(p -> p.getFileName().toString().endsWith(".rrd") && Files.isRegularFile(p))
+                        .collect(Collectors.toList());
+            }
+            for (final Path file : files) {
+                scanned++;
+                final Path name = root.relativize(file);
+                final int owner = m_ring.getNode(StripedJRrd2.key(name));
+                if (owner != i) {
+                    moves.add(new Path[] { file, m_roots.get(owner).resolve(name) });
+                }
+            }
+        }
+        LOG.info("Moving {} of the {} files found under {}.", moves.size(), scanned, m_roots);
+
+        final Map<Path, String> failures = new LinkedHashMap<>();
+        if (moves.isEmpty()) {
+            return new Result(scanned, 0, failures);
+        }
+        final AtomicInteger threadId = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(m_parallelism, moves.size()), r -> {
+            final Thread t = new Thread(r, "jrrd2-rebalancer-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        int moved = 0;
+        try {
+            final List<Future<String>> futures = new ArrayList<>(moves.size());
+            for (final Path[] move : moves) {
+                futures.add(executor.submit(() -> move(move[0], move[1])));
+            }
+            for (int i = 0; i < moves.size(); i++) {
+                String error;
+                try {
+                    error = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    error = e.getCause().toString();
+                }
+                if (error == null) {
+                    moved++;
+                } else {
+                    failures.put(moves.get(i)[0], error);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Result(scanned, moved, failures);
+    }
+
+    /**
+     * Moves a single file, returning the error message on failure.
+     */
+    private static String move(Path source, Path target) {
+        final Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        try {
+            Files.createDirectories(target.getParent());
+            try {
+                Files.copy(source, partial, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                publish(partial, target);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to move {} to {}.", source, target, e);
+            return "failed to move to " + target + ": " + e;
+        }
+        try {
+            Files.delete(source);
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Moved {} to {}, but failed to delete it.", source, target, e);
+            return "copied to " + target + ", but failed to delete the source: " + e;
+        }
+    }
+
+    /**
+     * Atomically gives the complete copy its final name, failing if the target already exists.
+     */
+    private static void publish(Path partial, Path target) throws IOException {
+        try {
+            Files.createLink(target, partial);
+            return;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException|FileSystemException e) {
+            // No hard links on this file system, fall back to a rename
+            LOG.debug("Failed to link {} to {}, renaming it instead: {}", partial, target, e.toString());
+        }
+        if (Files.exists(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
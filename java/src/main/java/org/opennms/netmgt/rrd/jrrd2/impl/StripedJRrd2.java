@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+
+/**
+ * {@link JRrd2} that spreads the files over several data roots, e.g. one per disk.
+ *
+ * Filenames are logical names relative to the roots, such as "node1/ifInOctets.rrd",
+ * which are assigned to a root by consistent hashing: adding a root only moves a
+ * share of the files to it, see {@link StripeRebalancer}. Absolute filenames are
+ * left as they are, which keeps the existing callers working.
+ *
+ * The writes to every root are made by a dedicated, bounded pool of threads, so
+ * that a slow device only holds up the callers writing to it. The calls still
+ * block until they complete, and the batches of updates are split by root and
+ * written in parallel. Reads are made by the calling thread.
+ *
+ * The filenames referenced by the DEFs of xports are resolved in the same way.
+ */
+public class StripedJRrd2 implements JRrd2, AutoCloseable {
+
+    public static final int DEFAULT_WRITERS_PER_ROOT = 4;
+
+    public static final int DEFAULT_MAX_PENDING_PER_ROOT = 1000;
+
+    private final JRrd2 m_delegate;
+
+    private final List<Path> m_roots;
+
+    private final HashRing m_ring;
+
+    private final ExecutorAsyncJRrd2[] m_writers;
+
+    public StripedJRrd2(JRrd2 delegate, List<Path> roots) {
+        this(delegate, roots, DEFAULT_WRITERS_PER_ROOT, DEFAULT_MAX_PENDING_PER_ROOT);
+    }
+
+    /**
+     * @param delegate the implementation the calls are forwarded to, with the resolved filenames
+     * @param roots the data roots, whose paths determine the placement of the files
+     * @param writersPerRoot number of threads writing to each root
+     * @param maxPendingPerRoot maximum number of writes that are queued or running for each root
+     */
+    public StripedJRrd2(JRrd2 delegate, List<Path> roots, int writersPerRoot, int maxPendingPerRoot) {
+        m_delegate = Objects.requireNonNull(delegate, "delegate cannot be null");
+        m_roots = Collections.unmodifiableList(normalize(roots));
+        m_ring = newRing(m_roots);
+        m_writers = new ExecutorAsyncJRrd2[m_roots.size()];
+        for (int i = 0; i < m_writers.length; i++) {
+            m_writers[i] = new ExecutorAsyncJRrd2(delegate, writersPerRoot, maxPendingPerRoot, true);
+        }
+    }
+
+    static List<Path> normalize(List<Path> roots) {
+        if (roots == null || roots.isEmpty()) {
+            throw new IllegalArgumentException("at least one root is required.");
+        }
+        final List<Path> normalized = new ArrayList<>(roots.size());
+        for (final Path root : roots) {
+            final Path path = root.toAbsolutePath().normalize();
+            if (normalized.contains(path)) {
+                throw new IllegalArgumentException("duplicate root: " + root);
+            }
+            normalized.add(path);
+        }
+        return normalized;
+    }
+
+    static HashRing newRing(List<Path> roots) {
+        final List<String> names = new ArrayList<>(roots.size());
+        for (final Path root : roots) {
+            names.add(root.toString());
+        }
+        return new HashRing(names, HashRing.DEFAULT_POINTS_PER_NODE);
+    }
+
+    /**
+     * Returns the key of the given relative path on the ring, which does not depend on the separator.
+     */
+    static String key(Path name) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Path element : name) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(element);
+        }
+        return sb.toString();
+    }
+
+    public List<Path> getRoots() {
+        return m_roots;
+    }
+
+    /**
+     * Returns the index of the root holding the given file, or -1 if it isn't under any of the roots.
+     */
+    public int getRootIndex(String filename) {
+        if (filename == null) {
+            return -1;
+        }
+        final Path path = m_roots.get(0).getFileSystem().getPath(filename).normalize();
+        if (!path.isAbsolute()) {
+            return m_ring.getNode(key(path));
+        }
+        for (int i = 0; i < m_roots.size(); i++) {
+            if (path.startsWith(m_roots.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the path of the given file, which is unchanged if it's absolute.
+     */
+    public String resolve(String filename) {
+        if (filename == null) {
+            return null;
+        }
+        final Path path = m_roots.get(0).getFileSystem().getPath(filename).normalize();
+        if (path.isAbsolute()) {
+            return filename;
+        }
+        if (path.startsWith("..")) {
+            throw new IllegalArgumentException("filename cannot point outside of the roots: " + filename);
+        }
+        return m_roots.get(m_ring.getNode(key(path))).resolve(path).toString();
+    }
+
+    /**
+     * Returns the number of writes that are queued or running for the given root.
+     */
+    public int getPending(int root) {
+        return m_writers[root].getPending();
+    }
+
+    @Override
+    public void create(String filename, long step, long start, String[] argv) throws JRrd2Exception {
+        final String path = resolveChecked(filename);
+        final int root = getRootIndex(path);
+        if (root < 0) {
+            m_delegate.create(path, step, start, argv);
+        } else {
+            await(m_writers[root].create(path, step, start, argv));
+        }
+    }
+
+    @Override
+    public void update(String filename, String template, String[] argv) throws JRrd2Exception {
+        final String path = resolveChecked(filename);
+        final int root = getRootIndex(path);
+        if (root < 0) {
+            m_delegate.update(path, template, argv);
+        } else {
+            await(m_writers[root].update(path, template, argv));
+        }
+    }
+
+    @Override
+    public void update(String filename, String template, long[] timestamps, double[] values) throws JRrd2Exception {
+        final String path = resolveChecked(filename);
+        final int root = getRootIndex(path);
+        if (root < 0) {
+            m_delegate.update(path, template, timestamps, values);
+        } else {
+            await(m_writers[root].update(path, template, timestamps, values));
+        }
+    }
+
+    /**
+     * The updates are split by root, and the parts are written in parallel.
+     */
+    @Override
+    public BatchResults update(List<UpdateRequest> updates) throws JRrd2Exception {
+        if (updates == null) {
+            throw new JRrd2Exception("updates cannot be null.");
+        }
+
+        // The last group holds the updates that are not under any of the roots
+        final int numGroups = m_roots.size() + 1;
+        final List<List<UpdateRequest>> groups = new ArrayList<>(numGroups);
+        final List<List<Integer>> indexes = new ArrayList<>(numGroups);
+        for (int i = 0; i < numGroups; i++) {
+            groups.add(new ArrayList<>());
+            indexes.add(new ArrayList<>());
+        }
+        final String[] errors = new String[updates.size()];
+        int i = 0;
+        for (final UpdateRequest update : updates) {
+            try {
+                final UpdateRequest resolved = update != null && update.getFilename() != null
+                        ? new UpdateRequest(resolve(update.getFilename()), update.getTemplate(), update.getArgv())
+                        : update;
+                final int root = resolved != null ? getRootIndex(resolved.getFilename()) : -1;
+                final int group = root >= 0 ? root : numGroups - 1;
+                groups.get(group).add(resolved);
+                indexes.get(group).add(i);
+            } catch (IllegalArgumentException e) {
+                errors[i] = e.getMessage();
+            }
+            i++;
+        }
+
+        final List<CompletableFuture<BatchResults>> futures = new ArrayList<>(numGroups);
+        for (int group = 0; group < m_roots.size(); group++) {
+            futures.add(groups.get(group).isEmpty() ? null : m_writers[group].update(groups.get(group)));
+        }
+        final List<UpdateRequest> others = groups.get(numGroups - 1);
+        if (!others.isEmpty()) {
+            merge(m_delegate.update(others), null, indexes.get(numGroups - 1), errors);
+        }
+        for (int group = 0; group < m_roots.size(); group++) {
+            final CompletableFuture<BatchResults> future = futures.get(group);
+            if (future == null) {
+                continue;
+            }
+            try {
+                merge(await(future), null, indexes.get(group), errors);
+            } catch (JRrd2Exception e) {
+                merge(null, e.getMessage(), indexes.get(group), errors);
+            }
+        }
+        return new BatchResults(errors);
+    }
+
+    private static void merge(BatchResults results, String error, List<Integer> indexes, String[] errors) {
+        for (int i = 0; i < indexes.size(); i++) {
+            errors[indexes.get(i)] = results != null ? results.getError(i) : error;
+        }
+    }
+
+    @Override
+    public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        return m_delegate.fetch(resolveChecked(filename), cf, start, end, step);
+    }
+
+    @Override
+    public void fetch(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+        m_delegate.fetch(resolveChecked(filename), cf, start, end, step, buffer);
+    }
+
+    @Override
+    public DirectFetchResults fetchDirect(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        return m_delegate.fetchDirect(resolveChecked(filename), cf, start, end, step);
+    }
+
+    @Override
+    public FetchResults fetchWithMaxRows(String filename, String cf, long start, long end, long maxRows) throws JRrd2Exception {
+        return m_delegate.fetchWithMaxRows(resolveChecked(filename), cf, start, end, maxRows);
+    }
+
+    @Override
+    public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) throws JRrd2Exception {
+        if (argv == null) {
+            throw new JRrd2Exception("argv cannot be null.");
+        }
+        try {
+            return m_delegate.xport(start, end, step, maxrows, XportArguments.mapFilenames(argv, this::resolve));
+        } catch (IllegalArgumentException e) {
+            throw new JRrd2Exception(e.getMessage());
+        }
+    }
+
+    @Override
+    public RrdInfo info(String filename) throws JRrd2Exception {
+        return m_delegate.info(resolveChecked(filename));
+    }
+
+    @Override
+    public LastUpdate lastUpdate(String filename) throws JRrd2Exception {
+        return m_delegate.lastUpdate(resolveChecked(filename));
+    }
+
+    @Override
+    public long first(String filename, int archive) throws JRrd2Exception {
+        return m_delegate.first(resolveChecked(filename), archive);
+    }
+
+    /**
+     * Waits for the pending writes to complete, and stops the writers.
+     */
+    @Override
+    public void close() {
+        for (final ExecutorAsyncJRrd2 writer : m_writers) {
+            writer.close();
+        }
+    }
+
+    private String resolveChecked(String filename) throws JRrd2Exception {
+        try {
+            return resolve(filename);
+        } catch (IllegalArgumentException e) {
+            throw new JRrd2Exception(e.getMessage());
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws JRrd2Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JRrd2Exception("Interrupted while waiting for the write to complete.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof JRrd2Exception) {
+                throw (JRrd2Exception) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new JRrd2Exception(String.valueOf(cause));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Helpers for dealing with the graph definitions passed
+ * to {@link org.opennms.netmgt.rrd.jrrd2.api.JRrd2#xport}.
+ */
+public final class XportArguments {
+
+    private static final String DEF_PREFIX = "DEF:";
+
+    private XportArguments() {
+    }
+
+    /**
+     * Prepends the options given as parameters to the graph definitions,
+     * in order to build the command line expected by rrd_xport().
+     */
+    static String[] toCommandLine(long start, long end, long step, long maxrows, String[] argv) {
+        final int numFixedArguments = maxrows > 0 ? 9 : 7;
+
+        // Convert the parameters to command line arguments
+        String[] allArgv = new String[numFixedArguments + argv.length];
+        allArgv[0] = "xport";
+        allArgv[1] = "--start";
+        allArgv[2] = Long.toString(start);
+        allArgv[3] = "--end";
+        allArgv[4] = Long.toString(end);
+        allArgv[5] = "--step";
+        allArgv[6] = Long.toString(step);
+        if (maxrows > 0) {
+            allArgv[7] = "--maxrows";
+            allArgv[8] = Long.toString(maxrows);
+        }
+
+        // Copy the elements from argvs
+        for (int i = 0; i < argv.length; i++) {
+            allArgv[i + numFixedArguments] = argv[i];
+        }
+        return allArgv;
+    }
+
+    /**
+     * Returns the RRD files referenced by the DEF statements in the given arguments.
+     */
+    public static Set<String> getFilenames(String[] argv) {
+        final Set<String> filenames = new LinkedHashSet<>();
+        if (argv == null) {
+            return filenames;
+        }
+        for (final String arg : argv) {
+            final String filename = getFilename(arg);
+            if (filename != null) {
+                filenames.add(filename);
+            }
+        }
+        return filenames;
+    }
+
+    /**
+     * Returns the RRD file referenced by a DEF:vname=rrdfile:ds-name:CF[...] statement,
+     * or null if the argument is not a DEF.
+     *
+     * Colons in the filename may be escaped with a backslash, as they are in rrdgraph.
+     */
+    public static String getFilename(String arg) {
+        if (arg == null || !arg.startsWith(DEF_PREFIX)) {
+            return null;
+        }
+        final int equals = arg.indexOf('=', DEF_PREFIX.length());
+        if (equals < 0) {
+            return null;
+        }
+        return split(arg.substring(equals + 1)).get(0);
+    }
+
+    /**
+     * Returns a copy of the given arguments in which the RRD files referenced
+     * by the DEF statements are replaced by the result of the given function.
+     */
+    public static String[] mapFilenames(String[] argv, UnaryOperator<String> mapper) {
+        final String[] mapped = argv.clone();
+        for (int i = 0; i < mapped.length; i++) {
+            final String arg = mapped[i];
+            if (arg == null || !arg.startsWith(DEF_PREFIX)) {
+                continue;
+            }
+            final int equals = arg.indexOf('=', DEF_PREFIX.length());
+            if (equals < 0) {
+                continue;
+            }
+            // Find the end of the filename, skipping the escaped colons
+            int end = equals + 1;
+            while (end < arg.length() && arg.charAt(end) != ':') {
+                end += arg.charAt(end) == '\\' && end + 1 < arg.length() && arg.charAt(end + 1) == ':' ? 2 : 1;
+            }
+            final String filename = mapper.apply(getFilename(arg));
+            mapped[i] = arg.substring(0, equals + 1) + filename.replace(":", "\\:") + arg.substring(end);
+        }
+        return mapped;
+    }
+
+    /**
+     * Splits the given string on colons, honoring colons escaped with a backslash.
+     */
+    static List<String> split(String value) {
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length() && value.charAt(i + 1) == ':') {
+                field.append(':');
+                i++;
+            } else if (c == ':') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,445 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+
+/**
+ * Evaluates xport requests in Java, on top of {@link JRrd2#fetch}.
+ *
+ * Unlike librrd's rrd_xport(), which is not thread-safe and must be serialized,
+ * the engine only relies on the thread-safe rrd_fetch_r(), so that any number of
+ * exports can run concurrently. The fetches required by a single export are also
+ * issued in parallel.
+ *
+ * DEF (with the step, start, end and reduce options), CDEF and XPORT statements are
+ * supported, along with the most common RPN operators. Any other statement or operator
+ * results in an {@link UnsupportedXportException}, in which case the caller should
+ * fall back to rrd_xport().
+ */
+public class XportEngine {
+
+    /**
+     * Same default as the --maxrows option of rrd_xport().
+     */
+    private static final long DEFAULT_MAXROWS = 400;
+
+    private final JRrd2 m_fetcher;
+
+    private final Executor m_executor;
+
+    /**
+     * @param fetcher used to retrieve the data referenced by the DEFs
+     * @param executor used to issue the fetches in parallel
+     */
+    public XportEngine(JRrd2 fetcher, Executor executor) {
+        m_fetcher = Objects.requireNonNull(fetcher, "fetcher cannot be null");
+        m_executor = Objects.requireNonNull(executor, "executor cannot be null");
+    }
+
+    /**
+     * Same as {@link JRrd2#xport}.
+     */
+    public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) throws JRrd2Exception {
+        if (argv == null) {
+            throw new JRrd2Exception("argv cannot be null.");
+        }
+        if (start >= end) {
+            throw new JRrd2Exception(String.format("start (%d) should be less than end (%d)", start, end));
+        }
+        // Don't fetch at a higher resolution than what can be returned
+        final long desiredStep = Math.max(1, Math.max(step, (end - start) / (maxrows > 0 ? maxrows : DEFAULT_MAXROWS)));
+
+        // Parse the statements
+        final Map<String, Integer> index = new HashMap<>();
+        final List<Variable> variables = new ArrayList<>();
+        final List<Integer> exports = new ArrayList<>();
+        final List<String> legends = new ArrayList<>();
+        for (final String arg : argv) {
+            if (arg == null) {
+                throw new JRrd2Exception("argv cannot contain null elements.");
+            } else if (arg.startsWith("DEF:")) {
+                addVariable(index, variables, parseDef(arg, start, end, desiredStep));
+            } else if (arg.startsWith("CDEF:")) {
+                addVariable(index, variables, parseCdef(arg, index));
+            } else if (arg.startsWith("XPORT:")) {
+                final List<String> fields = XportArguments.split(arg.substring("XPORT:".length()));
+                final Integer variable = index.get(fields.get(0));
+                if (variable == null) {
+                    throw new JRrd2Exception("unknown variable '" + fields.get(0) + "'");
+                }
+                exports.add(variable);
+                legends.add(fields.size() > 1 ? fields.get(1) : "");
+            } else {
+                throw new UnsupportedXportException("Unsupported argument '" + arg + "'");
+            }
+        }
+        if (exports.isEmpty()) {
+            throw new JRrd2Exception("Can't make an xport without contents");
+        }
+
+        fetchAll(variables);
+
+        // Evaluate the CDEFs in the order in which they were defined
+        for (final Variable variable : variables) {
+            if (variable.rpn != null) {
+                calculate(variable, variables, start, end, desiredStep);
+            }
+        }
+
+        // Sample the exported series at a common step
+        long outStep = 1;
+        for (final Integer i : exports) {
+            outStep = lcm(outStep, variables.get(i).series.step);
+        }
+        final long outStart = start - start % outStep;
+        final long outEnd = end - end % outStep + outStep;
+        final int numRows = (int)((outEnd - outStart) / outStep);
+
+        final double[][] values = new double[exports.size()][numRows];
+        for (int col = 0; col < exports.size(); col++) {
+            final Series series = variables.get(exports.get(col)).series;
+            for (int row = 0; row < numRows; row++) {
+                values[col][row] = series.valueStartingAt(outStart + row * outStep);
+            }
+        }
+
+        return new FetchResults(outStart + outStep, outEnd, outStep, legends.toArray(new String[0]), values);
+    }
+
+    private void fetchAll(List<Variable> variables) throws JRrd2Exception {
+        // DEFs that share the same file, CF and time range are served by a single fetch
+        final Map<Fetch, List<Variable>> fetches = new LinkedHashMap<>();
+        for (final Variable variable : variables) {
+            if (variable.fetch != null) {
+                fetches.computeIfAbsent(variable.fetch, f -> new ArrayList<>()).add(variable);
+            }
+        }
+
+        final List<Fetch> keys = new ArrayList<>(fetches.keySet());
+        final List<CompletableFuture<FetchResults>> futures = new ArrayList<>(keys.size());
+        // Hand off all but the first fetch, which is made by the calling thread
+        for (int i = 1; i < keys.size(); i++) {
+            final Fetch fetch = keys.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetch.fetch(m_fetcher);
+                } catch (JRrd2Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, m_executor));
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            final FetchResults results;
+            if (i == 0) {
+                results = keys.get(0).fetch(m_fetcher);
+            } else {
+                try {
+                    results = futures.get(i - 1).join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof JRrd2Exception) {
+                        throw (JRrd2Exception)e.getCause();
+                    }
+                    throw e;
+                }
+            }
+            for (final Variable variable : fetches.get(keys.get(i))) {
+                final int column = Arrays.asList(results.getColumns()).indexOf(variable.ds);
+                if (column < 0) {
+                    throw new JRrd2Exception(String.format("No DS called '%s' in '%s'", variable.ds, variable.fetch.filename));
+                }
+                Series series = new Series(results.getStart() - results.getStep(), results.getStep(), results.getValues()[column]);
+                if (series.step < variable.desiredStep) {
+                    series = series.reduce(variable.reduceCf, variable.desiredStep);
+                }
+                variable.series = series;
+            }
+        }
+    }
+
+    private static void calculate(Variable cdef, List<Variable> variables, long start, long end, long desiredStep) throws JRrd2Exception {
+        long step = 0;
+        long cdefStart = Long.MIN_VALUE;
+        long cdefEnd = Long.MAX_VALUE;
+        for (final Integer i : cdef.references) {
+            final Series series = variables.get(i).series;
+            step = step == 0 ? series.step : lcm(step, series.step);
+            cdefStart = Math.max(cdefStart, series.start);
+            cdefEnd = Math.min(cdefEnd, series.getEnd());
+        }
+        if (step == 0) {
+            // Only constants are referenced
+            step = desiredStep;
+            cdefStart = start;
+            cdefEnd = end;
+        }
+        cdefStart -= cdefStart % step;
+        final int numRows = (int)Math.max(0, (cdefEnd - cdefStart) / step);
+
+        final double[] current = new double[variables.size()];
+        final double[] previous = new double[variables.size()];
+        Arrays.fill(current, Double.NaN);
+        Arrays.fill(previous, Double.NaN);
+        final double[] values = new double[numRows];
+        for (int row = 0; row < numRows; row++) {
+            final long now = cdefStart + (row + 1) * step;
+            for (final Integer i : cdef.references) {
+                previous[i] = current[i];
+                current[i] = variables.get(i).series.valueEndingAt(now);
+            }
+            values[row] = cdef.rpn.evaluate(current, previous, row, now, step);
+        }
+        cdef.series = new Series(cdefStart, step, values);
+    }
+
+    private static void addVariable(Map<String, Integer> index, List<Variable> variables, Variable variable) throws JRrd2Exception {
+        if (index.containsKey(variable.name)) {
+            throw new JRrd2Exception("duplicate variable '" + variable.name + "'");
+        }
+        index.put(variable.name, variables.size());
+        variables.add(variable);
+    }
+
+    /**
+     * DEF:vname=rrdfile:ds-name:CF[:step=step][:start=time][:end=time][:reduce=CF]
+     */
+    private static Variable parseDef(String arg, long start, long end, long desiredStep) throws JRrd2Exception {
+        final String definition = arg.substring("DEF:".length());
+        final int equals = definition.indexOf('=');
+        if (equals < 1) {
+            throw new JRrd2Exception("Invalid DEF '" + arg + "'");
+        }
+        final List<String> fields = XportArguments.split(definition.substring(equals + 1));
+        if (fields.size() < 3) {
+            throw new JRrd2Exception("Invalid DEF '" + arg + "'");
+        }
+
+        final Variable variable = new Variable(definition.substring(0, equals));
+        variable.ds = fields.get(1);
+        final String cf = fields.get(2);
+        variable.reduceCf = cf;
+        long defStep = desiredStep;
+        long defStart = start;
+        long defEnd = end;
+        for (final String option : fields.subList(3, fields.size())) {
+            final int optionEquals = option.indexOf('=');
+            final String key = optionEquals > 0 ? option.substring(0, optionEquals) : option;
+            final String value = optionEquals > 0 ? option.substring(optionEquals + 1) : "";
+            try {
+                switch (key) {
+                    case "step": defStep = Long.parseLong(value); break;
+                    case "start": defStart = Long.parseLong(value); break;
+                    case "end": defEnd = Long.parseLong(value); break;
+                    case "reduce": variable.reduceCf = value; break;
+                    default: throw new UnsupportedXportException("Unsupported DEF option '" + option + "'");
+                }
+            } catch (NumberFormatException e) {
+                // Most likely an AT-style time specification
+                throw new UnsupportedXportException("Unsupported DEF option '" + option + "'");
+            }
+        }
+        variable.desiredStep = defStep;
+        variable.fetch = new Fetch(fields.get(0), cf, defStart, defEnd, defStep);
+        return variable;
+    }
+
+    /**
+     * CDEF:vname=RPN expression
+     */
+    private static Variable parseCdef(String arg, Map<String, Integer> index) throws JRrd2Exception {
+        final String definition = arg.substring("CDEF:".length());
+        final int equals = definition.indexOf('=');
+        if (equals < 1) {
+            throw new JRrd2Exception("Invalid CDEF '" + arg + "'");
+        }
+        final Variable variable = new Variable(definition.substring(0, equals));
+        variable.rpn = Rpn.compile(definition.substring(equals + 1), index, variable.references);
+        return variable;
+    }
+
+    private static long lcm(long a, long b) {
+        long x = a, y = b;
+        while (y != 0) {
+            final long t = x % y;
+            x = y;
+            y = t;
+        }
+        return a / x * b;
+    }
+
+    private static class Variable {
+        private final String name;
+        // DEF
+        private Fetch fetch;
+        private String ds;
+        private String reduceCf;
+        private long desiredStep;
+        // CDEF
+        private Rpn rpn;
+        private final Set<Integer> references = new LinkedHashSet<>();
+        // Evaluated values
+        private Series series;
+
+        private Variable(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Fetch {
+        private final String filename;
+        private final String cf;
+        private final long start;
+        private final long end;
+        private final long step;
+
+        private Fetch(String filename, String cf, long start, long end, long step) {
+            this.filename = filename;
+            this.cf = cf;
+            this.start = start;
+            this.end = end;
+            this.step = step;
+        }
+
+        private FetchResults fetch(JRrd2 fetcher) throws JRrd2Exception {
+            return fetcher.fetch(filename, cf, start, end, step);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Fetch)) {
+                return false;
+            }
+            final Fetch other = (Fetch)o;
+            return filename.equals(other.filename) && cf.equals(other.cf)
+                    && start == other.start && end == other.end && step == other.step;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filename, cf, start, end, step);
+        }
+    }
+
+    /**
+     * A series of values, where values[i] covers the interval (start + i * step, start + (i + 1) * step].
+     */
+    private static class Series {
+        private final long start;
+        private final long step;
+        private final double[] values;
+
+        private Series(long start, long step, double[] values) {
+            this.start = start;
+            this.step = step;
+            this.values = values;
+        }
+
+        private long getEnd() {
+            return start + values.length * step;
+        }
+
+        /**
+         * Value of the interval that ends at, or contains, the given time.
+         */
+        private double valueEndingAt(long time) {
+            final long offset = time - start;
+            if (offset <= 0) {
+                return Double.NaN;
+            }
+            return valueAt((offset + step - 1) / step - 1);
+        }
+
+        /**
+         * Value of the interval that starts at, or contains, the given time.
+         */
+        private double valueStartingAt(long time) {
+            return valueAt(Math.floorDiv(time - start, step));
+        }
+
+        private double valueAt(long i) {
+            return i >= 0 && i < values.length ? values[(int)i] : Double.NaN;
+        }
+
+        /**
+         * Consolidates the values to a coarser step, as done by librrd's reduce_data().
+         */
+        private Series reduce(String cf, long desiredStep) throws JRrd2Exception {
+            final long factor = (desiredStep + step - 1) / step;
+            final long newStep = step * factor;
+            final long newStart = start - Math.floorMod(start, newStep);
+            final int numRows = (int)((getEnd() - newStart + newStep - 1) / newStep);
+            final double[] reduced = new double[numRows];
+            for (int row = 0; row < numRows; row++) {
+                final long from = newStart + row * newStep;
+                double value = Double.NaN;
+                double sum = 0;
+                int valid = 0;
+                for (long t = from + step; t <= from + newStep; t += step) {
+                    final double v = valueEndingAt(t);
+                    if (Double.isNaN(v)) {
+                        continue;
+                    }
+                    valid++;
+                    switch (cf) {
+                        case "AVERAGE": sum += v; break;
+                        case "MIN": value = Double.isNaN(value) ? v : Math.min(value, v); break;
+                        case "MAX": value = Double.isNaN(value) ? v : Math.max(value, v); break;
+                        case "LAST": value = v; break;
+                        default: throw new UnsupportedXportException("Unsupported consolidation function '" + cf + "'");
+                    }
+                }
+                if ("AVERAGE".equals(cf) && valid > 0) {
+                    value = sum / valid;
+                }
+                reduced[row] = value;
+            }
+            return new Series(newStart, newStep, reduced);
+        }
+    }
+}
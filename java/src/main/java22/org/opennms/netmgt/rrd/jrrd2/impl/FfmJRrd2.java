@@ -0,0 +1,622 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+
+/**
+ * A {@link JRrd2} that binds librrd directly with the Foreign Function &amp; Memory API,
+ * without the jrrd2 JNI library.
+ *
+ * Arguments are marshalled into a confined arena that is freed as soon as the call
+ * returns, and the values returned by rrd_fetch_r() are read straight from the memory
+ * allocated by librrd: {@link #fetchDirect(String, String, long, long, long)} wraps it
+ * without any copy.
+ *
+ * librrd is located with the {@value FfmBackend#LIBRARY_PROPERTY} system property, or else by the
+ * dynamic linker. Like the other callers of librrd, the runtime must be granted native
+ * access, i.e. with --enable-native-access=ALL-UNNAMED.
+ *
+ * The layouts assume an LP64 platform, where time_t and unsigned long are 64-bit wide.
+ *
+ * Only packaged for Java 22 or later, so it is created through {@link FfmBackend}.
+ */
+final class FfmJRrd2 implements JRrd2 {
+
+    /* As suggested by http://linux.die.net/man/1/rrdthreads:
+     *   Every thread SHOULD call "rrd_get_context()" before its first call to any "librrd" function
+     */
+    private static final ThreadLocal<Void> rrdContext =
+        new ThreadLocal<Void>() {
+            @Override protected Void initialValue() {
+                try {
+                    final MemorySegment context = (MemorySegment) Librrd.RRD_GET_CONTEXT.invokeExact();
+                } catch (Throwable t) {
+                    throw new IllegalStateException("rrd_get_context() failed.", t);
+                }
+                return null;
+            }
+        };
+
+    /**
+     * Size of an rrd_info_t: the key, the type, the 16 byte value and the next pointer.
+     */
+    private static final long INFO_SIZE = 40;
+
+    private static final int RD_I_VAL = 0;
+    private static final int RD_I_CNT = 1;
+    private static final int RD_I_STR = 2;
+    private static final int RD_I_INT = 3;
+
+    /**
+     * Handles on the librrd functions, resolved when the class is first used.
+     */
+    private static final class Librrd {
+        private static final Linker LINKER = Linker.nativeLinker();
+        private static final SymbolLookup LOOKUP = lookup();
+
+        static final MethodHandle FREE = LINKER.downcallHandle(LINKER.defaultLookup().find("free").orElseThrow(),
+                FunctionDescriptor.ofVoid(ADDRESS));
+        static final MethodHandle RRD_GET_CONTEXT = handle("rrd_get_context", FunctionDescriptor.of(ADDRESS));
+        static final MethodHandle RRD_GET_ERROR = handle("rrd_get_error", FunctionDescriptor.of(ADDRESS));
+        static final MethodHandle RRD_TEST_ERROR = handle("rrd_test_error", FunctionDescriptor.of(JAVA_INT));
+        static final MethodHandle RRD_CLEAR_ERROR = handle("rrd_clear_error", FunctionDescriptor.ofVoid());
+        static final MethodHandle RRD_CREATE_R = handle("rrd_create_r",
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG, JAVA_LONG, JAVA_INT, ADDRESS));
+        static final MethodHandle RRD_UPDATE_R = handle("rrd_update_r",
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS));
+        static final MethodHandle RRD_FETCH_R = handle("rrd_fetch_r",
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS));
+        static final MethodHandle RRD_XPORT = handle("rrd_xport",
+                FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS));
+        static final MethodHandle RRD_INFO_R = handle("rrd_info_r", FunctionDescriptor.of(ADDRESS, ADDRESS));
+        static final MethodHandle RRD_INFO_FREE = handle("rrd_info_free", FunctionDescriptor.ofVoid(ADDRESS));
+        static final MethodHandle RRD_LASTUPDATE_R = handle("rrd_lastupdate_r",
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS));
+        static final MethodHandle RRD_FIRST_R = handle("rrd_first_r", FunctionDescriptor.of(JAVA_LONG, ADDRESS, JAVA_INT));
+
+        private static SymbolLookup lookup() {
+            final String library = System.getProperty(FfmBackend.LIBRARY_PROPERTY);
+            if (library != null) {
+                return SymbolLookup.libraryLookup(library, Arena.global());
+            }
+            IllegalArgumentException failure = null;
+            for (final String name : new String[] { "librrd.so.8", "librrd.so", "librrd.8.dylib", "librrd.dylib" }) {
+                try {
+                    return SymbolLookup.libraryLookup(name, Arena.global());
+                } catch (IllegalArgumentException e) {
+                    failure = e;
+                }
+            }
+            throw failure;
+        }
+
+        private static MethodHandle handle(String name, FunctionDescriptor descriptor) {
+            return LINKER.downcallHandle(LOOKUP.find(name).orElseThrow(
+                    () -> new UnsatisfiedLinkError("librrd does not export " + name)), descriptor);
+        }
+    }
+
+    /**
+     * {@link DirectFetchResults} backed by the values allocated by librrd.
+     */
+    private static final class FfmDirectFetchResults extends DirectFetchResults {
+        private final MemorySegment m_data;
+
+        private FfmDirectFetchResults(long start, long end, long step, String[] columns, int rowCount, MemorySegment data) {
+            super(start, end, step, columns, rowCount, data.asByteBuffer());
+            m_data = data;
+        }
+
+        @Override
+        protected void release() {
+            free(m_data);
+        }
+    }
+
+    /**
+     * Raw results of rrd_fetch_r(), where the values are still owned by librrd.
+     */
+    private static final class Fetched {
+        private final long m_start;
+        private final long m_end;
+        private final long m_step;
+        private final String[] m_columns;
+        private final int m_rowCount;
+        private final MemorySegment m_data;
+
+        private Fetched(long start, long end, long step, String[] columns, int rowCount, MemorySegment data) {
+            m_start = start;
+            m_end = end;
+            m_step = step;
+            m_columns = columns;
+            m_rowCount = rowCount;
+            m_data = data;
+        }
+    }
+
+    /**
+     * Returns true if the runtime supports this implementation and librrd can be bound.
+     */
+    static boolean isAvailable() {
+        try {
+            bind();
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    FfmJRrd2() {
+        bind();
+        rrdContext.get();
+    }
+
+    /**
+     * Resolves the librrd functions, failing with an {@link UnsatisfiedLinkError} if the library cannot be found.
+     */
+    private static void bind() {
+        try {
+            Librrd.RRD_GET_CONTEXT.type();
+        } catch (ExceptionInInitializerError | NoClassDefFoundError e) {
+            final Throwable cause = e.getCause() != null ? e.getCause() : e;
+            final UnsatisfiedLinkError error = new UnsatisfiedLinkError("Failed to bind librrd: " + cause.getMessage());
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    @Override
+    public void create(final String filename, final long step, final long start, String[] argv) throws JRrd2Exception {
+        if (filename == null) {
+            throw new JRrd2Exception("filename cannot be null.");
+        }
+        if (argv == null) {
+            throw new JRrd2Exception("argv cannot be null.");
+        }
+        rrdContext.get();
+        try (Arena arena = Arena.ofConfined()) {
+            clearError();
+            final int result = (int) Librrd.RRD_CREATE_R.invokeExact(arena.allocateFrom(filename), step, start,
+                    argv.length, toArgv(arena, argv));
+            checkResult(result, "rrd_create_r");
+        } catch (JRrd2Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    @Override
+    public void update(final String filename, final String template, final String[] argv) throws JRrd2Exception {
+        if (filename == null) {
+            throw new JRrd2Exception("filename cannot be null.");
+        }
+        if (argv == null) {
+            throw new JRrd2Exception("argv cannot be null.");
+        }
+        rrdContext.get();
+        final String error = doUpdate(filename, template, argv);
+        if (error != null) {
+            throw new JRrd2Exception(error);
+        }
+    }
+
+    @Override
+    public void update(final String filename, final String template, final long[] timestamps, final double[] values) throws JRrd2Exception {
+        update(filename, template, UpdateRequest.formatSamples(timestamps, values));
+    }
+
+    @Override
+    public BatchResults update(final List<UpdateRequest> updates) throws JRrd2Exception {
+        if (updates == null) {
+            throw new JRrd2Exception("updates cannot be null.");
+        }
+        rrdContext.get();
+        final String[] errors = new String[updates.size()];
+        int i = 0;
+        for (final UpdateRequest update : updates) {
+            if (update == null || update.getFilename() == null) {
+                errors[i] = "filename cannot be null.";
+            } else if (update.getArgv() == null) {
+                errors[i] = "argv cannot be null.";
+            } else {
+                errors[i] = doUpdate(update.getFilename(), update.getTemplate(), update.getArgv());
+            }
+            i++;
+        }
+        return new BatchResults(errors);
+    }
+
+    @Override
+    public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        final Fetched fetched = doFetch(filename, cf, start, end, step);
+        try {
+            final int columnCount = fetched.m_columns.length;
+            final double[][] values = new double[columnCount][fetched.m_rowCount];
+            for (int row = 0; row < fetched.m_rowCount; row++) {
+                for (int column = 0; column < columnCount; column++) {
+                    values[column][row] = fetched.m_data.getAtIndex(JAVA_DOUBLE, (long) row * columnCount + column);
+                }
+            }
+            return new FetchResults(fetched.m_start, fetched.m_end, fetched.m_step, fetched.m_columns, values);
+        } finally {
+            free(fetched.m_data);
+        }
+    }
+
+    @Override
+    public void fetch(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+        if (buffer == null) {
+            throw new JRrd2Exception("buffer cannot be null.");
+        }
+        final Fetched fetched = doFetch(filename, cf, start, end, step);
+        try {
+            final int columnCount = fetched.m_columns.length;
+            final int rowCount = fetched.m_rowCount;
+            final double[] values = buffer.prepare(fetched.m_start, fetched.m_end, fetched.m_step, columnCount, rowCount);
+            for (int column = 0; column < columnCount; column++) {
+                buffer.setColumn(column, fetched.m_columns[column]);
+            }
+            for (int row = 0; row < rowCount; row++) {
+                for (int column = 0; column < columnCount; column++) {
+                    values[column * rowCount + row] = fetched.m_data.getAtIndex(JAVA_DOUBLE, (long) row * columnCount + column);
+                }
+            }
+        } finally {
+            free(fetched.m_data);
+        }
+    }
+
+    @Override
+    public DirectFetchResults fetchDirect(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        final Fetched fetched = doFetch(filename, cf, start, end, step);
+        return new FfmDirectFetchResults(fetched.m_start, fetched.m_end, fetched.m_step, fetched.m_columns,
+                fetched.m_rowCount, fetched.m_data);
+    }
+
+    @Override
+    public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) throws JRrd2Exception {
+        if (argv == null) {
+            throw new JRrd2Exception("argv cannot be null.");
+        }
+        final String[] allArgv = XportArguments.toCommandLine(start, end, step, maxrows, argv);
+        rrdContext.get();
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment xsize = arena.allocate(JAVA_INT);
+            final MemorySegment startOut = arena.allocate(JAVA_LONG);
+            final MemorySegment endOut = arena.allocate(JAVA_LONG);
+            final MemorySegment stepOut = arena.allocate(JAVA_LONG);
+            final MemorySegment colCnt = arena.allocate(JAVA_LONG);
+            final MemorySegment legendV = arena.allocate(ADDRESS);
+            final MemorySegment data = arena.allocate(ADDRESS);
+            final MemorySegment nArgv = toArgv(arena, allArgv);
+
+            // rrd_xport() is not thread-safe, share the lock of the JNI implementation
+            final int result;
+            synchronized (Interface.class) {
+                clearError();
+                result = (int) Librrd.RRD_XPORT.invokeExact(allArgv.length, nArgv, xsize, startOut, endOut,
+                        stepOut, colCnt, legendV, data);
+                checkResult(result, "rrd_xport");
+            }
+
+            final long xStart = startOut.get(JAVA_LONG, 0);
+            final long xEnd = endOut.get(JAVA_LONG, 0);
+            final long xStep = stepOut.get(JAVA_LONG, 0);
+            final int columnCount = (int) colCnt.get(JAVA_LONG, 0);
+            final int rowCount = (int) ((xEnd - xStart) / xStep);
+            final String[] legends = toStrings(legendV.get(ADDRESS, 0), columnCount);
+            final MemorySegment values = data.get(ADDRESS, 0).reinterpret((long) rowCount * columnCount * Double.BYTES);
+            try {
+                final double[][] columns = new double[columnCount][rowCount];
+                for (int row = 0; row < rowCount; row++) {
+                    for (int column = 0; column < columnCount; column++) {
+                        columns[column][row] = values.getAtIndex(JAVA_DOUBLE, (long) row * columnCount + column);
+                    }
+                }
+                return new FetchResults(xStart + xStep, xEnd, xStep, legends, columns);
+            } finally {
+                free(values);
+            }
+        } catch (JRrd2Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    @Override
+    public RrdInfo info(String filename) throws JRrd2Exception {
+        if (filename == null) {
+            throw new JRrd2Exception("filename cannot be null.");
+        }
+        rrdContext.get();
+        try (Arena arena = Arena.ofConfined()) {
+            clearError();
+            final MemorySegment info = (MemorySegment) Librrd.RRD_INFO_R.invokeExact(arena.allocateFrom(filename));
+            if (info.equals(MemorySegment.NULL)) {
+                throw error("rrd_info_r");
+            }
+
+            // Flatten the entries the same way as the native code
+            final List<String> entries = new ArrayList<>();
+            try {
+                MemorySegment entry = info.reinterpret(INFO_SIZE);
+                while (true) {
+                    final String value = toInfoValue(entry);
+                    if (value != null) {
+                        entries.add(toString(entry.get(ADDRESS, 0)));
+                        entries.add(value);
+                    }
+                    final MemorySegment next = entry.get(ADDRESS, 32);
+                    if (next.equals(MemorySegment.NULL)) {
+                        break;
+                    }
+                    entry = next.reinterpret(INFO_SIZE);
+                }
+            } finally {
+                Librrd.RRD_INFO_FREE.invokeExact(info);
+            }
+            return RrdInfoParser.parseInfo(filename, entries.toArray(new String[0]));
+        } catch (JRrd2Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    @Override
+    public LastUpdate lastUpdate(String filename) throws JRrd2Exception {
+        if (filename == null) {
+            throw new JRrd2Exception("filename cannot be null.");
+        }
+        rrdContext.get();
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment lastUpdate = arena.allocate(JAVA_LONG);
+            final MemorySegment dsCnt = arena.allocate(JAVA_LONG);
+            final MemorySegment dsNamv = arena.allocate(ADDRESS);
+            final MemorySegment lastDs = arena.allocate(ADDRESS);
+            clearError();
+            final int result = (int) Librrd.RRD_LASTUPDATE_R.invokeExact(arena.allocateFrom(filename),
+                    lastUpdate, dsCnt, dsNamv, lastDs);
+            checkResult(result, "rrd_lastupdate_r");
+
+            final int columnCount = (int) dsCnt.get(JAVA_LONG, 0);
+            final String[] columns = toStrings(dsNamv.get(ADDRESS, 0), columnCount);
+            final String[] values = toStrings(lastDs.get(ADDRESS, 0), columnCount);
+            return new LastUpdate(lastUpdate.get(JAVA_LONG, 0), columns, values);
+        } catch (JRrd2Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    @Override
+    public long first(String filename, int archive) throws JRrd2Exception {
+        if (filename == null) {
+            throw new JRrd2Exception("filename cannot be null.");
+        }
+        rrdContext.get();
+        try (Arena arena = Arena.ofConfined()) {
+            clearError();
+            final long result = (long) Librrd.RRD_FIRST_R.invokeExact(arena.allocateFrom(filename), archive);
+            if (result == -1) {
+                throw error("rrd_first_r");
+            }
+            return result;
+        } catch (JRrd2Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    /**
+     * Calls rrd_update_r(), returning the error message on failure.
+     */
+    private static String doUpdate(String filename, String template, String[] argv) {
+        try (Arena arena = Arena.ofConfined()) {
+            clearError();
+            final int result = (int) Librrd.RRD_UPDATE_R.invokeExact(arena.allocateFrom(filename),
+                    template != null ? arena.allocateFrom(template) : MemorySegment.NULL,
+                    argv.length, toArgv(arena, argv));
+            if (result == -1) {
+                return error("rrd_update_r").getMessage();
+            }
+            return null;
+        } catch (JRrd2Exception e) {
+            return e.getMessage();
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    /**
+     * Calls rrd_fetch_r(). The caller is responsible for freeing the values.
+     */
+    private static Fetched doFetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+        if (filename == null) {
+            throw new JRrd2Exception("filename cannot be null.");
+        }
+        if (cf == null) {
+            throw new JRrd2Exception("cf cannot be null.");
+        }
+        rrdContext.get();
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment startInOut = arena.allocate(JAVA_LONG);
+            final MemorySegment endInOut = arena.allocate(JAVA_LONG);
+            final MemorySegment stepInOut = arena.allocate(JAVA_LONG);
+            final MemorySegment dsCnt = arena.allocate(JAVA_LONG);
+            final MemorySegment dsNamv = arena.allocate(ADDRESS);
+            final MemorySegment data = arena.allocate(ADDRESS);
+            startInOut.set(JAVA_LONG, 0, start);
+            endInOut.set(JAVA_LONG, 0, end);
+            stepInOut.set(JAVA_LONG, 0, step);
+
+            clearError();
+            final int result = (int) Librrd.RRD_FETCH_R.invokeExact(arena.allocateFrom(filename), arena.allocateFrom(cf),
+                    startInOut, endInOut, stepInOut, dsCnt, dsNamv, data);
+            checkResult(result, "rrd_fetch_r");
+
+            final long fStart = startInOut.get(JAVA_LONG, 0);
+            final long fEnd = endInOut.get(JAVA_LONG, 0);
+            final long fStep = stepInOut.get(JAVA_LONG, 0);
+            final int columnCount = (int) dsCnt.get(JAVA_LONG, 0);
+            final long rowCount = (fEnd - fStart) / fStep;
+            final String[] columns = toStrings(dsNamv.get(ADDRESS, 0), columnCount);
+            final MemorySegment values = data.get(ADDRESS, 0).reinterpret(rowCount * columnCount * Double.BYTES);
+            if (rowCount > Integer.MAX_VALUE) {
+                free(values);
+                throw new JRrd2Exception(String.format("fetching %d rows is not supported", rowCount));
+            }
+            return new Fetched(fStart + fStep, fEnd, fStep, columns, (int) rowCount, values);
+        } catch (JRrd2Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    /**
+     * Copies the given strings into a NULL terminated array of C strings allocated in the arena.
+     */
+    private static MemorySegment toArgv(Arena arena, String[] strings) throws JRrd2Exception {
+        final MemorySegment argv = arena.allocate(ADDRESS, strings.length + 1L);
+        for (int i = 0; i < strings.length; i++) {
+            if (strings[i] == null) {
+                throw new JRrd2Exception("argv cannot contain null elements.");
+            }
+            argv.setAtIndex(ADDRESS, i, arena.allocateFrom(strings[i]));
+        }
+        argv.setAtIndex(ADDRESS, strings.length, MemorySegment.NULL);
+        return argv;
+    }
+
+    /**
+     * Converts an array of C strings allocated by librrd, and frees it.
+     */
+    private static String[] toStrings(MemorySegment array, int count) {
+        final MemorySegment pointers = array.reinterpret((long) count * ADDRESS.byteSize());
+        final String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            final MemorySegment string = pointers.getAtIndex(ADDRESS, i);
+            strings[i] = toString(string);
+            free(string);
+        }
+        free(pointers);
+        return strings;
+    }
+
+    private static String toString(MemorySegment string) {
+        return string.reinterpret(Long.MAX_VALUE).getString(0);
+    }
+
+    /**
+     * Formats the value of an rrd_info_t like the native code, or returns null for binary values.
+     */
+    private static String toInfoValue(MemorySegment entry) {
+        switch (entry.get(JAVA_INT, 8)) {
+        case RD_I_VAL:
+            return Double.toString(entry.get(JAVA_DOUBLE, 16));
+        case RD_I_CNT:
+            return Long.toUnsignedString(entry.get(JAVA_LONG, 16));
+        case RD_I_STR:
+            return toString(entry.get(ADDRESS, 16));
+        case RD_I_INT:
+            return Integer.toString(entry.get(JAVA_INT, 16));
+        default:
+            return null;
+        }
+    }
+
+    private static void free(MemorySegment segment) {
+        try {
+            Librrd.FREE.invokeExact(segment);
+        } catch (Throwable t) {
+            throw unexpected(t);
+        }
+    }
+
+    private static void clearError() throws Throwable {
+        Librrd.RRD_CLEAR_ERROR.invokeExact();
+    }
+
+    private static void checkResult(int result, String function) throws Throwable {
+        if (result == -1) {
+            throw error(function);
+        }
+    }
+
+    private static JRrd2Exception error(String function) throws Throwable {
+        if ((int) Librrd.RRD_TEST_ERROR.invokeExact() != 0) {
+            final String message = toString((MemorySegment) Librrd.RRD_GET_ERROR.invokeExact());
+            Librrd.RRD_CLEAR_ERROR.invokeExact();
+            return new JRrd2Exception(message);
+        }
+        return new JRrd2Exception(function + "() failed, but no error code was set.");
+    }
+
+    private static RuntimeException unexpected(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
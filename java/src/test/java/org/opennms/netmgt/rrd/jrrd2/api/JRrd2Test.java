@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.api;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Verifies that the operations added to {@link JRrd2} work with implementations
+ * that only provide create, update, fetch and xport.
+ */
+public class JRrd2Test {
+
+    private final MinimalJRrd2 jrrd2 = new MinimalJRrd2();
+
+    @Test
+    public void canUpdateValues() throws JRrd2Exception {
+        jrrd2.update("a.rrd", "x:y", new long[]{1, 2}, new double[]{1.5, 2, Double.NaN, 1e20});
+
+        assertThat(jrrd2.updates, contains("a.rrd x:y [1:1.5:2.0, 2:U:1.0E20]"));
+    }
+
+    @Test
+    public void canUpdateInBatches() throws JRrd2Exception {
+        final BatchResults results = jrrd2.update(Arrays.asList(
+                new UpdateRequest("a.rrd", null, new String[]{"1:1"}),
+                null,
+                new UpdateRequest("fail.rrd", null, new String[]{"1:1"}),
+                new UpdateRequest("b.rrd", null, new String[]{"2:2"})));
+
+        assertThat(jrrd2.updates, contains("a.rrd null [1:1]", "b.rrd null [2:2]"));
+        assertThat(results.getErrors(), equalTo(new String[]{null, "update cannot be null.", "fail.rrd", null}));
+    }
+
+    @Test
+    public void canFetchIntoBuffers() throws JRrd2Exception {
+        final FetchBuffer buffer = new FetchBuffer();
+        jrrd2.fetch("a.rrd", "AVERAGE", 0, 300, 100, buffer);
+
+        assertThat(buffer.getColumns(), equalTo(new String[]{"x", "y"}));
+        assertThat(buffer.getRowCount(), is(3));
+        assertThat(buffer.getValue(1, 2), is(5d));
+    }
+
+    @Test
+    public void canFetchDirect() throws JRrd2Exception {
+        try (DirectFetchResults results = jrrd2.fetchDirect("a.rrd", "AVERAGE", 0, 300, 100)) {
+            assertThat(results.getColumns(), equalTo(new String[]{"x", "y"}));
+            assertThat(results.getRowCount(), is(3));
+            assertThat(results.getValue(1, 2), is(5d));
+            assertThat(results.toFetchResults().getValues(), equalTo(jrrd2.fetch("a.rrd", "AVERAGE", 0, 300, 100).getValues()));
+        }
+    }
+
+    @Test
+    public void fetchWithMaxRowsUsesTheInfo() throws JRrd2Exception {
+        final MinimalJRrd2 withInfo = new MinimalJRrd2() {
+            @Override
+            public RrdInfo info(String filename) {
+                return new RrdInfo(filename, "0003", 100, 30000, new RrdInfo.DataSource[0], new RrdInfo.Archive[] {
+                        new RrdInfo.Archive("AVERAGE", 100, 1, 0.5, 100),
+                        new RrdInfo.Archive("AVERAGE", 100, 10, 0.5, 1000)
+                });
+            }
+        };
+
+        withInfo.fetchWithMaxRows("a.rrd", "AVERAGE", 28000, 29000, 100);
+        withInfo.fetchWithMaxRows("a.rrd", "AVERAGE", 28000, 29000, 5);
+
+        assertThat(withInfo.steps, contains(100L, 1000L));
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void infoIsNotSupportedByDefault() throws JRrd2Exception {
+        jrrd2.info("a.rrd");
+    }
+
+    @Test
+    public void errorsNameTheImplementation() {
+        try {
+            jrrd2.lastUpdate("a.rrd");
+            fail("lastUpdate should not be supported.");
+        } catch (JRrd2Exception e) {
+            assertThat(e.getMessage(), equalTo("lastUpdate is not supported by " + MinimalJRrd2.class.getName() + "."));
+        }
+    }
+
+    /**
+     * Only implements the operations that the interface had before the defaults were added.
+     */
+    private static class MinimalJRrd2 implements JRrd2 {
+        private final List<String> updates = new ArrayList<>();
+        private final List<Long> steps = new ArrayList<>();
+
+        @Override
+        public void create(String filename, long step, long start, String[] argv) {
+            // pass
+        }
+
+        @Override
+        public void update(String filename, String template, String[] argv) throws JRrd2Exception {
+            if (filename.startsWith("fail")) {
+                throw new JRrd2Exception(filename);
+            }
+            updates.add(filename + " " + template + " " + Arrays.toString(argv));
+        }
+
+        @Override
+        public FetchResults fetch(String filename, String cf, long start, long end, long step) {
+            steps.add(step);
+            return new FetchResults(start, end, step, new String[]{"x", "y"},
+                    new double[][]{ {0, 1, 2}, {3, 4, 5} });
+        }
+
+        @Override
+        public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdSchema;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class BulkCreatorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final PrototypeJRrd2 jrrd2 = new PrototypeJRrd2();
+
+    @Test
+    public void createsFilesThatOnlyDifferByTheirStartingRows() throws Exception {
+        final RrdSchema schema = RrdSchema.parse(100, "DS:x:GAUGE:200:U:U", "RRA:AVERAGE:0.5:1:10");
+        final List<String> filenames = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            filenames.add(tempFolder.getRoot().toPath().resolve("node" + i).resolve("x.rrd").toString());
+            if (i % 10 != 9) {
+                Files.createDirectories(Paths.get(filenames.get(i)).getParent());
+            }
+        }
+        // Replaced
+        Files.write(Paths.get(filenames.get(0)), new byte[] { 1, 2, 3 });
+
+        final BatchResults results = new BulkCreator(jrrd2, 4).create(schema, 1000, filenames);
+
+        assertThat(jrrd2.calls.get(), is(1));
+        assertThat(results.size(), is(50));
+        assertThat(results.getNumFailed(), is(5));
+        final byte[] expected = jrrd2.prototype();
+        final int curRowOffset = new MappedRrd("prototype.rrd", ByteBuffer.wrap(expected)).getCurrentRowOffset(0);
+        final Set<Long> curRows = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            if (i % 10 == 9) {
+                assertThat(results.getError(i), containsString(filenames.get(i)));
+            } else {
+                assertThat(results.isSuccessful(i), is(true));
+                final byte[] actual = Files.readAllBytes(Paths.get(filenames.get(i)));
+                final long curRow = new MappedRrd(filenames.get(i), ByteBuffer.wrap(actual)).getCurrentRow(0);
+                assertThat(curRow, both(greaterThanOrEqualTo(0L)).and(lessThan(10L)));
+                curRows.add(curRow);
+                System.arraycopy(expected, curRowOffset, actual, curRowOffset, Long.BYTES);
+                assertThat(actual, equalTo(expected));
+                assertThat(Files.exists(Paths.get(filenames.get(i) + ".partial")), is(false));
+            }
+        }
+        // The archives don't all start at the same row
+        assertThat(curRows.size(), greaterThan(1));
+
+        // The files are readable
+        final MmapJRrd2 mmap = new MmapJRrd2(jrrd2);
+        assertThat(mmap.info(filenames.get(0)).getDataSourceNames(), arrayContaining("x"));
+        assertThat(mmap.lastUpdate(filenames.get(1)).getTimestamp(), is(1000L));
+    }
+
+    @Test
+    public void reportsNullFilenames() throws Exception {
+        final RrdSchema schema = RrdSchema.parse(100, "DS:x:GAUGE:200:U:U", "RRA:AVERAGE:0.5:1:10");
+        final String filename = tempFolder.getRoot().toPath().resolve("x.rrd").toString();
+        final BatchResults results = new BulkCreator(jrrd2).create(schema, 1000, Arrays.asList(null, filename));
+        assertThat(results.getError(0), equalTo("filename cannot be null."));
+        assertThat(results.isSuccessful(1), is(true));
+    }
+
+    @Test
+    public void failsWhenThePrototypeCannotBeCreated() throws Exception {
+        final RrdSchema schema = RrdSchema.parse(100, "DS:x:GAUGE:200:U:U", "RRA:AVERAGE:0.5:1:10");
+        final String filename = tempFolder.getRoot().toPath().resolve("x.rrd").toString();
+        try {
+            new BulkCreator(new StubJRrd2() {
+                @Override
+                public void create(String filename, long step, long start, String[] argv) throws JRrd2Exception {
+                    throw new JRrd2Exception("creating rrd: Permission denied");
+                }
+            }).create(schema, 1000, Arrays.asList(filename));
+            throw new AssertionError("expected a JRrd2Exception");
+        } catch (JRrd2Exception e) {
+            assertThat(e.getMessage(), equalTo("creating rrd: Permission denied"));
+        }
+        assertThat(Files.exists(Paths.get(filename)), is(false));
+    }
+
+    @Test
+    public void parsesSchemas() throws Exception {
+        final RrdSchema schema = RrdSchema.parse(300,
+                "DS:in:COUNTER:600:0:U", "DS:out:DERIVE:10m:U:1e9", "DS:total:COMPUTE:in,out,+",
+                "RRA:AVERAGE:0.5:1:2016", "RRA:MAX:0:1h:1y", "RRA:HWPREDICT:1440:0.1:0.0035:288");
+        assertThat(schema.getStep(), is(300L));
+        assertThat(schema.getDataSourceNames(), contains("in", "out", "total"));
+        assertThat(schema.getArchiveCount(), is(3));
+        assertThat(schema.getDefinitions().length, is(6));
+    }
+
+    @Test
+    public void rejectsInvalidSchemas() {
+        assertInvalid("step must be strictly positive.", 0, "DS:x:GAUGE:200:U:U", "RRA:AVERAGE:0.5:1:10");
+        assertInvalid("at least one DS is required.", 100, "RRA:AVERAGE:0.5:1:10");
+        assertInvalid("at least one RRA is required.", 100, "DS:x:GAUGE:200:U:U");
+        assertInvalid("Invalid definition 'DS:x:GAUGE:200:U': expected DS:name:GAUGE:heartbeat:min:max.",
+                100, "DS:x:GAUGE:200:U", "RRA:AVERAGE:0.5:1:10");
+        assertInvalid("Invalid definition 'DS:x:GAUGE:200:U:U': duplicate DS name.",
+                100, "DS:x:GAUGE:200:U:U", "DS:x:GAUGE:200:U:U", "RRA:AVERAGE:0.5:1:10");
+        assertInvalid("Invalid definition 'DS:a-very-long-data-source-name:GAUGE:200:U:U': DS names must be 1 to 19 characters long, out of [a-zA-Z0-9_].",
+                100, "DS:a-very-long-data-source-name:GAUGE:200:U:U", "RRA:AVERAGE:0.5:1:10");
+        assertInvalid("Invalid definition 'DS:x:GAUGE:200:10:1': min must be less than max.",
+                100, "DS:x:GAUGE:200:10:1", "RRA:AVERAGE:0.5:1:10");
+        assertInvalid("Invalid definition 'DS:x:GAGE:200:U:U': unknown DS type.",
+                100, "DS:x:GAGE:200:U:U", "RRA:AVERAGE:0.5:1:10");
+        assertInvalid("Invalid definition 'RRA:AVERAGE:1.5:1:10': xff must be between 0 and 1.",
+                100, "DS:x:GAUGE:200:U:U", "RRA:AVERAGE:1.5:1:10");
+        assertInvalid("Invalid definition 'RRA:AVERAGE:0.5:1:0': steps and rows must be strictly positive.",
+                100, "DS:x:GAUGE:200:U:U", "RRA:AVERAGE:0.5:1:0");
+        assertInvalid("Invalid definition 'RRA:MEDIAN:0.5:1:10': unknown consolidation function.",
+                100, "DS:x:GAUGE:200:U:U", "RRA:MEDIAN:0.5:1:10");
+        assertInvalid("Invalid definition 'RRD:x': expected a DS or an RRA.", 100, "RRD:x");
+    }
+
+    private static void assertInvalid(String message, long step, String... definitions) {
+        try {
+            RrdSchema.parse(step, definitions);
+            throw new AssertionError("expected a JRrd2Exception");
+        } catch (JRrd2Exception e) {
+            assertThat(e.getMessage(), equalTo(message));
+        }
+    }
+
+    /**
+     * Creates files with {@link SyntheticRrd}, and remembers the last one.
+     */
+    private static class PrototypeJRrd2 extends StubJRrd2 {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private byte[] prototype;
+
+        @Override
+        public void create(String filename, long step, long start, String[] argv) throws JRrd2Exception {
+            calls.incrementAndGet();
+            try {
+                final Path path = new SyntheticRrd(step, start)
+                        .ds("x", "GAUGE", 2 * step, Double.NaN, Double.NaN)
+                        .rra("AVERAGE", 1, 10, 0, (ds, time) -> Double.NaN)
+                        .write(Paths.get(filename));
+                prototype = Files.readAllBytes(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private byte[] prototype() {
+            return prototype;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CachingJRrd2Test {
+
+    private final CountingJRrd2 counter = new CountingJRrd2();
+
+    @Test
+    public void sharesEntriesWithinTheSameStep() throws JRrd2Exception {
+        final CachingJRrd2 cache = new CachingJRrd2(counter);
+
+        final FetchResults first = cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        final FetchResults second = cache.fetch("a.rrd", "AVERAGE", 1100, 2099, 300);
+        assertThat(counter.fetches.get(), is(1));
+        assertThat(second.getValues(), is(first.getValues()));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getMisses(), is(1L));
+
+        // Next step interval
+        cache.fetch("a.rrd", "AVERAGE", 1100, 2100, 300);
+        assertThat(counter.fetches.get(), is(2));
+        assertThat(cache.getSize(), is(2));
+    }
+
+    @Test
+    public void onlySharesEntriesAlignedToTheSameRowsOfTheArchive() throws JRrd2Exception {
+        // librrd picks a finer archive than requested
+        final CachingJRrd2 fine = new CachingJRrd2(new CountingJRrd2(60));
+        final FetchResults first = fine.fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        final FetchResults second = fine.fetch("a.rrd", "AVERAGE", 1100, 2099, 300);
+        assertThat(fine.getHits(), is(0L));
+        assertThat(second.getStart(), not(equalTo(first.getStart())));
+        assertThat(fine.fetch("a.rrd", "AVERAGE", 1100, 2099, 300).getStart(), equalTo(second.getStart()));
+        assertThat(fine.getHits(), is(1L));
+
+        // or a coarser one
+        final CachingJRrd2 coarse = new CachingJRrd2(new CountingJRrd2(3600));
+        coarse.fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        coarse.fetch("a.rrd", "AVERAGE", 1100, 2099, 300);
+        assertThat(coarse.getHits(), is(1L));
+    }
+
+    @Test
+    public void returnsCopiesOfTheCachedValues() throws JRrd2Exception {
+        final CachingJRrd2 cache = new CachingJRrd2(counter);
+
+        cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300).getValues()[0][0] = -1;
+        assertThat(cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300).getValues()[0][0], is(1.0));
+
+        final FetchBuffer buffer = new FetchBuffer();
+        cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300, buffer);
+        assertThat(buffer.toFetchResults().getValues(), is(counter.fetch("a.rrd", "AVERAGE", 1000, 2000, 300).getValues()));
+        assertThat(cache.getHits(), is(2L));
+    }
+
+    @Test
+    public void invalidatesOnUpdate() throws JRrd2Exception {
+        final CachingJRrd2 cache = new CachingJRrd2(counter);
+
+        cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        cache.fetch("a.rrd", "MAX", 1000, 2000, 300);
+        cache.fetch("b.rrd", "AVERAGE", 1000, 2000, 300);
+        cache.update("a.rrd", null, new String[]{"N:1"});
+        assertThat(cache.getInvalidations(), is(2L));
+        assertThat(cache.getSize(), is(1));
+
+        cache.update(Arrays.asList(new UpdateRequest("b.rrd", null, new String[]{"N:1"})));
+        assertThat(cache.getSize(), is(0));
+        assertThat(cache.getWeight(), is(0L));
+
+        cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        assertThat(counter.fetches.get(), is(4));
+    }
+
+    @Test
+    public void doesNotCacheResultsRacingWithUpdates() throws JRrd2Exception {
+        final CachingJRrd2[] cache = new CachingJRrd2[1];
+        cache[0] = new CachingJRrd2(new CountingJRrd2() {
+            @Override
+            public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+                cache[0].invalidate(filename);
+                return super.fetch(filename, cf, start, end, step);
+            }
+        });
+        cache[0].fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        assertThat(cache[0].getSize(), is(0));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws JRrd2Exception {
+        // Room for two entries of 4 values
+        final CachingJRrd2 cache = new CachingJRrd2(counter, 2 * (256 + 4 * 8), 60000);
+
+        cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        cache.fetch("b.rrd", "AVERAGE", 1000, 2000, 300);
+        cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        cache.fetch("c.rrd", "AVERAGE", 1000, 2000, 300);
+        assertThat(cache.getEvictions(), is(1L));
+        assertThat(cache.getSize(), is(2));
+
+        // b.rrd was evicted
+        cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        cache.fetch("b.rrd", "AVERAGE", 1000, 2000, 300);
+        assertThat(counter.fetches.get(), is(4));
+    }
+
+    @Test
+    public void expiresOldEntries() throws Exception {
+        final CachingJRrd2 cache = new CachingJRrd2(counter, CachingJRrd2.DEFAULT_MAX_WEIGHT, 1);
+
+        cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        Thread.sleep(5);
+        cache.fetch("a.rrd", "AVERAGE", 1000, 2000, 300);
+        assertThat(counter.fetches.get(), is(2));
+        assertThat(cache.getSize(), is(1));
+    }
+
+    private static class CountingJRrd2 extends StubJRrd2 {
+        private final AtomicInteger fetches = new AtomicInteger();
+
+        /**
+         * Step of the archive, or 0 to use the requested step.
+         */
+        private final long archiveStep;
+
+        private CountingJRrd2() {
+            this(0);
+        }
+
+        private CountingJRrd2(long archiveStep) {
+            this.archiveStep = archiveStep;
+        }
+
+        @Override
+        public void update(String filename, String template, String[] argv) {
+            // pass
+        }
+
+        @Override
+        public BatchResults update(List<UpdateRequest> updates) {
+            return new BatchResults(new String[updates.size()]);
+        }
+
+        @Override
+        public FetchResults fetch(String filename, String cf, long start, long end, long requestedStep) throws JRrd2Exception {
+            fetches.incrementAndGet();
+            final long step = archiveStep > 0 ? archiveStep : requestedStep;
+            final long alignedStart = start - start % step;
+            final long alignedEnd = end - end % step + step;
+            final int rows = (int) ((alignedEnd - alignedStart) / step);
+            final double[] values = new double[rows];
+            for (int i = 0; i < rows; i++) {
+                values[i] = i + 1;
+            }
+            return new FetchResults(alignedStart + step, alignedEnd, step, new String[] {"x"}, new double[][] {values});
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchRow;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.UncheckedJRrd2Exception;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+public class ChunkedFetcherTest {
+
+    private static final long LAST_UPDATE = 600000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final MmapJRrd2 mmap = new MmapJRrd2();
+
+    private final CountingJRrd2 jrrd2 = new CountingJRrd2();
+
+    private String filename;
+
+    @Before
+    public void setUp() throws Exception {
+        filename = new SyntheticRrd(300, LAST_UPDATE)
+                .ds("x", "GAUGE", 600, Double.NaN, Double.NaN)
+                .ds("y", "GAUGE", 600, Double.NaN, Double.NaN)
+                .rra("AVERAGE", 1, 1000, 123, (ds, time) -> (ds == 0 ? 1 : -1) * time / 300)
+                .rra("AVERAGE", 12, 500, 42, (ds, time) -> 10000 + (ds == 0 ? 1 : -1) * time / 3600)
+                .write(tempFolder.getRoot().toPath().resolve("test.rrd")).toString();
+    }
+
+    @Test
+    public void streamsTheSameRowsAsASingleFetch() throws JRrd2Exception {
+        for (int rowsPerChunk : new int[] {1, 2, 3, 7, 64, 10000}) {
+            // Aligned and unaligned boundaries, all within the finest archive
+            verifyRows(rowsPerChunk, LAST_UPDATE - 900 * 300, LAST_UPDATE - 300, 300);
+            verifyRows(rowsPerChunk, LAST_UPDATE - 900 * 300 + 17, LAST_UPDATE - 42, 300);
+            verifyRows(rowsPerChunk, LAST_UPDATE - 100 * 300, LAST_UPDATE - 100 * 300, 300);
+        }
+    }
+
+    @Test
+    public void keepsTheResolutionOfTheFirstWindow() throws JRrd2Exception {
+        // Only the coarser archive covers the start, later windows are
+        // also covered by the finer one but must not switch to it
+        final long start = LAST_UPDATE - 400 * 3600 + 1234;
+        for (int rowsPerChunk : new int[] {1, 5, 64}) {
+            final List<FetchRow> rows = verifyRows(rowsPerChunk, start, LAST_UPDATE, 300);
+            assertThat(rows.get(1).getTimestamp() - rows.get(0).getTimestamp(), is(3600L));
+            assertThat(rows.get(rows.size() - 1).getTimestamp() - rows.get(rows.size() - 2).getTimestamp(), is(3600L));
+        }
+    }
+
+    @Test
+    public void boundsTheNumberOfRowsPerFetch() throws JRrd2Exception {
+        final ChunkedFetcher fetcher = new ChunkedFetcher(jrrd2, 50);
+        final AtomicInteger numRows = new AtomicInteger();
+        final List<String[]> columns = new ArrayList<>();
+        fetcher.forEachRow(filename, "AVERAGE", LAST_UPDATE - 900 * 300, LAST_UPDATE, 300, new ChunkedFetcher.RowCallback() {
+            @Override
+            public void columns(String[] names) {
+                columns.add(names);
+            }
+
+            @Override
+            public void row(long timestamp, double[] values) {
+                // The last row is past the last update
+                assertThat(values[0], is(timestamp <= LAST_UPDATE ? (double)timestamp / 300 : Double.NaN));
+                numRows.incrementAndGet();
+            }
+        });
+        assertThat(columns, hasSize(1));
+        assertThat(columns.get(0), is(new String[] {"x", "y"}));
+        assertThat(numRows.get(), is(901));
+        assertThat(jrrd2.maxRows, lessThanOrEqualTo(50));
+        assertThat(jrrd2.numFetches.get(), is(19));
+    }
+
+    @Test
+    public void fetchesLazily() {
+        final ChunkedFetcher fetcher = new ChunkedFetcher(jrrd2, 10);
+        final List<FetchRow> rows = fetcher.stream(filename, "AVERAGE", LAST_UPDATE - 900 * 300, LAST_UPDATE, 300)
+                .limit(15)
+                .collect(Collectors.toList());
+        assertThat(rows, hasSize(15));
+        assertThat(jrrd2.numFetches.get(), is(2));
+    }
+
+    @Test
+    public void propagatesErrors() {
+        final ChunkedFetcher fetcher = new ChunkedFetcher(jrrd2);
+        try {
+            fetcher.stream(tempFolder.getRoot().toPath().resolve("missing.rrd").toString(), "AVERAGE", 0, 3600, 300).count();
+            fail("Expected an exception");
+        } catch (UncheckedJRrd2Exception e) {
+            assertThat(e.getCause().getMessage(), containsString("No such file or directory"));
+        }
+    }
+
+    private List<FetchRow> verifyRows(int rowsPerChunk, long start, long end, long step) throws JRrd2Exception {
+        final FetchResults expected = mmap.fetch(filename, "AVERAGE", start, end, step);
+        final List<FetchRow> rows = new ChunkedFetcher(jrrd2, rowsPerChunk).stream(filename, "AVERAGE", start, end, step)
+                .collect(Collectors.toList());
+
+        final long[] timestamps = expected.getTimestamps();
+        assertThat(rows, hasSize(timestamps.length));
+        for (int i = 0; i < timestamps.length; i++) {
+            final FetchRow row = rows.get(i);
+            assertThat(row.getTimestamp(), is(timestamps[i]));
+            assertThat(row.getColumns(), is(expected.getColumns()));
+            for (int k = 0; k < expected.getColumns().length; k++) {
+                assertThat(row.getValue(k), is(expected.getValues()[k][i]));
+            }
+        }
+        return rows;
+    }
+
+    private class CountingJRrd2 extends DelegatingJRrd2 {
+        private final AtomicInteger numFetches = new AtomicInteger();
+
+        private int maxRows = 0;
+
+        private CountingJRrd2() {
+            super(mmap);
+        }
+
+        @Override
+        public void fetch(String filename, String cf, long start, long end, long step, FetchBuffer buffer) throws JRrd2Exception {
+            super.fetch(filename, cf, start, end, step, buffer);
+            numFetches.incrementAndGet();
+            maxRows = Math.max(maxRows, buffer.getRowCount());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ColumnOperatorsTest {
+
+    private static final double NaN = Double.NaN;
+
+    private final ColumnOperators ops = ColumnOperators.scalar();
+
+    private static double[] randomColumn(Random random, int length) {
+        final double[] column = new double[length];
+        for (int i = 0; i < length; i++) {
+            column[i] = random.nextInt(10) == 0 ? NaN : random.nextGaussian() * 100;
+        }
+        return column;
+    }
+
+    @Test
+    public void summarizeSkipsUnknownValues() {
+        final ColumnStats stats = ops.summarize(new double[] { 3, NaN, -1, 4, NaN, 10 });
+        assertThat(stats.getCount(), is(4L));
+        assertThat(stats.getMin(), is(-1d));
+        assertThat(stats.getMax(), is(10d));
+        assertThat(stats.getSum(), is(16d));
+        assertThat(stats.getAverage(), is(4d));
+
+        final ColumnStats unknown = ops.summarize(new double[] { NaN, NaN });
+        assertThat(unknown.getCount(), is(0L));
+        assertThat(unknown.getMin(), is(NaN));
+        assertThat(unknown.getMax(), is(NaN));
+        assertThat(unknown.getAverage(), is(NaN));
+    }
+
+    @Test
+    public void vectorizedKernelsMatchTheScalarOnes() {
+        Assume.assumeTrue(ColumnOperators.isVectorAvailable());
+        final ColumnOperators vectorized = ColumnOperators.vectorized();
+        assertThat(vectorized.isVectorized(), is(true));
+
+        final Random random = new Random(42);
+        // Cover the lengths that don't fill a whole vector
+        for (int length = 0; length < 70; length++) {
+            final double[] column = randomColumn(random, length);
+            final ColumnStats expected = ops.summarize(column);
+            final ColumnStats actual = vectorized.summarize(column);
+            assertThat(actual.getCount(), is(expected.getCount()));
+            assertThat(actual.getMin(), is(expected.getMin()));
+            assertThat(actual.getMax(), is(expected.getMax()));
+            if (expected.getCount() > 0) {
+                assertThat(actual.getSum(), closeTo(expected.getSum(), 1e-9));
+            }
+            if (length >= 3) {
+                assertThat(vectorized.lttb(column, 3 + length / 4), is(ops.lttb(column, 3 + length / 4)));
+            }
+        }
+        final double[] column = randomColumn(random, 10000);
+        assertThat(vectorized.lttb(column, 500), is(ops.lttb(column, 500)));
+    }
+
+    @Test
+    public void percentileUsesTheNearestRank() {
+        final double[] column = { 5, NaN, 1, 4, 2, 3 };
+        assertThat(ops.percentile(column, 0), is(1d));
+        assertThat(ops.percentile(column, 50), is(3d));
+        assertThat(ops.percentile(column, 95), is(5d));
+        assertThat(ops.percentile(column, 100), is(5d));
+        assertThat(ops.percentile(new double[] { NaN }, 95), is(NaN));
+    }
+
+    @Test
+    public void downsampleConsolidatesBuckets() {
+        final FetchResults results = new FetchResults(1000, 1600, 100, new String[] { "x" },
+                new double[][] { { 1, 2, NaN, NaN, 5, NaN, 7 } });
+
+        final FetchResults average = ops.downsample(results, "AVERAGE", 3);
+        assertThat(average.getStart(), is(1200L));
+        assertThat(average.getStep(), is(300L));
+        assertThat(average.getEnd(), is(1800L));
+        assertThat(average.getValues()[0], is(new double[] { 1.5, 5, 7 }));
+        assertThat(ops.downsample(results, "MIN", 3).getValues()[0], is(new double[] { 1, 5, 7 }));
+        assertThat(ops.downsample(results, "MAX", 2).getValues()[0], is(new double[] { 2, NaN, 5, 7 }));
+        assertThat(ops.downsample(results, "LAST", 3).getValues()[0], is(new double[] { 2, 5, 7 }));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void downsampleRejectsUnknownFunctions() {
+        ops.downsample(new FetchResults(0, 0, 1, new String[0], new double[0][]), "MEDIAN", 2);
+    }
+
+    @Test
+    public void lttbKeepsTheShapeOfTheSeries() {
+        final double[] column = new double[100];
+        column[50] = 100;
+        column[80] = -50;
+        for (int i = 20; i < 30; i++) {
+            column[i] = NaN;
+        }
+
+        final int[] selected = ops.lttb(column, 10);
+        assertThat(selected.length, is(10));
+        assertThat(selected[0], is(0));
+        assertThat(selected[9], is(99));
+        for (int i = 1; i < selected.length; i++) {
+            assertThat(selected[i], greaterThan(selected[i - 1]));
+        }
+        assertThat(Arrays.stream(selected).boxed().collect(Collectors.toList()), hasItems(50, 80));
+
+        assertThat(ops.lttb(new double[] { 1, 2, 3 }, 5), is(new int[] { 0, 1, 2 }));
+    }
+
+    @Test
+    public void wideResultsAreProcessedInParallel() {
+        final Random random = new Random(7);
+        final int rows = (int) (ColumnOperators.PARALLEL_THRESHOLD / 4) + 1;
+        final double[][] values = new double[8][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = randomColumn(random, rows);
+        }
+        final FetchResults results = new FetchResults(0, rows - 1, 1, new String[8], values);
+
+        final ColumnStats[] stats = ops.summarize(results);
+        final double[] percentiles = ops.percentile(results, 95);
+        final int[][] selected = ops.lttb(results, 100);
+        for (int i = 0; i < values.length; i++) {
+            assertThat(stats[i].getSum(), is(ops.summarize(values[i]).getSum()));
+            assertThat(percentiles[i], is(ops.percentile(values[i], 95)));
+            assertThat(selected[i], is(ops.lttb(values[i], 100)));
+        }
+    }
+}
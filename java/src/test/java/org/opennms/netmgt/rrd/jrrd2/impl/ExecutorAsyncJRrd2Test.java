@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.rrd.jrrd2.api.BatchFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchRequest;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ExecutorAsyncJRrd2Test {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final BlockingJRrd2 blocking = new BlockingJRrd2();
+
+    private ExecutorAsyncJRrd2 async;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (async != null) {
+            async.close();
+        }
+    }
+
+    @Test
+    public void completesWithResults() throws Exception {
+        release.countDown();
+        async = new ExecutorAsyncJRrd2(blocking, 2, 10, true);
+
+        final FetchResults results = async.fetch("a.rrd", "AVERAGE", 0, 300, 300).get(10, TimeUnit.SECONDS);
+        assertThat(results.getColumns()[0], startsWith("jrrd2-async-"));
+        assertThat(async.update("a.rrd", null, new String[]{"N:1"}).get(10, TimeUnit.SECONDS), nullValue());
+        assertThat(async.getPending(), is(0));
+    }
+
+    @Test
+    public void completesExceptionallyOnErrors() throws Exception {
+        release.countDown();
+        async = new ExecutorAsyncJRrd2(blocking, 1, 10, true);
+
+        try {
+            async.create("a.rrd", 300, 0, new String[0]).get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(JRrd2Exception.class));
+            return;
+        }
+        throw new AssertionError("Expected an ExecutionException");
+    }
+
+    @Test
+    public void canFetchManyInParallel() throws Exception {
+        final CountDownLatch running = new CountDownLatch(3);
+        async = new ExecutorAsyncJRrd2(new StubJRrd2() {
+            @Override
+            public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+                if (filename.startsWith("missing")) {
+                    throw new JRrd2Exception("opening '" + filename + "': No such file or directory");
+                }
+                // Only completes if the requests are all running at the same time
+                running.countDown();
+                try {
+                    running.await();
+                } catch (InterruptedException e) {
+                    throw new JRrd2Exception("interrupted");
+                }
+                return new FetchResults(start, end, step, new String[] {filename}, new double[][] {{}});
+            }
+        }, 4, 10, true);
+
+        final BatchFetchResults results = async.fetch(Arrays.asList(
+                new FetchRequest("a.rrd", "AVERAGE", 0, 300, 300),
+                new FetchRequest("missing.rrd", "AVERAGE", 0, 300, 300),
+                null,
+                new FetchRequest("b.rrd", "AVERAGE", 0, 300, 300),
+                new FetchRequest("c.rrd", "AVERAGE", 0, 300, 300))).get(10, TimeUnit.SECONDS);
+
+        assertThat(results.size(), is(5));
+        assertThat(results.getNumFailed(), is(2));
+        assertThat(results.getResults(0).getColumns()[0], is("a.rrd"));
+        assertThat(results.getError(1), is("opening 'missing.rrd': No such file or directory"));
+        assertThat(results.getResults(1), nullValue());
+        assertThat(results.getError(2), is("request cannot be null."));
+        assertThat(results.getResults(3).getColumns()[0], is("b.rrd"));
+        assertThat(results.getResults(4).getColumns()[0], is("c.rrd"));
+    }
+
+    @Test
+    public void rejectsCallsWhenFull() throws Exception {
+        async = new ExecutorAsyncJRrd2(blocking, 1, 2, false);
+
+        final CompletableFuture<FetchResults> first = async.fetch("a.rrd", "AVERAGE", 0, 300, 300);
+        final CompletableFuture<FetchResults> second = async.fetch("b.rrd", "AVERAGE", 0, 300, 300);
+        final CompletableFuture<FetchResults> third = async.fetch("c.rrd", "AVERAGE", 0, 300, 300);
+        assertThat(async.getPending(), is(2));
+        assertThat(third.isCompletedExceptionally(), is(true));
+        assertThat(async.getRejected(), is(1L));
+        try {
+            third.get();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+        }
+
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+
+        // Permits are released once the calls complete
+        async.fetch("d.rrd", "AVERAGE", 0, 300, 300).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void blocksCallersWhenFull() throws Exception {
+        async = new ExecutorAsyncJRrd2(blocking, 1, 1, true);
+
+        async.fetch("a.rrd", "AVERAGE", 0, 300, 300);
+        final Thread caller = new Thread(() -> async.fetch("b.rrd", "AVERAGE", 0, 300, 300));
+        caller.start();
+        caller.join(200);
+        assertThat(caller.isAlive(), is(true));
+
+        release.countDown();
+        caller.join(10000);
+        assertThat(caller.isAlive(), is(false));
+    }
+
+    @Test
+    public void skipsCancelledCalls() throws Exception {
+        async = new ExecutorAsyncJRrd2(blocking, 1, 10, true);
+
+        final CompletableFuture<FetchResults> first = async.fetch("a.rrd", "AVERAGE", 0, 300, 300);
+        final CompletableFuture<FetchResults> second = async.fetch("b.rrd", "AVERAGE", 0, 300, 300);
+        second.cancel(false);
+        release.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        async.close();
+        assertThat(blocking.fetches, is(1));
+    }
+
+    private class BlockingJRrd2 extends StubJRrd2 {
+        private volatile int fetches = 0;
+
+        @Override
+        public void create(String filename, long step, long start, String[] argv) throws JRrd2Exception {
+            throw new JRrd2Exception("creating '" + filename + "' failed");
+        }
+
+        @Override
+        public void update(String filename, String template, String[] argv) {
+            // pass
+        }
+
+        @Override
+        public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new JRrd2Exception("interrupted");
+            }
+            fetches++;
+            return new FetchResults(start, end, step, new String[] {Thread.currentThread().getName()}, new double[][] {{}});
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class FetchResultsCodecTest {
+
+    private static final double NaN = Double.NaN;
+
+    private final FetchResultsCodec codec = new FetchResultsCodec();
+
+    private static void assertSame(FetchResults actual, FetchResults expected) {
+        assertThat(actual.getStart(), is(expected.getStart()));
+        assertThat(actual.getEnd(), is(expected.getEnd()));
+        assertThat(actual.getStep(), is(expected.getStep()));
+        assertThat(actual.getColumns(), is(expected.getColumns()));
+        assertThat(actual.getValues().length, is(expected.getValues().length));
+        for (int i = 0; i < expected.getValues().length; i++) {
+            final double[] expectedColumn = expected.getValues()[i];
+            final double[] actualColumn = actual.getValues()[i];
+            assertThat(actualColumn.length, is(expectedColumn.length));
+            for (int j = 0; j < expectedColumn.length; j++) {
+                // Compare the bits, to tell the zeros apart
+                assertThat(Double.doubleToLongBits(actualColumn[j]), is(Double.doubleToLongBits(expectedColumn[j])));
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsSpecialValues() throws IOException {
+        final FetchResults results = new FetchResults(1000, 1500, 100, new String[] { "x", null, "\u00fcn\u00efc\u00f8d\u00e9" }, new double[][] {
+                { 0, -0.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE },
+                { NaN, NaN, 1, NaN, 1, 1 },
+                { Double.longBitsToDouble(0x7ff8000000000001L), 1e-300, -1e300, 42, 42, NaN } });
+
+        assertSame(codec.decode(codec.encode(results)), results);
+    }
+
+    @Test
+    public void roundTripsRandomValues() throws IOException {
+        final Random random = new Random(42);
+        final double[][] values = new double[5][1000];
+        for (final double[] column : values) {
+            for (int j = 0; j < column.length; j++) {
+                final int kind = random.nextInt(4);
+                column[j] = kind == 0 ? NaN : kind == 1 ? random.nextLong() : kind == 2 ? random.nextDouble() : Double.longBitsToDouble(random.nextLong());
+                if (Double.isNaN(column[j])) {
+                    column[j] = NaN;
+                }
+            }
+        }
+        final FetchResults results = new FetchResults(0, 999 * 300, 300, new String[] { "a", "b", "c", "d", "e" }, values);
+
+        assertSame(codec.decode(codec.encode(results)), results);
+    }
+
+    @Test
+    public void compressesTypicalSeries() throws IOException {
+        final int rows = 8640;
+        final double[][] values = new double[3][rows];
+        for (int j = 0; j < rows; j++) {
+            // A constant, a slowly growing counter rate with a gap, and a value that toggles
+            values[0][j] = 100;
+            values[1][j] = j > 1000 && j < 2000 ? NaN : 1000 + j / 10;
+            values[2][j] = j % 2 == 0 ? 0.5 : 0.25;
+        }
+        final FetchResults results = new FetchResults(0, (rows - 1) * 300L, 300, new String[] { "a", "b", "c" }, values);
+
+        final byte[] encoded = codec.encode(results);
+        assertThat(encoded.length, lessThan(3 * rows * Double.BYTES / 20));
+        assertSame(codec.decode(encoded), results);
+    }
+
+    @Test
+    public void decodesIntoAReusableBuffer() throws IOException {
+        final FetchResults first = new FetchResults(0, 200, 100, new String[] { "x", "y" }, new double[][] { { 1, 2, 3 }, { 4, NaN, 6 } });
+        final FetchResults second = new FetchResults(300, 300, 100, new String[] { "z" }, new double[][] { { 7 } });
+
+        // Several messages can be read from the same stream
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final WritableByteChannel writable = Channels.newChannel(out);
+        codec.encode(first, writable);
+        codec.encode(second, writable);
+
+        final FetchBuffer buffer = new FetchBuffer(2, 3);
+        final double[] values = buffer.getValues();
+        final ReadableByteChannel readable = Channels.newChannel(new ByteArrayInputStream(out.toByteArray()));
+        codec.decode(readable, buffer);
+        assertSame(buffer.toFetchResults(), first);
+        codec.decode(readable, buffer);
+        assertSame(buffer.toFetchResults(), second);
+        assertThat(buffer.getValues(), is(sameInstance(values)));
+
+        // And a buffer can be encoded as well
+        final FetchBuffer copy = new FetchBuffer();
+        final ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        codec.encode(buffer, Channels.newChannel(copied));
+        codec.decode(Channels.newChannel(new ByteArrayInputStream(copied.toByteArray())), copy);
+        assertSame(copy.toFetchResults(), second);
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void rejectsOtherData() throws IOException {
+        final byte[] encoded = codec.encode(new FetchResults(0, 0, 1, new String[0], new double[0][]));
+        encoded[0] = 'X';
+        codec.decode(encoded);
+    }
+
+    @Test(expected = EOFException.class)
+    public void rejectsTruncatedMessages() throws IOException {
+        final byte[] encoded = codec.encode(new FetchResults(0, 200, 100, new String[] { "x" }, new double[][] { { 1, 2, 3 } }));
+        codec.decode(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+}
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Verifies that the {@link JRrd2} created by {@link FfmBackend} behaves like the {@link JRrd2Jni}.
+ *
+ * Only runs on Java 22 or later, when librrd can be found.
+ */
+public class FfmCompatibilityTest {
+
+    private static final long START = 1424700000;
+
+    private static final long STEP = 300;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private JRrd2Jni jni;
+
+    private JRrd2 ffm;
+
+    private String filename;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Assume.assumeTrue("FFM is not available", FfmBackend.isAvailable());
+        librarySearch: for (final String prefix : new String[] { "", "lib" }) {
+            for (final String suffix : new String[] { ".so", ".dll", ".jnilib" }) {
+                final Path library = Paths.get(System.getProperty("user.dir"), "..", "dist", prefix + "jrrd2" + suffix);
+                if (library.toFile().exists()) {
+                    System.setProperty("opennms.library.jrrd2", library.toString());
+                    break librarySearch;
+                }
+            }
+        }
+        Interface.init();
+    }
+
+    @Before
+    public void setUp() throws JRrd2Exception {
+        jni = new JRrd2Jni();
+        ffm = FfmBackend.create();
+        filename = new File(tempFolder.getRoot(), "test.rrd").getAbsolutePath();
+        ffm.create(filename, STEP, START, new String[]{
+            "DS:x:GAUGE:900:0:1000",
+            "DS:y:GAUGE:900:0:1000",
+            "RRA:AVERAGE:0.5:1:200",
+            "RRA:AVERAGE:0.5:6:100",
+            "RRA:MAX:0.5:12:50"
+        });
+        for (int i = 1; i <= 300; i++) {
+            if (i % 41 == 0) {
+                continue;
+            }
+            ffm.update(filename, "x:y", new String[]{
+                String.format("%d:%d:%d", START + i * STEP, i % 500, (i * 7) % 300)
+            });
+        }
+    }
+
+    @Test
+    public void canFetchLikeJni() throws JRrd2Exception {
+        final long lastUpdate = START + 300 * STEP;
+        for (String cf : new String[] { "AVERAGE", "MAX" }) {
+            for (long step : new long[] { 1, STEP, 6 * STEP, 12 * STEP }) {
+                for (long start : new long[] { START - 5000, lastUpdate - 20000, lastUpdate + 1 }) {
+                    assertCompatible(cf, start, lastUpdate + 7 * STEP, step);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canFetchWithMaxRows() throws JRrd2Exception {
+        final long lastUpdate = START + 300 * STEP;
+        for (long maxRows : new long[] { 1, 10, 100, 1000 }) {
+            final FetchResults expected = jni.fetchWithMaxRows(filename, "AVERAGE", START, lastUpdate, maxRows);
+            final FetchResults actual = ffm.fetchWithMaxRows(filename, "AVERAGE", START, lastUpdate, maxRows);
+            assertThat(actual.getStep(), equalTo(expected.getStep()));
+            assertThat(actual.getValues(), equalTo(expected.getValues()));
+        }
+    }
+
+    @Test
+    public void canUpdateInBatches() throws JRrd2Exception {
+        final long lastUpdate = START + 300 * STEP;
+        final BatchResults results = ffm.update(Arrays.asList(
+                new UpdateRequest(filename, "x:y", new String[] { String.format("%d:1:2", lastUpdate + STEP) }),
+                new UpdateRequest(filename, null, new String[] { String.format("%d:1:2", lastUpdate) }),
+                new UpdateRequest(filename, null, null)));
+
+        assertThat(results.isSuccessful(0), is(true));
+        assertThat(results.getError(1), containsString("illegal attempt to update"));
+        assertThat(results.getError(2), equalTo("argv cannot be null."));
+        assertThat(ffm.lastUpdate(filename).getTimestamp(), equalTo(lastUpdate + STEP));
+    }
+
+    @Test
+    public void canXportLikeJni() throws JRrd2Exception {
+        final long lastUpdate = START + 300 * STEP;
+        final String[] argv = new String[] {
+            "DEF:x=" + filename + ":x:AVERAGE",
+            "DEF:y=" + filename + ":y:AVERAGE",
+            "CDEF:z=x,y,+",
+            "XPORT:x",
+            "XPORT:z"
+        };
+        final FetchResults expected = jni.xport(START, lastUpdate, STEP, 0, argv);
+        final FetchResults actual = ffm.xport(START, lastUpdate, STEP, 0, argv);
+        assertThat(actual.getStart(), equalTo(expected.getStart()));
+        assertThat(actual.getEnd(), equalTo(expected.getEnd()));
+        assertThat(actual.getStep(), equalTo(expected.getStep()));
+        assertThat(actual.getColumns(), equalTo(expected.getColumns()));
+        assertThat(actual.getValues(), equalTo(expected.getValues()));
+    }
+
+    @Test
+    public void canReadMetadataLikeJni() throws JRrd2Exception {
+        final RrdInfo expected = jni.info(filename);
+        final RrdInfo actual = ffm.info(filename);
+        assertThat(actual.getVersion(), equalTo(expected.getVersion()));
+        assertThat(actual.getStep(), equalTo(expected.getStep()));
+        assertThat(actual.getLastUpdate(), equalTo(expected.getLastUpdate()));
+        assertThat(actual.getDataSourceNames(), equalTo(expected.getDataSourceNames()));
+        assertThat(actual.getArchives().length, equalTo(expected.getArchives().length));
+        for (int i = 0; i < expected.getArchives().length; i++) {
+            assertThat(actual.getArchives()[i].getXff(), equalTo(expected.getArchives()[i].getXff()));
+            assertThat(ffm.first(filename, i), equalTo(jni.first(filename, i)));
+        }
+        assertThat(ffm.lastUpdate(filename).getValues(), equalTo(jni.lastUpdate(filename).getValues()));
+    }
+
+    @Test
+    public void failsLikeJni() {
+        final String missing = new File(tempFolder.getRoot(), "missing.rrd").getAbsolutePath();
+        assertThat(failure(() -> ffm.fetch(missing, "AVERAGE", START, START + STEP, STEP)),
+                equalTo(failure(() -> jni.fetch(missing, "AVERAGE", START, START + STEP, STEP))));
+        assertThat(failure(() -> ffm.info(null)), equalTo(failure(() -> jni.info(null))));
+        assertThat(failure(() -> ffm.first(filename, 10)), equalTo(failure(() -> jni.first(filename, 10))));
+    }
+
+    private void assertCompatible(String cf, long start, long end, long step) throws JRrd2Exception {
+        final String description = String.format("fetch %s from %d to %d with step %d", cf, start, end, step);
+        final FetchResults expected = jni.fetch(filename, cf, start, end, step);
+        final FetchResults actual = ffm.fetch(filename, cf, start, end, step);
+        assertThat(description, actual.getStart(), equalTo(expected.getStart()));
+        assertThat(description, actual.getEnd(), equalTo(expected.getEnd()));
+        assertThat(description, actual.getStep(), equalTo(expected.getStep()));
+        assertThat(description, actual.getColumns(), equalTo(expected.getColumns()));
+        assertThat(description, actual.getValues(), equalTo(expected.getValues()));
+
+        final FetchBuffer buffer = new FetchBuffer();
+        ffm.fetch(filename, cf, start, end, step, buffer);
+        assertThat(description, buffer.getStart(), equalTo(expected.getStart()));
+        assertThat(description, buffer.toFetchResults().getValues(), equalTo(expected.getValues()));
+
+        try (DirectFetchResults direct = ffm.fetchDirect(filename, cf, start, end, step)) {
+            assertThat(description, direct.getStart(), equalTo(expected.getStart()));
+            assertThat(description, direct.toFetchResults().getValues(), equalTo(expected.getValues()));
+        }
+    }
+
+    private interface Call {
+        void run() throws JRrd2Exception;
+    }
+
+    private static String failure(Call call) {
+        try {
+            call.run();
+        } catch (JRrd2Exception e) {
+            return e.getMessage();
+        }
+        throw new AssertionError("expected a JRrd2Exception");
+    }
+}
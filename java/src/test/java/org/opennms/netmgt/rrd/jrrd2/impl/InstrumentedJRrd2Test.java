@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class InstrumentedJRrd2Test {
+
+    private final InstrumentedJRrd2 instrumented = new InstrumentedJRrd2(new StubJRrd2() {
+        @Override
+        public void update(String filename, String template, String[] argv) throws JRrd2Exception {
+            if (filename.startsWith("missing")) {
+                throw new JRrd2Exception(String.format("opening '%s': No such file or directory", filename));
+            }
+        }
+
+        @Override
+        public BatchResults update(List<UpdateRequest> updates) {
+            return new BatchResults(new String[] {null, "illegal attempt to update using time 1 when last update time is 2"});
+        }
+
+        @Override
+        public FetchResults fetch(String filename, String cf, long start, long end, long step) {
+            return new FetchResults(start, end, step, new String[] {"x", "y"}, new double[][] {{1, 2, 3}, {4, 5, 6}});
+        }
+    });
+
+    @Test
+    public void recordsOperations() throws JRrd2Exception {
+        instrumented.update("a.rrd", null, new String[] {"N:1"});
+        instrumented.fetch("a.rrd", "AVERAGE", 0, 900, 300);
+        instrumented.fetch("a.rrd", "AVERAGE", 0, 900, 300);
+
+        final OperationStatsMXBean update = getStats("update");
+        assertThat(update.getCount(), is(1L));
+        assertThat(update.getErrorCount(), is(0L));
+        assertThat(update.getMaxLatencyMicros(), greaterThanOrEqualTo(update.getLatency50thPercentileMicros()));
+
+        final OperationStatsMXBean fetch = getStats("fetch");
+        assertThat(fetch.getCount(), is(2L));
+        assertThat(fetch.getRows(), is(6L));
+        assertThat(fetch.getBytes(), is(96L));
+    }
+
+    @Test
+    public void recordsErrorsByMessage() throws JRrd2Exception {
+        for (String filename : new String[] {"missing1.rrd", "missing2.rrd"}) {
+            try {
+                instrumented.update(filename, null, new String[] {"N:1"});
+            } catch (JRrd2Exception e) {
+                // expected
+            }
+        }
+        instrumented.update(Arrays.asList(new UpdateRequest("a.rrd", null, new String[] {"1:1"}),
+                new UpdateRequest("a.rrd", null, new String[] {"1:1"})));
+
+        final OperationStatsMXBean update = getStats("update");
+        assertThat(update.getCount(), is(2L));
+        assertThat(update.getErrorCount(), is(2L));
+        assertThat(update.getErrorsByMessage(), hasEntry("opening '*': No such file or directory", 2L));
+
+        final OperationStatsMXBean batch = getStats("updateBatch");
+        assertThat(batch.getRows(), is(2L));
+        assertThat(batch.getErrorsByMessage(), hasEntry("illegal attempt to update using time N when last update time is N", 1L));
+
+        update.reset();
+        assertThat(update.getErrorsByMessage().size(), is(0));
+    }
+
+    @Test
+    public void canRegisterMXBeans() throws Exception {
+        final ObjectName name = new ObjectName(InstrumentedJRrd2.DOMAIN + ":type=Operations,name=fetch");
+        instrumented.register();
+        try {
+            instrumented.fetch("a.rrd", "AVERAGE", 0, 900, 300);
+            assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Count"), is(1L));
+        } finally {
+            instrumented.unregister();
+        }
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(false));
+    }
+
+    private OperationStatsMXBean getStats(String name) {
+        return instrumented.getOperationStats().stream()
+                .filter(stats -> name.equals(stats.getName()))
+                .findFirst().get();
+    }
+}
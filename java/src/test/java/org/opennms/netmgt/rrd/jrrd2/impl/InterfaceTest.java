@@ -40,8 +40,12 @@ import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
 import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
 import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
 import org.opennms.netmgt.rrd.jrrd2.impl.Interface;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -145,6 +149,77 @@ public class InterfaceTest {
         });
     }
 
+    @Test(expected=JRrd2Exception.class)
+    public void batchUpdateFailsWhenArgvsIsNull() throws JRrd2Exception {
+        Interface.rrd_update_batch_r(new String[]{}, new String[]{}, null);
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void batchUpdateFailsWhenLengthsDiffer() throws JRrd2Exception {
+        Interface.rrd_update_batch_r(new String[]{"a.rrd"}, new String[]{}, new String[][]{});
+    }
+
+    @Test
+    public void canUpdateInBatch() throws JRrd2Exception {
+        final long start = 1424700000;
+        final long step = 900;
+
+        File x = new File(tempFolder.getRoot(), "x.rrd");
+        File y = new File(tempFolder.getRoot(), "y.rrd");
+        File missing = new File(tempFolder.getRoot(), "missing.rrd");
+        for (File rrdFile : new File[]{x, y}) {
+            Interface.rrd_create_r(rrdFile.getAbsolutePath(), step, start, new String[]{
+                "DS:test:GAUGE:900:0:100",
+                "RRA:MIN:0.5:1:1000"});
+        }
+
+        String[] errors = Interface.rrd_update_batch_r(
+                new String[]{x.getAbsolutePath(), missing.getAbsolutePath(), y.getAbsolutePath(), null},
+                new String[]{null, null, "test", null},
+                new String[][]{
+                    {String.format("%d:%d", start + step, 1), String.format("%d:%d", start + 2 * step, 2)},
+                    {String.format("%d:%d", start + step, 1)},
+                    {String.format("%d:%d", start + step, 3)},
+                    {}
+                });
+
+        assertThat(errors.length, is(4));
+        assertThat(errors[0], is(nullValue()));
+        assertThat(errors[1], is(notNullValue()));
+        assertThat(errors[2], is(nullValue()));
+        assertThat(errors[3], is("filename cannot be null."));
+
+        FetchResults results = Interface.rrd_fetch_r(y.getAbsolutePath(), "MIN", start, start + step, 1);
+        assertThat(results.getValues()[0][0], is(3.0));
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void valuesUpdateFailsWhenValuesAreMisaligned() throws JRrd2Exception {
+        Interface.rrd_update_values_r("some-file.rrd", null, new long[]{1, 2}, new double[]{1, 2, 3});
+    }
+
+    @Test
+    public void canUpdateWithValues() throws JRrd2Exception {
+        final long start = 1424700000;
+        final long step = 900;
+
+        File rrdFile = new File(tempFolder.getRoot(), "values.rrd");
+        Interface.rrd_create_r(rrdFile.getAbsolutePath(), step, start, new String[]{
+            "DS:x:GAUGE:900:U:U",
+            "DS:y:GAUGE:900:U:U",
+            "RRA:MIN:0.5:1:1000"});
+
+        Interface.rrd_update_values_r(rrdFile.getAbsolutePath(), "y:x",
+                new long[]{start + step, start + 2 * step},
+                new double[]{0.1, 1e-300, Double.NaN, -12345.678901234567});
+
+        FetchResults results = Interface.rrd_fetch_r(rrdFile.getAbsolutePath(), "MIN", start, start + 2 * step, 1);
+        assertThat(results.getValues()[0][0], is(1e-300));
+        assertThat(results.getValues()[1][0], is(0.1));
+        assertThat(results.getValues()[0][1], is(-12345.678901234567));
+        assertThat(results.getValues()[1][1], is(Double.NaN));
+    }
+
     @Test(expected=JRrd2Exception.class)
     public void fetchFailsWhenFilenameIsNull() throws JRrd2Exception {
         Interface.rrd_fetch_r(null, "AVERAGE", 0, 1, 1);
@@ -196,6 +271,90 @@ public class InterfaceTest {
         assertThat(results.getValues()[1][1], is(100.0));
     }
 
+    @Test(expected=JRrd2Exception.class)
+    public void fetchIntoFailsWhenBufferIsNull() throws JRrd2Exception {
+        Interface.rrd_fetch_into_r("", "AVERAGE", 0, 1, 1, null);
+    }
+
+    @Test
+    public void canFetchIntoReusableBuffer() throws JRrd2Exception {
+        File rrdFile = new File(tempFolder.getRoot(), "test.rrd");
+
+        final long start = 1424700000;
+        final long step = 900;
+
+        Interface.rrd_create_r(rrdFile.getAbsolutePath(), step, start, new String[]{
+            "DS:x:GAUGE:900:0:100",
+            "DS:y:GAUGE:900:0:100",
+            "RRA:MIN:0.5:1:1000"
+        });
+
+        for (int i = 1; i <= 100; i++) {
+            final long timestamp = start + (i * step);
+            Interface.rrd_update_r(rrdFile.getAbsolutePath(), "x:y", new String[]{
+                String.format("%d:%d:%d", timestamp, i, 100)
+            });
+        }
+
+        FetchBuffer buffer = new FetchBuffer();
+        Interface.rrd_fetch_into_r(rrdFile.getAbsolutePath(), "MIN", 1424700000L, 1424800800L, 1, buffer);
+
+        FetchResults expected = Interface.rrd_fetch_r(rrdFile.getAbsolutePath(), "MIN", 1424700000L, 1424800800L, 1);
+        assertThat(buffer.getStart(), is(expected.getStart()));
+        assertThat(buffer.getEnd(), is(expected.getEnd()));
+        assertThat(buffer.getStep(), is(expected.getStep()));
+        assertThat(buffer.getColumns(), is(expected.getColumns()));
+        assertThat(buffer.getRowCount(), is(expected.getValues()[0].length));
+        assertThat(buffer.toFetchResults().getValues(), is(expected.getValues()));
+        assertThat(buffer.getValue(0, 1), is(2.0));
+
+        // A smaller fetch should reuse the same arrays
+        final double[] values = buffer.getValues();
+        final String column = buffer.getColumn(0);
+        Interface.rrd_fetch_into_r(rrdFile.getAbsolutePath(), "MIN", 1424700000L, 1424709000L, 1, buffer);
+        assertThat(buffer.getValues(), is(sameInstance(values)));
+        assertThat(buffer.getColumn(0), is(sameInstance(column)));
+        assertThat(buffer.getValue(1, 0), is(100.0));
+    }
+
+    @Test
+    public void canFetchDirect() throws JRrd2Exception {
+        File rrdFile = new File(tempFolder.getRoot(), "test.rrd");
+
+        final long start = 1424700000;
+        final long step = 900;
+
+        Interface.rrd_create_r(rrdFile.getAbsolutePath(), step, start, new String[]{
+            "DS:x:GAUGE:900:0:100",
+            "DS:y:GAUGE:900:0:100",
+            "RRA:MIN:0.5:1:1000"
+        });
+
+        for (int i = 1; i <= 100; i++) {
+            final long timestamp = start + (i * step);
+            Interface.rrd_update_r(rrdFile.getAbsolutePath(), "x:y", new String[]{
+                String.format("%d:%d:%d", timestamp, i, 100)
+            });
+        }
+
+        FetchResults expected = Interface.rrd_fetch_r(rrdFile.getAbsolutePath(), "MIN", 1424700000L, 1424800800L, 1);
+        DirectFetchResults results = Interface.rrd_fetch_direct_r(rrdFile.getAbsolutePath(), "MIN", 1424700000L, 1424800800L, 1);
+        try {
+            assertThat(results.getStart(), is(expected.getStart()));
+            assertThat(results.getEnd(), is(expected.getEnd()));
+            assertThat(results.getStep(), is(expected.getStep()));
+            assertThat(results.getColumns(), is(expected.getColumns()));
+            assertThat(results.getTimestamps(), is(expected.getTimestamps()));
+            assertThat(results.toFetchResults().getValues(), is(expected.getValues()));
+            assertThat(results.asDoubleBuffer().get(2), is(2.0));
+        } finally {
+            results.close();
+        }
+        assertThat(results.isClosed(), is(true));
+        // Closing twice is harmless
+        results.close();
+    }
+
     @Test(expected=JRrd2Exception.class)
     public void xportFailsWhenArgvIsNull() throws JRrd2Exception {
         Interface.rrd_xport(null);
@@ -258,4 +417,56 @@ public class InterfaceTest {
         assertThat(results.getValues()[1][0], is(100.0));
         assertThat(results.getValues()[1][1], is(100.0));
     }
+
+    @Test(expected=JRrd2Exception.class)
+    public void infoFailsWhenFilenameIsNull() throws JRrd2Exception {
+        Interface.rrd_info_r(null);
+    }
+
+    @Test
+    public void canGetInfoLastUpdateAndFirst() throws JRrd2Exception {
+        final long start = 1424700000;
+        final long step = 900;
+
+        File rrdFile = new File(tempFolder.getRoot(), "info.rrd");
+        Interface.rrd_create_r(rrdFile.getAbsolutePath(), step, start, new String[]{
+            "DS:x:GAUGE:1800:0:100",
+            "DS:y:COUNTER:900:U:U",
+            "RRA:AVERAGE:0.5:1:100",
+            "RRA:MAX:0.25:4:50"});
+        Interface.rrd_update_r(rrdFile.getAbsolutePath(), "y:x", new String[]{
+            String.format("%d:12:34.5", start + step)});
+
+        final RrdInfo info = RrdInfoParser.parseInfo(rrdFile.getAbsolutePath(), Interface.rrd_info_r(rrdFile.getAbsolutePath()));
+        assertThat(info.getStep(), is(step));
+        assertThat(info.getLastUpdate(), is(start + step));
+        assertThat(info.getDataSourceNames(), is(new String[]{"x", "y"}));
+        assertThat(info.getDataSources()[0].getType(), is("GAUGE"));
+        assertThat(info.getDataSources()[0].getHeartbeat(), is(1800L));
+        assertThat(info.getDataSources()[0].getMax(), is(100.0));
+        assertThat(info.getDataSources()[1].getMin(), is(Double.NaN));
+        assertThat(info.getArchives().length, is(2));
+        assertThat(info.getArchives()[1].getCf(), is("MAX"));
+        assertThat(info.getArchives()[1].getRowCount(), is(50L));
+        assertThat(info.getArchives()[1].getStep(), is(4 * step));
+        assertThat(info.getArchives()[1].getXff(), is(0.25));
+
+        final LastUpdate lastUpdate = RrdInfoParser.parseLastUpdate(Interface.rrd_lastupdate_r(rrdFile.getAbsolutePath()));
+        assertThat(lastUpdate.getTimestamp(), is(start + step));
+        assertThat(lastUpdate.getColumns(), is(new String[]{"x", "y"}));
+        assertThat(lastUpdate.getValue(0), is(34.5));
+        assertThat(lastUpdate.getValue(1), is(12.0));
+
+        final long lastRow = (start + step) - (start + step) % step;
+        assertThat(Interface.rrd_first_r(rrdFile.getAbsolutePath(), 0), is(lastRow - 99 * step));
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void firstFailsWhenArchiveIsOutOfRange() throws JRrd2Exception {
+        File rrdFile = new File(tempFolder.getRoot(), "first.rrd");
+        Interface.rrd_create_r(rrdFile.getAbsolutePath(), 300, 1424700000, new String[]{
+            "DS:x:GAUGE:600:U:U",
+            "RRA:AVERAGE:0.5:1:100"});
+        Interface.rrd_first_r(rrdFile.getAbsolutePath(), 1);
+    }
 }
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (int bucket = 0; bucket < 900; bucket++) {
+            assertThat(LatencyHistogram.upperBoundOf(bucket) + 1, is(LatencyHistogram.lowerBoundOf(bucket + 1)));
+            assertThat(LatencyHistogram.bucketOf(LatencyHistogram.lowerBoundOf(bucket)), is(bucket));
+            assertThat(LatencyHistogram.bucketOf(LatencyHistogram.upperBoundOf(bucket)), is(bucket));
+        }
+        assertThat(LatencyHistogram.bucketOf(Long.MAX_VALUE), is(959));
+    }
+
+    @Test
+    public void canComputePercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertThat(histogram.getCount(), is(1000L));
+        assertThat(histogram.getMax(), is(1000000L));
+        assertThat(histogram.getMean(), is(500500.0));
+        assertThat((double) histogram.getValueAtPercentile(50), closeTo(500000, 500000 * 0.07));
+        assertThat((double) histogram.getValueAtPercentile(99), closeTo(990000, 990000 * 0.07));
+        assertThat(histogram.getValueAtPercentile(100), is(1000000L));
+
+        histogram.reset();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getValueAtPercentile(50), is(0L));
+    }
+}
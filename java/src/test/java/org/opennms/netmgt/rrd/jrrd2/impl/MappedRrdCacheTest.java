@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdHandle;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class MappedRrdCacheTest {
+
+    private static final long LAST_UPDATE = 30100;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final MappedRrdCache cache = new MappedRrdCache(2);
+
+    private Path path;
+
+    @Before
+    public void setUp() throws Exception {
+        path = newRrd(tempFolder.getRoot().toPath().resolve("a.rrd"));
+    }
+
+    private static Path newRrd(Path path) throws Exception {
+        return new SyntheticRrd(300, LAST_UPDATE)
+                .ds("x", "GAUGE", 600, 0, 100)
+                .rra("AVERAGE", 1, 10, 9, (ds, time) -> time / 300)
+                .write(path);
+    }
+
+    @Test
+    public void canFetchFromHandles() throws JRrd2Exception {
+        try (RrdHandle handle = cache.open(path.toString())) {
+            assertThat(handle.getFilename(), is(path.toString()));
+            assertThat(handle.fetch("AVERAGE", 29500, 29900, 300).getValues()[0], is(new double[] {99, 100}));
+
+            final FetchBuffer buffer = new FetchBuffer();
+            handle.fetch("AVERAGE", 29500, 29900, 300, buffer);
+            assertThat(buffer.getValue(0, 1), is(100.0));
+        }
+    }
+
+    @Test
+    public void reusesMappings() throws JRrd2Exception {
+        cache.open(path.toString()).close();
+        cache.open(path.toString()).close();
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getSize(), is(1));
+    }
+
+    @Test
+    public void seesChangesMadeToTheFile() throws Exception {
+        try (RrdHandle handle = cache.open(path.toString())) {
+            // Overwrite the value of the most recent row, which is the last one of the file
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                final ByteBuffer value = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder()).putDouble(0, 42);
+                channel.write(value, channel.size() - 8);
+            }
+            assertThat(handle.fetch("AVERAGE", 29500, 29900, 300).getValues()[0], is(new double[] {99, 42}));
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedMappings() throws Exception {
+        final Path b = newRrd(tempFolder.getRoot().toPath().resolve("b.rrd"));
+        final Path c = newRrd(tempFolder.getRoot().toPath().resolve("c.rrd"));
+
+        final RrdHandle handle = cache.open(path.toString());
+        cache.open(b.toString()).close();
+        cache.open(c.toString()).close();
+        assertThat(cache.getEvictions(), is(1L));
+        assertThat(cache.getSize(), is(2));
+
+        // Handles remain usable once evicted
+        assertThat(handle.fetch("AVERAGE", 29500, 29900, 300).getValues()[0], is(new double[] {99, 100}));
+        handle.close();
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void failsWhenClosed() throws JRrd2Exception {
+        final RrdHandle handle = cache.open(path.toString());
+        handle.close();
+        assertThat(handle.isClosed(), is(true));
+        handle.fetch("AVERAGE", 29500, 29900, 300);
+    }
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class MetadataCachingJRrd2Test {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final CountingJRrd2 counter = new CountingJRrd2();
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = newRrd(1000).write(tempFolder.getRoot().toPath().resolve("a.rrd"));
+    }
+
+    private static SyntheticRrd newRrd(long lastUpdate) {
+        return new SyntheticRrd(100, lastUpdate)
+                .ds("x", "GAUGE", 200, Double.NaN, Double.NaN)
+                .rra("AVERAGE", 1, 10, 0, (ds, time) -> time);
+    }
+
+    @Test
+    public void cachesUntilTheFileChanges() throws Exception {
+        final MetadataCachingJRrd2 cache = new MetadataCachingJRrd2(counter);
+        final String filename = file.toString();
+
+        final RrdInfo info = cache.info(filename);
+        assertThat(cache.info(filename), sameInstance(info));
+        assertThat(cache.lastUpdate(filename).getTimestamp(), is(1000L));
+        assertThat(cache.lastUpdate(filename).getTimestamp(), is(1000L));
+        assertThat(cache.first(filename, 0), is(100L));
+        assertThat(cache.first(filename, 0), is(100L));
+        assertThat(counter.calls.get(), is(3));
+        assertThat(cache.getHits(), is(3L));
+        assertThat(cache.getMisses(), is(3L));
+
+        // Replaced by another writer
+        final FileTime lastModified = Files.getLastModifiedTime(file);
+        newRrd(2000).write(file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified.toMillis() + 1000));
+        assertThat(cache.info(filename).getLastUpdate(), is(2000L));
+        assertThat(cache.lastUpdate(filename).getTimestamp(), is(2000L));
+        assertThat(cache.first(filename, 0), is(1100L));
+        assertThat(counter.calls.get(), is(6));
+    }
+
+    @Test
+    public void invalidatesOnUpdate() throws JRrd2Exception {
+        final MetadataCachingJRrd2 cache = new MetadataCachingJRrd2(counter);
+        final String filename = file.toString();
+
+        cache.lastUpdate(filename);
+        cache.update(filename, null, new String[] {"1100:1"});
+        cache.lastUpdate(filename);
+        assertThat(counter.calls.get(), is(2));
+        assertThat(cache.getInvalidations(), is(1L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFiles() throws Exception {
+        final MetadataCachingJRrd2 cache = new MetadataCachingJRrd2(counter, 1, MetadataCachingJRrd2.DEFAULT_MAX_AGE_MS);
+        final String other = newRrd(1000).write(tempFolder.getRoot().toPath().resolve("b.rrd")).toString();
+
+        cache.info(file.toString());
+        cache.info(other);
+        assertThat(cache.getSize(), is(1));
+        assertThat(cache.getEvictions(), is(1L));
+        cache.info(file.toString());
+        assertThat(counter.calls.get(), is(3));
+    }
+
+    @Test
+    public void expiresEntries() throws Exception {
+        final MetadataCachingJRrd2 cache = new MetadataCachingJRrd2(counter, 10, 1);
+
+        cache.info(file.toString());
+        Thread.sleep(5);
+        cache.info(file.toString());
+        assertThat(counter.calls.get(), is(2));
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void doesNotCacheMissingFiles() throws JRrd2Exception {
+        final MetadataCachingJRrd2 cache = new MetadataCachingJRrd2(counter);
+        try {
+            cache.info(file.toString() + ".missing");
+        } finally {
+            assertThat(cache.getSize(), is(0));
+        }
+    }
+
+    private static class CountingJRrd2 extends DelegatingJRrd2 {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private CountingJRrd2() {
+            super(new MmapJRrd2());
+        }
+
+        @Override
+        public void update(String filename, String template, String[] argv) {
+            // pass
+        }
+
+        @Override
+        public RrdInfo info(String filename) throws JRrd2Exception {
+            calls.incrementAndGet();
+            return super.info(filename);
+        }
+
+        @Override
+        public LastUpdate lastUpdate(String filename) throws JRrd2Exception {
+            calls.incrementAndGet();
+            return super.lastUpdate(filename);
+        }
+
+        @Override
+        public long first(String filename, int archive) throws JRrd2Exception {
+            calls.incrementAndGet();
+            return super.first(filename, archive);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdHandle;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Verifies that the {@link MmapJRrd2} returns the same results as librrd's rrd_fetch_r().
+ */
+public class MmapCompatibilityTest {
+
+    private static final long START = 1424700000;
+
+    private static final long STEP = 300;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final JRrd2Jni jni = new JRrd2Jni();
+
+    private final MmapJRrd2 mmap = new MmapJRrd2(jni);
+
+    private String filename;
+
+    @BeforeClass
+    public static void setUpClass() {
+        librarySearch: for (final String prefix : new String[] { "", "lib" }) {
+            for (final String suffix : new String[] { ".so", ".dll", ".jnilib" }) {
+                final Path library = Paths.get(System.getProperty("user.dir"), "..", "dist", prefix + "jrrd2" + suffix);
+                if (library.toFile().exists()) {
+                    System.setProperty("opennms.library.jrrd2", library.toString());
+                    break librarySearch;
+                }
+            }
+        }
+        Interface.init();
+    }
+
+    @Before
+    public void setUp() throws JRrd2Exception {
+        filename = new File(tempFolder.getRoot(), "test.rrd").getAbsolutePath();
+        mmap.create(filename, STEP, START, new String[]{
+            "DS:x:GAUGE:900:0:1000",
+            "DS:y:GAUGE:900:0:1000",
+            "RRA:AVERAGE:0.5:1:200",
+            "RRA:MIN:0.5:1:200",
+            "RRA:AVERAGE:0.5:6:100",
+            "RRA:MAX:0.5:12:50"
+        });
+
+        // Wrap the finest archives around a few times and leave a few gaps
+        for (int i = 1; i <= 700; i++) {
+            if (i % 97 == 0) {
+                continue;
+            }
+            mmap.update(filename, "x:y", new String[]{
+                String.format("%d:%d:%d", START + i * STEP, i % 500, (i * 7) % 300)
+            });
+        }
+    }
+
+    @Test
+    public void canFetchLikeRrdFetch() throws JRrd2Exception {
+        final long lastUpdate = START + 700 * STEP;
+        for (String cf : new String[] { "AVERAGE", "MIN", "MAX" }) {
+            for (long step : new long[] { 1, STEP, 6 * STEP, 12 * STEP, 100000 }) {
+                for (long start : new long[] { START - 5000, lastUpdate - 80000, lastUpdate - 50000, lastUpdate - 1000, lastUpdate + 1 }) {
+                    for (long end : new long[] { lastUpdate - 10000, lastUpdate, lastUpdate + 7 * STEP + 1 }) {
+                        if (start <= end) {
+                            assertCompatible(cf, start, end, step);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canFetchWithMaxRows() throws JRrd2Exception {
+        final long lastUpdate = START + 700 * STEP;
+        for (long maxRows : new long[] { 1, 10, 100, 1000 }) {
+            for (long start : new long[] { START - 5000, lastUpdate - 80000, lastUpdate - 1000 }) {
+                final FetchResults expected = mmap.fetchWithMaxRows(filename, "AVERAGE", start, lastUpdate, maxRows);
+                final FetchResults actual = jni.fetchWithMaxRows(filename, "AVERAGE", start, lastUpdate, maxRows);
+                assertThat(actual.getStep(), equalTo(expected.getStep()));
+                assertThat(actual.getStart(), equalTo(expected.getStart()));
+                assertThat(actual.getValues(), equalTo(expected.getValues()));
+            }
+        }
+    }
+
+    @Test
+    public void canReadMetadataLikeLibrrd() throws JRrd2Exception {
+        final RrdInfo expected = jni.info(filename);
+        final RrdInfo actual = mmap.info(filename);
+        assertThat(actual.getVersion(), equalTo(expected.getVersion()));
+        assertThat(actual.getStep(), equalTo(expected.getStep()));
+        assertThat(actual.getLastUpdate(), equalTo(expected.getLastUpdate()));
+        assertThat(actual.getDataSourceNames(), equalTo(expected.getDataSourceNames()));
+        assertThat(actual.getArchives().length, equalTo(expected.getArchives().length));
+        for (int i = 0; i < expected.getArchives().length; i++) {
+            assertThat(actual.getArchives()[i].getCf(), equalTo(expected.getArchives()[i].getCf()));
+            assertThat(actual.getArchives()[i].getStep(), equalTo(expected.getArchives()[i].getStep()));
+            assertThat(actual.getArchives()[i].getRowCount(), equalTo(expected.getArchives()[i].getRowCount()));
+            assertThat(mmap.first(filename, i), equalTo(jni.first(filename, i)));
+        }
+        assertThat(mmap.lastUpdate(filename).getValues(), equalTo(jni.lastUpdate(filename).getValues()));
+    }
+
+    @Test
+    public void canFetchAfterUpdates() throws JRrd2Exception {
+        final long lastUpdate = START + 700 * STEP;
+        assertCompatible("AVERAGE", lastUpdate - 10 * STEP, lastUpdate + 10 * STEP, STEP);
+
+        // Updates are visible through the existing mapping
+        for (int i = 1; i <= 5; i++) {
+            mmap.update(filename, "x:y", new String[]{
+                String.format("%d:%d:%d", lastUpdate + i * STEP, i, i)
+            });
+        }
+        assertThat(mmap.getMappedFileCount(), is(1));
+        assertCompatible("AVERAGE", lastUpdate - 10 * STEP, lastUpdate + 10 * STEP, STEP);
+    }
+
+    @Test
+    public void handlesSeeTheUpdates() throws JRrd2Exception {
+        final long lastUpdate = START + 700 * STEP;
+        try (RrdHandle handle = mmap.open(filename)) {
+            for (int i = 1; i <= 5; i++) {
+                mmap.update(filename, "x:y", new long[] {lastUpdate + i * STEP}, new double[] {i, 2 * i});
+            }
+            final FetchResults expected = jni.fetch(filename, "AVERAGE", lastUpdate - 10 * STEP, lastUpdate + 10 * STEP, STEP);
+            final FetchResults actual = handle.fetch("AVERAGE", lastUpdate - 10 * STEP, lastUpdate + 10 * STEP, STEP);
+            assertThat(actual.getStart(), equalTo(expected.getStart()));
+            assertThat(actual.getValues(), equalTo(expected.getValues()));
+        }
+    }
+
+    private void assertCompatible(String cf, long start, long end, long step) throws JRrd2Exception {
+        final String description = String.format("fetch %s from %d to %d with step %d", cf, start, end, step);
+        final FetchResults expected = jni.fetch(filename, cf, start, end, step);
+        final FetchResults actual = mmap.fetch(filename, cf, start, end, step);
+
+        assertThat(description, actual.getStart(), equalTo(expected.getStart()));
+        assertThat(description, actual.getEnd(), equalTo(expected.getEnd()));
+        assertThat(description, actual.getStep(), equalTo(expected.getStep()));
+        assertThat(description, actual.getColumns(), equalTo(expected.getColumns()));
+        assertThat(description, actual.getValues(), equalTo(expected.getValues()));
+    }
+}
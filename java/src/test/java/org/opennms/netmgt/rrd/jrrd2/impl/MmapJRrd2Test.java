@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.jrrd2.api.DirectFetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchBuffer;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdInfo;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class MmapJRrd2Test {
+
+    private static final long LAST_UPDATE = 30100;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final MmapJRrd2 jrrd2 = new MmapJRrd2();
+
+    private String filename;
+
+    @Before
+    public void setUp() throws Exception {
+        filename = newRrd(0).write(tempFolder.getRoot().toPath().resolve("test.rrd")).toString();
+    }
+
+    private static SyntheticRrd newRrd(double offset) {
+        return new SyntheticRrd(300, LAST_UPDATE)
+                .ds("x", "GAUGE", 600, 0, 100)
+                .ds("y", "COUNTER", 600, Double.NaN, Double.NaN)
+                .rra("AVERAGE", 1, 10, 4, (ds, time) -> (ds == 0 ? 1 : -1) * (offset + time / 300))
+                .rra("AVERAGE", 3, 10, 7, (ds, time) -> offset + 1000 + time / 900)
+                .rra("MAX", 1, 10, 9, (ds, time) -> offset + 2000 + time / 300);
+    }
+
+    @Test
+    public void canParseHeader() throws JRrd2Exception {
+        final MappedRrd rrd = jrrd2.getRrd(filename);
+        assertThat(rrd.getVersion(), is(3));
+        assertThat(rrd.getPdpStep(), is(300L));
+        assertThat(rrd.getLastUpdate(), is(LAST_UPDATE));
+        assertThat(rrd.getDataSourceNames(), is(new String[] {"x", "y"}));
+        assertThat(rrd.getDataSources()[0].getType(), is("GAUGE"));
+        assertThat(rrd.getDataSources()[0].getHeartbeat(), is(600L));
+        assertThat(rrd.getDataSources()[0].getMax(), is(100.0));
+        assertThat(rrd.getDataSources()[1].getType(), is("COUNTER"));
+        assertThat(rrd.getDataSources()[1].getMin(), is(Double.NaN));
+        assertThat(rrd.getArchives().length, is(3));
+        assertThat(rrd.getArchives()[1].getCf(), is("AVERAGE"));
+        assertThat(rrd.getArchives()[1].getPdpCount(), is(3L));
+        assertThat(rrd.getArchives()[1].getRowCount(), is(10L));
+        assertThat(rrd.getArchives()[2].getXff(), is(0.5));
+    }
+
+    @Test
+    public void canReadMetadata() throws Exception {
+        final RrdInfo info = jrrd2.info(filename);
+        assertThat(info.getVersion(), is("0003"));
+        assertThat(info.getStep(), is(300L));
+        assertThat(info.getLastUpdate(), is(LAST_UPDATE));
+        assertThat(info.getDataSourceNames(), is(new String[] {"x", "y"}));
+        assertThat(info.getDataSources()[1].getType(), is("COUNTER"));
+        assertThat(info.getArchives()[1].getStep(), is(900L));
+        assertThat(info.getArchives()[2].getCf(), is("MAX"));
+
+        assertThat(jrrd2.first(filename, 0), is(30000L - 9 * 300));
+        assertThat(jrrd2.first(filename, 1), is(29700L - 9 * 900));
+
+        final LastUpdate lastUpdate = jrrd2.lastUpdate(filename);
+        assertThat(lastUpdate.getTimestamp(), is(LAST_UPDATE));
+        assertThat(lastUpdate.getColumns(), is(new String[] {"x", "y"}));
+        assertThat(lastUpdate.getValues(), is(new String[] {"U", "U"}));
+        assertThat(lastUpdate.getValue(0), is(Double.NaN));
+
+        final Path other = newRrd(0).lastValues("42.5", "7").write(tempFolder.getRoot().toPath().resolve("other.rrd"));
+        assertThat(jrrd2.lastUpdate(other.toString()).getValue(0), is(42.5));
+        assertThat(jrrd2.lastUpdate(other.toString()).getValue(1), is(7.0));
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void firstFailsOnInvalidArchive() throws JRrd2Exception {
+        jrrd2.first(filename, 3);
+    }
+
+    @Test
+    public void canFetchFromArchiveCoveringStart() throws JRrd2Exception {
+        final FetchResults results = jrrd2.fetch(filename, "AVERAGE", 28000, 29000, 300);
+        assertThat(results.getStart(), is(28200L));
+        assertThat(results.getEnd(), is(29100L));
+        assertThat(results.getStep(), is(300L));
+        assertThat(results.getColumns(), is(new String[] {"x", "y"}));
+        assertThat(results.getValues()[0], is(new double[] {94, 95, 96, 97}));
+        assertThat(results.getValues()[1], is(new double[] {-94, -95, -96, -97}));
+    }
+
+    @Test
+    public void prefersArchiveWithClosestStep() throws JRrd2Exception {
+        final FetchResults results = jrrd2.fetch(filename, "AVERAGE", 28000, 29000, 900);
+        assertThat(results.getStart(), is(28800L));
+        assertThat(results.getEnd(), is(29700L));
+        assertThat(results.getStep(), is(900L));
+        assertThat(results.getValues()[0], is(new double[] {1032, 1033}));
+    }
+
+    @Test
+    public void prefersArchiveCoveringMostOfTheInterval() throws JRrd2Exception {
+        // Neither archive covers the start, the coarser one covers more of the interval
+        final FetchResults results = jrrd2.fetch(filename, "AVERAGE", 18000, 29000, 300);
+        assertThat(results.getStep(), is(900L));
+        assertThat(results.getStart(), is(18900L));
+        final double[] values = results.getValues()[0];
+        assertThat(values.length, is(13));
+        // Rows before the archive's first row are unknown
+        assertThat(values[0], is(Double.NaN));
+        assertThat(values[2], is(Double.NaN));
+        assertThat(values[3], is(1024.0));
+        assertThat(values[12], is(1033.0));
+    }
+
+    @Test
+    public void picksFinestArchiveWithinMaxRows() throws JRrd2Exception {
+        // The finest archive returns 4 rows
+        FetchResults results = jrrd2.fetchWithMaxRows(filename, "AVERAGE", 28000, 29000, 10);
+        assertThat(results.getStep(), is(300L));
+        assertThat(results.getValues()[0], is(new double[] {94, 95, 96, 97}));
+
+        results = jrrd2.fetchWithMaxRows(filename, "AVERAGE", 28000, 29000, 2);
+        assertThat(results.getStep(), is(900L));
+        assertThat(results.getValues()[0], is(new double[] {1032, 1033}));
+
+        // None of the archives fit, use the coarsest one
+        results = jrrd2.fetchWithMaxRows(filename, "AVERAGE", 28000, 29000, 1);
+        assertThat(results.getStep(), is(900L));
+        assertThat(results.getValues()[0].length, is(2));
+
+        // None of the archives cover the start, selected by coverage
+        results = jrrd2.fetchWithMaxRows(filename, "AVERAGE", 18000, 29000, 100);
+        assertThat(results.getStep(), is(900L));
+        assertThat(results.getValues()[0].length, is(13));
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void failsOnInvalidMaxRows() throws JRrd2Exception {
+        jrrd2.fetchWithMaxRows(filename, "AVERAGE", 28000, 29000, 0);
+    }
+
+    @Test
+    public void returnsNaNsPastLastUpdate() throws JRrd2Exception {
+        final FetchResults results = jrrd2.fetch(filename, "MAX", 29500, 30500, 300);
+        assertThat(results.getStart(), is(29700L));
+        assertThat(results.getValues()[0], is(new double[] {2099, 2100, Double.NaN, Double.NaN}));
+    }
+
+    @Test
+    public void canFetchIntoBufferAndDirect() throws JRrd2Exception {
+        final FetchResults expected = jrrd2.fetch(filename, "AVERAGE", 27000, 30100, 300);
+
+        final FetchBuffer buffer = new FetchBuffer();
+        jrrd2.fetch(filename, "AVERAGE", 27000, 30100, 300, buffer);
+        assertThat(buffer.toFetchResults().getStart(), is(expected.getStart()));
+        assertThat(buffer.toFetchResults().getColumns(), is(expected.getColumns()));
+        assertThat(buffer.toFetchResults().getValues(), is(expected.getValues()));
+
+        try (DirectFetchResults direct = jrrd2.fetchDirect(filename, "AVERAGE", 27000, 30100, 300)) {
+            assertThat(direct.getEnd(), is(expected.getEnd()));
+            assertThat(direct.toFetchResults().getValues(), is(expected.getValues()));
+        }
+    }
+
+    @Test
+    public void remapsReplacedFiles() throws Exception {
+        assertThat(jrrd2.fetch(filename, "MAX", 29500, 29900, 300).getValues()[0][0], is(2099.0));
+
+        final Path replacement = newRrd(10).write(tempFolder.getRoot().toPath().resolve("replacement.rrd"));
+        Files.move(replacement, new File(filename).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        assertThat(jrrd2.fetch(filename, "MAX", 29500, 29900, 300).getValues()[0][0], is(2109.0));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedMappings() throws Exception {
+        final MmapJRrd2 jrrd2 = new MmapJRrd2(null, 1);
+        final String other = newRrd(0).write(tempFolder.getRoot().toPath().resolve("other.rrd")).toString();
+        jrrd2.fetch(filename, "MAX", 29500, 29900, 300);
+        jrrd2.fetch(other, "MAX", 29500, 29900, 300);
+        assertThat(jrrd2.getMappedFileCount(), is(1));
+    }
+
+    @Test
+    public void canReadVersionOneFiles() throws Exception {
+        final String v1 = newRrd(0).version("0001").write(tempFolder.getRoot().toPath().resolve("v1.rrd")).toString();
+        assertThat(jrrd2.fetch(v1, "MAX", 29500, 30500, 300).getValues()[0][0], is(2099.0));
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void failsOnUnknownConsolidationFunction() throws JRrd2Exception {
+        jrrd2.fetch(filename, "!MAX", 28000, 29000, 300);
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void failsOnMissingConsolidationFunction() throws JRrd2Exception {
+        jrrd2.fetch(filename, "LAST", 28000, 29000, 300);
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void failsOnMissingFile() throws JRrd2Exception {
+        jrrd2.fetch(filename + ".missing", "AVERAGE", 28000, 29000, 300);
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void failsOnInvalidFile() throws Exception {
+        final Path invalid = Files.write(tempFolder.getRoot().toPath().resolve("invalid.rrd"), new byte[256]);
+        jrrd2.fetch(invalid.toString(), "AVERAGE", 28000, 29000, 300);
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void failsOnTruncatedFile() throws Exception {
+        final byte[] bytes = newRrd(0).toByteArray();
+        final Path truncated = Files.write(tempFolder.getRoot().toPath().resolve("truncated.rrd"),
+                Arrays.copyOf(bytes, bytes.length - 8));
+        jrrd2.fetch(truncated.toString(), "AVERAGE", 28000, 29000, 300);
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void isReadOnlyWithoutDelegate() throws JRrd2Exception {
+        jrrd2.update(filename, null, new String[] {"N:1:1"});
+    }
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class NativeCallTraceTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private List<RecordedEvent> getEvents(Recording recording) throws IOException {
+        final Path file = tempFolder.getRoot().toPath().resolve("recording.jfr");
+        recording.dump(file);
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(e -> NativeCallEvent.NAME.equals(e.getEventType().getName()))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void callsAreNotTracedWithoutARecording() {
+        assertThat(NativeCallTrace.begin("update", "a.rrd", 1), is(sameInstance(NativeCallTrace.NOOP)));
+    }
+
+    @Test
+    public void recordsTheCallsAboveTheThreshold() throws IOException {
+        try (Recording recording = new Recording()) {
+            recording.enable(NativeCallEvent.NAME).withThreshold(Duration.ZERO);
+            recording.start();
+
+            final NativeCallTrace trace = NativeCallTrace.begin("xport", "a.rrd", 3);
+            assertThat(trace.isEnabled(), is(true));
+            trace.setXportLockWait(1234);
+            trace.setResult(100, 2);
+            trace.setError("boom");
+            trace.commit();
+            recording.stop();
+
+            final List<RecordedEvent> events = getEvents(recording);
+            assertThat(events, hasSize(1));
+            final RecordedEvent event = events.get(0);
+            assertThat(event.getString("operation"), is("xport"));
+            assertThat(event.getString("filename"), is("a.rrd"));
+            assertThat(event.getInt("arguments"), is(3));
+            assertThat(event.getInt("rows"), is(100));
+            assertThat(event.getInt("columns"), is(2));
+            assertThat(event.getString("error"), is("boom"));
+            assertThat(event.getDuration("xportLockWait"), is(Duration.ofNanos(1234)));
+        }
+    }
+
+    @Test
+    public void fastCallsAreSkippedByDefault() throws IOException {
+        try (Recording recording = new Recording()) {
+            recording.enable(NativeCallEvent.NAME);
+            recording.start();
+
+            NativeCallTrace.begin("update", "a.rrd", 1).commit();
+            recording.stop();
+
+            assertThat(getEvents(recording), is(empty()));
+        }
+    }
+}
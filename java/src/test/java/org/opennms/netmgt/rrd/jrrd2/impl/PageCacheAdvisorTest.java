@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class PageCacheAdvisorTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final PageCacheAdvisor advisor = new PageCacheAdvisor(100, 2);
+
+    private static Path newRrd(Path path) throws Exception {
+        Files.createDirectories(path.getParent());
+        return new SyntheticRrd(300, 30000)
+                .ds("x", "GAUGE", 600, 0, 100)
+                .ds("y", "GAUGE", 600, 0, 100)
+                .rra("AVERAGE", 1, 10, 4, (ds, time) -> time / 300)
+                .rra("MAX", 3, 10, 9, (ds, time) -> time / 900)
+                .write(path);
+    }
+
+    @Test
+    public void prewarmLearnsTheRangesTouchedByUpdates() throws Exception {
+        final Path path = newRrd(tempFolder.getRoot().toPath().resolve("a.rrd"));
+
+        assertThat(advisor.prewarm(Arrays.asList(path.toString())), is(1));
+
+        // 128 + 2 * 120 + 2 * 120 + 16 + 2 * 112 + 2 * 2 * 80 + 2 * 8 = 1184 bytes of header, 16 bytes per row
+        assertThat(advisor.getRanges(path.toString()), is(new long[] {
+                0, 1184,
+                1184 + 4 * 16, 16, 1184 + 5 * 16, 16,
+                1344 + 9 * 16, 16, 1344, 16 }));
+        assertThat(advisor.getRanges(path.toString()), is(MappedRrd.open(path).getHotRanges()));
+
+        advisor.forget(path.toString());
+        assertThat(advisor.getRanges(path.toString()), is(nullValue()));
+    }
+
+    @Test
+    public void prewarmOnlyLoadsRecentlyActiveFiles() throws Exception {
+        final Path root = tempFolder.getRoot().toPath();
+        final Path recent = newRrd(root.resolve("a/recent.rrd"));
+        final Path old = newRrd(root.resolve("b/old.rrd"));
+        Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)));
+        final Path corrupt = root.resolve("a/corrupt.rrd");
+        Files.write(corrupt, new byte[] { 'R', 'R', 'D', 0 });
+        Files.write(root.resolve("a/notes.txt"), new byte[] { 1, 2, 3 });
+
+        assertThat(advisor.prewarm(root, TimeUnit.DAYS.toMillis(1)), is(1));
+
+        assertThat(advisor.getRanges(recent.toString()), is(notNullValue()));
+        assertThat(advisor.getRanges(old.toString()), is(nullValue()));
+        assertThat(advisor.getRanges(corrupt.toString()), is(nullValue()));
+    }
+
+    @Test
+    public void willNeedIgnoresErrors() {
+        advisor.willNeed(tempFolder.getRoot().toPath().resolve("missing.rrd").toString());
+        advisor.willNeed(null);
+    }
+
+    @Test
+    public void filesAreGroupedByDirectory() throws Exception {
+        final Path root = tempFolder.getRoot().toPath();
+        final List<String> filenames = new ArrayList<>();
+        for (final String name : new String[] { "b/1.rrd", "a/1.rrd", "b/2.rrd", "a/2.rrd", "a/3.rrd" }) {
+            filenames.add(newRrd(root.resolve(name)).toString());
+        }
+
+        final DiskLocality locality = new DiskLocality();
+        locality.sort(filenames, f -> f);
+
+        assertThat(filenames.subList(0, 3), everyItem(startsWith(root.resolve("a").toString())));
+        assertThat(filenames.subList(3, 5), everyItem(startsWith(root.resolve("b").toString())));
+        // Sorted by inode within a directory
+        for (final int i : new int[] { 1, 2, 4 }) {
+            assertThat(locality.getInode(filenames.get(i)), greaterThan(locality.getInode(filenames.get(i - 1))));
+        }
+    }
+}
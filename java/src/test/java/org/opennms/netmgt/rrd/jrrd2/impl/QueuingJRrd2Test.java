@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.LastUpdate;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class QueuingJRrd2Test {
+
+    private final RecordingJRrd2 recorder = new RecordingJRrd2();
+
+    private QueuingJRrd2 queue;
+
+    @After
+    public void tearDown() {
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    @Test
+    public void coalescesSamplesUntilFlushed() throws JRrd2Exception {
+        queue = new QueuingJRrd2(recorder, 4, 100, 60000, 2, 10);
+
+        queue.update("a.rrd", "x", new String[]{"1:1"});
+        queue.update("a.rrd", "x", new String[]{"2:2", "3:3"});
+        queue.update("b.rrd", "x", new String[]{"1:1"});
+        assertThat(recorder.updates, is(empty()));
+        assertThat(queue.getPendingSamples(), is(4L));
+
+        queue.flush();
+
+        assertThat(recorder.updates, containsInAnyOrder("a.rrd x [1:1, 2:2, 3:3]", "b.rrd x [1:1]"));
+        assertThat(queue.getPendingSamples(), is(0L));
+        assertThat(queue.getWritesCompleted(), is(2L));
+    }
+
+    @Test
+    public void canQueueValues() throws JRrd2Exception {
+        queue = new QueuingJRrd2(recorder, 4, 100, 60000, 2, 10);
+
+        queue.update("a.rrd", "x:y", new long[]{1, 2}, new double[]{1.5, 2, Double.NaN, 1e20});
+        queue.flush();
+
+        assertThat(recorder.updates, contains("a.rrd x:y [1:1.5:2.0, 2:U:1.0E20]"));
+    }
+
+    @Test
+    public void flushesWhenFileIsFull() throws JRrd2Exception {
+        queue = new QueuingJRrd2(recorder, 4, 2, 60000, 1, 10);
+
+        queue.update("a.rrd", null, new String[]{"1:1"});
+        queue.update("a.rrd", null, new String[]{"2:2"});
+        queue.update("a.rrd", null, new String[]{"3:3"});
+        queue.flush();
+
+        assertThat(recorder.updates, contains("a.rrd null [1:1, 2:2]", "a.rrd null [3:3]"));
+    }
+
+    @Test
+    public void flushesWhenTemplateChanges() throws JRrd2Exception {
+        queue = new QueuingJRrd2(recorder, 4, 100, 60000, 1, 10);
+
+        queue.update("a.rrd", "x", new String[]{"1:1"});
+        queue.update("a.rrd", "y", new String[]{"2:2"});
+        queue.flush();
+
+        assertThat(recorder.updates, contains("a.rrd x [1:1]", "a.rrd y [2:2]"));
+    }
+
+    @Test
+    public void flushesWhenSamplesExpire() throws JRrd2Exception, InterruptedException {
+        queue = new QueuingJRrd2(recorder, 4, 100, 20, 1, 10);
+
+        queue.update("a.rrd", null, new String[]{"1:1"});
+        for (int i = 0; i < 100 && recorder.updates.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(recorder.updates, contains("a.rrd null [1:1]"));
+    }
+
+    @Test
+    public void readsFlushTheFilesTheyTouch() throws JRrd2Exception {
+        queue = new QueuingJRrd2(recorder, 4, 100, 60000, 2, 10);
+
+        queue.update("a.rrd", null, new String[]{"1:1"});
+        queue.update("b:c.rrd", null, new String[]{"1:1"});
+        queue.update("d.rrd", null, new String[]{"1:1"});
+
+        queue.fetch("a.rrd", "AVERAGE", 0, 1, 1);
+        assertThat(recorder.updates, contains("a.rrd null [1:1]", "fetch a.rrd"));
+
+        queue.xport(0, 1, 1, 0, new String[]{"DEF:x=b\\:c.rrd:x:AVERAGE", "XPORT:x"});
+        assertThat(recorder.updates, contains("a.rrd null [1:1]", "fetch a.rrd", "b:c.rrd null [1:1]", "xport"));
+        assertThat(queue.getPendingSamples(), is(1L));
+    }
+
+    @Test
+    public void closeFlushesPendingSamples() throws JRrd2Exception {
+        queue = new QueuingJRrd2(recorder, 4, 100, 60000, 2, 10);
+
+        queue.update("a.rrd", null, new String[]{"1:1"});
+        queue.close();
+
+        assertThat(recorder.updates, contains("a.rrd null [1:1]"));
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void updateFailsWhenClosed() throws JRrd2Exception {
+        queue = new QueuingJRrd2(recorder);
+        queue.close();
+        queue.update("a.rrd", null, new String[]{"1:1"});
+    }
+
+    @Test
+    public void flushWritesTheFilesInDiskOrder() throws JRrd2Exception {
+        queue = new QueuingJRrd2(recorder, 4, 100, 60000, 1, 10);
+
+        // The files don't exist, so they are grouped by directory and sorted by name
+        for (final String filename : new String[] { "b/2.rrd", "a/2.rrd", "b/1.rrd", "a/1.rrd" }) {
+            queue.update(filename, null, new String[]{"1:1"});
+        }
+        queue.flush();
+
+        assertThat(recorder.updates, contains("a/1.rrd null [1:1]", "a/2.rrd null [1:1]", "b/1.rrd null [1:1]", "b/2.rrd null [1:1]"));
+    }
+
+    @Test
+    public void retriesTheSamplesThatFollowARejectedOne() throws JRrd2Exception {
+        final LibrrdLikeJRrd2 librrd = new LibrrdLikeJRrd2();
+        queue = new QueuingJRrd2(librrd, 4, 100, 60000, 1, 10);
+
+        queue.update("a.rrd", null, new String[]{"1:1", "2:x", "3:3", "4:4"});
+        queue.flush();
+
+        assertThat(librrd.applied, contains("1:1", "3:3", "4:4"));
+        assertThat(queue.getWritesFailed(), is(1L));
+        assertThat(queue.getSamplesDropped(), is(1L));
+        assertThat(queue.getPendingSamples(), is(0L));
+    }
+
+    @Test
+    public void timesTheSamplesWhenTheyAreQueued() throws JRrd2Exception {
+        final LibrrdLikeJRrd2 librrd = new LibrrdLikeJRrd2();
+        queue = new QueuingJRrd2(librrd, 4, 100, 60000, 1, 10);
+
+        final long before = System.currentTimeMillis() / 1000;
+        queue.update("a.rrd", null, new String[]{"N:1"});
+        queue.update("a.rrd", null, new String[]{"N:2"});
+        queue.flush();
+
+        assertThat(librrd.applied, hasSize(2));
+        final long first = Long.parseLong(librrd.applied.get(0).split(":")[0]);
+        assertThat(first, greaterThanOrEqualTo(before));
+        assertThat(librrd.applied, contains(first + ":1", (first + 1) + ":2"));
+        assertThat(queue.getSamplesDropped(), is(0L));
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void rejectsAtStyleTimes() throws JRrd2Exception {
+        queue = new QueuingJRrd2(recorder, 4, 100, 60000, 1, 10);
+        queue.update("a.rrd", null, new String[]{"now-5min@1"});
+    }
+
+    @Test
+    public void aFullWriterDoesNotBlockTheOtherFilesOfItsShard() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final String slow = "a.rrd";
+        String other = "b.rrd";
+        for (int i = 0; QueuingJRrd2.index(other, 2) == QueuingJRrd2.index(slow, 2); i++) {
+            other = "b" + i + ".rrd";
+        }
+        final RecordingJRrd2 delegate = new RecordingJRrd2() {
+            @Override
+            public void update(String filename, String template, String[] argv) {
+                if (slow.equals(filename)) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.update(filename, template, argv);
+            }
+        };
+        // A single shard, and room for a single write per writer
+        queue = new QueuingJRrd2(delegate, 1, 1, 60000, 2, 1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            queue.update(slow, null, new String[]{"1:1"});
+            final Future<?> blocked = executor.submit(() -> {
+                queue.update(slow, null, new String[]{"2:2"});
+                return null;
+            });
+            for (int i = 0; i < 100 && queue.getPendingSamples() < 2; i++) {
+                Thread.sleep(10);
+            }
+
+            queue.update(other, null, new String[]{"1:1"});
+            queue.flush(other);
+            assertThat(delegate.updates, contains(other + " null [1:1]"));
+            assertThat(blocked.isDone(), is(false));
+
+            release.countDown();
+            blocked.get(10, TimeUnit.SECONDS);
+            queue.flush();
+            assertThat(delegate.updates, contains(other + " null [1:1]", slow + " null [1:1]", slow + " null [2:2]"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static class RecordingJRrd2 extends StubJRrd2 {
+        private final List<String> updates = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void update(String filename, String template, String[] argv) {
+            updates.add(filename + " " + template + " " + Arrays.toString(argv));
+        }
+
+        @Override
+        public FetchResults fetch(String filename, String cf, long start, long end, long step) {
+            updates.add("fetch " + filename);
+            return null;
+        }
+
+        @Override
+        public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) {
+            updates.add("xport");
+            return null;
+        }
+    }
+
+    /**
+     * Applies the samples in order, and stops at the first one that it rejects.
+     */
+    private static class LibrrdLikeJRrd2 extends StubJRrd2 {
+        private final List<String> applied = new ArrayList<>();
+        private long lastUpdate = 0;
+
+        @Override
+        public synchronized void update(String filename, String template, String[] argv) throws JRrd2Exception {
+            for (final String sample : argv) {
+                final String[] fields = sample.split(":");
+                final long timestamp = Long.parseLong(fields[0]);
+                if (timestamp <= lastUpdate) {
+                    throw new JRrd2Exception("illegal attempt to update using time " + timestamp);
+                }
+                if (!fields[1].matches("[0-9.]+")) {
+                    throw new JRrd2Exception("not a simple number: " + fields[1]);
+                }
+                applied.add(sample);
+                lastUpdate = timestamp;
+            }
+        }
+
+        @Override
+        public synchronized LastUpdate lastUpdate(String filename) {
+            return new LastUpdate(lastUpdate, new String[0], new String[0]);
+        }
+    }
+}
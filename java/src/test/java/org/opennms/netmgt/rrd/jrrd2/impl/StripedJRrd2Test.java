@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.UpdateRequest;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class StripedJRrd2Test {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final RecordingJRrd2 recorder = new RecordingJRrd2();
+
+    private List<Path> roots;
+
+    private StripedJRrd2 striped;
+
+    @Before
+    public void setUp() throws Exception {
+        roots = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            roots.add(tempFolder.newFolder("disk" + i).toPath());
+        }
+        striped = new StripedJRrd2(recorder, roots, 2, 10);
+    }
+
+    @After
+    public void tearDown() {
+        striped.close();
+    }
+
+    @Test
+    public void spreadsTheFilesOverTheRoots() throws JRrd2Exception {
+        final int[] counts = new int[roots.size()];
+        for (int i = 0; i < 3000; i++) {
+            final String name = "node" + i + "/ifInOctets.rrd";
+            final String path = striped.resolve(name);
+            final int root = striped.getRootIndex(name);
+            assertThat(path, equalTo(roots.get(root).resolve(name).toString()));
+            assertThat(striped.getRootIndex(path), equalTo(root));
+            counts[root]++;
+        }
+        for (final int count : counts) {
+            assertThat(count, allOf(greaterThan(800), lessThan(1200)));
+        }
+
+        // The paths are stable, and absolute ones are left as they are
+        assertThat(striped.resolve("node1/../node2/./x.rrd"), equalTo(striped.resolve("node2/x.rrd")));
+        assertThat(striped.resolve("/var/opennms/x.rrd"), equalTo("/var/opennms/x.rrd"));
+        assertThat(striped.getRootIndex("/var/opennms/x.rrd"), equalTo(-1));
+    }
+
+    @Test
+    public void addingARootMovesAShareOfTheFiles() {
+        final List<Path> moreRoots = new ArrayList<>(roots);
+        moreRoots.add(tempFolder.getRoot().toPath().resolve("disk3"));
+        // The placement does not depend on the order of the roots
+        Collections.reverse(moreRoots);
+        try (StripedJRrd2 more = new StripedJRrd2(recorder, moreRoots, 1, 1)) {
+            int moved = 0;
+            for (int i = 0; i < 4000; i++) {
+                final String name = "node" + i + ".rrd";
+                final Path before = roots.get(striped.getRootIndex(name));
+                final Path after = moreRoots.get(more.getRootIndex(name));
+                if (!before.equals(after)) {
+                    assertThat(after, equalTo(moreRoots.get(0)));
+                    moved++;
+                }
+            }
+            assertThat(moved, allOf(greaterThan(800), lessThan(1200)));
+        }
+    }
+
+    @Test
+    public void writesThroughThePoolsAndReadsDirectly() throws JRrd2Exception {
+        striped.create("a.rrd", 300, 1000, new String[] { "DS:x:GAUGE:600:U:U", "RRA:AVERAGE:0.5:1:10" });
+        striped.update("a.rrd", null, new String[] { "1300:1" });
+        striped.fetch("a.rrd", "AVERAGE", 1000, 1300, 300);
+        striped.update("/elsewhere/b.rrd", null, new String[] { "1300:1" });
+
+        final String path = striped.resolve("a.rrd");
+        assertThat(recorder.calls, contains(
+                "create " + path + " jrrd2-async",
+                "update " + path + " jrrd2-async",
+                "fetch " + path + " main",
+                "update /elsewhere/b.rrd main"));
+    }
+
+    @Test
+    public void failuresAreRethrown() {
+        try {
+            striped.update("fail.rrd", null, new String[] { "1300:1" });
+            throw new AssertionError("expected a JRrd2Exception");
+        } catch (JRrd2Exception e) {
+            assertThat(e.getMessage(), equalTo("failed: " + striped.resolve("fail.rrd")));
+        }
+        try {
+            striped.update("../outside.rrd", null, new String[] { "1300:1" });
+            throw new AssertionError("expected a JRrd2Exception");
+        } catch (JRrd2Exception e) {
+            assertThat(e.getMessage(), startsWith("filename cannot point outside of the roots"));
+        }
+    }
+
+    @Test
+    public void splitsBatchesByRoot() throws JRrd2Exception {
+        final List<UpdateRequest> updates = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            updates.add(new UpdateRequest(i % 10 == 0 ? "fail" + i + ".rrd" : "node" + i + ".rrd", null, new String[] { "1300:1" }));
+        }
+        updates.add(null);
+        updates.add(new UpdateRequest("/elsewhere/b.rrd", null, new String[] { "1300:1" }));
+        updates.add(new UpdateRequest("../outside.rrd", null, new String[] { "1300:1" }));
+
+        final BatchResults results = striped.update(updates);
+
+        assertThat(results.size(), equalTo(33));
+        for (int i = 0; i < 30; i++) {
+            if (i % 10 == 0) {
+                assertThat(results.getError(i), equalTo("failed: " + striped.resolve("fail" + i + ".rrd")));
+            } else {
+                assertThat(results.isSuccessful(i), is(true));
+            }
+        }
+        assertThat(results.getError(30), equalTo("update cannot be null."));
+        assertThat(results.isSuccessful(31), is(true));
+        assertThat(results.getError(32), startsWith("filename cannot point outside of the roots"));
+        // One batch per root, plus one for the others
+        assertThat(recorder.batches, equalTo(roots.size() + 1));
+    }
+
+    @Test
+    public void resolvesTheFilesOfXports() throws JRrd2Exception {
+        striped.xport(0, 300, 300, 0, new String[] {
+            "DEF:a=a.rrd:x:AVERAGE",
+            "DEF:b=dir\\:with\\:colons/b.rrd:x:AVERAGE:step=600",
+            "DEF:c=/elsewhere/c.rrd:x:AVERAGE",
+            "CDEF:d=a,b,+",
+            "XPORT:d"
+        });
+        assertThat(Arrays.asList(recorder.xportArgv), contains(
+            "DEF:a=" + striped.resolve("a.rrd") + ":x:AVERAGE",
+            "DEF:b=" + striped.resolve("dir:with:colons/b.rrd").replace(":", "\\:") + ":x:AVERAGE:step=600",
+            "DEF:c=/elsewhere/c.rrd:x:AVERAGE",
+            "CDEF:d=a,b,+",
+            "XPORT:d"));
+        assertThat(XportArguments.getFilenames(recorder.xportArgv), hasItem(striped.resolve("dir:with:colons/b.rrd")));
+    }
+
+    @Test
+    public void rebalancesFilesWhenRootsAreAdded() throws Exception {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final String name = "node" + (i % 20) + "/file" + i + ".rrd";
+            final Path path = Path.of(striped.resolve(name));
+            Files.createDirectories(path.getParent());
+            Files.write(path, name.getBytes());
+            names.add(name);
+        }
+
+        final List<Path> moreRoots = new ArrayList<>(roots);
+        moreRoots.add(tempFolder.getRoot().toPath().resolve("disk3"));
+        final StripeRebalancer.Result result = new StripeRebalancer(moreRoots, 4).rebalance();
+
+        assertThat(result.isSuccessful(), is(true));
+        assertThat(result.getScanned(), equalTo(200));
+        assertThat(result.getMoved(), allOf(greaterThan(20), lessThan(80)));
+        try (StripedJRrd2 more = new StripedJRrd2(recorder, moreRoots, 1, 1)) {
+            for (final String name : names) {
+                assertThat(new String(Files.readAllBytes(Path.of(more.resolve(name)))), equalTo(name));
+            }
+        }
+        // Nothing left to do
+        assertThat(new StripeRebalancer(moreRoots).rebalance().getMoved(), equalTo(0));
+    }
+
+    @Test
+    public void rebalancingKeepsTheSourceWhenTheTargetExists() throws Exception {
+        final List<Path> moreRoots = new ArrayList<>(roots);
+        final Path disk3 = tempFolder.getRoot().toPath().resolve("disk3");
+        moreRoots.add(disk3);
+
+        // Find a file that moves to the new root
+        String name = null;
+        try (StripedJRrd2 more = new StripedJRrd2(recorder, moreRoots, 1, 1)) {
+            for (int i = 0; name == null; i++) {
+                if (Path.of(more.resolve("file" + i + ".rrd")).startsWith(disk3)) {
+                    name = "file" + i + ".rrd";
+                }
+            }
+        }
+        final Path source = Path.of(striped.resolve(name));
+        Files.write(source, "current".getBytes());
+        final Path target = disk3.resolve(name);
+        Files.createDirectories(disk3);
+        Files.write(target, "stale".getBytes());
+
+        final StripeRebalancer.Result result = new StripeRebalancer(moreRoots).rebalance();
+
+        assertThat(result.getMoved(), equalTo(0));
+        assertThat(result.getFailures().keySet(), contains(source));
+        assertThat(result.getFailures().get(source), containsString(target.toString()));
+        assertThat(new String(Files.readAllBytes(source)), equalTo("current"));
+        assertThat(new String(Files.readAllBytes(target)), equalTo("stale"));
+        assertThat(Files.exists(target.resolveSibling(name + ".partial")), is(false));
+    }
+
+    /**
+     * Records the calls along with the name of the thread that made them, and fails the files whose name starts with "fail".
+     */
+    private static class RecordingJRrd2 extends StubJRrd2 {
+        private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        private volatile int batches;
+        private volatile String[] xportArgv;
+
+        private void record(String call, String filename) throws JRrd2Exception {
+            final String thread = Thread.currentThread().getName().startsWith("jrrd2-async") ? "jrrd2-async" : "main";
+            calls.add(call + " " + filename + " " + thread);
+            if (Path.of(filename).getFileName().toString().startsWith("fail")) {
+                throw new JRrd2Exception("failed: " + filename);
+            }
+        }
+
+        @Override
+        public void create(String filename, long step, long start, String[] argv) throws JRrd2Exception {
+            record("create", filename);
+        }
+
+        @Override
+        public void update(String filename, String template, String[] argv) throws JRrd2Exception {
+            record("update", filename);
+        }
+
+        @Override
+        public synchronized BatchResults update(List<UpdateRequest> updates) throws JRrd2Exception {
+            batches++;
+            final String[] errors = new String[updates.size()];
+            for (int i = 0; i < errors.length; i++) {
+                if (updates.get(i) == null) {
+                    errors[i] = "update cannot be null.";
+                    continue;
+                }
+                try {
+                    record("update", updates.get(i).getFilename());
+                } catch (JRrd2Exception e) {
+                    errors[i] = e.getMessage();
+                }
+            }
+            return new BatchResults(errors);
+        }
+
+        @Override
+        public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+            record("fetch", filename);
+            return null;
+        }
+
+        @Override
+        public FetchResults xport(long start, long end, long step, long maxrows, String[] argv) throws JRrd2Exception {
+            xportArgv = argv;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes RRD files with the same binary layout as librrd, where the value
+ * stored for a given data source and time is computed by a function.
+ *
+ * Used to test the readers without the native library.
+ */
+public class SyntheticRrd {
+
+    public interface ValueFunction {
+        double valueAt(int ds, long time);
+    }
+
+    private static class Ds {
+        private final String name;
+        private final String type;
+        private final long heartbeat;
+        private final double min;
+        private final double max;
+
+        private Ds(String name, String type, long heartbeat, double min, double max) {
+            this.name = name;
+            this.type = type;
+            this.heartbeat = heartbeat;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    private static class Rra {
+        private final String cf;
+        private final long pdpCount;
+        private final long rowCount;
+        private final long curRow;
+        private final ValueFunction values;
+
+        private Rra(String cf, long pdpCount, long rowCount, long curRow, ValueFunction values) {
+            this.cf = cf;
+            this.pdpCount = pdpCount;
+            this.rowCount = rowCount;
+            this.curRow = curRow;
+            this.values = values;
+        }
+    }
+
+    private final long pdpStep;
+    private final long lastUpdate;
+    private final List<Ds> dss = new ArrayList<>();
+    private final List<Rra> rras = new ArrayList<>();
+    private String version = "0003";
+    private String[] lastValues = new String[0];
+
+    public SyntheticRrd(long pdpStep, long lastUpdate) {
+        this.pdpStep = pdpStep;
+        this.lastUpdate = lastUpdate;
+    }
+
+    public SyntheticRrd version(String version) {
+        this.version = version;
+        return this;
+    }
+
+    /**
+     * Sets the last values given to the data sources, which are unknown by default.
+     */
+    public SyntheticRrd lastValues(String... lastValues) {
+        this.lastValues = lastValues;
+        return this;
+    }
+
+    public SyntheticRrd ds(String name, String type, long heartbeat, double min, double max) {
+        dss.add(new Ds(name, type, heartbeat, min, max));
+        return this;
+    }
+
+    public SyntheticRrd rra(String cf, long pdpCount, long rowCount, long curRow, ValueFunction values) {
+        rras.add(new Rra(cf, pdpCount, rowCount, curRow, values));
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        final int ds = dss.size();
+        final int rra = rras.size();
+        final int liveHeadSize = Integer.parseInt(version) >= 3 ? 16 : 8;
+        int size = 128 + ds * 120 + rra * 120 + liveHeadSize + ds * 112 + rra * ds * 80 + rra * 8;
+        for (Rra r : rras) {
+            size += r.rowCount * ds * 8;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        buffer.put(new byte[] { 'R', 'R', 'D', 0 });
+        buffer.put(version.getBytes(StandardCharsets.US_ASCII));
+        buffer.putDouble(16, 8.642135E130);
+        buffer.putLong(24, ds);
+        buffer.putLong(32, rra);
+        buffer.putLong(40, pdpStep);
+
+        int offset = 128;
+        for (Ds d : dss) {
+            putString(buffer, offset, d.name);
+            putString(buffer, offset + 20, d.type);
+            buffer.putLong(offset + 40, d.heartbeat);
+            buffer.putDouble(offset + 48, d.min);
+            buffer.putDouble(offset + 56, d.max);
+            offset += 120;
+        }
+        for (Rra r : rras) {
+            putString(buffer, offset, r.cf);
+            buffer.putLong(offset + 24, r.rowCount);
+            buffer.putLong(offset + 32, r.pdpCount);
+            buffer.putDouble(offset + 40, 0.5);
+            offset += 120;
+        }
+        buffer.putLong(offset, lastUpdate);
+        offset += liveHeadSize;
+        for (int i = 0; i < ds; i++) {
+            putString(buffer, offset, i < lastValues.length ? lastValues[i] : "U");
+            offset += 112;
+        }
+        offset += rra * ds * 80;
+        for (Rra r : rras) {
+            buffer.putLong(offset, r.curRow);
+            offset += 8;
+        }
+        for (Rra r : rras) {
+            final long step = pdpStep * r.pdpCount;
+            final long calEnd = lastUpdate - lastUpdate % step;
+            for (long row = 0; row < r.rowCount; row++) {
+                // The current row holds the most recent value
+                final long time = calEnd - Math.floorMod(r.curRow - row, r.rowCount) * step;
+                for (int i = 0; i < ds; i++) {
+                    buffer.putDouble(offset, r.values.valueAt(i, time));
+                    offset += 8;
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    public Path write(Path path) throws IOException {
+        return Files.write(path, toByteArray());
+    }
+
+    private static void putString(ByteBuffer buffer, int offset, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Verifies that the {@link XportEngine} returns the same results as librrd's rrd_xport().
+ */
+public class XportCompatibilityTest {
+
+    private static final long START = 1424700000;
+
+    private static final long STEP = 300;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private ExecutorService executor;
+
+    private XportEngine engine;
+
+    private String fine;
+
+    private String coarse;
+
+    @BeforeClass
+    public static void setUpClass() {
+        librarySearch: for (final String prefix : new String[] { "", "lib" }) {
+            for (final String suffix : new String[] { ".so", ".dll", ".jnilib" }) {
+                final Path library = Paths.get(System.getProperty("user.dir"), "..", "dist", prefix + "jrrd2" + suffix);
+                if (library.toFile().exists()) {
+                    System.setProperty("opennms.library.jrrd2", library.toString());
+                    break librarySearch;
+                }
+            }
+        }
+        Interface.init();
+    }
+
+    @Before
+    public void setUp() throws JRrd2Exception {
+        executor = Executors.newFixedThreadPool(4);
+        engine = new XportEngine(new JRrd2Jni(), executor);
+
+        fine = new File(tempFolder.getRoot(), "fine.rrd").getAbsolutePath();
+        Interface.rrd_create_r(fine, STEP, START, new String[]{
+            "DS:x:GAUGE:900:0:1000",
+            "DS:y:GAUGE:900:0:1000",
+            "RRA:AVERAGE:0.5:1:2000",
+            "RRA:MIN:0.5:1:2000",
+            "RRA:MAX:0.5:1:2000",
+            "RRA:AVERAGE:0.5:6:500",
+            "RRA:MAX:0.5:6:500"
+        });
+
+        coarse = new File(tempFolder.getRoot(), "coarse:colon.rrd").getAbsolutePath();
+        Interface.rrd_create_r(coarse, 3 * STEP, START, new String[]{
+            "DS:z:GAUGE:1800:U:U",
+            "RRA:AVERAGE:0.5:1:1000"
+        });
+
+        for (int i = 1; i <= 1500; i++) {
+            final long timestamp = START + i * STEP;
+            // Leave a few gaps
+            if (i % 97 == 0) {
+                continue;
+            }
+            Interface.rrd_update_r(fine, "x:y", new String[]{
+                String.format("%d:%d:%d", timestamp, i % 500, (i * 7) % 300)
+            });
+            if (i % 3 == 0) {
+                Interface.rrd_update_r(coarse, null, new String[]{
+                    String.format("%d:%d", timestamp, i - 750)
+                });
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void canXportDefs() throws JRrd2Exception {
+        assertCompatible(START, START + 100000, 0, 0,
+                def("x", fine, "x", "MIN"),
+                def("y", fine, "y", "MIN"),
+                "XPORT:x:xx",
+                "XPORT:y:yy");
+    }
+
+    @Test
+    public void canXportAtDifferentSteps() throws JRrd2Exception {
+        assertCompatible(START, START + 400000, STEP, 0,
+                def("x", fine, "x", "AVERAGE"),
+                def("z", coarse, "z", "AVERAGE"),
+                "XPORT:x",
+                "XPORT:z");
+    }
+
+    @Test
+    public void canXportWithMaxRows() throws JRrd2Exception {
+        assertCompatible(START, START + 400000, STEP, 100,
+                def("x", fine, "x", "MAX"),
+                "XPORT:x");
+    }
+
+    @Test
+    public void canReduce() throws JRrd2Exception {
+        assertCompatible(START, START + 400000, 0, 0,
+                def("x", fine, "x", "AVERAGE") + ":step=900",
+                def("y", fine, "y", "AVERAGE") + ":step=900:reduce=MAX",
+                "XPORT:x",
+                "XPORT:y");
+    }
+
+    @Test
+    public void canEvaluateArithmetic() throws JRrd2Exception {
+        assertCompatible(START, START + 400000, STEP, 0,
+                def("x", fine, "x", "AVERAGE"),
+                def("y", fine, "y", "AVERAGE"),
+                def("z", coarse, "z", "AVERAGE"),
+                "CDEF:a=x,y,+,2,/",
+                "CDEF:b=x,y,-,ABS,SQRT",
+                "CDEF:c=x,8,*,y,%",
+                "CDEF:d=x,z,ADDNAN",
+                "CDEF:e=x,y,z,3,AVG",
+                "XPORT:a",
+                "XPORT:b",
+                "XPORT:c",
+                "XPORT:d",
+                "XPORT:e");
+    }
+
+    @Test
+    public void canEvaluateConditionals() throws JRrd2Exception {
+        assertCompatible(START, START + 400000, STEP, 0,
+                def("x", fine, "x", "AVERAGE"),
+                def("y", fine, "y", "AVERAGE"),
+                "CDEF:a=x,y,GT,x,y,IF",
+                "CDEF:b=x,UN,0,x,IF",
+                "CDEF:c=x,100,200,LIMIT",
+                "CDEF:d=x,y,MIN,y,x,MAXNAN,+",
+                "CDEF:e=x,y,EQ,x,y,NE,+,x,y,LE,+",
+                "CDEF:f=x,DUP,*,y,EXC,/",
+                "XPORT:a",
+                "XPORT:b",
+                "XPORT:c",
+                "XPORT:d",
+                "XPORT:e",
+                "XPORT:f");
+    }
+
+    @Test
+    public void canEvaluateTimeBasedOperators() throws JRrd2Exception {
+        assertCompatible(START, START + 400000, STEP, 0,
+                def("x", fine, "x", "AVERAGE"),
+                "CDEF:a=PREV,UN,x,PREV,IF",
+                "CDEF:b=PREV(x),UN,0,x,PREV(x),-,IF",
+                "CDEF:c=TIME,86400,%",
+                "CDEF:d=COUNT,STEPWIDTH,*",
+                "XPORT:a",
+                "XPORT:b",
+                "XPORT:c",
+                "XPORT:d");
+    }
+
+    private void assertCompatible(long start, long end, long step, long maxrows, String... argv) throws JRrd2Exception {
+        final FetchResults expected = new JRrd2Jni().xport(start, end, step, maxrows, argv);
+        final FetchResults actual = engine.xport(start, end, step, maxrows, argv);
+
+        assertThat(Arrays.toString(argv), actual.getStart(), is(expected.getStart()));
+        assertThat(Arrays.toString(argv), actual.getEnd(), is(expected.getEnd()));
+        assertThat(Arrays.toString(argv), actual.getStep(), is(expected.getStep()));
+        assertThat(Arrays.toString(argv), actual.getColumns(), is(expected.getColumns()));
+        for (int i = 0; i < expected.getColumns().length; i++) {
+            final double[] expectedValues = expected.getValues()[i];
+            final double[] actualValues = actual.getValues()[i];
+            assertThat(argv[argv.length - expected.getColumns().length + i], actualValues.length, is(expectedValues.length));
+            for (int j = 0; j < expectedValues.length; j++) {
+                if (Double.isNaN(expectedValues[j])) {
+                    assertThat(Double.isNaN(actualValues[j]), is(true));
+                } else {
+                    assertThat(actualValues[j], is(closeTo(expectedValues[j], 1e-9 * Math.max(1, Math.abs(expectedValues[j])))));
+                }
+            }
+        }
+    }
+
+    private static String def(String vname, String filename, String ds, String cf) {
+        return String.format("DEF:%s=%s:%s:%s", vname, filename.replace(":", "\\:"), ds, cf);
+    }
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.impl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.rrd.jrrd2.api.FetchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class XportEngineTest {
+
+    private static final long START = 1424700000;
+
+    private static final long END = 1424800000;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    private final SyntheticJRrd2 fetcher = new SyntheticJRrd2();
+
+    private final XportEngine engine = new XportEngine(fetcher, executor);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void canXport() throws JRrd2Exception {
+        FetchResults results = engine.xport(START, END, 0, 0, new String[] {
+                "DEF:x=a.rrd:x:MIN",
+                "DEF:y=a.rrd:y:MIN",
+                "XPORT:x:xx",
+                "XPORT:y:yy"
+        });
+
+        // Same expectations as InterfaceTest.canXport()
+        assertThat(results.getStep(), is(900L));
+        assertThat(results.getStart(), is(1424700900L));
+        assertThat(results.getEnd(), is(1424800800L));
+        assertThat(results.getColumns(), is(new String[] {"xx", "yy"}));
+        assertThat(results.getValues()[0][0], is(1.0));
+        assertThat(results.getValues()[0][1], is(2.0));
+        assertThat(results.getValues()[1][0], is(100.0));
+        assertThat(results.getValues()[1][1], is(100.0));
+        assertThat(results.getValues()[0].length, is(112));
+
+        // Both DEFs are served by the same fetch
+        assertThat(fetcher.numFetches.get(), is(1));
+    }
+
+    @Test
+    public void canEvaluateCdefs() throws JRrd2Exception {
+        FetchResults results = engine.xport(START, END, 0, 0, new String[] {
+                "DEF:x=a.rrd:x:MIN",
+                "DEF:y=b.rrd:y:MIN",
+                "CDEF:sum=x,y,+",
+                "CDEF:even=x,2,%,0,EQ,x,UNKN,IF",
+                "CDEF:limited=x,3,5,LIMIT",
+                "CDEF:avg=x,y,sum,3,AVG",
+                "CDEF:prev=PREV(x),UN,0,PREV(x),IF",
+                "XPORT:sum",
+                "XPORT:even",
+                "XPORT:limited",
+                "XPORT:avg",
+                "XPORT:prev"
+        });
+
+        assertThat(fetcher.numFetches.get(), is(2));
+        assertThat(results.getColumns(), is(new String[] {"", "", "", "", ""}));
+        final double[][] values = results.getValues();
+        assertThat(values[0][0], is(101.0));
+        assertThat(values[0][3], is(104.0));
+        assertThat(values[1][0], is(Double.NaN));
+        assertThat(values[1][1], is(2.0));
+        assertThat(values[2][1], is(Double.NaN));
+        assertThat(values[2][2], is(3.0));
+        assertThat(values[2][5], is(Double.NaN));
+        assertThat(values[3][0], is((1.0 + 100.0 + 101.0) / 3));
+        assertThat(values[4][0], is(0.0));
+        assertThat(values[4][1], is(1.0));
+    }
+
+    @Test
+    public void samplesSeriesAtTheCommonStep() throws JRrd2Exception {
+        fetcher.steps.put("fine.rrd", 300L);
+        FetchResults results = engine.xport(START, END, 300, 0, new String[] {
+                "DEF:x=fine.rrd:x:AVERAGE",
+                "DEF:y=a.rrd:x:AVERAGE",
+                "XPORT:x",
+                "XPORT:y"
+        });
+
+        assertThat(results.getStep(), is(900L));
+        // The fine series is sampled, not consolidated
+        assertThat(results.getValues()[0][0], is(1.0));
+        assertThat(results.getValues()[0][1], is(4.0));
+        assertThat(results.getValues()[1][1], is(2.0));
+    }
+
+    @Test
+    public void reducesFinerSeries() throws JRrd2Exception {
+        fetcher.steps.put("fine.rrd", 300L);
+        FetchResults results = engine.xport(START, END, 0, 0, new String[] {
+                "DEF:x=fine.rrd:x:AVERAGE:step=900",
+                "DEF:y=fine.rrd:x:AVERAGE:step=900:reduce=MAX",
+                "XPORT:x",
+                "XPORT:y"
+        });
+
+        assertThat(results.getStep(), is(900L));
+        assertThat(results.getValues()[0][0], is(2.0));
+        assertThat(results.getValues()[0][1], is(5.0));
+        assertThat(results.getValues()[1][0], is(3.0));
+    }
+
+    @Test(expected=UnsupportedXportException.class)
+    public void failsOnUnsupportedStatements() throws JRrd2Exception {
+        engine.xport(START, END, 0, 0, new String[] {
+                "DEF:x=a.rrd:x:MIN",
+                "VDEF:max=x,MAXIMUM",
+                "XPORT:x"
+        });
+    }
+
+    @Test(expected=UnsupportedXportException.class)
+    public void failsOnUnsupportedOperators() throws JRrd2Exception {
+        engine.xport(START, END, 0, 0, new String[] {
+                "DEF:x=a.rrd:x:MIN",
+                "CDEF:trend=x,1800,TREND",
+                "XPORT:trend"
+        });
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void failsOnMissingDs() throws JRrd2Exception {
+        engine.xport(START, END, 0, 0, new String[] {
+                "DEF:x=a.rrd:z:MIN",
+                "XPORT:x"
+        });
+    }
+
+    @Test(expected=JRrd2Exception.class)
+    public void failsWithoutExports() throws JRrd2Exception {
+        engine.xport(START, END, 0, 0, new String[] {
+                "DEF:x=a.rrd:x:MIN"
+        });
+    }
+
+    /**
+     * Emulates rrd_fetch_r() on files with two data sources, where x
+     * counts the steps since START and y is always 100.
+     */
+    private static class SyntheticJRrd2 extends StubJRrd2 {
+        private final AtomicInteger numFetches = new AtomicInteger();
+        private final java.util.Map<String, Long> steps = new java.util.concurrent.ConcurrentHashMap<>();
+
+        @Override
+        public FetchResults fetch(String filename, String cf, long start, long end, long step) throws JRrd2Exception {
+            numFetches.incrementAndGet();
+            final long fileStep = steps.getOrDefault(filename, 900L);
+            final long alignedStart = start - start % fileStep;
+            final long alignedEnd = end - end % fileStep + fileStep;
+            final int numRows = (int)((alignedEnd - alignedStart) / fileStep);
+            final double[][] values = new double[2][numRows];
+            for (int i = 0; i < numRows; i++) {
+                final long timestamp = alignedStart + (i + 1) * fileStep;
+                values[0][i] = (timestamp - START) / fileStep;
+                values[1][i] = 100;
+            }
+            return new FetchResults(alignedStart + fileStep, alignedEnd, fileStep, new String[] {"x", "y"}, values);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class org_opennms_netmgt_rrd_jrrd2_impl_Interface */
+
+#ifndef _Included_org_opennms_netmgt_rrd_jrrd2_impl_Interface
+#define _Included_org_opennms_netmgt_rrd_jrrd2_impl_Interface
+#ifdef __cplusplus
+extern "C" {
+#endif
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_get_context
+ * Signature: ()V
+ */
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1get_1context
+  (JNIEnv *, jclass);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_create_r
+ * Signature: (Ljava/lang/String;JJ[Ljava/lang/String;)V
+ */
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1create_1r
+  (JNIEnv *, jclass, jstring, jlong, jlong, jobjectArray);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_update_r
+ * Signature: (Ljava/lang/String;Ljava/lang/String;[Ljava/lang/String;)V
+ */
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1update_1r
+  (JNIEnv *, jclass, jstring, jstring, jobjectArray);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_update_values_r
+ * Signature: (Ljava/lang/String;Ljava/lang/String;[J[D)V
+ */
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1update_1values_1r
+  (JNIEnv *, jclass, jstring, jstring, jlongArray, jdoubleArray);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_update_batch_r
+ * Signature: ([Ljava/lang/String;[Ljava/lang/String;[[Ljava/lang/String;)[Ljava/lang/String;
+ */
+JNIEXPORT jobjectArray JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1update_1batch_1r
+  (JNIEnv *, jclass, jobjectArray, jobjectArray, jobjectArray);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_fetch_r
+ * Signature: (Ljava/lang/String;Ljava/lang/String;JJJ)Lorg/opennms/netmgt/rrd/jrrd2/api/FetchResults;
+ */
+JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1fetch_1r
+  (JNIEnv *, jclass, jstring, jstring, jlong, jlong, jlong);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_fetch_into_r
+ * Signature: (Ljava/lang/String;Ljava/lang/String;JJJLorg/opennms/netmgt/rrd/jrrd2/api/FetchBuffer;)V
+ */
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1fetch_1into_1r
+  (JNIEnv *, jclass, jstring, jstring, jlong, jlong, jlong, jobject);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_fetch_direct_r
+ * Signature: (Ljava/lang/String;Ljava/lang/String;JJJ)Lorg/opennms/netmgt/rrd/jrrd2/impl/JniDirectFetchResults;
+ */
+JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1fetch_1direct_1r
+  (JNIEnv *, jclass, jstring, jstring, jlong, jlong, jlong);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_free_values
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1free_1values
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_xport
+ * Signature: ([Ljava/lang/String;)Lorg/opennms/netmgt/rrd/jrrd2/api/FetchResults;
+ */
+JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1xport
+  (JNIEnv *, jclass, jobjectArray);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_info_r
+ * Signature: (Ljava/lang/String;)[Ljava/lang/String;
+ */
+JNIEXPORT jobjectArray JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1info_1r
+  (JNIEnv *, jclass, jstring);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_lastupdate_r
+ * Signature: (Ljava/lang/String;)[Ljava/lang/String;
+ */
+JNIEXPORT jobjectArray JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1lastupdate_1r
+  (JNIEnv *, jclass, jstring);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_first_r
+ * Signature: (Ljava/lang/String;I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1first_1r
+  (JNIEnv *, jclass, jstring, jint);
+
+/*
+ * Class:     org_opennms_netmgt_rrd_jrrd2_impl_Interface
+ * Method:    rrd_fadvise
+ * Signature: (Ljava/lang/String;[JI)V
+ */
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1fadvise
+  (JNIEnv *, jclass, jstring, jlongArray, jint);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
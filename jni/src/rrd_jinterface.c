@@ -48,7 +48,15 @@
 #include <malloc.h>
 #endif
 
+#ifdef HAVE_FCNTL_H
+#include <fcntl.h>
+#endif
+
+#include <errno.h>
 #include <limits.h>
+#include <stdio.h>
+#include <stdint.h>
+#include <math.h>
 
 #ifdef HAVE_GETOPT_H
 #include <getopt.h>
@@ -66,42 +74,105 @@
 
 // The signature can be determined with: javap -classpath jrrd2.jar -s -p org.opennms.netmgt.rrd.jrrd2.api.FetchResults
 const char* FETCH_RESULTS_CONSTRUCTOR_METHOD_ID = "(JJJ[Ljava/lang/String;[[D)V";
+const char* FETCH_BUFFER_PREPARE_METHOD_ID = "(JJJII)[D";
+const char* DIRECT_FETCH_RESULTS_CONSTRUCTOR_METHOD_ID = "(JJJ[Ljava/lang/String;ILjava/nio/ByteBuffer;J)V";
 
 typedef struct {
 	jclass jrrd2Exception,
 			outOfMemoryError,
 			string,
 			doubleArray,
-			fetchResults;
+			fetchResults,
+			fetchBuffer,
+			directFetchResults;
 } Classes;
 
-int findClasses(JNIEnv *env, Classes* classes) {
-	classes->jrrd2Exception = (*env)->FindClass(env, "org/opennms/netmgt/rrd/jrrd2/api/JRrd2Exception");
-	if(classes->jrrd2Exception == NULL || (*env)->ExceptionOccurred(env) != NULL) {
+// Global references to the classes and methods we use, resolved once in JNI_OnLoad()
+static Classes classes;
+static jmethodID fetchResultsConstructor;
+static jmethodID fetchBufferPrepare;
+static jfieldID fetchBufferColumns;
+static jmethodID directFetchResultsConstructor;
+
+static int findClass(JNIEnv *env, jclass *clazz, const char *name) {
+	jclass localRef = (*env)->FindClass(env, name);
+	if (localRef == NULL || (*env)->ExceptionOccurred(env) != NULL) {
 		return -1;
 	}
+	(*clazz) = (jclass)(*env)->NewGlobalRef(env, localRef);
+	(*env)->DeleteLocalRef(env, localRef);
+	return (*clazz) == NULL ? -1 : 0;
+}
 
-	classes->outOfMemoryError = (*env)->FindClass(env, "java/lang/OutOfMemoryError");
-	if(classes->outOfMemoryError == NULL || (*env)->ExceptionOccurred(env) != NULL) {
-		return -1;
+static void releaseClasses(JNIEnv *env, Classes* classes) {
+	jclass *refs[] = { &classes->jrrd2Exception, &classes->outOfMemoryError, &classes->string,
+			&classes->doubleArray, &classes->fetchResults, &classes->fetchBuffer,
+			&classes->directFetchResults };
+	size_t i;
+	for (i = 0; i < sizeof(refs) / sizeof(refs[0]); i++) {
+		if (*refs[i] != NULL) {
+			(*env)->DeleteGlobalRef(env, *refs[i]);
+			*refs[i] = NULL;
+		}
 	}
+}
 
-	classes->string = (*env)->FindClass(env, "java/lang/String");
-	if(classes->string == NULL || (*env)->ExceptionOccurred(env) != NULL) {
+static int findClasses(JNIEnv *env, Classes* classes) {
+	if (findClass(env, &classes->jrrd2Exception, "org/opennms/netmgt/rrd/jrrd2/api/JRrd2Exception") == -1
+			|| findClass(env, &classes->outOfMemoryError, "java/lang/OutOfMemoryError") == -1
+			|| findClass(env, &classes->string, "java/lang/String") == -1
+			|| findClass(env, &classes->doubleArray, "[D") == -1
+			|| findClass(env, &classes->fetchResults, "org/opennms/netmgt/rrd/jrrd2/api/FetchResults") == -1
+			|| findClass(env, &classes->fetchBuffer, "org/opennms/netmgt/rrd/jrrd2/api/FetchBuffer") == -1
+			|| findClass(env, &classes->directFetchResults, "org/opennms/netmgt/rrd/jrrd2/impl/JniDirectFetchResults") == -1) {
+		releaseClasses(env, classes);
 		return -1;
 	}
+	return 0;
+}
 
-	classes->doubleArray = (*env)->FindClass(env, "[D");
-	if(classes->doubleArray == NULL || (*env)->ExceptionOccurred(env) != NULL) {
-		return -1;
+/**
+* Invoked by the JVM when the library is loaded.
+*
+* Resolves the classes and methods used by the native calls once, instead of on every call.
+*/
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved) {
+	JNIEnv *env;
+	if ((*vm)->GetEnv(vm, (void **)&env, JNI_VERSION_1_6) != JNI_OK) {
+		return JNI_ERR;
 	}
 
-	classes->fetchResults = (*env)->FindClass(env, "org/opennms/netmgt/rrd/jrrd2/api/FetchResults");
-	if(classes->fetchResults == NULL || (*env)->ExceptionOccurred(env) != NULL) {
-		return -1;
+	if (findClasses(env, &classes) == -1) {
+		return JNI_ERR;
 	}
 
-	return 0;
+	fetchResultsConstructor = (*env)->GetMethodID(env, classes.fetchResults, "<init>", FETCH_RESULTS_CONSTRUCTOR_METHOD_ID);
+	fetchBufferPrepare = (*env)->GetMethodID(env, classes.fetchBuffer, "prepare", FETCH_BUFFER_PREPARE_METHOD_ID);
+	fetchBufferColumns = (*env)->GetFieldID(env, classes.fetchBuffer, "m_columns", "[Ljava/lang/String;");
+	directFetchResultsConstructor = (*env)->GetMethodID(env, classes.directFetchResults, "<init>", DIRECT_FETCH_RESULTS_CONSTRUCTOR_METHOD_ID);
+	if (fetchResultsConstructor == NULL || fetchBufferPrepare == NULL || fetchBufferColumns == NULL
+			|| directFetchResultsConstructor == NULL) {
+		releaseClasses(env, &classes);
+		return JNI_ERR;
+	}
+
+	return JNI_VERSION_1_6;
+}
+
+/**
+* Invoked by the JVM when the class loader that loaded the library is garbage collected.
+*/
+JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *vm, void *reserved) {
+	JNIEnv *env;
+	if ((*vm)->GetEnv(vm, (void **)&env, JNI_VERSION_1_6) != JNI_OK) {
+		return;
+	}
+
+	releaseClasses(env, &classes);
+	fetchResultsConstructor = NULL;
+	fetchBufferPrepare = NULL;
+	fetchBufferColumns = NULL;
+	directFetchResultsConstructor = NULL;
 }
 
 static inline time_t jlong_to_time_t(jlong timestamp) {
@@ -117,6 +188,7 @@ static inline void release_strings(JNIEnv *env, Classes *classes, jobjectArray a
 		if (strings[i] != NULL) {
 			jstring string = (jstring)(*env)->GetObjectArrayElement(env, array, i);
 			(*env)->ReleaseStringUTFChars(env, string, strings[i]);
+			(*env)->DeleteLocalRef(env, string);
 		}
 	}
 	// Release the array
@@ -136,6 +208,8 @@ static inline const char ** jstrings_to_strings(JNIEnv *env, Classes *classes, j
 	for (i = 0; i < (*size); i++) {
 		jstring string = (jstring)(*env)->GetObjectArrayElement(env, array, i);
 		strings[i] = (*env)->GetStringUTFChars(env, string, 0);
+		// The array keeps the string reachable, so we don't need to hold on to the local reference
+		(*env)->DeleteLocalRef(env, string);
 		if (strings[i] == NULL) {
 			release_strings(env, classes, array, strings, (*size));
 			(*env)->ThrowNew(env, classes->outOfMemoryError, "failed to allocate memory for string");
@@ -175,21 +249,22 @@ static inline jobjectArray rrd_values_to_matrix(JNIEnv *env, Classes *classes, r
 		return NULL;
 	}
 
+	// Scratch space used to transpose a single column, reused for all of the columns
+	jdouble *column = (jdouble *) malloc((rows > 0 ? rows : 1) * sizeof(jdouble));
+	if (column == NULL) {
+		(*env)->ThrowNew(env, classes->outOfMemoryError, "failed to allocate memory for the column values");
+		return NULL;
+	}
+
 	int i, j;
 	for (i = 0; i < columns; i++) {
 		jdoubleArray column_store = (*env)->NewDoubleArray(env, rows);
 		if (column_store == NULL) {
+			free(column);
 			(*env)->ThrowNew(env, classes->outOfMemoryError, "failed to allocate memory for double array");
 			return NULL;
 		}
 
-
-		jdouble *column = (jdouble *) malloc(rows * sizeof(jdouble));
-		if (column == NULL) {
-			(*env)->ThrowNew(env, classes->outOfMemoryError, "failed to allocate memory for the column values");
-			return NULL;
-		}
-
 		for (j = 0; j < rows; j++) {
 			column[j] = *(values + i + (j*columns));
 		}
@@ -197,11 +272,67 @@ static inline jobjectArray rrd_values_to_matrix(JNIEnv *env, Classes *classes, r
 		(*env)->SetDoubleArrayRegion(env, column_store, 0, rows, column);
 
 		(*env)->SetObjectArrayElement(env, matrix, i, column_store);
+		(*env)->DeleteLocalRef(env, column_store);
 	}
 
+	free(column);
 	return matrix;
 }
 
+/**
+* Returns 1 if the given Java string holds the same characters as the given C string.
+*/
+static inline int jstring_equals(JNIEnv *env, jstring string, const char *value) {
+	char utf[64];
+	size_t len = strlen(value);
+	if (string == NULL || len >= sizeof(utf) || (size_t)(*env)->GetStringUTFLength(env, string) != len) {
+		return 0;
+	}
+	(*env)->GetStringUTFRegion(env, string, 0, (*env)->GetStringLength(env, string), utf);
+	return memcmp(utf, value, len) == 0;
+}
+
+/**
+* Copies the results of a fetch into a FetchBuffer, reusing its arrays and column names when possible.
+*/
+static inline void rrd_values_to_buffer(JNIEnv *env, Classes *classes, jobject buffer, jlong start, jlong end, jlong step,
+		char **names, rrd_value_t *values, int columns, int rows) {
+	jdoubleArray target_array = (jdoubleArray)(*env)->CallObjectMethod(env, buffer, fetchBufferPrepare, start, end, step, (jint)columns, (jint)rows);
+	if (target_array == NULL || (*env)->ExceptionCheck(env)) {
+		return; // Exception already thrown
+	}
+
+	jobjectArray legends = (jobjectArray)(*env)->GetObjectField(env, buffer, fetchBufferColumns);
+	int i, j;
+	for (i = 0; i < columns; i++) {
+		jstring existing = (jstring)(*env)->GetObjectArrayElement(env, legends, i);
+		if (!jstring_equals(env, existing, names[i])) {
+			jstring legend = (*env)->NewStringUTF(env, names[i]);
+			if (legend == NULL) {
+				return; // OutOfMemoryError already thrown
+			}
+			(*env)->SetObjectArrayElement(env, legends, i, legend);
+			(*env)->DeleteLocalRef(env, legend);
+		}
+		if (existing != NULL) {
+			(*env)->DeleteLocalRef(env, existing);
+		}
+	}
+
+	// Transpose the row-major values straight into the Java array
+	jdouble *target = (jdouble *)(*env)->GetPrimitiveArrayCritical(env, target_array, NULL);
+	if (target == NULL) {
+		(*env)->ThrowNew(env, classes->outOfMemoryError, "failed to access the buffer values");
+		return;
+	}
+	for (j = 0; j < rows; j++) {
+		for (i = 0; i < columns; i++) {
+			target[i * rows + j] = *(values++);
+		}
+	}
+	(*env)->ReleasePrimitiveArrayCritical(env, target_array, target, 0);
+}
+
 /**
 *	rrd_context_t *rrd_get_context(void);
 */
@@ -222,12 +353,6 @@ JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1get
 JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1create_1r
 		(JNIEnv *env, jclass clazz, jstring filename, jlong pdp_step, jlong last_up, jobjectArray argv) {
 
-	// Grab references to the classes we may need
-	Classes classes;
-	if (findClasses(env, &classes) == -1) {
-		return; // Exception already thrown
-	}
-
 	// Input validation
 	if (filename == NULL) {
 		(*env)->ThrowNew(env, classes.jrrd2Exception, "filename cannot be null.");
@@ -293,12 +418,6 @@ JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1cre
 JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1update_1r
 		(JNIEnv *env, jclass clazz, jstring filename, jstring template, jobjectArray argv) {
 
-	// Grab references to the classes we may need
-	Classes classes;
-	if (findClasses(env, &classes) == -1) {
-		return; // Exception already thrown
-	}
-
 	// Input validation
 	if (filename == NULL) {
 		(*env)->ThrowNew(env, classes.jrrd2Exception, "filename cannot be null.");
@@ -361,6 +480,263 @@ JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1upd
 	}
 }
 
+/**
+* Calls rrd_update_r() for every entry in the batch.
+*
+* Returns an array with the error message of every entry, or NULL for the entries that succeeded.
+* An exception is only thrown when the batch itself is invalid, or when we run out of memory.
+*/
+JNIEXPORT jobjectArray JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1update_1batch_1r
+		(JNIEnv *env, jclass clazz, jobjectArray filenames, jobjectArray templates, jobjectArray argvs) {
+
+	// Input validation
+	if (filenames == NULL || templates == NULL || argvs == NULL) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "filenames, templates and argvs cannot be null.");
+		return NULL;
+	}
+
+	jsize n_updates = (*env)->GetArrayLength(env, filenames);
+	if ((*env)->GetArrayLength(env, templates) != n_updates || (*env)->GetArrayLength(env, argvs) != n_updates) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "filenames, templates and argvs must have the same length.");
+		return NULL;
+	}
+
+	jobjectArray errors = (*env)->NewObjectArray(env, n_updates, classes.string, NULL);
+	if (errors == NULL) {
+		return NULL; // OutOfMemoryError already thrown
+	}
+
+	jsize i;
+	for (i = 0; i < n_updates; i++) {
+		jstring filename = (jstring)(*env)->GetObjectArrayElement(env, filenames, i);
+		jstring template = (jstring)(*env)->GetObjectArrayElement(env, templates, i);
+		jobjectArray argv = (jobjectArray)(*env)->GetObjectArrayElement(env, argvs, i);
+
+		const char *error = NULL;
+		const char *n_filename = NULL;
+		const char *n_template = NULL;
+		const char **n_argv = NULL;
+		int n_argc = 0;
+
+		// Make sure we don't fail because of some earlier error
+		rrd_clear_error();
+
+		if (filename == NULL) {
+			error = "filename cannot be null.";
+		} else if (argv == NULL) {
+			error = "argv cannot be null.";
+		} else {
+			// Java -> C type conversions
+			n_filename = (*env)->GetStringUTFChars(env, filename, 0);
+			if (n_filename == NULL) {
+				return NULL; // OutOfMemoryError already thrown
+			}
+
+			if (template != NULL) {
+				n_template = (*env)->GetStringUTFChars(env, template, 0);
+				if (n_template == NULL) {
+					(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+					return NULL; // OutOfMemoryError already thrown
+				}
+			}
+
+			n_argv = jstrings_to_strings(env, &classes, argv, &n_argc);
+			if (n_argv == NULL) {
+				(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+				if (n_template != NULL) {
+					(*env)->ReleaseStringUTFChars(env, template, n_template);
+				}
+				return NULL; // OutOfMemoryError already thrown
+			}
+
+			// Make the actual call
+			int result = rrd_update_r(n_filename, n_template, n_argc, n_argv);
+
+			// Release allocated resources
+			(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+
+			if (n_template != NULL) {
+				(*env)->ReleaseStringUTFChars(env, template, n_template);
+			}
+
+			release_strings(env, &classes, argv, n_argv, n_argc);
+
+			if (result == -1) {
+				error = rrd_test_error() ? rrd_get_error() : "rrd_update_r() failed, but no error code was set.";
+			}
+		}
+
+		// Record the outcome for this entry
+		if (error != NULL) {
+			jstring j_error = (*env)->NewStringUTF(env, error);
+			if (j_error == NULL) {
+				return NULL; // OutOfMemoryError already thrown
+			}
+			(*env)->SetObjectArrayElement(env, errors, i, j_error);
+			(*env)->DeleteLocalRef(env, j_error);
+			rrd_clear_error();
+		}
+
+		// Batches can be large, so don't let the local references pile up
+		if (filename != NULL) {
+			(*env)->DeleteLocalRef(env, filename);
+		}
+		if (template != NULL) {
+			(*env)->DeleteLocalRef(env, template);
+		}
+		if (argv != NULL) {
+			(*env)->DeleteLocalRef(env, argv);
+		}
+	}
+
+	return errors;
+}
+
+/*
+ * Room needed to format a timestamp, and a value preceded by a colon, i.e. "-9223372036854775808"
+ * and ":-1.2345678901234567e-308".
+ */
+#define TIMESTAMP_FORMAT_SIZE 20
+#define VALUE_FORMAT_SIZE 25
+
+/*
+ * Formats a sample as "timestamp:value:value", writing unknown values as "U".
+ *
+ * The values are formatted with enough digits to be parsed back to the same doubles,
+ * always using a dot as the decimal separator, like the samples formatted in Java.
+ */
+static inline void format_sample(char *sample, size_t size, jlong timestamp, const jdouble *values, int n_values) {
+	int i;
+	int length = snprintf(sample, size, "%lld", (long long) timestamp);
+	for (i = 0; i < n_values; i++) {
+		char *value = sample + length;
+		if (isnan(values[i])) {
+			length += snprintf(value, size - length, ":U");
+		} else {
+			length += snprintf(value, size - length, ":%.17g", values[i]);
+			for (; *value != '\0'; value++) {
+				if (*value == ',') {
+					*value = '.';
+				}
+			}
+		}
+	}
+}
+
+/**
+* Same as rrd_update_r() above, but takes the samples as a timestamp array and a
+* row-major value array. librrd only parses samples from strings, so they are
+* formatted here, with %.17g, instead of in Java.
+*/
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1update_1values_1r
+		(JNIEnv *env, jclass clazz, jstring filename, jstring template, jlongArray timestamps, jdoubleArray values) {
+
+	// Input validation
+	if (filename == NULL) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "filename cannot be null.");
+		return;
+	}
+
+	if (timestamps == NULL) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "timestamps cannot be null.");
+		return;
+	}
+
+	if (values == NULL) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "values cannot be null.");
+		return;
+	}
+
+	int n_samples = (*env)->GetArrayLength(env, timestamps);
+	int n_values = (*env)->GetArrayLength(env, values);
+	if (n_samples < 1 || n_values < n_samples || n_values % n_samples != 0) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "values must hold the same, non-zero, number of values for every timestamp.");
+		return;
+	}
+	int n_ds = n_values / n_samples;
+
+	// librrd only parses samples from strings, so format them all in a single block
+	size_t sample_size = TIMESTAMP_FORMAT_SIZE + (size_t) n_ds * VALUE_FORMAT_SIZE + 1;
+	char *n_samples_text = malloc(sample_size * n_samples);
+	const char **n_argv = malloc(sizeof(char *) * n_samples);
+	if (n_samples_text == NULL || n_argv == NULL) {
+		free(n_samples_text);
+		free(n_argv);
+		(*env)->ThrowNew(env, classes.outOfMemoryError, "failed to allocate the samples.");
+		return;
+	}
+
+	// No other JNI calls can be made while holding on to the arrays
+	jlong *n_timestamps = (*env)->GetPrimitiveArrayCritical(env, timestamps, NULL);
+	if (n_timestamps == NULL) {
+		free(n_samples_text);
+		free(n_argv);
+		return; // OutOfMemoryError already thrown
+	}
+	jdouble *n_value_array = (*env)->GetPrimitiveArrayCritical(env, values, NULL);
+	if (n_value_array == NULL) {
+		(*env)->ReleasePrimitiveArrayCritical(env, timestamps, n_timestamps, JNI_ABORT);
+		free(n_samples_text);
+		free(n_argv);
+		return; // OutOfMemoryError already thrown
+	}
+
+	int i;
+	for (i = 0; i < n_samples; i++) {
+		char *sample = n_samples_text + i * sample_size;
+		format_sample(sample, sample_size, n_timestamps[i], n_value_array + (size_t) i * n_ds, n_ds);
+		n_argv[i] = sample;
+	}
+
+	(*env)->ReleasePrimitiveArrayCritical(env, values, n_value_array, JNI_ABORT);
+	(*env)->ReleasePrimitiveArrayCritical(env, timestamps, n_timestamps, JNI_ABORT);
+
+	// Java -> C type conversions
+	const char *n_filename = (*env)->GetStringUTFChars(env, filename, 0);
+	if (n_filename == NULL) {
+		free(n_samples_text);
+		free(n_argv);
+		return; // OutOfMemoryError already thrown
+	}
+
+	const char *n_template = NULL;
+	if (template != NULL) {
+		n_template = (*env)->GetStringUTFChars(env, template, 0);
+		if (n_template == NULL) {
+			(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+			free(n_samples_text);
+			free(n_argv);
+			return; // OutOfMemoryError already thrown
+		}
+	}
+
+	// Make sure we don't fail because of some earlier error
+	rrd_clear_error();
+
+	// Make the actual call
+	int result = rrd_update_r(n_filename, n_template, n_samples, n_argv);
+
+	// Release allocated resources
+	(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+
+	if (n_template != NULL) {
+		(*env)->ReleaseStringUTFChars(env, template, n_template);
+	}
+
+	free(n_samples_text);
+	free(n_argv);
+
+	// Process the results
+	if (result == -1) {
+		if (rrd_test_error()) {
+			(*env)->ThrowNew(env, classes.jrrd2Exception, rrd_get_error());
+			rrd_clear_error();
+		} else {
+			(*env)->ThrowNew(env, classes.jrrd2Exception, "rrd_update_r() failed, but no error code was set.");
+		}
+	}
+}
+
 /**
 *   int rrd_fetch_r (
 		const char *filename,
@@ -372,60 +748,49 @@ JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1upd
 		char ***ds_namv,
 		rrd_value_t **data);
 */
-JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1fetch_1r
-		(JNIEnv *env, jclass clazz, jstring filename, jstring cf, jlong start, jlong end, jlong step) {
-
-	// Grab references to the classes we may need
-	Classes classes;
-	if (findClasses(env, &classes) == -1) {
-		return NULL; // Exception already thrown
-	}
-
-	// Grab a reference to the results constructor
-	jmethodID constructor = (*env)->GetMethodID(env, classes.fetchResults, "<init>", FETCH_RESULTS_CONSTRUCTOR_METHOD_ID);
-	if (constructor == NULL) {
-		(*env)->ThrowNew(env, classes.jrrd2Exception, "no valid constructor found.");
-		return NULL;
-	}
+/**
+* Validates the arguments and calls rrd_fetch_r().
+*
+* Returns 0 on success, in which case the caller is responsible for freeing ds_namv and data,
+* or -1 if an exception was thrown.
+*/
+static int fetch(JNIEnv *env, jstring filename, jstring cf, jlong start, jlong end, jlong step,
+		time_t *n_start, time_t *n_end, unsigned long *n_step, unsigned long *n_ds_cnt, char ***n_ds_namv, rrd_value_t **n_data) {
 
 	// Input validation
 	if (filename == NULL) {
 		(*env)->ThrowNew(env, classes.jrrd2Exception, "filename cannot be null.");
-		return NULL;
+		return -1;
 	}
 
 	if (cf == NULL) {
 		(*env)->ThrowNew(env, classes.jrrd2Exception, "cf cannot be null.");
-		return NULL;
+		return -1;
 	}
 
 	// Java -> C type conversions
 	const char *n_filename = (*env)->GetStringUTFChars(env, filename, 0);
 	if (n_filename == NULL) {
-		return NULL; // OutOfMemoryError already thrown
+		return -1; // OutOfMemoryError already thrown
 	}
 
 	const char *n_cf = (*env)->GetStringUTFChars(env, cf, 0);
-	if (n_filename == NULL) {
+	if (n_cf == NULL) {
 		(*env)->ReleaseStringUTFChars(env, filename, n_filename);
-		return NULL; // OutOfMemoryError already thrown
+		return -1; // OutOfMemoryError already thrown
 	}
 
-	time_t n_start = jlong_to_time_t(start);
+	(*n_start) = jlong_to_time_t(start);
 
-	time_t n_end = jlong_to_time_t(end);
+	(*n_end) = jlong_to_time_t(end);
 
-	unsigned long n_step = (unsigned long)step;
+	(*n_step) = (unsigned long)step;
 
 	// Make sure we don't fail because of some earlier error
 	rrd_clear_error();
 
 	// Make the actual call
-	int i;
-	unsigned long n_ds_cnt;
-	char **n_ds_namv;
-	rrd_value_t *n_data;
-	int result = rrd_fetch_r(n_filename, n_cf, &n_start, &n_end, &n_step, &n_ds_cnt, &n_ds_namv, &n_data);
+	int result = rrd_fetch_r(n_filename, n_cf, n_start, n_end, n_step, n_ds_cnt, n_ds_namv, n_data);
 
 	// Release allocated resources
 	(*env)->ReleaseStringUTFChars(env, filename, n_filename);
@@ -437,10 +802,24 @@ JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1
 			(*env)->ThrowNew(env, classes.jrrd2Exception, rrd_get_error());
 			rrd_clear_error();
 		} else {
-			(*env)->ThrowNew(env, classes.jrrd2Exception, "rrd_update_r() failed, but no error code was set.");
+			(*env)->ThrowNew(env, classes.jrrd2Exception, "rrd_fetch_r() failed, but no error code was set.");
 		}
+		return -1;
+	}
 
-		return NULL;
+	return 0;
+}
+
+JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1fetch_1r
+		(JNIEnv *env, jclass clazz, jstring filename, jstring cf, jlong start, jlong end, jlong step) {
+
+	int i;
+	time_t n_start, n_end;
+	unsigned long n_step, n_ds_cnt;
+	char **n_ds_namv;
+	rrd_value_t *n_data;
+	if (fetch(env, filename, cf, start, end, step, &n_start, &n_end, &n_step, &n_ds_cnt, &n_ds_namv, &n_data) == -1) {
+		return NULL; // Exception already thrown
 	}
 
 	// Success!
@@ -464,7 +843,7 @@ JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1
 		goto theend;
 	}
 
-	results = (*env)->NewObject(env, classes.fetchResults, constructor, (jlong) n_start + (jlong) n_step, (jlong) n_end, (jlong) n_step, results_legends, result_columns);
+	results = (*env)->NewObject(env, classes.fetchResults, fetchResultsConstructor, (jlong) n_start + (jlong) n_step, (jlong) n_end, (jlong) n_step, results_legends, result_columns);
 
 	theend:
 	// Free up RRD allocations
@@ -476,6 +855,101 @@ JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1
 	return results;
 }
 
+/**
+* Same as rrd_fetch_r() above, but stores the results in the given FetchBuffer
+* instead of allocating new arrays.
+*/
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1fetch_1into_1r
+		(JNIEnv *env, jclass clazz, jstring filename, jstring cf, jlong start, jlong end, jlong step, jobject buffer) {
+
+	if (buffer == NULL) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "buffer cannot be null.");
+		return;
+	}
+
+	int i;
+	time_t n_start, n_end;
+	unsigned long n_step, n_ds_cnt;
+	char **n_ds_namv;
+	rrd_value_t *n_data;
+	if (fetch(env, filename, cf, start, end, step, &n_start, &n_end, &n_step, &n_ds_cnt, &n_ds_namv, &n_data) == -1) {
+		return; // Exception already thrown
+	}
+
+	// Success!
+	int col_cnt = (int)n_ds_cnt;
+	unsigned long row_cnt = (n_end - n_start) / n_step;
+
+	rrd_values_to_buffer(env, &classes, buffer, (jlong) n_start + (jlong) n_step, (jlong) n_end, (jlong) n_step,
+			n_ds_namv, n_data, col_cnt, (int)row_cnt);
+
+	// Free up RRD allocations
+	for (i=0;i<col_cnt;i++)
+		free(n_ds_namv[i]);
+	free(n_ds_namv);
+	free (n_data);
+}
+
+/**
+* Same as rrd_fetch_r() above, but hands the values allocated by librrd over to a
+* JniDirectFetchResults instead of copying them. They are freed by rrd_free_values().
+*/
+JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1fetch_1direct_1r
+		(JNIEnv *env, jclass clazz, jstring filename, jstring cf, jlong start, jlong end, jlong step) {
+
+	int i;
+	time_t n_start, n_end;
+	unsigned long n_step, n_ds_cnt;
+	char **n_ds_namv;
+	rrd_value_t *n_data;
+	if (fetch(env, filename, cf, start, end, step, &n_start, &n_end, &n_step, &n_ds_cnt, &n_ds_namv, &n_data) == -1) {
+		return NULL; // Exception already thrown
+	}
+
+	// Success!
+	jobject results = NULL;
+
+	// Determine the number of rows and columns we need
+	int col_cnt = (int)n_ds_cnt;
+	unsigned long row_cnt = (n_end - n_start) / n_step;
+
+	// Gather the legends
+	jobjectArray results_legends = strings_to_jstrings(env, &classes, n_ds_namv, col_cnt);
+	if (results_legends == NULL) {
+		goto theend; // OutOfMemoryError already thrown
+	}
+
+	// Wrap the values, without copying them
+	jobject values = (*env)->NewDirectByteBuffer(env, n_data, (jlong)(row_cnt * col_cnt * sizeof(rrd_value_t)));
+	if (values == NULL) {
+		(*env)->ExceptionClear(env);
+		(*env)->ThrowNew(env, classes.outOfMemoryError, "failed to allocate a direct buffer for the values");
+		goto theend;
+	}
+
+	results = (*env)->NewObject(env, classes.directFetchResults, directFetchResultsConstructor, (jlong) n_start + (jlong) n_step,
+			(jlong) n_end, (jlong) n_step, results_legends, (jint) row_cnt, values, (jlong)(intptr_t) n_data);
+
+	theend:
+	// Free up RRD allocations, the values are now owned by the results
+	for (i=0;i<col_cnt;i++)
+		free(n_ds_namv[i]);
+	free(n_ds_namv);
+	if (results == NULL) {
+		free (n_data);
+	}
+
+	return results;
+}
+
+/**
+* Frees the values held by a JniDirectFetchResults.
+*/
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1free_1values
+		(JNIEnv *env, jclass clazz, jlong address) {
+	free((void *)(intptr_t) address);
+}
+
 /**
 * int rrd_xport(
 	int argc,
@@ -490,19 +964,6 @@ JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1
 JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1xport
 		(JNIEnv *env, jclass class, jobjectArray argv) {
 
-	// Grab references to the classes we may need
-	Classes classes;
-	if (findClasses(env, &classes) == -1) {
-		return NULL; // Exception already thrown
-	}
-
-	// Grab a reference to the results constructor
-	jmethodID constructor = (*env)->GetMethodID(env, classes.fetchResults, "<init>", FETCH_RESULTS_CONSTRUCTOR_METHOD_ID);
-	if (constructor == NULL) {
-		(*env)->ThrowNew(env, classes.jrrd2Exception, "no valid constructor found.");
-		return NULL;
-	}
-
 	// Input validation
 	if (argv == NULL) {
 		(*env)->ThrowNew(env, classes.jrrd2Exception, "argv cannot be null.");
@@ -563,7 +1024,7 @@ JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1
 		goto theend;
 	}
 
-	results = (*env)->NewObject(env, classes.fetchResults, constructor, (jlong) n_start + (jlong) n_step, (jlong) n_end, (jlong) n_step, results_legends, result_columns);
+	results = (*env)->NewObject(env, classes.fetchResults, fetchResultsConstructor, (jlong) n_start + (jlong) n_step, (jlong) n_end, (jlong) n_step, results_legends, result_columns);
 
 	theend:
 	// Free up RRD allocations
@@ -574,3 +1035,349 @@ JNIEXPORT jobject JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1
 
 	return results;
 }
+
+/**
+* Formats the value of an rrd_info() entry the way Java parses it back.
+*
+* Returns 0 on success, or -1 for the entries that have no textual value.
+*/
+static inline int format_info_value(char *value, size_t size, rrd_info_t *info) {
+	switch (info->type) {
+	case RD_I_VAL:
+		if (isnan(info->value.u_val)) {
+			snprintf(value, size, "NaN");
+		} else if (isinf(info->value.u_val)) {
+			snprintf(value, size, info->value.u_val > 0 ? "Infinity" : "-Infinity");
+		} else {
+			snprintf(value, size, "%.17g", info->value.u_val);
+		}
+		return 0;
+	case RD_I_CNT:
+		snprintf(value, size, "%lu", info->value.u_cnt);
+		return 0;
+	case RD_I_INT:
+		snprintf(value, size, "%d", info->value.u_int);
+		return 0;
+	default:
+		return -1;
+	}
+}
+
+/**
+* rrd_info_t *rrd_info_r(const char *filename);
+*
+* Returns the keys and values of the entries in a single array: key0, value0, key1, value1, ...
+* Binary entries are skipped.
+*/
+JNIEXPORT jobjectArray JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1info_1r
+		(JNIEnv *env, jclass clazz, jstring filename) {
+
+	// Input validation
+	if (filename == NULL) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "filename cannot be null.");
+		return NULL;
+	}
+
+	// Java -> C type conversions
+	const char *n_filename = (*env)->GetStringUTFChars(env, filename, 0);
+	if (n_filename == NULL) {
+		return NULL; // OutOfMemoryError already thrown
+	}
+
+	// Make sure we don't fail because of some earlier error
+	rrd_clear_error();
+
+	// Make the actual call
+	rrd_info_t *n_info = rrd_info_r(n_filename);
+
+	// Release allocated resources
+	(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+
+	if (n_info == NULL) {
+		if (rrd_test_error()) {
+			(*env)->ThrowNew(env, classes.jrrd2Exception, rrd_get_error());
+			rrd_clear_error();
+		} else {
+			(*env)->ThrowNew(env, classes.jrrd2Exception, "rrd_info_r() failed, but no error code was set.");
+		}
+		return NULL;
+	}
+
+	// Success!
+	jobjectArray results = NULL;
+
+	// Count the entries we return
+	int n_entries = 0;
+	char value[64];
+	rrd_info_t *entry;
+	for (entry = n_info; entry != NULL; entry = entry->next) {
+		if (entry->type == RD_I_STR || format_info_value(value, sizeof(value), entry) == 0) {
+			n_entries++;
+		}
+	}
+
+	results = (*env)->NewObjectArray(env, 2 * n_entries, classes.string, NULL);
+	if (results == NULL) {
+		(*env)->ThrowNew(env, classes.outOfMemoryError, "failed to allocate memory for string array");
+		goto theend;
+	}
+
+	int i = 0;
+	for (entry = n_info; entry != NULL; entry = entry->next) {
+		const char *n_value;
+		if (entry->type == RD_I_STR) {
+			n_value = entry->value.u_str;
+		} else if (format_info_value(value, sizeof(value), entry) == 0) {
+			n_value = value;
+		} else {
+			continue;
+		}
+
+		jstring key_str = (*env)->NewStringUTF(env, entry->key);
+		jstring value_str = (*env)->NewStringUTF(env, n_value);
+		if (key_str == NULL || value_str == NULL) {
+			(*env)->ThrowNew(env, classes.outOfMemoryError, "failed to allocate memory for string reference");
+			results = NULL;
+			goto theend;
+		}
+		(*env)->SetObjectArrayElement(env, results, i++, key_str);
+		(*env)->SetObjectArrayElement(env, results, i++, value_str);
+		// There may be many entries, don't exhaust the local references
+		(*env)->DeleteLocalRef(env, key_str);
+		(*env)->DeleteLocalRef(env, value_str);
+	}
+
+	theend:
+	// Free up RRD allocations
+	rrd_info_free(n_info);
+
+	return results;
+}
+
+/**
+* int rrd_lastupdate_r(
+	const char *filename,
+	time_t *ret_last_update,
+	unsigned long *ret_ds_count,
+	char ***ret_ds_names,
+	char ***ret_last_ds);
+*
+* Returns the time of the last update followed by the names and values of the data sources
+* in a single array: last_update, name0, value0, name1, value1, ...
+*/
+JNIEXPORT jobjectArray JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1lastupdate_1r
+		(JNIEnv *env, jclass clazz, jstring filename) {
+
+	// Input validation
+	if (filename == NULL) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "filename cannot be null.");
+		return NULL;
+	}
+
+	// Java -> C type conversions
+	const char *n_filename = (*env)->GetStringUTFChars(env, filename, 0);
+	if (n_filename == NULL) {
+		return NULL; // OutOfMemoryError already thrown
+	}
+
+	// Make sure we don't fail because of some earlier error
+	rrd_clear_error();
+
+	// Make the actual call
+	unsigned long i;
+	time_t n_last_update;
+	unsigned long n_ds_cnt;
+	char **n_ds_namv;
+	char **n_last_ds;
+	int result = rrd_lastupdate_r(n_filename, &n_last_update, &n_ds_cnt, &n_ds_namv, &n_last_ds);
+
+	// Release allocated resources
+	(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+
+	if (result == -1) {
+		if (rrd_test_error()) {
+			(*env)->ThrowNew(env, classes.jrrd2Exception, rrd_get_error());
+			rrd_clear_error();
+		} else {
+			(*env)->ThrowNew(env, classes.jrrd2Exception, "rrd_lastupdate_r() failed, but no error code was set.");
+		}
+		return NULL;
+	}
+
+	// Success!
+	jobjectArray results = (*env)->NewObjectArray(env, 1 + 2 * (jsize)n_ds_cnt, classes.string, NULL);
+	if (results == NULL) {
+		(*env)->ThrowNew(env, classes.outOfMemoryError, "failed to allocate memory for string array");
+		goto theend;
+	}
+
+	char last_update[32];
+	snprintf(last_update, sizeof(last_update), "%lld", (long long)n_last_update);
+	jstring last_update_str = (*env)->NewStringUTF(env, last_update);
+	if (last_update_str == NULL) {
+		(*env)->ThrowNew(env, classes.outOfMemoryError, "failed to allocate memory for string reference");
+		results = NULL;
+		goto theend;
+	}
+	(*env)->SetObjectArrayElement(env, results, 0, last_update_str);
+	(*env)->DeleteLocalRef(env, last_update_str);
+
+	for (i = 0; i < n_ds_cnt; i++) {
+		jstring name_str = (*env)->NewStringUTF(env, n_ds_namv[i]);
+		jstring value_str = (*env)->NewStringUTF(env, n_last_ds[i]);
+		if (name_str == NULL || value_str == NULL) {
+			(*env)->ThrowNew(env, classes.outOfMemoryError, "failed to allocate memory for string reference");
+			results = NULL;
+			goto theend;
+		}
+		(*env)->SetObjectArrayElement(env, results, 1 + 2 * i, name_str);
+		(*env)->SetObjectArrayElement(env, results, 2 + 2 * i, value_str);
+		// There may be many data sources, don't exhaust the local references
+		(*env)->DeleteLocalRef(env, name_str);
+		(*env)->DeleteLocalRef(env, value_str);
+	}
+
+	theend:
+	// Free up RRD allocations
+	for (i = 0; i < n_ds_cnt; i++) {
+		free(n_ds_namv[i]);
+		free(n_last_ds[i]);
+	}
+	free(n_ds_namv);
+	free(n_last_ds);
+
+	return results;
+}
+
+/**
+* time_t rrd_first_r(const char *filename, int rraindex);
+*/
+JNIEXPORT jlong JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1first_1r
+		(JNIEnv *env, jclass clazz, jstring filename, jint archive) {
+
+	// Input validation
+	if (filename == NULL) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "filename cannot be null.");
+		return -1;
+	}
+
+	// Java -> C type conversions
+	const char *n_filename = (*env)->GetStringUTFChars(env, filename, 0);
+	if (n_filename == NULL) {
+		return -1; // OutOfMemoryError already thrown
+	}
+
+	// Make sure we don't fail because of some earlier error
+	rrd_clear_error();
+
+	// Make the actual call
+	time_t result = rrd_first_r(n_filename, (int)archive);
+
+	// Release allocated resources
+	(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+
+	if (result == -1) {
+		if (rrd_test_error()) {
+			(*env)->ThrowNew(env, classes.jrrd2Exception, rrd_get_error());
+			rrd_clear_error();
+		} else {
+			(*env)->ThrowNew(env, classes.jrrd2Exception, "rrd_first_r() failed, but no error code was set.");
+		}
+		return -1;
+	}
+
+	return (jlong)result;
+}
+
+/**
+* int posix_fadvise(int fd, off_t offset, off_t len, int advice);
+*
+* The ranges are given as pairs of offset and length, and the advice as
+* one of the constants of PageCacheAdvisor. This is a no-op on the
+* platforms that don't provide posix_fadvise().
+*/
+JNIEXPORT void JNICALL Java_org_opennms_netmgt_rrd_jrrd2_impl_Interface_rrd_1fadvise
+		(JNIEnv *env, jclass clazz, jstring filename, jlongArray ranges, jint advice) {
+
+	// Input validation
+	if (filename == NULL) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "filename cannot be null.");
+		return;
+	}
+
+	if (ranges == NULL) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "ranges cannot be null.");
+		return;
+	}
+
+	jsize n_ranges = (*env)->GetArrayLength(env, ranges);
+	if (n_ranges % 2 != 0) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "ranges must hold pairs of offset and length.");
+		return;
+	}
+
+#ifdef HAVE_POSIX_FADVISE
+	int n_advice;
+	switch (advice) {
+	case 0:
+		n_advice = POSIX_FADV_NORMAL;
+		break;
+	case 1:
+		n_advice = POSIX_FADV_RANDOM;
+		break;
+	case 2:
+		n_advice = POSIX_FADV_SEQUENTIAL;
+		break;
+	case 3:
+		n_advice = POSIX_FADV_WILLNEED;
+		break;
+	case 4:
+		n_advice = POSIX_FADV_DONTNEED;
+		break;
+	default:
+		(*env)->ThrowNew(env, classes.jrrd2Exception, "unknown advice.");
+		return;
+	}
+
+	// Java -> C type conversions
+	const char *n_filename = (*env)->GetStringUTFChars(env, filename, 0);
+	if (n_filename == NULL) {
+		return; // OutOfMemoryError already thrown
+	}
+
+	jlong *n_ranges_array = (*env)->GetLongArrayElements(env, ranges, NULL);
+	if (n_ranges_array == NULL) {
+		(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+		return; // OutOfMemoryError already thrown
+	}
+
+	char message[PATH_MAX + 128];
+	int fd = open(n_filename, O_RDONLY);
+	if (fd < 0) {
+		snprintf(message, sizeof(message), "opening '%s': %s", n_filename, strerror(errno));
+		(*env)->ReleaseLongArrayElements(env, ranges, n_ranges_array, JNI_ABORT);
+		(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+		(*env)->ThrowNew(env, classes.jrrd2Exception, message);
+		return;
+	}
+
+	// Make the actual calls, posix_fadvise() returns the error number instead of setting errno
+	int error = 0;
+	jsize i;
+	for (i = 0; i < n_ranges && error == 0; i += 2) {
+		error = posix_fadvise(fd, (off_t)n_ranges_array[i], (off_t)n_ranges_array[i + 1], n_advice);
+	}
+	if (error != 0) {
+		snprintf(message, sizeof(message), "advising '%s': %s", n_filename, strerror(error));
+	}
+
+	// Release allocated resources
+	close(fd);
+	(*env)->ReleaseLongArrayElements(env, ranges, n_ranges_array, JNI_ABORT);
+	(*env)->ReleaseStringUTFChars(env, filename, n_filename);
+
+	if (error != 0) {
+		(*env)->ThrowNew(env, classes.jrrd2Exception, message);
+	}
+#endif
+}
@@ -0,0 +1,424 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.loadtest;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+import org.opennms.netmgt.rrd.jrrd2.api.BatchResults;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2;
+import org.opennms.netmgt.rrd.jrrd2.api.JRrd2Exception;
+import org.opennms.netmgt.rrd.jrrd2.api.RrdSchema;
+import org.opennms.netmgt.rrd.jrrd2.impl.BulkCreator;
+import org.opennms.netmgt.rrd.jrrd2.impl.FfmBackend;
+import org.opennms.netmgt.rrd.jrrd2.impl.InstrumentedJRrd2;
+import org.opennms.netmgt.rrd.jrrd2.impl.JRrd2Jni;
+import org.opennms.netmgt.rrd.jrrd2.impl.MmapJRrd2;
+import org.opennms.netmgt.rrd.jrrd2.impl.OperationStatsMXBean;
+import org.opennms.netmgt.rrd.jrrd2.impl.QueuingJRrd2;
+
+/**
+ * Drives a mix of updates, fetches and xports against a large number of files,
+ * and reports the throughput, the latencies, the errors and the memory usage
+ * of the process at a regular interval.
+ *
+ * The resident set size covers the memory allocated by librrd and the JNI code,
+ * which the JVM does not track: once warmed up, it should stay flat over long
+ * runs. The run fails when the error rate or the RSS growth exceed the given limits.
+ */
+public class LoadTest {
+
+    private static final long STEP = 300;
+
+    private static final long START = 1424700000;
+
+    private static final String[] OPERATIONS = { "update", "fetch", "xport" };
+
+    private final LoadTestOptions m_options;
+
+    private final int m_numFiles;
+
+    private final int m_dsCount;
+
+    private final Map<String, Pacer> m_pacers = new HashMap<>();
+
+    private final Map<String, Totals> m_totals = new LinkedHashMap<>();
+
+    private JRrd2 m_backend;
+
+    private InstrumentedJRrd2 m_jrrd2;
+
+    private Path m_directory;
+
+    private String[] m_filenames;
+
+    // Timestamp of the last update of every file
+    private AtomicLongArray m_timestamps;
+
+    private volatile boolean m_running = true;
+
+    /**
+     * What is accumulated over the intervals that follow the warmup.
+     */
+    private static class Totals {
+        private long m_count;
+        private long m_errors;
+        private double m_worst99thMicros;
+        private double m_maxMicros;
+        private final Map<String, Long> m_errorsByMessage = new HashMap<>();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (Arrays.asList(args).contains("--help")) {
+            System.out.print(LoadTestOptions.usage());
+            return;
+        }
+        final LoadTestOptions options;
+        try {
+            options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadTestOptions.usage());
+            System.exit(2);
+            return;
+        }
+        System.exit(new LoadTest(options).run() ? 0 : 1);
+    }
+
+    public LoadTest(LoadTestOptions options) {
+        m_options = options;
+        m_numFiles = options.getInt("files");
+        m_dsCount = options.getInt("ds");
+        if (m_numFiles < 1 || m_dsCount < 1) {
+            throw new IllegalArgumentException("--files and --ds must be strictly positive.");
+        }
+        for (final String operation : OPERATIONS) {
+            m_pacers.put(operation, new Pacer(options.getDouble(operation + "-rate")));
+            m_totals.put(operation, new Totals());
+        }
+    }
+
+    /**
+     * Returns true if the run passed.
+     */
+    public boolean run() throws IOException, InterruptedException, JRrd2Exception {
+        System.out.printf("Options: %s%n", m_options);
+        m_backend = createBackend(m_options.getString("backend"));
+        m_jrrd2 = new InstrumentedJRrd2(m_backend);
+        final String dir = m_options.getString("dir");
+        m_directory = Files.createTempDirectory(Paths.get(dir != null ? dir : System.getProperty("java.io.tmpdir")), "jrrd2-loadtest");
+        final List<Thread> threads = new ArrayList<>();
+        try {
+            createFiles();
+            final int updateThreads = m_options.getInt("update-threads");
+            for (int i = 0; i < updateThreads; i++) {
+                final int shard = i;
+                threads.add(start("update-" + i, () -> update(shard, updateThreads)));
+            }
+            for (int i = 0; i < m_options.getInt("fetch-threads"); i++) {
+                threads.add(start("fetch-" + i, this::fetch));
+            }
+            for (int i = 0; i < m_options.getInt("xport-threads"); i++) {
+                threads.add(start("xport-" + i, this::xport));
+            }
+            return report();
+        } finally {
+            m_running = false;
+            for (final Thread thread : threads) {
+                thread.interrupt();
+                thread.join();
+            }
+            if (m_backend instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) m_backend).close();
+                } catch (Exception e) {
+                    System.err.printf("Failed to close the backend: %s%n", e);
+                }
+            }
+            if (!m_options.getBoolean("keep-files")) {
+                delete(m_directory);
+            }
+        }
+    }
+
+    private static JRrd2 createBackend(String backend) {
+        switch (backend) {
+        case "jni":
+            return new JRrd2Jni();
+        case "ffm":
+            if (!FfmBackend.isAvailable()) {
+                throw new IllegalArgumentException("The ffm backend requires Java 22 or later and librrd.");
+            }
+            return FfmBackend.create();
+        case "mmap":
+            return new MmapJRrd2(new JRrd2Jni());
+        case "queuing":
+            return new QueuingJRrd2(new JRrd2Jni());
+        default:
+            throw new IllegalArgumentException("Unknown backend: " + backend);
+        }
+    }
+
+    private void createFiles() throws JRrd2Exception {
+        final String[] definitions = new String[m_dsCount + 1];
+        for (int i = 0; i < m_dsCount; i++) {
+            definitions[i] = String.format("DS:ds%d:GAUGE:%d:U:U", i, 2 * STEP);
+        }
+        definitions[m_dsCount] = String.format("RRA:AVERAGE:0.5:1:%d", m_options.getInt("rows"));
+        final RrdSchema schema = RrdSchema.parse(STEP, definitions);
+
+        m_filenames = new String[m_numFiles];
+        m_timestamps = new AtomicLongArray(m_numFiles);
+        for (int i = 0; i < m_numFiles; i++) {
+            m_filenames[i] = m_directory.resolve(String.format("%06d.rrd", i)).toString();
+            m_timestamps.set(i, START);
+        }
+
+        final long startNanos = System.nanoTime();
+        final BatchResults results = new BulkCreator(m_backend).create(schema, START, Arrays.asList(m_filenames));
+        if (!results.isSuccessful()) {
+            throw new JRrd2Exception(String.format("Failed to create %d files, e.g. %s", results.getNumFailed(),
+                    Arrays.stream(results.getErrors()).filter(e -> e != null).findFirst().orElse(null)));
+        }
+        System.out.printf("Created %d files in %s in %d ms%n", m_numFiles, m_directory,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private Thread start(String name, Work work) {
+        final Thread thread = new Thread(() -> {
+            while (m_running) {
+                try {
+                    work.run();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (JRrd2Exception e) {
+                    // Counted by the instrumentation
+                } catch (RuntimeException e) {
+                    System.err.printf("Unexpected failure in %s: %s%n", Thread.currentThread().getName(), e);
+                }
+            }
+        }, "jrrd2-loadtest-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @FunctionalInterface
+    private interface Work {
+        void run() throws InterruptedException, JRrd2Exception;
+    }
+
+    /**
+     * Every update thread owns a share of the files, so that their timestamps keep increasing.
+     */
+    private void update(int shard, int numShards) throws InterruptedException, JRrd2Exception {
+        for (int i = shard; i < m_numFiles && m_running; i += numShards) {
+            m_pacers.get("update").acquire();
+            final long timestamp = m_timestamps.get(i) + STEP;
+            final StringBuilder sample = new StringBuilder().append(timestamp);
+            for (int j = 0; j < m_dsCount; j++) {
+                sample.append(':').append(ThreadLocalRandom.current().nextInt(1000));
+            }
+            m_jrrd2.update(m_filenames[i], null, new String[] { sample.toString() });
+            m_timestamps.set(i, timestamp);
+        }
+    }
+
+    private void fetch() throws InterruptedException, JRrd2Exception {
+        m_pacers.get("fetch").acquire();
+        final int i = ThreadLocalRandom.current().nextInt(m_numFiles);
+        final long end = m_timestamps.get(i);
+        m_jrrd2.fetch(m_filenames[i], "AVERAGE", end - m_options.getInt("fetch-rows") * STEP, end, STEP);
+    }
+
+    private void xport() throws InterruptedException, JRrd2Exception {
+        m_pacers.get("xport").acquire();
+        final int numFiles = Math.max(1, m_options.getInt("xport-files"));
+        final List<String> argv = new ArrayList<>();
+        final StringBuilder sum = new StringBuilder("CDEF:sum=");
+        long end = Long.MAX_VALUE;
+        for (int j = 0; j < numFiles; j++) {
+            final int i = ThreadLocalRandom.current().nextInt(m_numFiles);
+            argv.add(String.format("DEF:d%d=%s:ds0:AVERAGE", j, m_filenames[i]));
+            sum.append(j == 0 ? "d0" : ",d" + j + ",ADDNAN");
+            end = Math.min(end, m_timestamps.get(i));
+        }
+        argv.add(sum.toString());
+        argv.add("XPORT:sum");
+        m_jrrd2.xport(end - m_options.getInt("fetch-rows") * STEP, end, STEP, 0, argv.toArray(new String[0]));
+    }
+
+    private boolean report() throws InterruptedException {
+        final long warmupNanos = TimeUnit.SECONDS.toNanos(m_options.getInt("warmup"));
+        final long durationNanos = TimeUnit.SECONDS.toNanos(m_options.getInt("duration"));
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(Math.max(1, m_options.getInt("interval")));
+        final long startNanos = System.nanoTime();
+        final long measureNanos = startNanos + warmupNanos;
+        final long endNanos = measureNanos + durationNanos;
+        long rssBaseline = warmupNanos > 0 ? -1 : rss();
+        long nextReport = startNanos + intervalNanos;
+
+        System.out.printf("%8s %-8s %10s %8s %10s %10s %10s %10s %10s %10s %10s%n", "time(s)", "op", "calls/s",
+                "errors", "p50(us)", "p99(us)", "p99.9(us)", "max(us)", "lag(ms)", "rss(MB)", "heap(MB)");
+        while (true) {
+            final long now = System.nanoTime();
+            if (now >= endNanos) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(nextReport, endNanos) - now);
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            final double intervalSeconds = (double) (System.nanoTime() - (nextReport - intervalNanos)) / 1e9;
+            final boolean measuring = System.nanoTime() > measureNanos;
+            if (measuring && rssBaseline < 0 && warmupNanos > 0) {
+                // The first interval that ends after the warmup is the baseline
+                rssBaseline = rss();
+                resetStats();
+            } else {
+                printInterval(elapsedNanos, intervalSeconds, measuring);
+            }
+            nextReport += intervalNanos;
+        }
+        return summarize(durationNanos, rssBaseline);
+    }
+
+    private void printInterval(long elapsedNanos, double intervalSeconds, boolean measuring) {
+        final long rss = rss();
+        final long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        for (final OperationStatsMXBean stats : m_jrrd2.getOperationStats()) {
+            final Totals totals = m_totals.get(stats.getName());
+            if (totals == null) {
+                continue;
+            }
+            System.out.printf("%8d %-8s %10.1f %8d %10.0f %10.0f %10.0f %10.0f %10d %10s %10d%n",
+                    TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), stats.getName(), stats.getCount() / intervalSeconds,
+                    stats.getErrorCount(), stats.getLatency50thPercentileMicros(), stats.getLatency99thPercentileMicros(),
+                    stats.getLatency999thPercentileMicros(), stats.getMaxLatencyMicros(),
+                    TimeUnit.NANOSECONDS.toMillis(m_pacers.get(stats.getName()).getThenResetMaxLagNanos()),
+                    rss >= 0 ? Long.toString(rss >> 20) : "n/a", heap >> 20);
+            if (measuring) {
+                totals.m_count += stats.getCount();
+                totals.m_errors += stats.getErrorCount();
+                totals.m_worst99thMicros = Math.max(totals.m_worst99thMicros, stats.getLatency99thPercentileMicros());
+                totals.m_maxMicros = Math.max(totals.m_maxMicros, stats.getMaxLatencyMicros());
+                stats.getErrorsByMessage().forEach((message, count) -> totals.m_errorsByMessage.merge(message, count, Long::sum));
+            }
+            stats.reset();
+        }
+    }
+
+    private void resetStats() {
+        for (final OperationStatsMXBean stats : m_jrrd2.getOperationStats()) {
+            stats.reset();
+        }
+        for (final Pacer pacer : m_pacers.values()) {
+            pacer.getThenResetMaxLagNanos();
+        }
+    }
+
+    private boolean summarize(long durationNanos, long rssBaseline) {
+        final double seconds = durationNanos / 1e9;
+        long calls = 0;
+        long errors = 0;
+        System.out.printf("%nSummary over %.0f s:%n", seconds);
+        for (final Map.Entry<String, Totals> entry : m_totals.entrySet()) {
+            final Totals totals = entry.getValue();
+            calls += totals.m_count;
+            errors += totals.m_errors;
+            System.out.printf("  %-8s %12d calls %10.1f calls/s %8d errors, worst p99 %.0f us, max %.0f us%n", entry.getKey(),
+                    totals.m_count, totals.m_count / seconds, totals.m_errors, totals.m_worst99thMicros, totals.m_maxMicros);
+            totals.m_errorsByMessage.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .limit(5)
+                    .forEach(e -> System.out.printf("           %8d x %s%n", e.getValue(), e.getKey()));
+        }
+
+        boolean passed = true;
+        final double errorRate = calls > 0 ? (double) errors / calls : 0;
+        final double maxErrorRate = m_options.getDouble("max-error-rate");
+        System.out.printf("  error rate: %.6f (max %.6f)%n", errorRate, maxErrorRate);
+        if (errorRate > maxErrorRate) {
+            passed = false;
+        }
+
+        final long rss = rss();
+        if (rss >= 0 && rssBaseline >= 0 && seconds > 0) {
+            final double growth = (rss - rssBaseline) / 1048576.0 * 3600 / seconds;
+            final double maxGrowth = m_options.getDouble("max-rss-growth");
+            System.out.printf("  rss: %d MB -> %d MB, %.1f MB/h%s%n", rssBaseline >> 20, rss >> 20, growth,
+                    maxGrowth >= 0 ? String.format(" (max %.1f MB/h)", maxGrowth) : "");
+            if (maxGrowth >= 0 && growth > maxGrowth) {
+                passed = false;
+            }
+        }
+        for (final BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            System.out.printf("  %s buffers: %d, %d MB%n", pool.getName(), pool.getCount(), pool.getMemoryUsed() >> 20);
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        return passed;
+    }
+
+    /**
+     * Returns the resident set size of the process in bytes, or -1 if it is not available.
+     */
+    private static long rss() {
+        try (Stream<String> lines = Files.lines(Paths.get("/proc/self/status"))) {
+            return lines.filter(line -> line.startsWith("VmRSS:"))
+                    .mapToLong(line -> Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024)
+                    .findFirst()
+                    .orElse(-1);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
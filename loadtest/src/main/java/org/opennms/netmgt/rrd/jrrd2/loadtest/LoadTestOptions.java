@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the {@link LoadTest}, given as --name value pairs.
+ */
+public class LoadTestOptions {
+
+    private static final Map<String, String[]> OPTIONS = new LinkedHashMap<>();
+    static {
+        OPTIONS.put("backend", new String[] {"jni", "jni, ffm, mmap or queuing"});
+        OPTIONS.put("dir", new String[] {null, "directory in which the files are created, java.io.tmpdir by default"});
+        OPTIONS.put("files", new String[] {"10000", "number of RRD files"});
+        OPTIONS.put("ds", new String[] {"5", "number of data sources per file"});
+        OPTIONS.put("rows", new String[] {"8640", "number of rows of the AVERAGE archive"});
+        OPTIONS.put("update-threads", new String[] {"8", "threads making updates, each one owns a share of the files"});
+        OPTIONS.put("update-rate", new String[] {"5000", "target updates per second, 0 for as fast as possible"});
+        OPTIONS.put("fetch-threads", new String[] {"4", "threads making fetches"});
+        OPTIONS.put("fetch-rate", new String[] {"500", "target fetches per second, 0 for as fast as possible"});
+        OPTIONS.put("fetch-rows", new String[] {"288", "number of rows per fetch"});
+        OPTIONS.put("xport-threads", new String[] {"1", "threads making xports"});
+        OPTIONS.put("xport-rate", new String[] {"10", "target xports per second, 0 for as fast as possible"});
+        OPTIONS.put("xport-files", new String[] {"4", "number of files summed by each xport"});
+        OPTIONS.put("duration", new String[] {"600", "duration of the run in seconds, after the warmup"});
+        OPTIONS.put("warmup", new String[] {"60", "duration of the warmup in seconds, excluded from the summary"});
+        OPTIONS.put("interval", new String[] {"10", "seconds between reports"});
+        OPTIONS.put("max-error-rate", new String[] {"0", "fail when the ratio of failed calls is higher"});
+        OPTIONS.put("max-rss-growth", new String[] {"-1", "fail when the RSS grows by more MB per hour after the warmup, -1 to disable"});
+        OPTIONS.put("keep-files", new String[] {"false", "keep the files once the run completes"});
+    }
+
+    private final Map<String, String> m_values = new LinkedHashMap<>();
+
+    private LoadTestOptions() {
+        for (final Map.Entry<String, String[]> option : OPTIONS.entrySet()) {
+            m_values.put(option.getKey(), option.getValue()[0]);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if an option is unknown or has no value
+     */
+    public static LoadTestOptions parse(String[] args) {
+        final LoadTestOptions options = new LoadTestOptions();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !OPTIONS.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            options.m_values.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    public static String usage() {
+        final StringBuilder sb = new StringBuilder("Options:\n");
+        for (final Map.Entry<String, String[]> option : OPTIONS.entrySet()) {
+            sb.append(String.format("  --%-16s %s", option.getKey(), option.getValue()[1]));
+            if (option.getValue()[0] != null) {
+                sb.append(" (").append(option.getValue()[0]).append(')');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public String getString(String name) {
+        return m_values.get(name);
+    }
+
+    public int getInt(String name) {
+        final int value = Integer.parseInt(m_values.get(name));
+        if (value < 0) {
+            throw new IllegalArgumentException("--" + name + " cannot be negative.");
+        }
+        return value;
+    }
+
+    public double getDouble(String name) {
+        return Double.parseDouble(m_values.get(name));
+    }
+
+    public boolean getBoolean(String name) {
+        return Boolean.parseBoolean(m_values.get(name));
+    }
+
+    @Override
+    public String toString() {
+        return m_values.toString();
+    }
+}
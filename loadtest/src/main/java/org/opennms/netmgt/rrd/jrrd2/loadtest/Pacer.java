@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2010-2015 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2015 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is Copyright (C) 2002-2015 The OpenNMS Group, Inc.  All rights
+ * reserved.  OpenNMS(R) is a derivative work, containing both original code,
+ * included code and modified code that was published under the GNU General
+ * Public License.  Copyrights for modified and included code are below.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License with the Classpath
+ * Exception; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.rrd.jrrd2.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spaces the calls of a group of threads to reach a target rate.
+ *
+ * The schedule is fixed ahead of time, so that a slow call delays the following
+ * ones instead of lowering the rate: how far the calls start behind their slot
+ * is reported as the lag, which keeps growing when the target rate cannot be
+ * sustained.
+ */
+class Pacer {
+
+    private final long m_intervalNanos;
+
+    private final AtomicLong m_nextSlot = new AtomicLong(System.nanoTime());
+
+    private final LongAccumulator m_maxLagNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param ratePerSecond target number of calls per second, 0 for no limit
+     */
+    Pacer(double ratePerSecond) {
+        m_intervalNanos = ratePerSecond > 0 ? (long) (1e9 / ratePerSecond) : 0;
+    }
+
+    /**
+     * Waits for the next slot.
+     */
+    void acquire() throws InterruptedException {
+        if (m_intervalNanos == 0) {
+            return;
+        }
+        final long slot = m_nextSlot.getAndAdd(m_intervalNanos);
+        long delay;
+        while ((delay = slot - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        m_maxLagNanos.accumulate(-delay);
+    }
+
+    /**
+     * Returns the maximum lag since the last call, and resets it.
+     */
+    long getThenResetMaxLagNanos() {
+        return m_maxLagNanos.getThenReset();
+    }
+}